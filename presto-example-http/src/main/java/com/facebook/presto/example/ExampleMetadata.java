@@ -21,6 +21,7 @@ import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableHandle;
 import com.facebook.presto.spi.TableNotFoundException;
+import com.facebook.presto.spi.TableStatistics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -147,6 +148,13 @@ public class ExampleMetadata
         return columns.build();
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        return TableStatistics.unknown();
+    }
+
     private ConnectorTableMetadata getTableMetadata(SchemaTableName tableName)
     {
         if (!listSchemaNames().contains(tableName.getSchemaName())) {
@@ -15,9 +15,12 @@ package com.facebook.presto.hive;
 
 import com.facebook.presto.hadoop.shaded.com.google.common.collect.ImmutableSet;
 import com.facebook.presto.spi.ColumnType;
-import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.ColumnarRecordCursor;
+import com.facebook.presto.spi.Domain;
+import com.facebook.presto.spi.TupleDomain;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeUtils;
@@ -35,6 +38,7 @@ import sun.misc.Unsafe;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
@@ -54,7 +58,7 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 class ColumnarBinaryHiveRecordCursor<K>
-        implements RecordCursor
+        implements ColumnarRecordCursor
 {
     private final RecordReader<K, BytesRefArrayWritable> recordReader;
     private final K key;
@@ -78,6 +82,23 @@ class ColumnarBinaryHiveRecordCursor<K>
     private final byte[][] strings;
     private final boolean[] nulls;
 
+    // columns of the effective predicate, which are checked before a row is returned
+    private final int[] predicateColumns;
+    private final Domain[] predicateDomains;
+
+    // values of the current batch, see advanceNextBatch
+    private int batchPositionCount;
+    private boolean[] batchLoaded;
+    private boolean[][] batchNulls;
+    private boolean[][] batchBooleans;
+    private long[][] batchLongs;
+    private double[][] batchDoubles;
+    private byte[][][] batchStrings;
+
+    // raw bytes of the batch columns that have not been parsed yet
+    private byte[][] batchData;
+    private int[][] batchOffsets;
+
     private final long totalBytes;
     private long completedBytes;
     private boolean closed;
@@ -117,7 +138,8 @@ class ColumnarBinaryHiveRecordCursor<K>
             long totalBytes,
             Properties splitSchema,
             List<HivePartitionKey> partitionKeys,
-            List<HiveColumnHandle> columns)
+            List<HiveColumnHandle> columns,
+            TupleDomain effectivePredicate)
     {
         checkNotNull(recordReader, "recordReader is null");
         checkArgument(totalBytes >= 0, "totalBytes is negative");
@@ -125,6 +147,7 @@ class ColumnarBinaryHiveRecordCursor<K>
         checkNotNull(partitionKeys, "partitionKeys is null");
         checkNotNull(columns, "columns is null");
         checkArgument(!columns.isEmpty(), "columns is empty");
+        checkNotNull(effectivePredicate, "effectivePredicate is null");
 
         this.recordReader = recordReader;
         this.totalBytes = totalBytes;
@@ -216,6 +239,21 @@ class ColumnarBinaryHiveRecordCursor<K>
                 }
             }
         }
+
+        // find the requested data columns with a predicate
+        List<Integer> predicateColumns = new ArrayList<>();
+        List<Domain> predicateDomains = new ArrayList<>();
+        if (!effectivePredicate.isNone()) {
+            for (int columnIndex = 0; columnIndex < columns.size(); columnIndex++) {
+                Domain domain = effectivePredicate.getDomains().get(columns.get(columnIndex));
+                if (domain != null && !isPartitionColumn[columnIndex] && !domain.isAll()) {
+                    predicateColumns.add(columnIndex);
+                    predicateDomains.add(domain);
+                }
+            }
+        }
+        this.predicateColumns = Ints.toArray(predicateColumns);
+        this.predicateDomains = predicateDomains.toArray(new Domain[predicateDomains.size()]);
     }
 
     @Override
@@ -246,20 +284,25 @@ class ColumnarBinaryHiveRecordCursor<K>
     public boolean advanceNextPosition()
     {
         try {
-            if (closed || !recordReader.next(key, value)) {
-                close();
-                return false;
-            }
+            while (true) {
+                if (closed || !recordReader.next(key, value)) {
+                    close();
+                    return false;
+                }
 
-            // reset loaded flags
-            // partition keys are already loaded, but everything else is not
-            System.arraycopy(isPartitionColumn, 0, loaded, 0, isPartitionColumn.length);
+                // reset loaded flags
+                // partition keys are already loaded, but everything else is not
+                System.arraycopy(isPartitionColumn, 0, loaded, 0, isPartitionColumn.length);
 
-            // reset null flags
-            // todo this shouldn't be needed
-            Arrays.fill(nulls, false);
+                // reset null flags
+                // todo this shouldn't be needed
+                Arrays.fill(nulls, false);
 
-            return true;
+                // only the predicate columns are parsed here, the other columns are parsed when read
+                if (matchesPredicate()) {
+                    return true;
+                }
+            }
         }
         catch (IOException | RuntimeException e) {
             close();
@@ -267,6 +310,43 @@ class ColumnarBinaryHiveRecordCursor<K>
         }
     }
 
+    private boolean matchesPredicate()
+    {
+        for (int i = 0; i < predicateColumns.length; i++) {
+            int column = predicateColumns[i];
+            if (!loaded[column]) {
+                parseColumn(column);
+            }
+
+            Domain domain = predicateDomains[i];
+            if (nulls[column]) {
+                if (!domain.isNullAllowed()) {
+                    return false;
+                }
+            }
+            else if (!domain.includesValue(getPredicateValue(column))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Comparable<?> getPredicateValue(int column)
+    {
+        switch (types[column]) {
+            case BOOLEAN:
+                return booleans[column];
+            case LONG:
+                return longs[column];
+            case DOUBLE:
+                return doubles[column];
+            case STRING:
+                return new String(strings[column], Charsets.UTF_8);
+            default:
+                throw new UnsupportedOperationException("Unsupported column type: " + types[column]);
+        }
+    }
+
     @Override
     public boolean getBoolean(int fieldId)
     {
@@ -582,6 +662,209 @@ class ColumnarBinaryHiveRecordCursor<K>
         }
     }
 
+    @Override
+    public int advanceNextBatch(int maxPositions)
+    {
+        checkArgument(maxPositions > 0, "maxPositions must be greater than zero");
+
+        // partition keys and predicate columns are parsed for every row by advanceNextPosition
+        int columnCount = types.length;
+        boolean[] parsedColumns = Arrays.copyOf(isPartitionColumn, columnCount);
+        for (int column : predicateColumns) {
+            parsedColumns[column] = true;
+        }
+
+        // the arrays of the previous batch are owned by the caller, so always allocate new ones
+        batchLoaded = new boolean[columnCount];
+        batchNulls = new boolean[columnCount][maxPositions];
+        batchBooleans = new boolean[columnCount][];
+        batchLongs = new long[columnCount][];
+        batchDoubles = new double[columnCount][];
+        batchStrings = new byte[columnCount][][];
+        batchData = new byte[columnCount][];
+        batchOffsets = new int[columnCount][];
+        for (int column = 0; column < columnCount; column++) {
+            switch (types[column]) {
+                case BOOLEAN:
+                    batchBooleans[column] = new boolean[maxPositions];
+                    break;
+                case LONG:
+                    batchLongs[column] = new long[maxPositions];
+                    break;
+                case DOUBLE:
+                    batchDoubles[column] = new double[maxPositions];
+                    break;
+                case STRING:
+                    batchStrings[column] = new byte[maxPositions][];
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported column type: " + types[column]);
+            }
+
+            // the other columns are only copied, and parsed when the column is first read
+            if (!parsedColumns[column]) {
+                batchData[column] = new byte[maxPositions * 8];
+                batchOffsets[column] = new int[maxPositions + 1];
+            }
+            batchLoaded[column] = parsedColumns[column];
+        }
+
+        int position = 0;
+        while (position < maxPositions && advanceNextPosition()) {
+            for (int column = 0; column < columnCount; column++) {
+                if (parsedColumns[column]) {
+                    setBatchValue(column, position);
+                }
+                else {
+                    appendBatchData(column, position);
+                }
+            }
+            position++;
+        }
+        batchPositionCount = position;
+        return position;
+    }
+
+    private void setBatchValue(int column, int position)
+    {
+        if (nulls[column]) {
+            batchNulls[column][position] = true;
+            return;
+        }
+        switch (types[column]) {
+            case BOOLEAN:
+                batchBooleans[column][position] = booleans[column];
+                break;
+            case LONG:
+                batchLongs[column][position] = longs[column];
+                break;
+            case DOUBLE:
+                batchDoubles[column][position] = doubles[column];
+                break;
+            case STRING:
+                batchStrings[column][position] = strings[column];
+                break;
+        }
+    }
+
+    private void appendBatchData(int column, int position)
+    {
+        int[] offsets = batchOffsets[column];
+        int offset = offsets[position];
+
+        if (hiveColumnIndexes[column] >= value.size()) {
+            // this partition may contain fewer fields than what's declared in the schema
+            // this happens when additional columns are added to the hive table after a partition has been created
+            batchNulls[column][position] = true;
+            offsets[position + 1] = offset;
+            return;
+        }
+
+        BytesRefWritable fieldData = value.unCheckedGet(hiveColumnIndexes[column]);
+
+        byte[] bytes;
+        try {
+            bytes = fieldData.getData();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        int start = fieldData.getStart();
+        int length = fieldData.getLength();
+
+        byte[] data = batchData[column];
+        if (offset + length > data.length) {
+            data = Arrays.copyOf(data, max(offset + length, data.length * 2));
+            batchData[column] = data;
+        }
+        System.arraycopy(bytes, start, data, offset, length);
+        offsets[position + 1] = offset + length;
+    }
+
+    private void loadBatchColumn(int column)
+    {
+        checkState(batchLoaded != null, "No batch has been read");
+        if (batchLoaded[column]) {
+            return;
+        }
+        batchLoaded[column] = true;
+
+        byte[] data = batchData[column];
+        int[] offsets = batchOffsets[column];
+        boolean[] columnNulls = batchNulls[column];
+        for (int position = 0; position < batchPositionCount; position++) {
+            if (columnNulls[position]) {
+                continue;
+            }
+
+            int start = offsets[position];
+            int length = offsets[position + 1] - start;
+            switch (types[column]) {
+                case BOOLEAN:
+                    parseBooleanColumn(column, data, start, length);
+                    batchBooleans[column][position] = booleans[column];
+                    break;
+                case LONG:
+                    parseLongColumn(column, data, start, length);
+                    batchLongs[column][position] = longs[column];
+                    break;
+                case DOUBLE:
+                    parseDoubleColumn(column, data, start, length);
+                    batchDoubles[column][position] = doubles[column];
+                    break;
+                case STRING:
+                    parseStringColumn(column, data, start, length);
+                    batchStrings[column][position] = strings[column];
+                    break;
+            }
+            columnNulls[position] = nulls[column];
+        }
+
+        // the raw bytes are no longer needed
+        batchData[column] = null;
+        batchOffsets[column] = null;
+    }
+
+    @Override
+    public boolean[] getNulls(int field)
+    {
+        loadBatchColumn(field);
+        return batchNulls[field];
+    }
+
+    @Override
+    public boolean[] getBooleans(int field)
+    {
+        validateType(field, ColumnType.BOOLEAN);
+        loadBatchColumn(field);
+        return batchBooleans[field];
+    }
+
+    @Override
+    public long[] getLongs(int field)
+    {
+        validateType(field, ColumnType.LONG);
+        loadBatchColumn(field);
+        return batchLongs[field];
+    }
+
+    @Override
+    public double[] getDoubles(int field)
+    {
+        validateType(field, ColumnType.DOUBLE);
+        loadBatchColumn(field);
+        return batchDoubles[field];
+    }
+
+    @Override
+    public byte[][] getStrings(int field)
+    {
+        validateType(field, ColumnType.STRING);
+        loadBatchColumn(field);
+        return batchStrings[field];
+    }
+
     private void validateType(int fieldId, ColumnType type)
     {
         if (types[fieldId] != type) {
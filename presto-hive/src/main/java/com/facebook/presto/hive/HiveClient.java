@@ -16,6 +16,7 @@ package com.facebook.presto.hive;
 import com.facebook.presto.hadoop.HadoopNative;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ColumnStatistics;
 import com.facebook.presto.spi.ConnectorHandleResolver;
 import com.facebook.presto.spi.ConnectorMetadata;
 import com.facebook.presto.spi.ConnectorRecordSetProvider;
@@ -32,6 +33,7 @@ import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.Split;
 import com.facebook.presto.spi.TableHandle;
 import com.facebook.presto.spi.TableNotFoundException;
+import com.facebook.presto.spi.TableStatistics;
 import com.facebook.presto.spi.TupleDomain;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
@@ -102,6 +104,9 @@ public class HiveClient
 
     private static final Logger log = Logger.get(HiveClient.class);
 
+    // the table parameter in which Hive records the row count of an analyzed table
+    private static final String ROW_COUNT_PARAMETER = "numRows";
+
     private final String connectorId;
     private final int maxOutstandingSplits;
     private final int maxSplitIteratorThreads;
@@ -317,6 +322,33 @@ public class HiveClient
         return ImmutableList.of(new SchemaTableName(prefix.getSchemaName(), prefix.getTableName()));
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        SchemaTableName tableName = getTableName(tableHandle);
+        try {
+            Table table = metastore.getTable(tableName.getSchemaName(), tableName.getTableName());
+
+            // the row count is only recorded for unpartitioned tables that have been analyzed, and is -1 when unknown
+            String rowCount = table.getParameters().get(ROW_COUNT_PARAMETER);
+            if (rowCount == null || !table.getPartitionKeys().isEmpty()) {
+                return TableStatistics.unknown();
+            }
+            long value = parseLong(rowCount);
+            if (value < 0) {
+                return TableStatistics.unknown();
+            }
+            return new TableStatistics(value, ImmutableMap.<ColumnHandle, ColumnStatistics>of());
+        }
+        catch (NoSuchObjectException e) {
+            throw new TableNotFoundException(tableName);
+        }
+        catch (NumberFormatException e) {
+            return TableStatistics.unknown();
+        }
+    }
+
     @Override
     public ColumnMetadata getColumnMetadata(TableHandle tableHandle, ColumnHandle columnHandle)
     {
@@ -423,20 +455,20 @@ public class HiveClient
             throw new TableNotFoundException(tableName);
         }
 
-        // do a final pass to filter based on fields that could not be used to build the prefix
-        Map<String, ColumnHandle> partitionKeysByName = partitionKeysByNameBuilder.build();
-        List<Partition> partitions = FluentIterable.from(partitionNames)
-                .transform(toPartition(tableName, partitionKeysByName, bucket))
-                .filter(partitionMatches(tupleDomain))
-                .filter(Partition.class)
-                .toList();
-
         // All partition key domains will be fully evaluated, so we don't need to include those
+        Map<String, ColumnHandle> partitionKeysByName = partitionKeysByNameBuilder.build();
         TupleDomain remainingTupleDomain = TupleDomain.none();
         if (!tupleDomain.isNone()) {
             remainingTupleDomain = TupleDomain.withColumnDomains(Maps.filterKeys(tupleDomain.getDomains(), not(in(partitionKeysByName.values()))));
         }
 
+        // do a final pass to filter based on fields that could not be used to build the prefix
+        List<Partition> partitions = FluentIterable.from(partitionNames)
+                .transform(toPartition(tableName, partitionKeysByName, bucket, remainingTupleDomain))
+                .filter(partitionMatches(tupleDomain))
+                .filter(Partition.class)
+                .toList();
+
         return new PartitionResult(partitions, remainingTupleDomain);
     }
 
@@ -452,6 +484,7 @@ public class HiveClient
         checkArgument(partition instanceof HivePartition, "Partition must be a hive partition");
         SchemaTableName tableName = ((HivePartition) partition).getTableName();
         Optional<HiveBucket> bucket = ((HivePartition) partition).getBucket();
+        TupleDomain effectivePredicate = ((HivePartition) partition).getEffectivePredicate();
 
         List<String> partitionNames = new ArrayList<>(Lists.transform(partitions, HiveUtil.partitionIdGetter()));
         Collections.sort(partitionNames, Ordering.natural().reverse());
@@ -476,7 +509,8 @@ public class HiveClient
                 maxSplitIteratorThreads,
                 hdfsEnvironment,
                 executor,
-                maxPartitionBatchSize);
+                maxPartitionBatchSize,
+                effectivePredicate);
     }
 
     private Iterable<org.apache.hadoop.hive.metastore.api.Partition> getPartitions(final Table table, final SchemaTableName tableName, List<String> partitionNames)
@@ -588,7 +622,8 @@ public class HiveClient
     private static Function<String, HivePartition> toPartition(
             final SchemaTableName tableName,
             final Map<String, ColumnHandle> columnsByName,
-            final Optional<HiveBucket> bucket)
+            final Optional<HiveBucket> bucket,
+            final TupleDomain effectivePredicate)
     {
         return new Function<String, HivePartition>()
         {
@@ -597,7 +632,7 @@ public class HiveClient
             {
                 try {
                     if (partitionId.equals(UNPARTITIONED_ID)) {
-                        return new HivePartition(tableName);
+                        return new HivePartition(tableName, effectivePredicate);
                     }
 
                     LinkedHashMap<String, String> keys = Warehouse.makeSpecFromName(partitionId);
@@ -643,7 +678,7 @@ public class HiveClient
                         }
                     }
 
-                    return new HivePartition(tableName, partitionId, builder.build(), bucket);
+                    return new HivePartition(tableName, partitionId, builder.build(), bucket, effectivePredicate);
                 }
                 catch (MetaException e) {
                     // invalid partition id
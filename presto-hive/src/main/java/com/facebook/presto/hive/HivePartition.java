@@ -35,21 +35,34 @@ public class HivePartition
     private final String partitionId;
     private final Map<ColumnHandle, Comparable<?>> keys;
     private final Optional<HiveBucket> bucket;
+    private final TupleDomain effectivePredicate;
 
     public HivePartition(SchemaTableName tableName)
+    {
+        this(tableName, TupleDomain.all());
+    }
+
+    public HivePartition(SchemaTableName tableName, TupleDomain effectivePredicate)
     {
         this.tableName = checkNotNull(tableName, "tableName is null");
         this.partitionId = UNPARTITIONED_ID;
         this.keys = ImmutableMap.of();
         this.bucket = Optional.absent();
+        this.effectivePredicate = checkNotNull(effectivePredicate, "effectivePredicate is null");
     }
 
     public HivePartition(SchemaTableName tableName, String partitionId, Map<ColumnHandle, Comparable<?>> keys, Optional<HiveBucket> bucket)
+    {
+        this(tableName, partitionId, keys, bucket, TupleDomain.all());
+    }
+
+    public HivePartition(SchemaTableName tableName, String partitionId, Map<ColumnHandle, Comparable<?>> keys, Optional<HiveBucket> bucket, TupleDomain effectivePredicate)
     {
         this.tableName = checkNotNull(tableName, "tableName is null");
         this.partitionId = checkNotNull(partitionId, "partitionId is null");
         this.keys = ImmutableMap.copyOf(checkNotNull(keys, "keys is null"));
         this.bucket = checkNotNull(bucket, "bucket number is null");
+        this.effectivePredicate = checkNotNull(effectivePredicate, "effectivePredicate is null");
     }
 
     public SchemaTableName getTableName()
@@ -79,6 +92,14 @@ public class HivePartition
         return bucket;
     }
 
+    /**
+     * Gets the part of the query predicate that is not satisfied by the partition keys.
+     */
+    public TupleDomain getEffectivePredicate()
+    {
+        return effectivePredicate;
+    }
+
     @Override
     public int hashCode()
     {
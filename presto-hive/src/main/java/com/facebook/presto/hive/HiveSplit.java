@@ -15,6 +15,7 @@ package com.facebook.presto.hive;
 
 import com.facebook.presto.spi.HostAddress;
 import com.facebook.presto.spi.PartitionedSplit;
+import com.facebook.presto.spi.TupleDomain;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
@@ -41,6 +42,7 @@ public class HiveSplit
     private final List<HostAddress> addresses;
     private final String database;
     private final String table;
+    private final TupleDomain effectivePredicate;
 
     @JsonCreator
     public HiveSplit(
@@ -54,7 +56,8 @@ public class HiveSplit
             @JsonProperty("length") long length,
             @JsonProperty("schema") Properties schema,
             @JsonProperty("partitionKeys") List<HivePartitionKey> partitionKeys,
-            @JsonProperty("addresses") List<HostAddress> addresses)
+            @JsonProperty("addresses") List<HostAddress> addresses,
+            @JsonProperty("effectivePredicate") TupleDomain effectivePredicate)
     {
         checkNotNull(clientId, "clientId is null");
         checkArgument(start >= 0, "start must be positive");
@@ -66,6 +69,7 @@ public class HiveSplit
         checkNotNull(schema, "schema is null");
         checkNotNull(partitionKeys, "partitionKeys is null");
         checkNotNull(addresses, "addresses is null");
+        checkNotNull(effectivePredicate, "effectivePredicate is null");
 
         this.clientId = clientId;
         this.database = database;
@@ -78,6 +82,7 @@ public class HiveSplit
         this.schema = schema;
         this.partitionKeys = ImmutableList.copyOf(partitionKeys);
         this.addresses = ImmutableList.copyOf(addresses);
+        this.effectivePredicate = effectivePredicate;
     }
 
     @JsonProperty
@@ -150,6 +155,16 @@ public class HiveSplit
         return addresses;
     }
 
+    /**
+     * Gets the part of the query predicate on the non-partition columns.
+     * Rows that do not match the predicate can be skipped by the record cursor.
+     */
+    @JsonProperty
+    public TupleDomain getEffectivePredicate()
+    {
+        return effectivePredicate;
+    }
+
     @Override
     public boolean isRemotelyAccessible()
     {
@@ -196,6 +211,7 @@ public class HiveSplit
                 split.getLength(),
                 split.getSchema(),
                 split.getPartitionKeys(),
-                split.getAddresses());
+                split.getAddresses(),
+                split.getEffectivePredicate());
     }
 }
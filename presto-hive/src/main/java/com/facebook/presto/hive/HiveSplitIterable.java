@@ -19,6 +19,7 @@ import com.facebook.presto.hive.util.FileStatusCallback;
 import com.facebook.presto.hive.util.SuspendingExecutor;
 import com.facebook.presto.spi.HostAddress;
 import com.facebook.presto.spi.Split;
+import com.facebook.presto.spi.TupleDomain;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
@@ -117,6 +118,7 @@ class HiveSplitIterable
     private final ClassLoader classLoader;
     private final DataSize maxSplitSize;
     private final int maxPartitionBatchSize;
+    private final TupleDomain effectivePredicate;
 
     HiveSplitIterable(String clientId,
             Table table,
@@ -128,7 +130,8 @@ class HiveSplitIterable
             int maxThreads,
             HdfsEnvironment hdfsEnvironment,
             ExecutorService executor,
-            int maxPartitionBatchSize)
+            int maxPartitionBatchSize,
+            TupleDomain effectivePredicate)
     {
         this.clientId = clientId;
         this.table = table;
@@ -137,6 +140,7 @@ class HiveSplitIterable
         this.bucket = bucket;
         this.maxSplitSize = maxSplitSize;
         this.maxPartitionBatchSize = maxPartitionBatchSize;
+        this.effectivePredicate = checkNotNull(effectivePredicate, "effectivePredicate is null");
         this.maxOutstandingSplits = maxOutstandingSplits;
         this.maxThreads = maxThreads;
         this.hdfsEnvironment = hdfsEnvironment;
@@ -355,7 +359,8 @@ class HiveSplitIterable
                             chunkLength,
                             schema,
                             partitionKeys,
-                            addresses));
+                            addresses,
+                            effectivePredicate));
 
                     chunkOffset += chunkLength;
                 }
@@ -374,7 +379,8 @@ class HiveSplitIterable
                     length,
                     schema,
                     partitionKeys,
-                    toHostAddress(blockLocations[0].getHosts())));
+                    toHostAddress(blockLocations[0].getHosts()),
+                    effectivePredicate));
         }
         return builder.build();
     }
@@ -13,7 +13,10 @@
  */
 package com.facebook.presto.hive;
 
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.Domain;
 import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.TupleDomain;
 import org.apache.hadoop.hive.ql.io.RCFileInputFormat;
 import org.apache.hadoop.hive.ql.io.RCFileOutputFormat;
 import org.apache.hadoop.hive.serde2.SerDe;
@@ -24,12 +27,15 @@ import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import com.google.common.collect.ImmutableMap;
 import org.testng.annotations.Test;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Properties;
 
+import static org.testng.Assert.assertFalse;
+
 public class TestHiveFileFormats
         extends AbstractTestHiveFileFormats
 {
@@ -49,7 +55,7 @@ public class TestHiveFileFormats
             splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.ColumnarSerDe");
             splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
             splitProperties.setProperty("columns.types", COLUMN_TYPES);
-            RecordCursor cursor = new ColumnarTextHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns());
+            RecordCursor cursor = new ColumnarTextHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns(), TupleDomain.all());
 
             checkCursor(cursor, true);
         }
@@ -74,7 +80,7 @@ public class TestHiveFileFormats
             splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.LazyBinaryColumnarSerDe");
             splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
             splitProperties.setProperty("columns.types", COLUMN_TYPES);
-            RecordCursor cursor = new ColumnarBinaryHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns());
+            RecordCursor cursor = new ColumnarBinaryHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns(), TupleDomain.all());
 
             checkCursor(cursor, true);
         }
@@ -82,4 +88,37 @@ public class TestHiveFileFormats
             file.delete();
         }
     }
+
+    @Test
+    public void testRCBinaryEffectivePredicate()
+            throws Exception
+    {
+        JobConf jobConf = new JobConf();
+        final RCFileOutputFormat outputFormat = new RCFileOutputFormat();
+        final RCFileInputFormat inputFormat = new RCFileInputFormat();
+        final SerDe serde = new LazyBinaryColumnarSerDe();
+        File file = File.createTempFile("presto_test", "rc-binary");
+        try {
+            FileSplit split = createTestFile(file.getAbsolutePath(), outputFormat, serde, null);
+            Properties splitProperties = new Properties();
+            splitProperties.setProperty("serialization.lib", "org.apache.hadoop.hive.serde2.columnar.LazyBinaryColumnarSerDe");
+            splitProperties.setProperty("columns", COLUMN_NAMES_STRING);
+            splitProperties.setProperty("columns.types", COLUMN_TYPES);
+
+            // the first column is always null, so a null predicate matches every row
+            RecordReader<?, BytesRefArrayWritable> recordReader = (RecordReader<?, BytesRefArrayWritable>) inputFormat.getRecordReader(split, jobConf, Reporter.NULL);
+            TupleDomain onlyNull = TupleDomain.withColumnDomains(ImmutableMap.<ColumnHandle, Domain>of(getColumns().get(0), Domain.onlyNull(String.class)));
+            RecordCursor cursor = new ColumnarBinaryHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns(), onlyNull);
+            checkCursor(cursor, true);
+
+            // and a not null predicate matches no rows
+            recordReader = (RecordReader<?, BytesRefArrayWritable>) inputFormat.getRecordReader(split, jobConf, Reporter.NULL);
+            TupleDomain notNull = TupleDomain.withColumnDomains(ImmutableMap.<ColumnHandle, Domain>of(getColumns().get(0), Domain.notNull(String.class)));
+            cursor = new ColumnarBinaryHiveRecordCursor<>(recordReader, split.getLength(), splitProperties, new ArrayList<HivePartitionKey>(), getColumns(), notNull);
+            assertFalse(cursor.advanceNextPosition());
+        }
+        finally {
+            file.delete();
+        }
+    }
 }
@@ -14,6 +14,7 @@
 package com.facebook.presto.hive;
 
 import com.facebook.presto.spi.HostAddress;
+import com.facebook.presto.spi.TupleDomain;
 import com.google.common.collect.ImmutableList;
 import io.airlift.json.JsonCodec;
 import org.testng.annotations.Test;
@@ -35,7 +36,7 @@ public class TestHiveSplit
 
         ImmutableList<HivePartitionKey> partitionKeys = ImmutableList.of(new HivePartitionKey("a", HiveType.STRING, "apple"), new HivePartitionKey("b", HiveType.LONG, "42"));
         ImmutableList<HostAddress> addresses = ImmutableList.of(HostAddress.fromParts("127.0.0.1", 44), HostAddress.fromParts("127.0.0.1", 45));
-        HiveSplit expected = new HiveSplit("clientId", "db", "table", "partitionId", true, "path", 42, 88, schema, partitionKeys, addresses);
+        HiveSplit expected = new HiveSplit("clientId", "db", "table", "partitionId", true, "path", 42, 88, schema, partitionKeys, addresses, TupleDomain.all());
 
         String json = codec.toJson(expected);
         HiveSplit actual = codec.fromJson(json);
@@ -49,5 +50,6 @@ public class TestHiveSplit
         assertEquals(actual.getSchema(), expected.getSchema());
         assertEquals(actual.getPartitionKeys(), expected.getPartitionKeys());
         assertEquals(actual.getAddresses(), expected.getAddresses());
+        assertEquals(actual.getEffectivePredicate(), expected.getEffectivePredicate());
     }
 }
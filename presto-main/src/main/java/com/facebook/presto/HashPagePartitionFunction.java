@@ -23,15 +23,20 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import io.airlift.slice.Slice;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
 import static com.google.common.base.Preconditions.checkState;
 
 public final class HashPagePartitionFunction
         implements PagePartitionFunction
 {
+    private static final long MIN_PARTITION_PAGE_SIZE = new DataSize(4, Unit.KILOBYTE).toBytes();
+
     private final int partition;
     private final int partitionCount;
     private final int partitioningChannel;
@@ -83,6 +88,8 @@ public final class HashPagePartitionFunction
             for (int i = 0; i < cursors.length; i++) {
                 cursors[i] = page.getBlock(i).cursor();
             }
+            // the partition is computed from the raw bytes of the decoded key
+            cursors[partitioningChannel] = toUncompressedBlock(page.getBlock(partitioningChannel)).cursor();
             // for each position
             for (int position = 0; position < page.getPositionCount(); position++) {
                 // advance all cursors
@@ -91,7 +98,7 @@ public final class HashPagePartitionFunction
                 }
 
                 // if hash is not in range skip
-                int partitionHashBucket = getPartitionHashBucket(tupleInfos, cursors);
+                int partitionHashBucket = getPartitionHashBucket(tupleInfos, cursors[partitioningChannel]);
                 if (partitionHashBucket != partition) {
                     continue;
                 }
@@ -115,9 +122,84 @@ public final class HashPagePartitionFunction
         return partitionedPages.build();
     }
 
-    private int getPartitionHashBucket(List<TupleInfo> tupleInfos, BlockCursor[] cursors)
+    /**
+     * Splits the pages into the rows of every partition, hashing each row
+     * once.  This is equivalent to calling {@link #partition} with every
+     * partition number, but does not scan the pages once per partition.
+     *
+     * @return the pages of each partition, indexed by partition number
+     */
+    public List<List<Page>> partitionAll(List<Page> pages)
+    {
+        List<ImmutableList.Builder<Page>> partitionedPages = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitionedPages.add(ImmutableList.<Page>builder());
+        }
+
+        if (!pages.isEmpty()) {
+            List<TupleInfo> tupleInfos = getTupleInfos(pages);
+            for (Page page : pages) {
+                int positionCount = page.getPositionCount();
+
+                // compute the partition of each row
+                int[] partitions = new int[positionCount];
+                int[] partitionSizes = new int[partitionCount];
+                BlockCursor partitioningCursor = toUncompressedBlock(page.getBlock(partitioningChannel)).cursor();
+                for (int position = 0; position < positionCount; position++) {
+                    partitioningCursor.advanceNextPosition();
+                    partitions[position] = getPartitionHashBucket(tupleInfos, partitioningCursor);
+                    partitionSizes[partitions[position]]++;
+                }
+
+                // size each builder for its share of the page, so a high partition count does not allocate a full page per partition
+                PageBuilder[] pageBuilders = new PageBuilder[partitionCount];
+                for (int partition = 0; partition < partitionCount; partition++) {
+                    if (partitionSizes[partition] > 0) {
+                        long expectedSize = page.getDataSize().toBytes() * partitionSizes[partition] / positionCount;
+                        pageBuilders[partition] = new PageBuilder(tupleInfos, new DataSize(Math.max(expectedSize * 2, MIN_PARTITION_PAGE_SIZE), Unit.BYTE));
+                    }
+                }
+
+                BlockCursor[] cursors = new BlockCursor[tupleInfos.size()];
+                for (int i = 0; i < cursors.length; i++) {
+                    cursors[i] = page.getBlock(i).cursor();
+                }
+                for (int position = 0; position < positionCount; position++) {
+                    for (BlockCursor cursor : cursors) {
+                        cursor.advanceNextPosition();
+                    }
+
+                    int partition = partitions[position];
+                    PageBuilder pageBuilder = pageBuilders[partition];
+                    for (int channel = 0; channel < cursors.length; channel++) {
+                        pageBuilder.getBlockBuilder(channel).append(cursors[channel]);
+                    }
+
+                    if (pageBuilder.isFull()) {
+                        partitionedPages.get(partition).add(pageBuilder.build());
+                        pageBuilder.reset();
+                    }
+                }
+
+                for (int partition = 0; partition < partitionCount; partition++) {
+                    PageBuilder pageBuilder = pageBuilders[partition];
+                    if (pageBuilder != null && !pageBuilder.isEmpty()) {
+                        partitionedPages.get(partition).add(pageBuilder.build());
+                    }
+                }
+            }
+        }
+
+        ImmutableList.Builder<List<Page>> result = ImmutableList.builder();
+        for (ImmutableList.Builder<Page> partition : partitionedPages) {
+            result.add(partition.build());
+        }
+        return result.build();
+    }
+
+    private int getPartitionHashBucket(List<TupleInfo> tupleInfos, BlockCursor partitionedCursor)
     {
-        long hashCode = getPartitionedHashCode(tupleInfos, cursors[partitioningChannel]) & 0xFFFF_FFFFL;
+        long hashCode = getPartitionedHashCode(tupleInfos, partitionedCursor) & 0xFFFF_FFFFL;
         int bucket = (int) (hashCode % partitionCount);
         checkState(bucket >= 0 && bucket < partitionCount);
         return bucket;
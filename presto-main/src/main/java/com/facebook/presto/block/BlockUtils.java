@@ -13,6 +13,9 @@
  */
 package com.facebook.presto.block;
 
+import com.facebook.presto.block.columnar.AbstractColumnarBlock;
+import com.facebook.presto.block.columnar.LazyBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Optional;
@@ -129,6 +132,32 @@ public class BlockUtils
         }
     }
 
+    /**
+     * Returns the block in the row-wise uncompressed format.  Columnar blocks
+     * are converted, and dictionary and run length encoded blocks are decoded.
+     */
+    public static UncompressedBlock toUncompressedBlock(Block block)
+    {
+        Preconditions.checkNotNull(block, "block is null");
+        if (block instanceof AbstractColumnarBlock) {
+            return ((AbstractColumnarBlock) block).toUncompressedBlock();
+        }
+        if (block instanceof LazyBlock) {
+            return toUncompressedBlock(((LazyBlock) block).getBlock());
+        }
+        if (block instanceof UncompressedBlock) {
+            return (UncompressedBlock) block;
+        }
+
+        // decode other encodings, such as dictionary, run length and snappy blocks
+        BlockBuilder blockBuilder = new BlockBuilder(block.getTupleInfo());
+        BlockCursor cursor = block.cursor();
+        while (cursor.advanceNextPosition()) {
+            cursor.appendTupleTo(blockBuilder);
+        }
+        return blockBuilder.build();
+    }
+
     public static Iterable<Tuple> toTupleIterable(Block block)
     {
         Preconditions.checkNotNull(block, "block is null");
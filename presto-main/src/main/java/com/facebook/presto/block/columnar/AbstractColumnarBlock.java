@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.serde.UncompressedBlockEncoding;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Objects;
+import io.airlift.units.DataSize;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * A single field block that stores its values in a primitive array per type
+ * instead of row-wise in a slice.  The arrays are exposed directly so
+ * operators and aggregations can process the whole block in a tight loop.
+ * <p/>
+ * Code that requires the row format, such as hashing and serialization,
+ * uses an uncompressed copy of the block which is created on first use.
+ */
+public abstract class AbstractColumnarBlock
+        implements Block
+{
+    private final TupleInfo tupleInfo;
+    private final int positionCount;
+    private final boolean[] valueIsNull;
+
+    @GuardedBy("this")
+    private UncompressedBlock uncompressedBlock;
+    @GuardedBy("this")
+    private int[] rowOffsets;
+
+    protected AbstractColumnarBlock(TupleInfo tupleInfo, int positionCount, boolean[] valueIsNull)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+        checkArgument(tupleInfo.getFieldCount() == 1, "tupleInfo must have a single field");
+        checkArgument(positionCount >= 0, "positionCount is negative");
+        checkNotNull(valueIsNull, "valueIsNull is null");
+        checkArgument(valueIsNull.length >= positionCount, "valueIsNull length is less than positionCount");
+
+        this.positionCount = positionCount;
+        this.valueIsNull = valueIsNull;
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public int getPositionCount()
+    {
+        return positionCount;
+    }
+
+    /**
+     * Gets the null flags of this block.  The array may be longer than the
+     * position count, and must not be modified.
+     */
+    public boolean[] getValueIsNull()
+    {
+        return valueIsNull;
+    }
+
+    public boolean isNull(int position)
+    {
+        checkElementIndex(position, positionCount, "position");
+        return valueIsNull[position];
+    }
+
+    /**
+     * Appends the value at the specified position to the block builder.
+     */
+    public abstract void appendTo(int position, BlockBuilder blockBuilder);
+
+    /**
+     * Copies the values at the specified positions into a new block of the
+     * same type.  The positions must be in the range of this block.
+     */
+    public abstract AbstractColumnarBlock copyPositions(int[] positions, int length);
+
+    protected boolean[] copyValueIsNull(int[] positions, int length)
+    {
+        checkPositionIndex(length, positions.length, "length");
+        boolean[] newValueIsNull = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            newValueIsNull[i] = valueIsNull[positions[i]];
+        }
+        return newValueIsNull;
+    }
+
+    protected abstract long getValuesSizeInBytes();
+
+    @Override
+    public DataSize getDataSize()
+    {
+        return new DataSize(getValuesSizeInBytes() + sizeOf(valueIsNull), DataSize.Unit.BYTE);
+    }
+
+    @Override
+    public BlockCursor cursor()
+    {
+        return new ColumnarBlockCursor(this);
+    }
+
+    @Override
+    public UncompressedBlockEncoding getEncoding()
+    {
+        return new UncompressedBlockEncoding(tupleInfo);
+    }
+
+    @Override
+    public Block getRegion(int positionOffset, int length)
+    {
+        checkPositionIndexes(positionOffset, positionOffset + length, positionCount);
+        return copyRegion(positionOffset, length);
+    }
+
+    protected abstract Block copyRegion(int positionOffset, int length);
+
+    /**
+     * Returns this block in the row-wise format.  The uncompressed block is
+     * created on the first call, and shared with all cursors of this block.
+     */
+    public synchronized UncompressedBlock toUncompressedBlock()
+    {
+        if (uncompressedBlock == null) {
+            BlockBuilder blockBuilder = new BlockBuilder(tupleInfo);
+            rowOffsets = new int[positionCount];
+            for (int position = 0; position < positionCount; position++) {
+                rowOffsets[position] = blockBuilder.size();
+                appendTo(position, blockBuilder);
+            }
+            uncompressedBlock = blockBuilder.build();
+        }
+        return uncompressedBlock;
+    }
+
+    /**
+     * Gets the offset of each position in the slice of the uncompressed block.
+     */
+    synchronized int[] getRowOffsets()
+    {
+        toUncompressedBlock();
+        return rowOffsets;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("positionCount", positionCount)
+                .add("tupleInfo", tupleInfo)
+                .toString();
+    }
+}
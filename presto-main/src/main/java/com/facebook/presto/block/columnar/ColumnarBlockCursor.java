@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Preconditions;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+public class ColumnarBlockCursor
+        implements BlockCursor
+{
+    private final AbstractColumnarBlock block;
+    private final int positionCount;
+
+    private int position = -1;
+
+    // row format of the block, only created when raw access is requested
+    private Slice rawSlice;
+    private int[] rowOffsets;
+
+    public ColumnarBlockCursor(AbstractColumnarBlock block)
+    {
+        this.block = Preconditions.checkNotNull(block, "block is null");
+        this.positionCount = block.getPositionCount();
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return block.getTupleInfo();
+    }
+
+    @Override
+    public int getRemainingPositions()
+    {
+        return positionCount - (position + 1);
+    }
+
+    @Override
+    public boolean isValid()
+    {
+        return 0 <= position && position < positionCount;
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return position >= positionCount;
+    }
+
+    private void checkReadablePosition()
+    {
+        Preconditions.checkState(isValid(), "cursor is not valid");
+    }
+
+    @Override
+    public boolean advanceNextPosition()
+    {
+        if (position >= positionCount - 1) {
+            position = positionCount;
+            return false;
+        }
+
+        position++;
+        return true;
+    }
+
+    @Override
+    public boolean advanceToPosition(int newPosition)
+    {
+        // if new position is out of range, return false
+        if (newPosition >= positionCount) {
+            position = positionCount;
+            return false;
+        }
+
+        Preconditions.checkArgument(newPosition >= this.position, "Can't advance backwards");
+
+        position = newPosition;
+        return true;
+    }
+
+    @Override
+    public Block getRegionAndAdvance(int length)
+    {
+        // view port starts at next position
+        int startPosition = position + 1;
+        length = Math.min(length, getRemainingPositions());
+
+        // advance to end of view port
+        position += length;
+
+        return block.getRegion(startPosition, length);
+    }
+
+    @Override
+    public int getPosition()
+    {
+        checkReadablePosition();
+        return position;
+    }
+
+    @Override
+    public Tuple getTuple()
+    {
+        checkReadablePosition();
+
+        Slice slice = getRawSlice();
+        int offset = getRawOffset();
+        int size = block.getTupleInfo().size(slice, offset);
+
+        Slice copy = Slices.allocate(size);
+        copy.setBytes(0, slice, offset, size);
+        return new Tuple(copy, block.getTupleInfo());
+    }
+
+    @Override
+    public boolean getBoolean(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        if (!(block instanceof BooleanArrayBlock)) {
+            throw new UnsupportedOperationException();
+        }
+        return ((BooleanArrayBlock) block).getBoolean(position);
+    }
+
+    @Override
+    public long getLong(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        if (!(block instanceof LongArrayBlock)) {
+            throw new UnsupportedOperationException();
+        }
+        return ((LongArrayBlock) block).getLong(position);
+    }
+
+    @Override
+    public double getDouble(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        if (!(block instanceof DoubleArrayBlock)) {
+            throw new UnsupportedOperationException();
+        }
+        return ((DoubleArrayBlock) block).getDouble(position);
+    }
+
+    @Override
+    public Slice getSlice(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        if (!(block instanceof VariableWidthBlock)) {
+            throw new UnsupportedOperationException();
+        }
+        return ((VariableWidthBlock) block).getSlice(position);
+    }
+
+    @Override
+    public boolean isNull(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        return block.getValueIsNull()[position];
+    }
+
+    @Override
+    public boolean currentTupleEquals(Tuple value)
+    {
+        checkReadablePosition();
+        Slice slice = getRawSlice();
+        int offset = getRawOffset();
+        int size = block.getTupleInfo().size(slice, offset);
+
+        Slice tupleSlice = value.getTupleSlice();
+        return tupleSlice.equals(0, tupleSlice.length(), slice, offset, size);
+    }
+
+    @Override
+    public int getRawOffset()
+    {
+        checkReadablePosition();
+        if (rowOffsets == null) {
+            rowOffsets = block.getRowOffsets();
+        }
+        return rowOffsets[position];
+    }
+
+    @Override
+    public Slice getRawSlice()
+    {
+        if (rawSlice == null) {
+            rawSlice = block.toUncompressedBlock().getSlice();
+        }
+        return rawSlice;
+    }
+
+    @Override
+    public void appendTupleTo(BlockBuilder blockBuilder)
+    {
+        checkReadablePosition();
+        block.appendTo(position, blockBuilder);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.serde.BlockEncoding;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import io.airlift.units.DataSize;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A block whose values are only loaded when they are first read.  Moving a
+ * cursor over the block does not load the values, so a column that is never
+ * read, for example because the filter rejected every position, is never
+ * decoded.
+ * <p/>
+ * The loader may depend on state that is only valid for a short time, such
+ * as the current batch of a record cursor, so a lazy block must not be
+ * retained after that state changes.
+ */
+public class LazyBlock
+        implements Block
+{
+    private final TupleInfo tupleInfo;
+    private final int positionCount;
+
+    private Supplier<? extends Block> loader;
+    private Block block;
+
+    public LazyBlock(TupleInfo tupleInfo, int positionCount, Supplier<? extends Block> loader)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+        checkArgument(positionCount >= 0, "positionCount is negative");
+        this.positionCount = positionCount;
+        this.loader = checkNotNull(loader, "loader is null");
+    }
+
+    public boolean isLoaded()
+    {
+        return block != null;
+    }
+
+    /**
+     * Gets the loaded block, loading it if necessary.
+     */
+    public Block getBlock()
+    {
+        if (block == null) {
+            block = checkNotNull(loader.get(), "loader returned a null block");
+            checkState(block.getPositionCount() == positionCount, "loaded block has %s positions, expected %s", block.getPositionCount(), positionCount);
+            loader = null;
+        }
+        return block;
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public int getPositionCount()
+    {
+        return positionCount;
+    }
+
+    @Override
+    public DataSize getDataSize()
+    {
+        return getBlock().getDataSize();
+    }
+
+    @Override
+    public BlockCursor cursor()
+    {
+        return new LazyBlockCursor(this);
+    }
+
+    @Override
+    public BlockEncoding getEncoding()
+    {
+        return getBlock().getEncoding();
+    }
+
+    @Override
+    public Block getRegion(int positionOffset, int length)
+    {
+        return getBlock().getRegion(positionOffset, length);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("positionCount", positionCount)
+                .add("tupleInfo", tupleInfo)
+                .add("loaded", isLoaded())
+                .toString();
+    }
+}
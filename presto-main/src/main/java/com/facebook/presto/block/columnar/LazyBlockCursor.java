@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Preconditions;
+import io.airlift.slice.Slice;
+
+/**
+ * Tracks the position over a {@link LazyBlock} without loading it.  The block
+ * is loaded on the first access to a value, and from then on all calls are
+ * delegated to a cursor over the loaded block.
+ */
+public class LazyBlockCursor
+        implements BlockCursor
+{
+    private final LazyBlock block;
+    private final int positionCount;
+
+    private int position = -1;
+    private BlockCursor delegate;
+
+    public LazyBlockCursor(LazyBlock block)
+    {
+        this.block = Preconditions.checkNotNull(block, "block is null");
+        this.positionCount = block.getPositionCount();
+    }
+
+    private BlockCursor delegate()
+    {
+        if (delegate == null) {
+            delegate = block.getBlock().cursor();
+            if (position >= 0) {
+                delegate.advanceToPosition(position);
+            }
+        }
+        return delegate;
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return block.getTupleInfo();
+    }
+
+    @Override
+    public int getRemainingPositions()
+    {
+        if (delegate != null) {
+            return delegate.getRemainingPositions();
+        }
+        return positionCount - (position + 1);
+    }
+
+    @Override
+    public boolean isValid()
+    {
+        if (delegate != null) {
+            return delegate.isValid();
+        }
+        return 0 <= position && position < positionCount;
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        if (delegate != null) {
+            return delegate.isFinished();
+        }
+        return position >= positionCount;
+    }
+
+    @Override
+    public boolean advanceNextPosition()
+    {
+        if (delegate != null) {
+            return delegate.advanceNextPosition();
+        }
+
+        if (position >= positionCount - 1) {
+            position = positionCount;
+            return false;
+        }
+
+        position++;
+        return true;
+    }
+
+    @Override
+    public boolean advanceToPosition(int newPosition)
+    {
+        if (delegate != null) {
+            return delegate.advanceToPosition(newPosition);
+        }
+
+        // if new position is out of range, return false
+        if (newPosition >= positionCount) {
+            position = positionCount;
+            return false;
+        }
+
+        Preconditions.checkArgument(newPosition >= this.position, "Can't advance backwards");
+
+        position = newPosition;
+        return true;
+    }
+
+    @Override
+    public Block getRegionAndAdvance(int length)
+    {
+        return delegate().getRegionAndAdvance(length);
+    }
+
+    @Override
+    public int getPosition()
+    {
+        if (delegate != null) {
+            return delegate.getPosition();
+        }
+        Preconditions.checkState(isValid(), "cursor is not valid");
+        return position;
+    }
+
+    @Override
+    public Tuple getTuple()
+    {
+        return delegate().getTuple();
+    }
+
+    @Override
+    public boolean getBoolean(int field)
+    {
+        return delegate().getBoolean(field);
+    }
+
+    @Override
+    public long getLong(int field)
+    {
+        return delegate().getLong(field);
+    }
+
+    @Override
+    public double getDouble(int field)
+    {
+        return delegate().getDouble(field);
+    }
+
+    @Override
+    public Slice getSlice(int field)
+    {
+        return delegate().getSlice(field);
+    }
+
+    @Override
+    public boolean isNull(int field)
+    {
+        return delegate().isNull(field);
+    }
+
+    @Override
+    public boolean currentTupleEquals(Tuple value)
+    {
+        return delegate().currentTupleEquals(value);
+    }
+
+    @Override
+    public int getRawOffset()
+    {
+        return delegate().getRawOffset();
+    }
+
+    @Override
+    public Slice getRawSlice()
+    {
+        return delegate().getRawSlice();
+    }
+
+    @Override
+    public void appendTupleTo(BlockBuilder blockBuilder)
+    {
+        delegate().appendTupleTo(blockBuilder);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+
+import java.util.Arrays;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+public class LongArrayBlock
+        extends AbstractColumnarBlock
+{
+    private final long[] values;
+
+    public LongArrayBlock(int positionCount, boolean[] valueIsNull, long[] values)
+    {
+        super(SINGLE_LONG, positionCount, valueIsNull);
+        this.values = checkNotNull(values, "values is null");
+        checkArgument(values.length >= positionCount, "values length is less than positionCount");
+    }
+
+    /**
+     * Gets the values of this block.  The value of a null position is
+     * undefined.  The array may be longer than the position count, and
+     * must not be modified.
+     */
+    public long[] getLongs()
+    {
+        return values;
+    }
+
+    public long getLong(int position)
+    {
+        checkElementIndex(position, getPositionCount(), "position");
+        return values[position];
+    }
+
+    @Override
+    public void appendTo(int position, BlockBuilder blockBuilder)
+    {
+        if (getValueIsNull()[position]) {
+            blockBuilder.appendNull();
+        }
+        else {
+            blockBuilder.append(values[position]);
+        }
+    }
+
+    @Override
+    protected long getValuesSizeInBytes()
+    {
+        return sizeOf(values);
+    }
+
+    @Override
+    public LongArrayBlock copyPositions(int[] positions, int length)
+    {
+        boolean[] newValueIsNull = copyValueIsNull(positions, length);
+        long[] newValues = new long[length];
+        for (int i = 0; i < length; i++) {
+            newValues[i] = values[positions[i]];
+        }
+        return new LongArrayBlock(length, newValueIsNull, newValues);
+    }
+
+    @Override
+    protected Block copyRegion(int positionOffset, int length)
+    {
+        return new LongArrayBlock(
+                length,
+                Arrays.copyOfRange(getValueIsNull(), positionOffset, positionOffset + length),
+                Arrays.copyOfRange(values, positionOffset, positionOffset + length));
+    }
+}
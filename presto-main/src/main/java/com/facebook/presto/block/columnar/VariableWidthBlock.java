@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.util.Arrays;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * A block of variable width values stored back to back in a single slice.
+ * The value at a position starts at the offset of the position and ends at
+ * the offset of the next position, so there is one more offset than there
+ * are positions.
+ */
+public class VariableWidthBlock
+        extends AbstractColumnarBlock
+{
+    private final int[] offsets;
+    private final Slice data;
+
+    public VariableWidthBlock(int positionCount, boolean[] valueIsNull, int[] offsets, Slice data)
+    {
+        super(SINGLE_VARBINARY, positionCount, valueIsNull);
+        this.offsets = checkNotNull(offsets, "offsets is null");
+        this.data = checkNotNull(data, "data is null");
+        checkArgument(offsets.length > positionCount, "offsets length must be greater than positionCount");
+    }
+
+    /**
+     * Gets the value offsets of this block.  The array must not be modified.
+     */
+    public int[] getOffsets()
+    {
+        return offsets;
+    }
+
+    public Slice getData()
+    {
+        return data;
+    }
+
+    public Slice getSlice(int position)
+    {
+        checkElementIndex(position, getPositionCount(), "position");
+        return data.slice(offsets[position], offsets[position + 1] - offsets[position]);
+    }
+
+    @Override
+    public void appendTo(int position, BlockBuilder blockBuilder)
+    {
+        if (getValueIsNull()[position]) {
+            blockBuilder.appendNull();
+        }
+        else {
+            blockBuilder.append(getSlice(position));
+        }
+    }
+
+    @Override
+    protected long getValuesSizeInBytes()
+    {
+        return sizeOf(offsets) + data.length();
+    }
+
+    @Override
+    public VariableWidthBlock copyPositions(int[] positions, int length)
+    {
+        boolean[] newValueIsNull = copyValueIsNull(positions, length);
+
+        int[] newOffsets = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            int position = positions[i];
+            newOffsets[i + 1] = newOffsets[i] + offsets[position + 1] - offsets[position];
+        }
+
+        Slice newData = Slices.allocate(newOffsets[length]);
+        for (int i = 0; i < length; i++) {
+            int position = positions[i];
+            newData.setBytes(newOffsets[i], data, offsets[position], offsets[position + 1] - offsets[position]);
+        }
+        return new VariableWidthBlock(length, newValueIsNull, newOffsets, newData);
+    }
+
+    @Override
+    protected Block copyRegion(int positionOffset, int length)
+    {
+        // rebase the offsets and share the data slice
+        int[] newOffsets = new int[length + 1];
+        for (int i = 0; i <= length; i++) {
+            newOffsets[i] = offsets[positionOffset + i] - offsets[positionOffset];
+        }
+        Slice newData = data.slice(offsets[positionOffset], offsets[positionOffset + length] - offsets[positionOffset]);
+        return new VariableWidthBlock(
+                length,
+                Arrays.copyOfRange(getValueIsNull(), positionOffset, positionOffset + length),
+                newOffsets,
+                newData);
+    }
+}
@@ -16,11 +16,13 @@ package com.facebook.presto.connector.dual;
 import com.facebook.presto.metadata.MetadataManager;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ColumnStatistics;
 import com.facebook.presto.spi.ConnectorTableMetadata;
 import com.facebook.presto.spi.ReadOnlyConnectorMetadata;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -136,6 +138,15 @@ public class DualMetadata
         return ImmutableMap.<SchemaTableName, List<ColumnMetadata>>of(tableName, ImmutableList.of(COLUMN_METADATA));
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        checkArgument(tableHandle instanceof DualTableHandle, "tableHandle is not a dual table handle");
+
+        return new TableStatistics(1, ImmutableMap.<ColumnHandle, ColumnStatistics>of(new DualColumnHandle(COLUMN_NAME), new ColumnStatistics(1, 0)));
+    }
+
     public List<ColumnMetadata> listTableColumns(TableHandle tableHandle)
     {
         checkNotNull(tableHandle, "tableHandle is null");
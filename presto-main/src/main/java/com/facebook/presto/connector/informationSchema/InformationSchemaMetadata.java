@@ -20,6 +20,7 @@ import com.facebook.presto.spi.ReadOnlyConnectorMetadata;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
@@ -200,6 +201,13 @@ public class InformationSchemaMetadata
         return builder.build();
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        return TableStatistics.unknown();
+    }
+
     static List<ColumnMetadata> informationSchemaTableColumns(SchemaTableName tableName)
     {
         checkArgument(TABLES.containsKey(tableName), "table does not exist: %s", tableName);
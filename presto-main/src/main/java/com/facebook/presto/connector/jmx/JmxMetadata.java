@@ -21,6 +21,7 @@ import com.facebook.presto.spi.ReadOnlyConnectorMetadata;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
@@ -191,6 +192,13 @@ public class JmxMetadata
         return columns.build();
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        return TableStatistics.unknown();
+    }
+
     private ColumnType getColumnType(MBeanAttributeInfo attribute)
     {
         ColumnType columnType;
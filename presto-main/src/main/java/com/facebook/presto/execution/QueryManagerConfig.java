@@ -14,6 +14,7 @@
 package com.facebook.presto.execution;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
 
@@ -27,6 +28,7 @@ public class QueryManagerConfig
     private int maxPendingSplitsPerNode = 100;
 
     private int initialHashPartitions = 8;
+    private boolean distributedJoinsEnabled;
     private Duration maxQueryAge = new Duration(15, TimeUnit.MINUTES);
     private int maxQueryHistory = 100;
     private Duration clientTimeout = new Duration(5, TimeUnit.MINUTES);
@@ -62,6 +64,19 @@ public class QueryManagerConfig
         return this;
     }
 
+    public boolean isDistributedJoinsEnabled()
+    {
+        return distributedJoinsEnabled;
+    }
+
+    @Config("query.distributed-joins-enabled")
+    @ConfigDescription("Hash partition large joins on the join keys instead of broadcasting the build side")
+    public QueryManagerConfig setDistributedJoinsEnabled(boolean distributedJoinsEnabled)
+    {
+        this.distributedJoinsEnabled = distributedJoinsEnabled;
+        return this;
+    }
+
     @NotNull
     public Duration getMaxQueryAge()
     {
@@ -13,18 +13,18 @@
  */
 package com.facebook.presto.execution;
 
+import com.facebook.presto.HashPagePartitionFunction;
 import com.facebook.presto.OutputBuffers;
 import com.facebook.presto.PagePartitionFunction;
+import com.facebook.presto.UnpartitionedPagePartitionFunction;
 import com.facebook.presto.operator.Page;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ComparisonChain;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -32,26 +32,42 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import javax.annotation.concurrent.GuardedBy;
-import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.facebook.presto.execution.BufferResult.emptyResults;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+/**
+ * Buffers the output pages of a task for the downstream consumers.
+ * <p/>
+ * Each output buffer has its own {@link ClientBuffer} with its own read
+ * position and lock, so readers only contend with the writer and never
+ * with each other.  A page is shared by all unpartitioned buffers, and is
+ * split once for the buffers of a hash partitioned output, so each reader
+ * only receives its own rows.  Pages are reference counted, and a page is
+ * released when every buffer holding it has acknowledged it.
+ * <p/>
+ * Lock order is this buffer, and then a client buffer.
+ */
 @ThreadSafe
 public class SharedBuffer
 {
@@ -76,20 +92,20 @@ public class SharedBuffer
     @GuardedBy("this")
     private OutputBuffers outputBuffers;
 
+    /**
+     * Pages retained for buffers that have not been added yet.  Released once no more buffers can be added.
+     */
     @GuardedBy("this")
-    private long bufferedBytes;
-    @GuardedBy("this")
-    private final LinkedList<Page> masterQueue = new LinkedList<>();
+    private final List<PageReference> masterQueue = new ArrayList<>();
     @GuardedBy("this")
     private final LinkedList<QueuedPage> queuedPages = new LinkedList<>();
-    @GuardedBy("this")
-    private long masterSequenceId;
-    @GuardedBy("this")
-    private Map<String, NamedQueue> namedQueues = new HashMap<>();
-    @GuardedBy("this")
-    private final SortedSet<NamedQueue> openQueuesBySequenceId = new TreeSet<>();
-    @GuardedBy("this")
-    private QueueState state = QueueState.OPEN;
+
+    private final ConcurrentMap<String, ClientBuffer> clientBuffers = new ConcurrentHashMap<>();
+
+    private volatile QueueState state = QueueState.OPEN;
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private volatile boolean hasQueuedPages;
 
     private final AtomicLong pagesAdded = new AtomicLong();
 
@@ -108,7 +124,7 @@ public class SharedBuffer
         updateOutputBuffers();
     }
 
-    public synchronized boolean isFinished()
+    public boolean isFinished()
     {
         return state == QueueState.FINISHED;
     }
@@ -116,8 +132,14 @@ public class SharedBuffer
     public synchronized SharedBufferInfo getInfo()
     {
         ImmutableList.Builder<BufferInfo> infos = ImmutableList.builder();
-        for (NamedQueue namedQueue : namedQueues.values()) {
-            infos.add(new BufferInfo(namedQueue.getQueueId(), namedQueue.isFinished(), namedQueue.size(), namedQueue.pagesRemoved()));
+        long masterSequenceId = Long.MAX_VALUE;
+        for (ClientBuffer clientBuffer : clientBuffers.values()) {
+            BufferInfo info = clientBuffer.getInfo();
+            infos.add(info);
+            masterSequenceId = Math.min(masterSequenceId, info.getPagesSent());
+        }
+        if (masterSequenceId == Long.MAX_VALUE) {
+            masterSequenceId = 0;
         }
         return new SharedBufferInfo(state, masterSequenceId, pagesAdded.get(), infos.build());
     }
@@ -143,16 +165,23 @@ public class SharedBuffer
     {
         for (Entry<String, PagePartitionFunction> entry : outputBuffers.getBuffers().entrySet()) {
             String bufferId = entry.getKey();
-            if (!namedQueues.containsKey(bufferId)) {
+            if (!clientBuffers.containsKey(bufferId)) {
                 Preconditions.checkState(state == QueueState.OPEN, "%s is not OPEN", SharedBuffer.class.getSimpleName());
-                NamedQueue namedQueue = new NamedQueue(bufferId, entry.getValue());
-                namedQueues.put(bufferId, namedQueue);
-                openQueuesBySequenceId.add(namedQueue);
+                ClientBuffer clientBuffer = new ClientBuffer(bufferId, entry.getValue());
+
+                // a new buffer sees all pages added so far
+                for (PageReference pageReference : masterQueue) {
+                    addPage(pageReference, ImmutableList.of(clientBuffer));
+                }
+                if (closed.get()) {
+                    clientBuffer.setNoMorePages();
+                }
+
+                clientBuffers.put(bufferId, clientBuffer);
             }
         }
 
         if (outputBuffers.isNoMoreBufferIds()) {
-            namedQueues = ImmutableMap.copyOf(namedQueues);
             if (state != QueueState.OPEN) {
                 return;
             }
@@ -172,170 +201,225 @@ public class SharedBuffer
             return Futures.immediateFuture(true);
         }
 
-        // is there room in the buffer
-        if (bufferedBytes < maxBufferedBytes) {
+        // is there room in the buffer (pages must not pass the queued pages)
+        if (queuedPages.isEmpty() && bufferedBytes.get() < maxBufferedBytes) {
             addInternal(page);
             return Futures.immediateFuture(true);
         }
 
         QueuedPage queuedPage = new QueuedPage(page);
         queuedPages.addLast(queuedPage);
+        hasQueuedPages = true;
+
+        // a reader may have released pages before it could see the queued page
+        drainQueuedPages();
+
         return queuedPage.getFuture();
     }
 
     private synchronized void addInternal(Page page)
     {
-        // add page
-        masterQueue.add(page);
         pagesAdded.incrementAndGet();
-        bufferedBytes += page.getDataSize().toBytes();
 
-        // notify consumers an page has arrived
-        this.notifyAll();
+        PageReference pageReference = new PageReference(page);
+        if (state == QueueState.OPEN) {
+            pageReference.addReference();
+            masterQueue.add(pageReference);
+        }
+        addPage(pageReference, clientBuffers.values());
+
+        // release the reference held while adding the page
+        pageReference.dereference();
     }
 
-    @VisibleForTesting
-    public synchronized void acknowledge(String outputId, long sequenceId)
+    /**
+     * Adds the page to the specified buffers.  Unpartitioned buffers share the
+     * page, and buffers with a hash partition function receive the rows of their
+     * partition, which are computed once for all partitions of the same scheme.
+     */
+    private synchronized void addPage(PageReference pageReference, Collection<ClientBuffer> buffers)
     {
-        checkNotNull(outputId, "outputId is null");
+        Map<List<Integer>, List<List<Page>>> partitionedPages = new HashMap<>();
+        for (ClientBuffer clientBuffer : buffers) {
+            PagePartitionFunction partitionFunction = clientBuffer.getPartitionFunction();
+            if (partitionFunction instanceof UnpartitionedPagePartitionFunction) {
+                clientBuffer.enqueuePages(ImmutableList.of(pageReference));
+                continue;
+            }
 
-        NamedQueue namedQueue = namedQueues.get(outputId);
-        if (namedQueue == null) {
-            throw new NoSuchBufferException(outputId, namedQueues.keySet());
-        }
+            List<Page> pages;
+            if (partitionFunction instanceof HashPagePartitionFunction) {
+                HashPagePartitionFunction hashPartitionFunction = (HashPagePartitionFunction) partitionFunction;
+                List<Integer> partitioningScheme = ImmutableList.of(hashPartitionFunction.getPartitionCount(), hashPartitionFunction.getPartitioningChannel());
+                List<List<Page>> partitions = partitionedPages.get(partitioningScheme);
+                if (partitions == null) {
+                    partitions = hashPartitionFunction.partitionAll(ImmutableList.of(pageReference.getPage()));
+                    partitionedPages.put(partitioningScheme, partitions);
+                }
+                pages = partitions.get(hashPartitionFunction.getPartition());
+            }
+            else {
+                pages = partitionFunction.partition(ImmutableList.of(pageReference.getPage()));
+            }
 
-        if (state == QueueState.FINISHED) {
-            return;
+            ImmutableList.Builder<PageReference> pageReferences = ImmutableList.builder();
+            for (Page page : pages) {
+                pageReferences.add(new PageReference(page));
+            }
+            List<PageReference> references = pageReferences.build();
+            clientBuffer.enqueuePages(references);
+            for (PageReference reference : references) {
+                reference.dereference();
+            }
         }
+    }
 
-        // remove queue from set before calling getPages because getPages changes
-        // the sequence number of the queue which is used for identity comparison in the
-        // sorted set
-        openQueuesBySequenceId.remove(namedQueue);
+    private synchronized void drainQueuedPages()
+    {
+        while (!queuedPages.isEmpty() && bufferedBytes.get() < maxBufferedBytes) {
+            QueuedPage queuedPage = queuedPages.removeFirst();
+            addInternal(queuedPage.getPage());
+            queuedPage.getFuture().set(null);
+        }
+        hasQueuedPages = !queuedPages.isEmpty();
+    }
 
-        // acknowledge the pages
-        namedQueue.acknowledge(sequenceId);
+    @VisibleForTesting
+    public void acknowledge(String outputId, long sequenceId)
+    {
+        checkNotNull(outputId, "outputId is null");
 
-        // only add back the queue if it is still open
-        if (!closed.get()) {
-            openQueuesBySequenceId.add(namedQueue);
-        }
-        else {
-            namedQueue.setFinished();
+        ClientBuffer clientBuffer = getClientBuffer(outputId);
+        if (state == QueueState.FINISHED) {
+            return;
         }
 
-        updateState();
+        clientBuffer.acknowledge(sequenceId);
+        clientBufferUpdated(clientBuffer);
     }
 
-    public synchronized BufferResult get(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
+    public BufferResult get(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
             throws InterruptedException
     {
-        checkNotNull(outputId, "outputId is null");
-        checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
         checkNotNull(maxWait, "maxWait is null");
 
-        NamedQueue namedQueue = namedQueues.get(outputId);
-        if (namedQueue == null) {
-            throw new NoSuchBufferException(outputId, namedQueues.keySet());
+        ListenableFuture<BufferResult> future = get(outputId, startingSequenceId, maxSize);
+        try {
+            return future.get(maxWait.roundTo(NANOSECONDS), NANOSECONDS);
         }
-
-        if (state == QueueState.FINISHED) {
-            return emptyResults(namedQueue.getSequenceId(), true);
-        }
-
-        // wait for pages to arrive
-        if (namedQueue.isEmpty()) {
-            long remainingNanos = maxWait.roundTo(NANOSECONDS);
-            long end = System.nanoTime() + remainingNanos;
-            while (remainingNanos > 0 && namedQueue.isEmpty() && !namedQueue.isFinished()) {
-                // wait for timeout or notification
-                NANOSECONDS.timedWait(this, remainingNanos);
-                remainingNanos = end - System.nanoTime();
+        catch (TimeoutException e) {
+            // no pages arrived in time, so return the current state of the buffer
+            if (!future.cancel(true)) {
+                return Futures.getUnchecked(future);
             }
         }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
 
-        // remove queue from set before calling getPages because getPages changes
-        // the sequence number of the queue which is used for identity comparison in the
-        // sorted set
-        openQueuesBySequenceId.remove(namedQueue);
+        ClientBuffer clientBuffer = getClientBuffer(outputId);
+        if (state == QueueState.FINISHED) {
+            return emptyResults(clientBuffer.getSequenceId(), true);
+        }
+        BufferResult result = clientBuffer.getPagesNow(startingSequenceId, maxSize);
+        clientBufferUpdated(clientBuffer);
+        return result;
+    }
 
-        // get the pages
-        BufferResult results = namedQueue.getPages(startingSequenceId, maxSize);
+    /**
+     * Gets the pages for the specified output without blocking the calling thread.
+     * The returned future completes when pages are available for the output, or
+     * when the output is finished.  A reader that no longer wants the result,
+     * for example because its request timed out, should cancel the future.
+     * <p/>
+     * The future may be completed while holding the lock on the output, so
+     * listeners must be registered with an executor that does not run them
+     * in the completing thread.
+     */
+    public ListenableFuture<BufferResult> get(String outputId, long startingSequenceId, DataSize maxSize)
+    {
+        checkNotNull(outputId, "outputId is null");
+        checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
 
-        // only add back the queue if it is still open
-        if (!closed.get() || !results.isBufferClosed()) {
-            openQueuesBySequenceId.add(namedQueue);
-        }
-        else {
-            namedQueue.setFinished();
+        ClientBuffer clientBuffer = getClientBuffer(outputId);
+        if (state == QueueState.FINISHED) {
+            return Futures.immediateFuture(emptyResults(clientBuffer.getSequenceId(), true));
         }
 
-        updateState();
-
-        return results;
+        ListenableFuture<BufferResult> result = clientBuffer.getPages(startingSequenceId, maxSize);
+        clientBufferUpdated(clientBuffer);
+        return result;
     }
 
     public synchronized void abort(String outputId)
     {
         checkNotNull(outputId, "outputId is null");
-        NamedQueue namedQueue = namedQueues.get(outputId);
-        if (namedQueue == null || namedQueue.isFinished()) {
+        ClientBuffer clientBuffer = clientBuffers.get(outputId);
+        if (clientBuffer == null || clientBuffer.isFinished()) {
             return;
         }
-        namedQueue.setFinished();
-        openQueuesBySequenceId.remove(namedQueue);
+        clientBuffer.destroy();
 
         updateState();
     }
 
+    private ClientBuffer getClientBuffer(String outputId)
+    {
+        ClientBuffer clientBuffer = clientBuffers.get(outputId);
+        if (clientBuffer == null) {
+            throw new NoSuchBufferException(outputId, clientBuffers.keySet());
+        }
+        return clientBuffer;
+    }
+
+    /**
+     * Called after a reader changes a buffer without holding the lock on this
+     * buffer.  The reader may have released pages a blocked writer is waiting
+     * for, or finished the last open buffer.
+     */
+    private void clientBufferUpdated(ClientBuffer clientBuffer)
+    {
+        if (hasQueuedPages || clientBuffer.isFinished()) {
+            updateState();
+        }
+    }
+
     private synchronized void updateState()
     {
-        if (closed.get()) {
-            // remove all empty queues
-            for (Iterator<NamedQueue> iterator = openQueuesBySequenceId.iterator(); iterator.hasNext(); ) {
-                NamedQueue namedQueue = iterator.next();
-                if (namedQueue.isEmpty()) {
-                    namedQueue.setFinished();
-                    iterator.remove();
-                }
+        if (state != QueueState.OPEN && !masterQueue.isEmpty()) {
+            // all buffers have been added, so the pages are only retained by the buffers
+            for (PageReference pageReference : masterQueue) {
+                pageReference.dereference();
             }
+            masterQueue.clear();
+        }
+
+        if (closed.get()) {
             // discard queued pages (not officially in the buffer) and waiters
             for (QueuedPage queuedPage : queuedPages) {
                 queuedPage.getFuture().set(null);
             }
             queuedPages.clear();
+            hasQueuedPages = false;
         }
-
-        if (state == QueueState.NO_MORE_QUEUES && !openQueuesBySequenceId.isEmpty()) {
-            // advance master sequence id
-            long oldMasterSequenceId = masterSequenceId;
-            masterSequenceId = openQueuesBySequenceId.iterator().next().getSequenceId();
-
-            // drop consumed pages
-            int pagesToRemove = Ints.checkedCast(masterSequenceId - oldMasterSequenceId);
-            Preconditions.checkState(pagesToRemove >= 0,
-                    "Master sequence id moved backwards: oldMasterSequenceId=%s, newMasterSequenceId=%s",
-                    oldMasterSequenceId,
-                    masterSequenceId);
-
-            for (int i = 0; i < pagesToRemove; i++) {
-                Page page = masterQueue.removeFirst();
-                bufferedBytes -= page.getDataSize().toBytes();
-            }
-
+        else {
             // refill buffer from queued pages
-            while (!queuedPages.isEmpty() && bufferedBytes < maxBufferedBytes) {
-                QueuedPage queuedPage = queuedPages.removeFirst();
-                addInternal(queuedPage.getPage());
-                queuedPage.getFuture().set(null);
-            }
+            drainQueuedPages();
         }
 
-        if (state == QueueState.NO_MORE_QUEUES && closed.get() && openQueuesBySequenceId.isEmpty()) {
+        if (state == QueueState.NO_MORE_QUEUES && closed.get() && allBuffersFinished()) {
             destroy();
         }
+    }
 
-        this.notifyAll();
+    private synchronized boolean allBuffersFinished()
+    {
+        for (ClientBuffer clientBuffer : clientBuffers.values()) {
+            if (!clientBuffer.isFinished()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -345,6 +429,11 @@ public class SharedBuffer
     {
         closed.set(true);
 
+        // buffers without pages are finished
+        for (ClientBuffer clientBuffer : clientBuffers.values()) {
+            clientBuffer.setNoMorePages();
+        }
+
         // the output will only transition to finished if it isn't already marked as failed or cancel
         updateState();
     }
@@ -357,156 +446,271 @@ public class SharedBuffer
         closed.set(true);
         state = QueueState.FINISHED;
 
-        // drop all of the queues
-        for (NamedQueue namedQueue : openQueuesBySequenceId) {
-            namedQueue.setFinished();
+        // drop all of the queues, which notifies the readers
+        for (ClientBuffer clientBuffer : clientBuffers.values()) {
+            clientBuffer.destroy();
         }
-        openQueuesBySequenceId.clear();
 
         // clear the buffer
+        for (PageReference pageReference : masterQueue) {
+            pageReference.dereference();
+        }
         masterQueue.clear();
-        bufferedBytes = 0;
 
         // free queued page waiters
         for (QueuedPage queuedPage : queuedPages) {
             queuedPage.getFuture().set(null);
         }
         queuedPages.clear();
-
-        // notify readers that the buffer has been destroyed
-        this.notifyAll();
+        hasQueuedPages = false;
     }
 
-    @NotThreadSafe
-    private class NamedQueue
-            implements Comparable<NamedQueue>
+    /**
+     * The pages of one output buffer and the read position of its reader.
+     */
+    @ThreadSafe
+    private static class ClientBuffer
     {
-        private final String queueId;
+        private final String bufferId;
         private final PagePartitionFunction partitionFunction;
 
+        /**
+         * Pages not acknowledged by the reader; the first page has sequence id {@link #sequenceId}.
+         */
+        @GuardedBy("this")
+        private final LinkedList<PageReference> pages = new LinkedList<>();
+        @GuardedBy("this")
+        private final List<PendingRead> pendingReads = new ArrayList<>();
+        @GuardedBy("this")
         private long sequenceId;
+        @GuardedBy("this")
+        private boolean noMorePages;
+        @GuardedBy("this")
         private boolean finished;
 
-        private NamedQueue(String queueId, PagePartitionFunction partitionFunction)
+        private ClientBuffer(String bufferId, PagePartitionFunction partitionFunction)
         {
-            this.queueId = queueId;
-            this.partitionFunction = partitionFunction;
+            this.bufferId = checkNotNull(bufferId, "bufferId is null");
+            this.partitionFunction = checkNotNull(partitionFunction, "partitionFunction is null");
         }
 
-        public String getQueueId()
+        public PagePartitionFunction getPartitionFunction()
         {
-            return queueId;
+            return partitionFunction;
         }
 
-        public boolean isFinished()
+        public synchronized boolean isFinished()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
             return finished;
         }
 
-        public void setFinished()
+        public synchronized long getSequenceId()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-
-            finished = true;
+            return sequenceId;
         }
 
-        public boolean isEmpty()
+        public synchronized BufferInfo getInfo()
         {
-            return size() == 0;
+            return new BufferInfo(bufferId, finished, pages.size(), sequenceId);
         }
 
-        public long getSequenceId()
+        public synchronized void enqueuePages(List<PageReference> newPages)
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
+            if (finished) {
+                return;
+            }
 
-            return sequenceId;
+            for (PageReference pageReference : newPages) {
+                pageReference.addReference();
+                pages.add(pageReference);
+            }
+            processPendingReads();
         }
 
-        public long pagesRemoved()
+        public synchronized void setNoMorePages()
         {
-            return getSequenceId();
+            noMorePages = true;
+            if (pages.isEmpty()) {
+                finished = true;
+            }
+            processPendingReads();
         }
 
-        public int size()
+        public synchronized void destroy()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
+            finished = true;
+            for (PageReference pageReference : pages) {
+                pageReference.dereference();
+            }
+            pages.clear();
+            processPendingReads();
+        }
 
-            if (finished) {
-                return 0;
+        public synchronized void acknowledge(long sequenceId)
+        {
+            while (this.sequenceId < sequenceId && !pages.isEmpty()) {
+                pages.removeFirst().dereference();
+                this.sequenceId++;
             }
 
-            int listOffset = Ints.checkedCast(sequenceId - masterSequenceId);
-            if (listOffset >= masterQueue.size()) {
-                return 0;
+            // the reader has acknowledged the last page
+            if (noMorePages && pages.isEmpty()) {
+                finished = true;
             }
-            // todo include queued pages?
-            return masterQueue.size() - listOffset;
-        }
 
-        public void acknowledge(long sequenceId)
-        {
-            if (this.sequenceId < sequenceId) {
+            // a finished buffer has no pages, but still records what the reader has seen
+            if (finished && this.sequenceId < sequenceId) {
                 this.sequenceId = sequenceId;
             }
         }
 
-        public BufferResult getPages(long startingSequenceId, DataSize maxSize)
+        public synchronized ListenableFuture<BufferResult> getPages(long startingSequenceId, DataSize maxSize)
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
-            checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
+            acknowledge(startingSequenceId);
+
+            if (finished || noMorePages || !pages.isEmpty()) {
+                return Futures.immediateFuture(getPagesNow(startingSequenceId, maxSize));
+            }
+
+            // drop reads abandoned by their readers, so a buffer that does not
+            // change for a long time does not accumulate them
+            for (Iterator<PendingRead> iterator = pendingReads.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().getFuture().isDone()) {
+                    iterator.remove();
+                }
+            }
 
+            PendingRead pendingRead = new PendingRead(startingSequenceId, maxSize);
+            pendingReads.add(pendingRead);
+            return pendingRead.getFuture();
+        }
+
+        public synchronized BufferResult getPagesNow(long startingSequenceId, DataSize maxSize)
+        {
             acknowledge(startingSequenceId);
 
             if (finished) {
                 return emptyResults(sequenceId, true);
             }
 
-            int listOffset = Ints.checkedCast(sequenceId - masterSequenceId);
-            if (listOffset >= masterQueue.size()) {
+            if (pages.isEmpty()) {
                 return emptyResults(sequenceId, false);
             }
 
             long maxBytes = maxSize.toBytes();
 
-            List<Page> pages = new ArrayList<>();
+            List<Page> result = new ArrayList<>();
             long bytes = 0;
-            while (listOffset < masterQueue.size()) {
-                Page page = masterQueue.get(listOffset++);
+            for (PageReference pageReference : pages) {
+                Page page = pageReference.getPage();
                 bytes += page.getDataSize().toBytes();
                 // break (and don't add) if this page would exceed the limit
-                if (!pages.isEmpty() && bytes > maxBytes) {
+                if (!result.isEmpty() && bytes > maxBytes) {
                     break;
                 }
-                pages.add(page);
+                result.add(page);
             }
 
-            return new BufferResult(startingSequenceId, startingSequenceId + pages.size(), false, ImmutableList.copyOf(pages), partitionFunction);
+            return new BufferResult(startingSequenceId, startingSequenceId + result.size(), false, ImmutableList.copyOf(result));
         }
 
-        @Override
-        public int compareTo(NamedQueue other)
+        private void processPendingReads()
         {
-            Preconditions.checkState(Thread.holdsLock(SharedBuffer.this), "Thread must hold a lock on the %s", SharedBuffer.class.getSimpleName());
+            checkState(Thread.holdsLock(this), "Thread must hold a lock on the %s", ClientBuffer.class.getSimpleName());
+
+            if (pendingReads.isEmpty() || (!finished && pages.isEmpty())) {
+                return;
+            }
 
-            return ComparisonChain.start()
-                    .compare(this.sequenceId, other.sequenceId)
-                    .compare(this.queueId, other.queueId)
-                    .result();
+            List<PendingRead> reads = ImmutableList.copyOf(pendingReads);
+            pendingReads.clear();
+            for (PendingRead pendingRead : reads) {
+                SettableFuture<BufferResult> future = pendingRead.getFuture();
+                if (!future.isDone()) {
+                    future.set(getPagesNow(pendingRead.getStartingSequenceId(), pendingRead.getMaxSize()));
+                }
+            }
         }
 
         @Override
-        public String toString()
+        public synchronized String toString()
         {
             return Objects.toStringHelper(this)
-                    .add("queueId", queueId)
+                    .add("bufferId", bufferId)
                     .add("sequenceId", sequenceId)
+                    .add("bufferedPages", pages.size())
                     .add("finished", finished)
                     .toString();
         }
     }
 
+    /**
+     * A page held by the master queue and output buffers.  The page is counted
+     * in the buffered bytes until the last reference is released.
+     */
+    private class PageReference
+    {
+        private final Page page;
+        private final long sizeInBytes;
+        // the creator holds the first reference
+        private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+        private PageReference(Page page)
+        {
+            this.page = page;
+            this.sizeInBytes = page.getDataSize().toBytes();
+            bufferedBytes.addAndGet(sizeInBytes);
+        }
+
+        public Page getPage()
+        {
+            return page;
+        }
+
+        public void addReference()
+        {
+            int oldReferences = referenceCount.getAndIncrement();
+            checkState(oldReferences > 0, "Page has already been released");
+        }
+
+        public void dereference()
+        {
+            int references = referenceCount.decrementAndGet();
+            checkState(references >= 0, "Page has already been released");
+            if (references == 0) {
+                bufferedBytes.addAndGet(-sizeInBytes);
+            }
+        }
+    }
+
+    private static class PendingRead
+    {
+        private final long startingSequenceId;
+        private final DataSize maxSize;
+        private final SettableFuture<BufferResult> future = SettableFuture.create();
+
+        private PendingRead(long startingSequenceId, DataSize maxSize)
+        {
+            this.startingSequenceId = startingSequenceId;
+            this.maxSize = maxSize;
+        }
+
+        private long getStartingSequenceId()
+        {
+            return startingSequenceId;
+        }
+
+        private DataSize getMaxSize()
+        {
+            return maxSize;
+        }
+
+        private SettableFuture<BufferResult> getFuture()
+        {
+            return future;
+        }
+    }
+
     private static class QueuedPage
     {
         private final Page page;
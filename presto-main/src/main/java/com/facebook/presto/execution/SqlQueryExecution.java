@@ -79,6 +79,7 @@ public class SqlQueryExecution
     private final LocationFactory locationFactory;
     private final int maxPendingSplitsPerNode;
     private final int initialHashPartitions;
+    private final boolean distributedJoinsEnabled;
     private final ExecutorService queryExecutor;
     private final ShardManager shardManager;
     private final StorageManager storageManager;
@@ -101,6 +102,7 @@ public class SqlQueryExecution
             LocationFactory locationFactory,
             int maxPendingSplitsPerNode,
             int initialHashPartitions,
+            boolean distributedJoinsEnabled,
             ExecutorService queryExecutor,
             ShardManager shardManager,
             StorageManager storageManager,
@@ -124,6 +126,7 @@ public class SqlQueryExecution
 
             checkArgument(initialHashPartitions > 0, "initialHashPartitions must be greater than 0");
             this.initialHashPartitions = initialHashPartitions;
+            this.distributedJoinsEnabled = distributedJoinsEnabled;
 
             checkNotNull(queryId, "queryId is null");
             checkNotNull(query, "query is null");
@@ -131,7 +134,7 @@ public class SqlQueryExecution
             checkNotNull(self, "self is null");
             this.stateMachine = new QueryStateMachine(queryId, query, session, self, queryExecutor);
 
-            this.queryExplainer = new QueryExplainer(session, planOptimizers, metadata, periodicImportManager, storageManager);
+            this.queryExplainer = new QueryExplainer(session, planOptimizers, metadata, periodicImportManager, storageManager, distributedJoinsEnabled);
         }
     }
 
@@ -211,7 +214,7 @@ public class SqlQueryExecution
         stateMachine.setInputs(inputs);
 
         // fragment the plan
-        SubPlan subplan = new DistributedLogicalPlanner(metadata, idAllocator).createSubPlans(plan, false);
+        SubPlan subplan = new DistributedLogicalPlanner(metadata, idAllocator, distributedJoinsEnabled).createSubPlans(plan, false);
 
         stateMachine.recordAnalysisTime(analysisStart);
         return subplan;
@@ -387,6 +390,7 @@ public class SqlQueryExecution
     {
         private final int maxPendingSplitsPerNode;
         private final int initialHashPartitions;
+        private final boolean distributedJoinsEnabled;
         private final Metadata metadata;
         private final SplitManager splitManager;
         private final NodeScheduler nodeScheduler;
@@ -415,6 +419,7 @@ public class SqlQueryExecution
             Preconditions.checkNotNull(config, "config is null");
             this.maxPendingSplitsPerNode = config.getMaxPendingSplitsPerNode();
             this.initialHashPartitions = config.getInitialHashPartitions();
+            this.distributedJoinsEnabled = config.isDistributedJoinsEnabled();
             this.metadata = checkNotNull(metadata, "metadata is null");
             this.locationFactory = checkNotNull(locationFactory, "locationFactory is null");
             this.splitManager = checkNotNull(splitManager, "splitManager is null");
@@ -452,6 +457,7 @@ public class SqlQueryExecution
                     locationFactory,
                     maxPendingSplitsPerNode,
                     initialHashPartitions,
+                    distributedJoinsEnabled,
                     executor,
                     shardManager,
                     storageManager,
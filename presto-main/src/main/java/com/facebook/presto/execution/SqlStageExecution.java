@@ -392,11 +392,16 @@ public class SqlStageExecution
         else if (fragment.getOutputPartitioning() == OutputPartitioning.HASH) {
             checkArgument(noMoreParentNodes, "Hash partitioned output requires all parent nodes be added in a single call");
 
+            // rows are routed by the first partitioning symbol, which is enough to put equal keys in the same partition
+            int partitioningChannel = 0;
+            if (!fragment.getPartitionBy().isEmpty()) {
+                partitioningChannel = fragment.getRoot().getOutputSymbols().indexOf(fragment.getPartitionBy().get(0));
+            }
+
             ImmutableMap.Builder<String, PagePartitionFunction> buffers = ImmutableMap.builder();
             for (int nodeIndex = 0; nodeIndex < parentNodes.size(); nodeIndex++) {
                 Node node = parentNodes.get(nodeIndex);
-                // todo allow partition channel to be any channel
-                buffers.put(node.getNodeIdentifier(), new HashPagePartitionFunction(nodeIndex, parentNodes.size(), 0));
+                buffers.put(node.getNodeIdentifier(), new HashPagePartitionFunction(nodeIndex, parentNodes.size(), partitioningChannel));
             }
 
             newOutputBuffers = startingOutputBuffers
@@ -36,6 +36,7 @@ import com.facebook.presto.util.SetThreadName;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -48,6 +49,7 @@ import org.joda.time.DateTime;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.util.ArrayList;
@@ -65,6 +67,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.facebook.presto.operator.SpillFile.deleteSpillDirectory;
 import static com.facebook.presto.util.Failures.toFailures;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -75,6 +78,7 @@ public class SqlTaskExecution
         implements TaskExecution
 {
     private final TaskId taskId;
+    private final Optional<File> spillDirectory;
     private final URI location;
     private final TaskExecutor taskExecutor;
     private final TaskStateMachine taskStateMachine;
@@ -117,6 +121,7 @@ public class SqlTaskExecution
             List<TaskSource> sources,
             OutputBuffers outputBuffers,
             LocalExecutionPlanner planner,
+            Optional<File> spillDirectory,
             DataSize maxBufferSize,
             TaskExecutor taskExecutor,
             ExecutorService notificationExecutor,
@@ -131,6 +136,7 @@ public class SqlTaskExecution
                 fragment,
                 outputBuffers,
                 planner,
+                spillDirectory,
                 maxBufferSize,
                 taskExecutor,
                 maxTaskMemoryUsage,
@@ -154,6 +160,7 @@ public class SqlTaskExecution
             PlanFragment fragment,
             OutputBuffers outputBuffers,
             LocalExecutionPlanner planner,
+            Optional<File> spillDirectory,
             DataSize maxBufferSize,
             TaskExecutor taskExecutor,
             DataSize maxTaskMemoryUsage,
@@ -166,6 +173,7 @@ public class SqlTaskExecution
             this.taskId = checkNotNull(taskId, "taskId is null");
             this.location = checkNotNull(location, "location is null");
             this.taskExecutor = checkNotNull(taskExecutor, "driverExecutor is null");
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
             this.taskStateMachine = new TaskStateMachine(taskId, notificationExecutor);
             taskStateMachine.addStateChangeListener(new StateChangeListener<TaskState>()
@@ -177,6 +185,10 @@ public class SqlTaskExecution
                         SqlTaskExecution.this.taskExecutor.removeTask(taskHandle);
                         // make sure buffers are cleaned up
                         sharedBuffer.destroy();
+                        // spill files of failed or canceled drivers are not deleted by the operators
+                        if (SqlTaskExecution.this.spillDirectory.isPresent()) {
+                            deleteSpillDirectory(SqlTaskExecution.this.spillDirectory.get());
+                        }
                     }
                 }
             });
@@ -196,7 +208,7 @@ public class SqlTaskExecution
 
             taskHandle = taskExecutor.addTask(taskId);
 
-            LocalExecutionPlan localExecutionPlan = planner.plan(session, fragment.getRoot(), fragment.getSymbols(), new TaskOutputFactory(sharedBuffer));
+            LocalExecutionPlan localExecutionPlan = planner.plan(session, fragment.getRoot(), fragment.getSymbols(), new TaskOutputFactory(sharedBuffer), spillDirectory);
             List<DriverFactory> driverFactories = localExecutionPlan.getDriverFactories();
 
             // index driver factories
@@ -208,8 +220,10 @@ public class SqlTaskExecution
                 }
                 else {
                     PipelineContext pipelineContext = taskContext.addPipelineContext(driverFactory.isInputDriver(), driverFactory.isOutputDriver());
-                    Driver driver = driverFactory.createDriver(pipelineContext.addDriverContext());
-                    unpartitionedDrivers.add(driver);
+                    for (int i = 0; i < driverFactory.getDriverInstances(); i++) {
+                        Driver driver = driverFactory.createDriver(pipelineContext.addDriverContext());
+                        unpartitionedDrivers.add(driver);
+                    }
                 }
             }
             this.unpartitionedDrivers = ImmutableList.copyOf(unpartitionedDrivers);
@@ -539,16 +553,14 @@ public class SqlTaskExecution
     }
 
     @Override
-    public BufferResult getResults(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
-            throws InterruptedException
+    public ListenableFuture<BufferResult> getResults(String outputId, long startingSequenceId, DataSize maxSize)
     {
         checkNotNull(outputId, "outputId is null");
         Preconditions.checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
-        checkNotNull(maxWait, "maxWait is null");
         checkState(!Thread.holdsLock(this), "Can not get result data while holding a lock on the %s", getClass().getSimpleName());
 
         try (SetThreadName setThreadName = new SetThreadName("Task-%s", taskId)) {
-            return sharedBuffer.get(outputId, startingSequenceId, maxSize, maxWait);
+            return sharedBuffer.get(outputId, startingSequenceId, maxSize);
         }
     }
 
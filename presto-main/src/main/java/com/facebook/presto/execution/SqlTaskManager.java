@@ -23,11 +23,14 @@ import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.PlanFragment;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.concurrent.ThreadPoolExecutorMBean;
 import io.airlift.log.Logger;
 import io.airlift.stats.CounterStat;
@@ -41,6 +44,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
+import java.io.File;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
@@ -55,6 +59,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import static com.facebook.presto.operator.SpillFile.deleteSpillDirectory;
 import static com.facebook.presto.util.Threads.threadsNamed;
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -81,6 +86,7 @@ public class SqlTaskManager
     private final Duration infoCacheTime;
     private final Duration clientTimeout;
     private final boolean cpuTimerEnabled;
+    private final Optional<File> spillPath;
 
     private final ConcurrentMap<TaskId, TaskInfo> taskInfos = new ConcurrentHashMap<>();
     private final ConcurrentMap<TaskId, TaskExecution> tasks = new ConcurrentHashMap<>();
@@ -117,6 +123,12 @@ public class SqlTaskManager
         this.infoCacheTime = config.getInfoMaxAge();
         this.clientTimeout = config.getClientTimeout();
         this.cpuTimerEnabled = config.isTaskCpuTimerEnabled();
+        if (config.isSpillEnabled()) {
+            this.spillPath = Optional.of(config.getSpillPath());
+        }
+        else {
+            this.spillPath = Optional.absent();
+        }
 
         taskNotificationExecutor = Executors.newCachedThreadPool(threadsNamed("task-notification-%d"));
         taskNotificationExecutorMBean = new ThreadPoolExecutorMBean((ThreadPoolExecutor) taskNotificationExecutor);
@@ -128,6 +140,17 @@ public class SqlTaskManager
     @PostConstruct
     public void start()
     {
+        // no tasks are running yet, so everything in the spill path was left by a previous process
+        if (spillPath.isPresent()) {
+            File[] staleSpillDirectories = spillPath.get().listFiles();
+            if (staleSpillDirectories != null) {
+                for (File spillDirectory : staleSpillDirectories) {
+                    log.info("Deleting stale spill directory %s", spillDirectory);
+                    deleteSpillDirectory(spillDirectory);
+                }
+            }
+        }
+
         taskManagementExecutor.scheduleAtFixedRate(new Runnable()
         {
             @Override
@@ -303,6 +326,7 @@ public class SqlTaskManager
                         sources,
                         outputBuffers,
                         planner,
+                        getSpillDirectory(taskId),
                         maxBufferSize,
                         taskExecutor,
                         taskNotificationExecutor,
@@ -323,13 +347,11 @@ public class SqlTaskManager
     }
 
     @Override
-    public BufferResult getTaskResults(TaskId taskId, String outputName, long startingSequenceId, DataSize maxSize, Duration maxWaitTime)
-            throws InterruptedException
+    public ListenableFuture<BufferResult> getTaskResults(TaskId taskId, String outputName, final long startingSequenceId, DataSize maxSize)
     {
         checkNotNull(taskId, "taskId is null");
         checkNotNull(outputName, "outputName is null");
         Preconditions.checkArgument(maxSize.toBytes() > 0, "maxSize must be at least 1 byte");
-        checkNotNull(maxWaitTime, "maxWaitTime is null");
 
         TaskExecution taskExecution = tasks.get(taskId);
         if (taskExecution == null) {
@@ -340,17 +362,26 @@ public class SqlTaskManager
             else if (taskInfo.getState() == TaskState.FAILED) {
                 // for a failed query, do not return a closed buffer as a
                 // closed buffer signals to upstream tasks that everything
-                // finished cleanly
-                Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
-                return BufferResult.emptyResults(startingSequenceId, false);
+                // finished cleanly, and delay the response so the reader
+                // does not spin while the failure propagates
+                final SettableFuture<BufferResult> result = SettableFuture.create();
+                taskManagementExecutor.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        result.set(BufferResult.emptyResults(startingSequenceId, false));
+                    }
+                }, 100, TimeUnit.MILLISECONDS);
+                return result;
             }
             else {
                 // query is finished
-                return BufferResult.emptyResults(taskInfo.getOutputBuffers().getMasterSequenceId(), true);
+                return Futures.immediateFuture(BufferResult.emptyResults(taskInfo.getOutputBuffers().getMasterSequenceId(), true));
             }
         }
         taskExecution.recordHeartbeat();
-        return taskExecution.getResults(outputName, startingSequenceId, maxSize, maxWaitTime);
+        return taskExecution.getResults(outputName, startingSequenceId, maxSize);
     }
 
     @Override
@@ -428,6 +459,12 @@ public class SqlTaskManager
                 DateTime endTime = taskInfo.getStats().getEndTime();
                 if (endTime != null && endTime.isBefore(oldestAllowedTask)) {
                     taskInfos.remove(taskInfo.getTaskId());
+
+                    // remove spill files created by drivers that were still running when the task finished
+                    Optional<File> spillDirectory = getSpillDirectory(taskInfo.getTaskId());
+                    if (spillDirectory.isPresent()) {
+                        deleteSpillDirectory(spillDirectory.get());
+                    }
                 }
             }
             catch (RuntimeException e) {
@@ -436,6 +473,14 @@ public class SqlTaskManager
         }
     }
 
+    private Optional<File> getSpillDirectory(TaskId taskId)
+    {
+        if (!spillPath.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(new File(spillPath.get(), taskId.toString()));
+    }
+
     public void failAbandonedTasks()
     {
         DateTime now = DateTime.now();
@@ -16,6 +16,7 @@ package com.facebook.presto.execution;
 import com.facebook.presto.OutputBuffers;
 import com.facebook.presto.TaskSource;
 import com.facebook.presto.operator.TaskContext;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
@@ -40,8 +41,7 @@ public interface TaskExecution
 
     void fail(Throwable cause);
 
-    BufferResult getResults(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWait)
-            throws InterruptedException;
+    ListenableFuture<BufferResult> getResults(String outputId, long startingSequenceId, DataSize maxSize);
 
     void abortResults(String outputId);
 
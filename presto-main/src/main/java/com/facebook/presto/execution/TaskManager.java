@@ -17,6 +17,7 @@ import com.facebook.presto.OutputBuffers;
 import com.facebook.presto.TaskSource;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.PlanFragment;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
@@ -33,8 +34,14 @@ public interface TaskManager
 
     TaskInfo updateTask(Session session, TaskId taskId, PlanFragment fragment, List<TaskSource> sources, OutputBuffers outputIds);
 
-    BufferResult getTaskResults(TaskId taskId, String outputName, long startingSequenceId, DataSize maxSize, Duration maxWaitTime)
-            throws InterruptedException;
+    /**
+     * Gets the results for the specified output of a task.  The returned future
+     * completes when results are available, so the caller must not wait on it
+     * while holding a request thread.
+     *
+     * @throws java.util.NoSuchElementException if the task is unknown
+     */
+    ListenableFuture<BufferResult> getTaskResults(TaskId taskId, String outputName, long startingSequenceId, DataSize maxSize);
 
     TaskInfo abortTaskResults(TaskId taskId, String outputId);
 
@@ -14,6 +14,7 @@
 package com.facebook.presto.execution;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
@@ -22,6 +23,7 @@ import io.airlift.units.MinDuration;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 public class TaskManagerConfig
@@ -36,6 +38,13 @@ public class TaskManagerConfig
     private Duration clientTimeout = new Duration(5, TimeUnit.MINUTES);
     private Duration infoMaxAge = new Duration(15, TimeUnit.MINUTES);
 
+    private int hashBuildConcurrency = 1;
+
+    private boolean spillEnabled;
+    private File spillPath = new File("var/spill");
+
+    private int httpResponseThreads = 100;
+
     public boolean isTaskCpuTimerEnabled()
     {
         return taskCpuTimerEnabled;
@@ -126,4 +135,59 @@ public class TaskManagerConfig
         this.infoMaxAge = infoMaxAge;
         return this;
     }
+
+    @Min(1)
+    public int getHashBuildConcurrency()
+    {
+        return hashBuildConcurrency;
+    }
+
+    @Config("task.hash-build-concurrency")
+    @ConfigDescription("Number of drivers used to build the hash table of a join")
+    public TaskManagerConfig setHashBuildConcurrency(int hashBuildConcurrency)
+    {
+        this.hashBuildConcurrency = hashBuildConcurrency;
+        return this;
+    }
+
+    public boolean isSpillEnabled()
+    {
+        return spillEnabled;
+    }
+
+    @Config("task.spill-enabled")
+    @ConfigDescription("Spill operator state to local disk when a task exceeds its memory limit")
+    public TaskManagerConfig setSpillEnabled(boolean spillEnabled)
+    {
+        this.spillEnabled = spillEnabled;
+        return this;
+    }
+
+    @NotNull
+    public File getSpillPath()
+    {
+        return spillPath;
+    }
+
+    @Config("task.spill-path")
+    @ConfigDescription("Directory to use for spilled operator state")
+    public TaskManagerConfig setSpillPath(File spillPath)
+    {
+        this.spillPath = spillPath;
+        return this;
+    }
+
+    @Min(1)
+    public int getHttpResponseThreads()
+    {
+        return httpResponseThreads;
+    }
+
+    @Config("task.http-response-threads")
+    @ConfigDescription("Maximum number of threads that send task results to the readers")
+    public TaskManagerConfig setHttpResponseThreads(int httpResponseThreads)
+    {
+        this.httpResponseThreads = httpResponseThreads;
+        return this;
+    }
 }
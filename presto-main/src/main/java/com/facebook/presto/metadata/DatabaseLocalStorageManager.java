@@ -14,25 +14,27 @@
 package com.facebook.presto.metadata;
 
 import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.block.BlockUtils;
-import com.facebook.presto.execution.TaskId;
-import com.facebook.presto.operator.AlignmentOperator;
-import com.facebook.presto.operator.OperatorContext;
+import com.facebook.presto.operator.ChannelIndex;
 import com.facebook.presto.operator.Page;
-import com.facebook.presto.operator.TaskContext;
+import com.facebook.presto.operator.PageBuilder;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
 import com.facebook.presto.serde.BlocksFileEncoding;
 import com.facebook.presto.serde.BlocksFileReader;
 import com.facebook.presto.serde.BlocksFileStats;
+import com.facebook.presto.serde.BlocksFileWriter;
+import com.facebook.presto.serde.ZoneMap;
 import com.facebook.presto.spi.ColumnHandle;
-import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.KeyBoundedExecutor;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
@@ -40,8 +42,13 @@ import io.airlift.concurrent.ThreadPoolExecutorMBean;
 import io.airlift.log.Logger;
 import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
+import org.skife.jdbi.v2.TransactionCallback;
 import org.skife.jdbi.v2.TransactionStatus;
 import org.skife.jdbi.v2.VoidTransactionCallback;
 import org.weakref.jmx.Managed;
@@ -51,12 +58,18 @@ import javax.annotation.PreDestroy;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static com.facebook.presto.util.Threads.threadsNamed;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -64,42 +77,47 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.lang.String.format;
 import static java.nio.file.Files.createDirectories;
 import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 public class DatabaseLocalStorageManager
         implements LocalStorageManager
 {
-    private static final boolean ENABLE_OPTIMIZATION = Boolean.valueOf("false");
-
     private static final BlocksFileEncoding DEFAULT_ENCODING = BlocksFileEncoding.SNAPPY;
 
     private static final int RUN_LENGTH_AVERAGE_CUTOFF = 3;
     private static final int DICTIONARY_CARDINALITY_CUTOFF = 1000;
 
+    private static final Duration RETIRED_FILE_CLEANUP_INTERVAL = new Duration(1, TimeUnit.MINUTES);
+
     private static final Logger log = Logger.get(DatabaseLocalStorageManager.class);
 
     private final ExecutorService executor;
     private final ThreadPoolExecutorMBean executorMBean;
     private final KeyBoundedExecutor<UUID> shardBoundedExecutor;
 
+    private final boolean optimizeEncodings;
+    private final ExecutorService optimizerExecutor;
+    private final ThreadPoolExecutorMBean optimizerExecutorMBean;
+
+    private final Duration retiredFileGracePeriod;
+    private final DataSize maxCompactionSize;
+    private final ScheduledExecutorService retiredFileExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("local-storage-retired-files-%s"));
+
+    private final AtomicLong optimizedColumns = new AtomicLong();
+    private final AtomicLong unchangedColumns = new AtomicLong();
+    private final AtomicLong failedShards = new AtomicLong();
+    private final AtomicLong failedCompactions = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong optimizedBytes = new AtomicLong();
+    private final AtomicLong originalScanNanos = new AtomicLong();
+    private final AtomicLong optimizedScanNanos = new AtomicLong();
+
     private final IDBI dbi;
     private final File baseStorageDir;
     private final File baseStagingDir;
     private final StorageManagerDao dao;
 
-    private final LoadingCache<File, Slice> mappedFileCache = CacheBuilder.newBuilder().build(new CacheLoader<File, Slice>()
-    {
-        @Override
-        public Slice load(File file)
-                throws Exception
-        {
-            checkArgument(file.isAbsolute(), "file is not absolute: %s", file);
-            checkArgument(file.canRead(), "file is not readable: %s", file);
-            if (file.length() == 0) {
-                return Slices.EMPTY_SLICE;
-            }
-            return Slices.mapFileReadOnly(file);
-        }
-    });
+    private final MappedFileCache mappedFileCache;
 
     @Inject
     public DatabaseLocalStorageManager(@ForLocalStorageManager IDBI dbi, DatabaseLocalStorageManagerConfig config)
@@ -116,13 +134,41 @@ public class DatabaseLocalStorageManager
         this.executorMBean = new ThreadPoolExecutorMBean((ThreadPoolExecutor) executor);
         this.shardBoundedExecutor = new KeyBoundedExecutor<>(executor);
 
+        this.optimizeEncodings = config.isOptimizeEncodings();
+        this.optimizerExecutor = newFixedThreadPool(config.getOptimizerThreads(), threadsNamed("local-storage-optimizer-%s"));
+        this.optimizerExecutorMBean = new ThreadPoolExecutorMBean((ThreadPoolExecutor) optimizerExecutor);
+
+        this.maxCompactionSize = checkNotNull(config.getMaxCompactionSize(), "maxCompactionSize is null");
+
+        this.mappedFileCache = new MappedFileCache(config.getMaxMappedFiles(), config.getMaxMappedSize(), config.isPrefetchMappedFiles());
+
         dao.createTableColumns();
+        dao.createTableRetiredFiles();
+
+        // files retired before a restart are deleted by the first run
+        this.retiredFileGracePeriod = checkNotNull(config.getRetiredFileGracePeriod(), "retiredFileGracePeriod is null");
+        retiredFileExecutor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    deleteRetiredFiles();
+                }
+                catch (Throwable e) {
+                    log.error(e, "failed to delete retired files");
+                }
+            }
+        }, 0, RETIRED_FILE_CLEANUP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     @PreDestroy
     public void stop()
     {
         executor.shutdown();
+        optimizerExecutor.shutdownNow();
+        retiredFileExecutor.shutdownNow();
+        mappedFileCache.close();
     }
 
     @Managed
@@ -132,6 +178,60 @@ public class DatabaseLocalStorageManager
         return executorMBean;
     }
 
+    @Managed
+    @Nested
+    public ThreadPoolExecutorMBean getOptimizerExecutor()
+    {
+        return optimizerExecutorMBean;
+    }
+
+    @Managed
+    @Nested
+    public MappedFileCache getMappedFileCache()
+    {
+        return mappedFileCache;
+    }
+
+    @Managed(description = "Columns that were re-encoded")
+    public long getOptimizedColumns()
+    {
+        return optimizedColumns.get();
+    }
+
+    @Managed(description = "Columns that kept their encoding because no other encoding was smaller")
+    public long getUnchangedColumns()
+    {
+        return unchangedColumns.get();
+    }
+
+    @Managed(description = "Shards whose re-encoding failed")
+    public long getFailedShards()
+    {
+        return failedShards.get();
+    }
+
+    @Managed(description = "Shard compactions that failed")
+    public long getFailedCompactions()
+    {
+        return failedCompactions.get();
+    }
+
+    @Managed(description = "Bytes saved by re-encoding columns")
+    public long getBytesSaved()
+    {
+        return originalBytes.get() - optimizedBytes.get();
+    }
+
+    @Managed(description = "Time to scan the re-encoded columns before divided by the time after")
+    public double getScanSpeedup()
+    {
+        long optimizedNanos = optimizedScanNanos.get();
+        if (optimizedNanos == 0) {
+            return Double.NaN;
+        }
+        return originalScanNanos.get() / (double) optimizedNanos;
+    }
+
     @Override
     public ColumnFileHandle createStagingFileHandles(UUID shardUuid, List<? extends ColumnHandle> columnHandles)
             throws IOException
@@ -157,94 +257,216 @@ public class DatabaseLocalStorageManager
 
         columnFileHandle.commit();
 
-        // Process staged files to optimize encodings if necessary
-        ColumnFileHandle finalColumnFileHandle = optimizeEncodings(columnFileHandle);
+        // Move the staged files to the storage directory
+        ColumnFileHandle finalColumnFileHandle = moveStagedFiles(columnFileHandle);
 
         // Commit all the columns at the same time once everything has been successfully imported
         commitShardColumns(finalColumnFileHandle);
 
         // Delete empty staging directory
         deleteStagingDirectory(columnFileHandle);
+
+        // Re-encode the committed columns in the background, so the import does not wait for it
+        if (optimizeEncodings) {
+            optimizerExecutor.execute(new OptimizeJob(finalColumnFileHandle));
+        }
+    }
+
+    @Override
+    public void compactShards(UUID shardUuid, List<UUID> sourceShardUuids, List<? extends ColumnHandle> columnHandles, Optional<ColumnHandle> sortColumn)
+    {
+        checkNotNull(shardUuid, "shardUuid is null");
+        checkNotNull(sourceShardUuids, "sourceShardUuids is null");
+        checkNotNull(columnHandles, "columnHandles is null");
+        checkNotNull(sortColumn, "sortColumn is null");
+        checkArgument(!columnHandles.isEmpty(), "columnHandles is empty");
+        checkArgument(!sortColumn.isPresent() || columnHandles.contains(sortColumn.get()), "sortColumn is not one of the columns");
+        checkState(!shardExists(shardUuid), "shard %s already exists", shardUuid);
+
+        shardBoundedExecutor.execute(shardUuid, new CompactJob(shardUuid, sourceShardUuids, columnHandles, sortColumn));
     }
 
-    private ColumnFileHandle optimizeEncodings(ColumnFileHandle columnFileHandle)
+    @VisibleForTesting
+    void doCompactShards(UUID shardUuid, List<UUID> sourceShardUuids, List<? extends ColumnHandle> columnHandles, Optional<ColumnHandle> sortColumn)
             throws IOException
     {
-        UUID shardUuid = columnFileHandle.getShardUuid();
-        File shardPath = getShardPath(baseStorageDir, shardUuid);
+        ColumnFileHandle columnFileHandle = createStagingFileHandles(shardUuid, columnHandles);
+        boolean committed = false;
+        try {
+            if (sortColumn.isPresent()) {
+                appendSortedRows(columnFileHandle, sourceShardUuids, columnHandles, columnHandles.indexOf(sortColumn.get()));
+            }
+            else {
+                for (UUID sourceShardUuid : sourceShardUuids) {
+                    appendShardRows(columnFileHandle, sourceShardUuid, columnHandles);
+                }
+            }
+            commit(columnFileHandle);
+            committed = true;
+        }
+        finally {
+            if (!committed) {
+                abortCompaction(columnFileHandle);
+            }
+        }
+    }
 
-        ImmutableList.Builder<BlockIterable> sourcesBuilder = ImmutableList.builder();
-        ColumnFileHandle.Builder builder = ColumnFileHandle.builder(shardUuid);
+    /**
+     * Copies the rows of a shard page by page, so only one block of each
+     * column is held in memory.
+     */
+    private void appendShardRows(ColumnFileHandle columnFileHandle, UUID shardUuid, List<? extends ColumnHandle> columnHandles)
+    {
+        List<Iterator<Block>> iterators = new ArrayList<>();
+        for (ColumnHandle columnHandle : columnHandles) {
+            iterators.add(getBlocks(shardUuid, columnHandle).iterator());
+        }
 
-        for (Map.Entry<ColumnHandle, File> entry : columnFileHandle.getFiles().entrySet()) {
-            File file = entry.getValue();
-            ColumnHandle columnHandle = entry.getKey();
+        BlockCursor[] cursors = new BlockCursor[iterators.size()];
+        while (true) {
+            // the pages end where the first of the current blocks ends
+            int length = Integer.MAX_VALUE;
+            for (int channel = 0; channel < cursors.length; channel++) {
+                if (cursors[channel] == null || cursors[channel].getRemainingPositions() <= 0) {
+                    if (!iterators.get(channel).hasNext()) {
+                        checkColumnsEnded(shardUuid, iterators, cursors);
+                        return;
+                    }
+                    cursors[channel] = iterators.get(channel).next().cursor();
+                }
+                length = Math.min(length, cursors[channel].getRemainingPositions());
+            }
 
-            if (file.length() > 0) {
-                Slice slice = mappedFileCache.getUnchecked(file.getAbsoluteFile());
-                checkState(file.length() == slice.length(), "File %s, length %s was mapped to Slice length %s", file.getAbsolutePath(), file.length(), slice.length());
-                // Compute optimal encoding from stats
-                BlocksFileReader blocks = BlocksFileReader.readBlocks(slice);
-                BlocksFileStats stats = blocks.getStats();
-                boolean rleEncode = stats.getAvgRunLength() > RUN_LENGTH_AVERAGE_CUTOFF;
-                boolean dicEncode = stats.getUniqueCount() < DICTIONARY_CARDINALITY_CUTOFF;
+            Block[] blocks = new Block[cursors.length];
+            for (int channel = 0; channel < cursors.length; channel++) {
+                blocks[channel] = cursors[channel].getRegionAndAdvance(length);
+            }
+            columnFileHandle.append(new Page(blocks));
+        }
+    }
 
-                BlocksFileEncoding encoding = DEFAULT_ENCODING;
+    private static void checkColumnsEnded(UUID shardUuid, List<Iterator<Block>> iterators, BlockCursor[] cursors)
+    {
+        for (int channel = 0; channel < cursors.length; channel++) {
+            boolean ended = !iterators.get(channel).hasNext() && (cursors[channel] == null || cursors[channel].getRemainingPositions() <= 0);
+            checkState(ended, "columns of shard %s have different row counts", shardUuid);
+        }
+    }
 
-                if (ENABLE_OPTIMIZATION) {
-                    if (dicEncode && rleEncode) {
-                        encoding = BlocksFileEncoding.DIC_RLE;
-                    }
-                    else if (dicEncode) {
-                        encoding = BlocksFileEncoding.DIC_RAW;
+    /**
+     * Sorts the rows of all source shards in memory.  The compaction fails if
+     * the indexed rows exceed the maximum compaction size.
+     */
+    private void appendSortedRows(ColumnFileHandle columnFileHandle, List<UUID> sourceShardUuids, List<? extends ColumnHandle> columnHandles, int sortChannel)
+    {
+        // index the rows of all source shards, the blocks of the files are not copied unless they are encoded
+        ChannelIndex[] indexes = new ChannelIndex[columnHandles.size()];
+        long indexedBytes = 0;
+        for (int channel = 0; channel < indexes.length; channel++) {
+            for (UUID sourceShardUuid : sourceShardUuids) {
+                for (Block block : getBlocks(sourceShardUuid, columnHandles.get(channel))) {
+                    if (indexes[channel] == null) {
+                        indexes[channel] = new ChannelIndex(block.getPositionCount(), block.getTupleInfo());
                     }
-                    else if (rleEncode) {
-                        encoding = BlocksFileEncoding.RLE;
+                    long sizeBefore = indexes[channel].getEstimatedSize().toBytes();
+                    indexes[channel].indexBlock(BlockUtils.toUncompressedBlock(block));
+                    indexedBytes += indexes[channel].getEstimatedSize().toBytes() - sizeBefore;
+                    if (indexedBytes > maxCompactionSize.toBytes()) {
+                        throw new IllegalStateException(format("sorted compaction of %s shards exceeds the maximum size of %s", sourceShardUuids.size(), maxCompactionSize));
                     }
                 }
+            }
+        }
 
-                File outputFile = getColumnFile(shardPath, columnHandle, encoding);
-                Files.createParentDirs(outputFile);
+        if (indexes[0] == null) {
+            return;
+        }
 
-                if (encoding == DEFAULT_ENCODING) {
-                    // Optimization: source is already raw, so just move.
-                    Files.move(file, outputFile);
-                    // still register the file with the builder so that it can
-                    // be committed correctly.
-                    builder.addColumn(columnHandle, outputFile);
-                }
-                else {
-                    // source builder and output builder move in parallel if the
-                    // column gets written
-                    sourcesBuilder.add(blocks);
-                    builder.addColumn(columnHandle, outputFile, encoding);
-                }
+        int positionCount = indexes[0].getPositionCount();
+        for (ChannelIndex index : indexes) {
+            checkState(index != null && index.getPositionCount() == positionCount, "columns of the source shards have different row counts");
+        }
+
+        sortIndexes(indexes, sortChannel);
+
+        List<TupleInfo> tupleInfos = new ArrayList<>();
+        for (ChannelIndex index : indexes) {
+            tupleInfos.add(index.getTupleInfo());
+        }
+        PageBuilder pageBuilder = new PageBuilder(tupleInfos);
+        for (int position = 0; position < positionCount; position++) {
+            for (int channel = 0; channel < indexes.length; channel++) {
+                indexes[channel].appendTo(position, pageBuilder.getBlockBuilder(channel));
             }
-            else {
-                // fake file
-                File outputFile = getColumnFile(shardPath, columnHandle, DEFAULT_ENCODING);
-                builder.addColumn(columnHandle, outputFile);
+            if (pageBuilder.isFull()) {
+                columnFileHandle.append(pageBuilder.build());
+                pageBuilder.reset();
             }
         }
+        if (!pageBuilder.isEmpty()) {
+            columnFileHandle.append(pageBuilder.build());
+        }
+    }
 
-        List<BlockIterable> sources = sourcesBuilder.build();
-        ColumnFileHandle targetFileHandle = builder.build();
+    private void abortCompaction(ColumnFileHandle columnFileHandle)
+    {
+        // close the writers, which fails if the files were already closed by the commit
+        try {
+            columnFileHandle.commit();
+        }
+        catch (IOException | RuntimeException ignored) {
+        }
 
-        if (!sources.isEmpty()) {
-            // Throw out any stats generated by the optimization setp
-            Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
-            OperatorContext operatorContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
-                    .addPipelineContext(true, true)
-                    .addDriverContext()
-                    .addOperatorContext(0, "OptimizeEncodings");
+        for (File file : columnFileHandle.getFiles().values()) {
+            deleteFile(file);
+        }
+        deleteStagingDirectory(columnFileHandle);
 
-            AlignmentOperator source = new AlignmentOperator(operatorContext, sources);
-            importData(source, targetFileHandle);
+        // the files are moved to the storage directory before the shard is committed
+        UUID shardUuid = columnFileHandle.getShardUuid();
+        if (!shardExists(shardUuid)) {
+            File[] shardFiles = getShardPath(baseStorageDir, shardUuid).listFiles();
+            if (shardFiles != null) {
+                for (File file : shardFiles) {
+                    deleteFile(file);
+                }
+            }
         }
+    }
 
-        targetFileHandle.commit();
+    private static void sortIndexes(final ChannelIndex[] indexes, int sortChannel)
+    {
+        MultiSliceFieldOrderedTupleComparator comparator = new MultiSliceFieldOrderedTupleComparator(new int[] {0}, new boolean[] {true}, indexes[sortChannel]);
+        Arrays.quickSort(0, indexes[sortChannel].getPositionCount(), comparator, new Swapper()
+        {
+            @Override
+            public void swap(int a, int b)
+            {
+                for (ChannelIndex index : indexes) {
+                    index.swap(a, b);
+                }
+            }
+        });
+    }
+
+    private ColumnFileHandle moveStagedFiles(ColumnFileHandle columnFileHandle)
+            throws IOException
+    {
+        UUID shardUuid = columnFileHandle.getShardUuid();
+        File shardPath = getShardPath(baseStorageDir, shardUuid);
+
+        ColumnFileHandle.Builder builder = ColumnFileHandle.builder(shardUuid);
+        for (Map.Entry<ColumnHandle, File> entry : columnFileHandle.getFiles().entrySet()) {
+            File file = entry.getValue();
+            ColumnHandle columnHandle = entry.getKey();
 
-        return targetFileHandle;
+            // empty files are moved as well, so every committed column has a file
+            File outputFile = getColumnFile(shardPath, columnHandle, DEFAULT_ENCODING);
+            Files.createParentDirs(outputFile);
+            Files.move(file, outputFile);
+            builder.addColumn(columnHandle, outputFile);
+        }
+        return builder.build();
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -257,17 +479,6 @@ public class DatabaseLocalStorageManager
         }
     }
 
-    private static void importData(AlignmentOperator source, ColumnFileHandle fileHandle)
-    {
-        while (!source.isFinished()) {
-            Page page = source.getOutput();
-            if (page != null) {
-                fileHandle.append(page);
-            }
-            checkState(source.isBlocked().isDone(), "Alignment operator is blocked");
-        }
-    }
-
     /**
      * Generate a file system path for a shard UUID.
      * <p/>
@@ -329,22 +540,50 @@ public class DatabaseLocalStorageManager
     @Override
     public BlockIterable getBlocks(UUID shardUuid, ColumnHandle columnHandle)
     {
-        checkNotNull(columnHandle);
-        checkState(columnHandle instanceof NativeColumnHandle, "Can only load blocks from a native column");
-        long columnId = ((NativeColumnHandle) columnHandle).getColumnId();
-
-        checkState(shardExists(shardUuid), "shard %s does not exist in local database", shardUuid);
-        String filename = dao.getColumnFilename(shardUuid, columnId);
-        File file = new File(getShardPath(baseStorageDir, shardUuid), filename);
+        File file = getStoredColumnFile(shardUuid, columnHandle);
 
         // TODO: remove this hack when empty blocks are allowed
-        if (!file.exists()) {
+        // empty columns are committed as empty files, but shards imported by older versions have no file at all
+        if (!file.exists() || file.length() == 0) {
             return BlockUtils.emptyBlockIterable();
         }
 
         return convertFilesToBlocks(ImmutableList.of(file));
     }
 
+    @Override
+    public Optional<ZoneMap> getZoneMap(UUID shardUuid, ColumnHandle columnHandle)
+    {
+        File file = getStoredColumnFile(shardUuid, columnHandle);
+        if (!file.exists() || file.length() == 0) {
+            return Optional.absent();
+        }
+
+        Slice slice = mapFile(file);
+        return BlocksFileReader.readBlocks(slice).getZoneMap();
+    }
+
+    private Slice mapFile(File file)
+    {
+        try {
+            return mappedFileCache.get(file.getAbsoluteFile());
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private File getStoredColumnFile(UUID shardUuid, ColumnHandle columnHandle)
+    {
+        checkNotNull(columnHandle);
+        checkState(columnHandle instanceof NativeColumnHandle, "Can only load blocks from a native column");
+        long columnId = ((NativeColumnHandle) columnHandle).getColumnId();
+
+        checkState(shardExists(shardUuid), "shard %s does not exist in local database", shardUuid);
+        String filename = dao.getColumnFilename(shardUuid, columnId);
+        return new File(getShardPath(baseStorageDir, shardUuid), filename);
+    }
+
     private BlockIterable convertFilesToBlocks(Iterable<File> files)
     {
         checkArgument(files.iterator().hasNext(), "no files in stream");
@@ -354,7 +593,7 @@ public class DatabaseLocalStorageManager
             @Override
             public Iterable<? extends Block> apply(File file)
             {
-                Slice slice = mappedFileCache.getUnchecked(file.getAbsoluteFile());
+                Slice slice = mapFile(file);
                 return BlocksFileReader.readBlocks(slice);
             }
         }));
@@ -387,6 +626,209 @@ public class DatabaseLocalStorageManager
         return dir;
     }
 
+    /**
+     * Re-encodes the columns of a committed shard.  The encoding is chosen from
+     * the statistics of the column file, and the new file replaces the old one
+     * only if it is smaller.  The file name in the database is swapped with a
+     * conditional update, so a shard that was dropped in the meantime is left alone.
+     */
+    private class OptimizeJob
+            implements Runnable
+    {
+        private final UUID shardUuid;
+        private final Map<ColumnHandle, File> files;
+
+        private OptimizeJob(ColumnFileHandle columnFileHandle)
+        {
+            this.shardUuid = columnFileHandle.getShardUuid();
+            this.files = ImmutableMap.copyOf(columnFileHandle.getFiles());
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                for (Map.Entry<ColumnHandle, File> entry : files.entrySet()) {
+                    if (entry.getValue().length() > 0) {
+                        optimizeColumn(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            catch (Exception e) {
+                failedShards.incrementAndGet();
+                log.warn(e, "failed to optimize encodings of shard %s", shardUuid);
+            }
+        }
+
+        private void optimizeColumn(ColumnHandle columnHandle, File file)
+                throws IOException
+        {
+            Slice slice = Slices.mapFileReadOnly(file);
+            BlocksFileReader blocks = BlocksFileReader.readBlocks(slice);
+            Optional<BlocksFileEncoding> encoding = chooseEncoding(blocks.getStats());
+            if (!encoding.isPresent()) {
+                unchangedColumns.incrementAndGet();
+                return;
+            }
+
+            File outputFile = getColumnFile(file.getParentFile(), columnHandle, encoding.get());
+            boolean written = false;
+            try {
+                BlocksFileWriter writer = new BlocksFileWriter(encoding.get(), Files.newOutputStreamSupplier(outputFile));
+                for (Block block : blocks) {
+                    writer.append(BlockUtils.toTupleIterable(block));
+                }
+                writer.close();
+                written = true;
+            }
+            finally {
+                if (!written) {
+                    deleteFile(outputFile);
+                }
+            }
+
+            long originalLength = file.length();
+            long optimizedLength = outputFile.length();
+            if (optimizedLength >= originalLength) {
+                deleteFile(outputFile);
+                unchangedColumns.incrementAndGet();
+                return;
+            }
+
+            long originalNanos = scanNanos(blocks);
+            long optimizedNanos = scanNanos(BlocksFileReader.readBlocks(Slices.mapFileReadOnly(outputFile)));
+
+            if (!swapColumnFile(((NativeColumnHandle) columnHandle).getColumnId(), file, outputFile)) {
+                // the shard was dropped while it was re-encoded
+                deleteFile(outputFile);
+                return;
+            }
+
+            // queries that already looked up the old file can still read it until it is deleted after the grace period
+            mappedFileCache.invalidate(file.getAbsoluteFile());
+
+            optimizedColumns.incrementAndGet();
+            originalBytes.addAndGet(originalLength);
+            optimizedBytes.addAndGet(optimizedLength);
+            originalScanNanos.addAndGet(originalNanos);
+            optimizedScanNanos.addAndGet(optimizedNanos);
+        }
+
+        /**
+         * Replaces the file of the column and retires the old file, or returns
+         * false if the column no longer uses the old file.
+         */
+        private boolean swapColumnFile(final long columnId, final File oldFile, final File newFile)
+        {
+            return dbi.inTransaction(new TransactionCallback<Boolean>()
+            {
+                @Override
+                public Boolean inTransaction(Handle handle, TransactionStatus status)
+                {
+                    StorageManagerDao dao = handle.attach(StorageManagerDao.class);
+                    if (dao.updateColumnFilename(shardUuid, columnId, oldFile.getName(), newFile.getName()) == 0) {
+                        return false;
+                    }
+                    dao.insertRetiredFile(getStoragePath(oldFile), System.currentTimeMillis());
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the files that were replaced by a re-encoded file longer ago
+     * than the grace period.
+     */
+    @VisibleForTesting
+    void deleteRetiredFiles()
+    {
+        for (String path : dao.getRetiredFiles(System.currentTimeMillis() - retiredFileGracePeriod.toMillis())) {
+            File file = new File(baseStorageDir, path);
+            mappedFileCache.invalidate(file.getAbsoluteFile());
+            // the file is already gone if its shard was dropped
+            if (file.exists()) {
+                deleteFile(file);
+            }
+            dao.deleteRetiredFile(path);
+        }
+    }
+
+    private String getStoragePath(File file)
+    {
+        return baseStorageDir.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+    }
+
+    /**
+     * Returns the encoding that should be smallest for a column with the
+     * specified statistics, or absent if the default encoding should be kept.
+     */
+    @VisibleForTesting
+    static Optional<BlocksFileEncoding> chooseEncoding(BlocksFileStats stats)
+    {
+        boolean rleEncode = stats.getAvgRunLength() > RUN_LENGTH_AVERAGE_CUTOFF;
+        boolean dicEncode = stats.getUniqueCount() < DICTIONARY_CARDINALITY_CUTOFF;
+
+        if (dicEncode && rleEncode) {
+            return Optional.of(BlocksFileEncoding.DIC_RLE);
+        }
+        if (dicEncode) {
+            return Optional.of(BlocksFileEncoding.DIC_RAW);
+        }
+        if (rleEncode) {
+            return Optional.of(BlocksFileEncoding.RLE);
+        }
+        return Optional.absent();
+    }
+
+    private static long scanNanos(Iterable<Block> blocks)
+    {
+        long start = System.nanoTime();
+        for (Block block : blocks) {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                cursor.getTuple();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void deleteFile(File file)
+    {
+        if (!file.delete()) {
+            log.warn("failed to delete file: %s", file.getAbsolutePath());
+        }
+    }
+
+    private class CompactJob
+            implements Runnable
+    {
+        private final UUID shardUuid;
+        private final List<UUID> sourceShardUuids;
+        private final List<ColumnHandle> columnHandles;
+        private final Optional<ColumnHandle> sortColumn;
+
+        private CompactJob(UUID shardUuid, List<UUID> sourceShardUuids, List<? extends ColumnHandle> columnHandles, Optional<ColumnHandle> sortColumn)
+        {
+            this.shardUuid = checkNotNull(shardUuid, "shardUuid is null");
+            this.sourceShardUuids = ImmutableList.copyOf(checkNotNull(sourceShardUuids, "sourceShardUuids is null"));
+            this.columnHandles = ImmutableList.copyOf(checkNotNull(columnHandles, "columnHandles is null"));
+            this.sortColumn = checkNotNull(sortColumn, "sortColumn is null");
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                doCompactShards(shardUuid, sourceShardUuids, columnHandles, sortColumn);
+            }
+            catch (Exception e) {
+                failedCompactions.incrementAndGet();
+                log.warn(e, "failed to compact %s shards into shard %s", sourceShardUuids.size(), shardUuid);
+            }
+        }
+    }
+
     private class DropJob
             implements Runnable
     {
@@ -401,14 +843,17 @@ public class DatabaseLocalStorageManager
         public void run()
         {
             // TODO: dropping needs to be globally coordinated with read queries
-            List<String> shardFiles = dao.getShardFiles(shardUuid);
-            for (String shardFile : shardFiles) {
-                File file = new File(getShardPath(baseStorageDir, shardUuid), shardFile);
-                if (!file.delete()) {
-                    log.warn("failed to delete file: %s", file.getAbsolutePath());
+            dao.dropShard(shardUuid);
+
+            // delete every file of the shard, including a file written by a concurrent
+            // optimize job, which swaps file names only while the shard still exists
+            File[] shardFiles = getShardPath(baseStorageDir, shardUuid).listFiles();
+            if (shardFiles != null) {
+                for (File file : shardFiles) {
+                    mappedFileCache.invalidate(file.getAbsoluteFile());
+                    deleteFile(file);
                 }
             }
-            dao.dropShard(shardUuid);
         }
     }
 }
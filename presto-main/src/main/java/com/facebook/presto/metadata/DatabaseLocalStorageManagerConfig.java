@@ -15,16 +15,26 @@ package com.facebook.presto.metadata;
 
 import io.airlift.configuration.Config;
 import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 public class DatabaseLocalStorageManagerConfig
 {
     private File dataDirectory = new File("var/data");
     private int tasksPerNode = 32;
+    private boolean optimizeEncodings = true;
+    private int optimizerThreads = 2;
+    private int maxMappedFiles = 10_000;
+    private DataSize maxMappedSize = new DataSize(16, DataSize.Unit.GIGABYTE);
+    private boolean prefetchMappedFiles;
+    private Duration retiredFileGracePeriod = new Duration(1, TimeUnit.HOURS);
+    private DataSize maxCompactionSize = new DataSize(256, DataSize.Unit.MEGABYTE);
 
     @NotNull
     public File getDataDirectory()
@@ -53,4 +63,100 @@ public class DatabaseLocalStorageManagerConfig
         this.tasksPerNode = tasksPerNode;
         return this;
     }
+
+    public boolean isOptimizeEncodings()
+    {
+        return optimizeEncodings;
+    }
+
+    @Config("storage-manager.optimize-encodings")
+    @ConfigDescription("Re-encode the columns of imported shards in the background")
+    public DatabaseLocalStorageManagerConfig setOptimizeEncodings(boolean optimizeEncodings)
+    {
+        this.optimizeEncodings = optimizeEncodings;
+        return this;
+    }
+
+    @Min(1)
+    public int getOptimizerThreads()
+    {
+        return optimizerThreads;
+    }
+
+    @Config("storage-manager.optimizer-threads")
+    @ConfigDescription("Number of threads used to re-encode shards")
+    public DatabaseLocalStorageManagerConfig setOptimizerThreads(int optimizerThreads)
+    {
+        this.optimizerThreads = optimizerThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxMappedFiles()
+    {
+        return maxMappedFiles;
+    }
+
+    @Config("storage-manager.max-mapped-files")
+    @ConfigDescription("Maximum number of column files kept memory mapped")
+    public DatabaseLocalStorageManagerConfig setMaxMappedFiles(int maxMappedFiles)
+    {
+        this.maxMappedFiles = maxMappedFiles;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getMaxMappedSize()
+    {
+        return maxMappedSize;
+    }
+
+    @Config("storage-manager.max-mapped-size")
+    @ConfigDescription("Maximum total size of the column files kept memory mapped")
+    public DatabaseLocalStorageManagerConfig setMaxMappedSize(DataSize maxMappedSize)
+    {
+        this.maxMappedSize = maxMappedSize;
+        return this;
+    }
+
+    public boolean isPrefetchMappedFiles()
+    {
+        return prefetchMappedFiles;
+    }
+
+    @Config("storage-manager.prefetch-mapped-files")
+    @ConfigDescription("Read newly mapped column files ahead into the page cache")
+    public DatabaseLocalStorageManagerConfig setPrefetchMappedFiles(boolean prefetchMappedFiles)
+    {
+        this.prefetchMappedFiles = prefetchMappedFiles;
+        return this;
+    }
+
+    @NotNull
+    public Duration getRetiredFileGracePeriod()
+    {
+        return retiredFileGracePeriod;
+    }
+
+    @Config("storage-manager.retired-file-grace-period")
+    @ConfigDescription("Time a column file replaced by a re-encoded file is kept for running queries")
+    public DatabaseLocalStorageManagerConfig setRetiredFileGracePeriod(Duration retiredFileGracePeriod)
+    {
+        this.retiredFileGracePeriod = retiredFileGracePeriod;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getMaxCompactionSize()
+    {
+        return maxCompactionSize;
+    }
+
+    @Config("storage-manager.max-compaction-size")
+    @ConfigDescription("Maximum size of the rows held in memory to merge shards sorted on a column")
+    public DatabaseLocalStorageManagerConfig setMaxCompactionSize(DataSize maxCompactionSize)
+    {
+        this.maxCompactionSize = maxCompactionSize;
+        return this;
+    }
 }
@@ -40,6 +40,7 @@ import static com.facebook.presto.util.SqlUtils.runIgnoringConstraintViolation;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Maps.immutableEntry;
+import static java.lang.String.format;
 
 public class DatabaseShardManager
         implements ShardManager
@@ -98,6 +99,40 @@ public class DatabaseShardManager
         commitPartition(tableHandle, "<UNPARTITIONED>", ImmutableList.<PartitionKey>of(), shards);
     }
 
+    @Override
+    public void replaceShards(TableHandle tableHandle, final long partitionId, final Set<UUID> oldShardUuids, final UUID newShardUuid, final String nodeIdentifier)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        checkNotNull(oldShardUuids, "oldShardUuids is null");
+        checkNotNull(newShardUuid, "newShardUuid is null");
+        checkNotNull(nodeIdentifier, "nodeIdentifier is null");
+
+        checkState(tableHandle instanceof NativeTableHandle, "can only replace shards for native tables");
+        final long tableId = ((NativeTableHandle) tableHandle).getTableId();
+
+        dbi.inTransaction(new VoidTransactionCallback()
+        {
+            @Override
+            protected void execute(Handle handle, TransactionStatus status)
+            {
+                ShardManagerDao dao = handle.attach(ShardManagerDao.class);
+
+                // fail if any shard has been dropped or moved since the replacement was created
+                for (UUID shardUuid : oldShardUuids) {
+                    Long shardId = dao.getShardId(shardUuid);
+                    if (shardId == null || dao.deletePartitionShard(shardId, partitionId) == 0) {
+                        throw new IllegalStateException(format("shard %s is no longer part of partition %s", shardUuid, partitionId));
+                    }
+                }
+
+                long nodeId = getOrCreateNodeId(nodeIdentifier);
+                long shardId = dao.insertShard(newShardUuid);
+                dao.insertShardNode(shardId, nodeId);
+                dao.insertPartitionShard(shardId, tableId, partitionId);
+            }
+        });
+    }
+
     @Override
     public void disassociateShard(long shardId, @Nullable String nodeIdentifier)
     {
@@ -14,7 +14,9 @@
 package com.facebook.presto.metadata;
 
 import com.facebook.presto.block.BlockIterable;
+import com.facebook.presto.serde.ZoneMap;
 import com.facebook.presto.spi.ColumnHandle;
+import com.google.common.base.Optional;
 
 import java.io.IOException;
 import java.util.List;
@@ -24,6 +26,12 @@ public interface LocalStorageManager
 {
     BlockIterable getBlocks(UUID shardUuid, ColumnHandle columnHandle);
 
+    /**
+     * Returns the zone map of a column of a shard, or absent if the column
+     * file does not have one.
+     */
+    Optional<ZoneMap> getZoneMap(UUID shardUuid, ColumnHandle columnHandle);
+
     boolean shardExists(UUID shardUuid);
 
     void dropShard(UUID shardUuid);
@@ -35,4 +43,12 @@ public interface LocalStorageManager
 
     void commit(ColumnFileHandle columnFileHandle)
             throws IOException;
+
+    /**
+     * Starts creating a shard containing the rows of the source shards, sorted
+     * on the sort column if one is specified.  The shard is active until it is
+     * created or the compaction failed, in which case the shard does not exist.
+     * The source shards are not dropped.
+     */
+    void compactShards(UUID shardUuid, List<UUID> sourceShardUuids, List<? extends ColumnHandle> columnHandles, Optional<ColumnHandle> sortColumn);
 }
@@ -0,0 +1,204 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import com.google.common.io.Files;
+import io.airlift.log.Logger;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import io.airlift.units.DataSize;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+
+/**
+ * Read only memory mappings of column files, bounded by the number of mapped
+ * files and by their total size.  The least recently used mappings are evicted
+ * first.
+ * <p/>
+ * Eviction only drops the reference held by the cache.  The slices handed out
+ * by the cache keep their mapping alive, so a mapping is unmapped once no
+ * reader references it any more, and a running scan never reads unmapped
+ * memory.
+ */
+@ThreadSafe
+public class MappedFileCache
+{
+    private static final Logger log = Logger.get(MappedFileCache.class);
+
+    private final int maxFiles;
+    private final long maxBytes;
+    private final ExecutorService prefetchExecutor;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<File, Slice> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("this")
+    private long mappedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+
+    public MappedFileCache(int maxFiles, DataSize maxSize, boolean prefetch)
+    {
+        checkArgument(maxFiles > 0, "maxFiles must be at least 1");
+        checkNotNull(maxSize, "maxSize is null");
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxSize.toBytes();
+        this.prefetchExecutor = prefetch ? newSingleThreadExecutor(daemonThreadsNamed("mapped-file-prefetch-%s")) : null;
+    }
+
+    public void close()
+    {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the contents of the file, mapping the file if it is not mapped yet.
+     */
+    public Slice get(File file)
+            throws IOException
+    {
+        checkArgument(file.isAbsolute(), "file is not absolute: %s", file);
+
+        synchronized (this) {
+            Slice slice = mappings.get(file);
+            if (slice != null) {
+                hits.incrementAndGet();
+                return slice;
+            }
+        }
+        misses.incrementAndGet();
+
+        checkArgument(file.canRead(), "file is not readable: %s", file);
+        if (file.length() == 0) {
+            return Slices.EMPTY_SLICE;
+        }
+        Slice slice = map(file);
+
+        synchronized (this) {
+            // another reader may have mapped the file concurrently
+            Slice existing = mappings.get(file);
+            if (existing != null) {
+                return existing;
+            }
+            mappings.put(file, slice);
+            mappedBytes += slice.length();
+            evict();
+        }
+        return slice;
+    }
+
+    /**
+     * Drops the mapping of the file, so the next read maps the file again.
+     */
+    public synchronized void invalidate(File file)
+    {
+        Slice slice = mappings.remove(file);
+        if (slice != null) {
+            mappedBytes -= slice.length();
+        }
+    }
+
+    @Managed(description = "Reads of files that were already mapped")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @Managed(description = "Reads of files that had to be mapped")
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @Managed(description = "Mappings evicted to stay within the bounds of the cache")
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    @Managed(description = "Bytes read ahead into the page cache")
+    public long getPrefetchedBytes()
+    {
+        return prefetchedBytes.get();
+    }
+
+    @Managed
+    public synchronized int getMappedFiles()
+    {
+        return mappings.size();
+    }
+
+    @Managed
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    @GuardedBy("this")
+    private void evict()
+    {
+        // the most recently used mapping is never evicted, so a file larger than the cache can still be read
+        Iterator<Map.Entry<File, Slice>> iterator = mappings.entrySet().iterator();
+        while ((mappings.size() > maxFiles || mappedBytes > maxBytes) && mappings.size() > 1) {
+            Slice slice = iterator.next().getValue();
+            iterator.remove();
+            mappedBytes -= slice.length();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Slice map(final File file)
+            throws IOException
+    {
+        final MappedByteBuffer buffer = Files.map(file);
+        if (prefetchExecutor != null) {
+            // load the pages of the file in the background, so a sequential scan does not fault on every page
+            prefetchExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        buffer.load();
+                        prefetchedBytes.addAndGet(buffer.capacity());
+                    }
+                    catch (RuntimeException e) {
+                        log.warn(e, "Error prefetching %s", file);
+                    }
+                }
+            });
+        }
+        return Slice.toUnsafeSlice(buffer);
+    }
+}
@@ -18,6 +18,7 @@ import com.facebook.presto.spi.ColumnMetadata;
 import com.facebook.presto.spi.OutputTableHandle;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
 import com.facebook.presto.sql.analyzer.Type;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.google.common.base.Optional;
@@ -87,6 +88,14 @@ public interface Metadata
     @NotNull
     ColumnMetadata getColumnMetadata(TableHandle tableHandle, ColumnHandle columnHandle);
 
+    /**
+     * Gets the statistics for the specified table, which are unknown if the connector does not provide statistics.
+     *
+     * @throws RuntimeException if table handle is no longer valid
+     */
+    @NotNull
+    TableStatistics getTableStatistics(TableHandle tableHandle);
+
     /**
      * Gets the metadata for all columns that match the specified table prefix.
      */
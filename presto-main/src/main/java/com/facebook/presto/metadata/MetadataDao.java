@@ -48,6 +48,13 @@ public interface MetadataDao
             ")")
     void createColumnsTable();
 
+    @SqlUpdate("CREATE TABLE IF NOT EXISTS table_statistics (\n" +
+            "  table_id BIGINT PRIMARY KEY,\n" +
+            "  row_count BIGINT NOT NULL,\n" +
+            "  FOREIGN KEY (table_id) REFERENCES tables (table_id)\n" +
+            ")")
+    void createTableStatisticsTable();
+
     @SqlQuery("SELECT table_id FROM tables\n" +
             "WHERE catalog_name = :catalogName\n" +
             "  AND schema_name = :schemaName\n" +
@@ -85,6 +92,11 @@ public interface MetadataDao
             "WHERE table_id = :tableId AND column_name = :columnName")
     Long getColumnId(@Bind("tableId") long tableId, @Bind("columnName") String columnName);
 
+    @SqlQuery("SELECT row_count\n" +
+            "FROM table_statistics\n" +
+            "WHERE table_id = :tableId")
+    Long getTableRowCount(@Bind("tableId") long tableId);
+
     @SqlQuery("SELECT catalog_name, schema_name, table_name\n" +
             "FROM tables\n" +
             "WHERE (catalog_name = :catalogName OR :catalogName IS NULL)\n" +
@@ -137,9 +149,18 @@ public interface MetadataDao
             @Bind("ordinalPosition") int ordinalPosition,
             @Bind("dataType") String dataType);
 
+    @SqlUpdate("INSERT INTO table_statistics (table_id, row_count)\n" +
+            "VALUES (:tableId, :rowCount)")
+    void insertTableStatistics(
+            @Bind("tableId") long tableId,
+            @Bind("rowCount") long rowCount);
+
     @SqlUpdate("DELETE FROM tables WHERE table_id = :tableId")
     int dropTable(@Bind("tableId") long tableId);
 
     @SqlUpdate("DELETE FROM columns WHERE table_id = :tableId")
     int dropColumns(@Bind("tableId") long tableId);
+
+    @SqlUpdate("DELETE FROM table_statistics WHERE table_id = :tableId")
+    int dropTableStatistics(@Bind("tableId") long tableId);
 }
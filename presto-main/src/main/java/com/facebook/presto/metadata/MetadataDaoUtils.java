@@ -29,6 +29,7 @@ public final class MetadataDaoUtils
     public static void dropTable(MetadataDao dao, long tableId)
     {
         dao.dropColumns(tableId);
+        dao.dropTableStatistics(tableId);
         dao.dropTable(tableId);
     }
 
@@ -51,6 +52,7 @@ public final class MetadataDaoUtils
     {
         dao.createTablesTable();
         dao.createColumnsTable();
+        dao.createTableStatisticsTable();
     }
 
     private static void sleep(Duration duration)
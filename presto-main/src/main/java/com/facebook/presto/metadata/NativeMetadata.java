@@ -15,6 +15,7 @@ package com.facebook.presto.metadata;
 
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ColumnStatistics;
 import com.facebook.presto.spi.ColumnType;
 import com.facebook.presto.spi.ConnectorMetadata;
 import com.facebook.presto.spi.ConnectorTableMetadata;
@@ -22,6 +23,7 @@ import com.facebook.presto.spi.OutputTableHandle;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -172,6 +174,21 @@ public class NativeMetadata
         return Multimaps.asMap(columns.build());
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        checkNotNull(tableHandle, "tableHandle is null");
+        checkArgument(tableHandle instanceof NativeTableHandle, "tableHandle is not an instance of NativeTableHandle");
+        NativeTableHandle nativeTableHandle = (NativeTableHandle) tableHandle;
+
+        // only tables created by this connector have a row count
+        Long rowCount = dao.getTableRowCount(nativeTableHandle.getTableId());
+        if (rowCount == null) {
+            return TableStatistics.unknown();
+        }
+        return new TableStatistics(rowCount, ImmutableMap.<ColumnHandle, ColumnStatistics>of());
+    }
+
     private SchemaTableName getTableName(TableHandle tableHandle)
     {
         checkNotNull(tableHandle, "tableHandle is null");
@@ -263,6 +280,17 @@ public class NativeMetadata
     {
         final NativeOutputTableHandle table = checkType(outputTableHandle, NativeOutputTableHandle.class, "outputTableHandle");
 
+        ImmutableMap.Builder<UUID, String> shards = ImmutableMap.builder();
+        long rowCount = 0;
+        for (String fragment : fragments) {
+            Iterator<String> split = Splitter.on(':').split(fragment).iterator();
+            String nodeId = split.next();
+            UUID shardUuid = UUID.fromString(split.next());
+            rowCount += Long.parseLong(split.next());
+            shards.put(shardUuid, nodeId);
+        }
+        final long tableRowCount = rowCount;
+
         dbi.inTransaction(new VoidTransactionCallback()
         {
             @Override
@@ -275,17 +303,10 @@ public class NativeMetadata
                     ColumnType columnType = table.getColumnTypes().get(i);
                     dao.insertColumn(tableId, i + 1, column.getColumnName(), i, fromColumnType(columnType).getName());
                 }
+                dao.insertTableStatistics(tableId, tableRowCount);
             }
         });
 
-        ImmutableMap.Builder<UUID, String> shards = ImmutableMap.builder();
-        for (String fragment : fragments) {
-            Iterator<String> split = Splitter.on(':').split(fragment).iterator();
-            String nodeId = split.next();
-            UUID shardUuid = UUID.fromString(split.next());
-            shards.put(shardUuid, nodeId);
-        }
-
         TableHandle tableHandle = getTableHandle(new SchemaTableName(table.getSchemaName(), table.getTableName()));
 
         shardManager.commitUnpartitionedTable(tableHandle, shards.build());
@@ -38,6 +38,7 @@ public class NativeRecordSink
     private final PageBuilder pageBuilder;
 
     private int field = -1;
+    private long rowCount;
 
     public NativeRecordSink(String nodeId, ColumnFileHandle fileHandle, LocalStorageManager storageManager, List<ColumnType> columnTypes)
     {
@@ -60,6 +61,7 @@ public class NativeRecordSink
         checkState(field != -1, "not in record");
         checkState(field == fileHandle.getFieldCount(), "not all fields set");
         field = -1;
+        rowCount++;
 
         if (pageBuilder.isFull()) {
             fileHandle.append(pageBuilder.build());
@@ -113,7 +115,7 @@ public class NativeRecordSink
             throw Throwables.propagate(e);
         }
 
-        return Joiner.on(':').join(nodeId, fileHandle.getShardUuid());
+        return Joiner.on(':').join(nodeId, fileHandle.getShardUuid(), rowCount);
     }
 
     private BlockBuilder nextColumn()
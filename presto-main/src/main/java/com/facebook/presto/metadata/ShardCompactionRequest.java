@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Request to a node to merge some of its shards into a new shard.
+ */
+public class ShardCompactionRequest
+{
+    private final List<UUID> sourceShardUuids;
+    private final List<NativeColumnHandle> columnHandles;
+    private final NativeColumnHandle sortColumn;
+
+    @JsonCreator
+    public ShardCompactionRequest(
+            @JsonProperty("sourceShardUuids") List<UUID> sourceShardUuids,
+            @JsonProperty("columnHandles") List<NativeColumnHandle> columnHandles,
+            @JsonProperty("sortColumn") @Nullable NativeColumnHandle sortColumn)
+    {
+        this.sourceShardUuids = ImmutableList.copyOf(checkNotNull(sourceShardUuids, "sourceShardUuids is null"));
+        this.columnHandles = ImmutableList.copyOf(checkNotNull(columnHandles, "columnHandles is null"));
+        checkArgument(sortColumn == null || columnHandles.contains(sortColumn), "sortColumn is not one of the columns");
+        this.sortColumn = sortColumn;
+    }
+
+    @JsonProperty
+    public List<UUID> getSourceShardUuids()
+    {
+        return sourceShardUuids;
+    }
+
+    @JsonProperty
+    public List<NativeColumnHandle> getColumnHandles()
+    {
+        return columnHandles;
+    }
+
+    @Nullable
+    @JsonProperty
+    public NativeColumnHandle getSortColumn()
+    {
+        return sortColumn;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("sourceShardUuids", sourceShardUuids)
+                .add("columnHandles", columnHandles)
+                .add("sortColumn", sortColumn)
+                .toString();
+    }
+}
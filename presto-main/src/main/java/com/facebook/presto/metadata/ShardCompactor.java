@@ -0,0 +1,436 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import com.facebook.presto.util.KeyBoundedExecutor;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.inject.Inject;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.HttpUriBuilder;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.StatusResponseHandler.StatusResponse;
+import io.airlift.json.JsonCodec;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.skife.jdbi.v2.IDBI;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.facebook.presto.metadata.Node.getIdentifierFunction;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.http.client.JsonBodyGenerator.jsonBodyGenerator;
+import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Periodically merges the small shards of each partition of the native tables.
+ * <p/>
+ * Imports create one shard per source split, so a partition can consist of
+ * thousands of small shards.  When a node stores at least the minimum number of
+ * shards of a partition, the node is asked to merge them into a new shard,
+ * optionally sorted on a column, and the partition is then switched to the new
+ * shard in a single transaction.  The replaced shards no longer belong to any
+ * partition, so they are dropped from the node by the {@link ShardCleaner}.
+ */
+public class ShardCompactor
+{
+    private static final Logger log = Logger.get(ShardCompactor.class);
+
+    private static final Duration STATUS_POLL_INTERVAL = new Duration(1, TimeUnit.SECONDS);
+
+    private final NodeManager nodeManager;
+    private final ShardManager shardManager;
+    private final MetadataDao metadataDao;
+    private final HttpClient httpClient;
+    private final JsonCodec<ShardCompactionRequest> requestCodec;
+
+    private final Duration interval;
+    private final int minShards;
+    private final int maxShards;
+    private final String sortColumn;
+    private final Duration compactionTimeout;
+
+    private final boolean enabled;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final ScheduledExecutorService executorService = newSingleThreadScheduledExecutor(daemonThreadsNamed("shard-compactor-%s"));
+    private final AtomicReference<ScheduledFuture<?>> scheduledFuture = new AtomicReference<>();
+
+    private final ExecutorService nodeExecutor;
+    private final KeyBoundedExecutor<String> nodeBoundedExecutor;
+
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong failedCompactions = new AtomicLong();
+    private final AtomicLong compactedShards = new AtomicLong();
+
+    @Inject
+    public ShardCompactor(NodeManager nodeManager,
+            ShardManager shardManager,
+            @ForMetadata IDBI dbi,
+            @ForShardCompactor HttpClient httpClient,
+            JsonCodec<ShardCompactionRequest> requestCodec,
+            ShardCompactorConfig config)
+    {
+        this.nodeManager = checkNotNull(nodeManager, "nodeManager is null");
+        this.shardManager = checkNotNull(shardManager, "shardManager is null");
+        this.metadataDao = checkNotNull(dbi, "dbi is null").onDemand(MetadataDao.class);
+        this.httpClient = checkNotNull(httpClient, "httpClient is null");
+        this.requestCodec = checkNotNull(requestCodec, "requestCodec is null");
+
+        checkNotNull(config, "config is null");
+
+        this.interval = config.getCompactorInterval();
+        this.minShards = config.getMinShards();
+        this.maxShards = config.getMaxShards();
+        this.sortColumn = config.getSortColumn();
+        this.compactionTimeout = config.getCompactionTimeout();
+
+        // compact one set of shards at a time on each node, so queries on the node are not starved of disk bandwidth
+        this.nodeExecutor = newFixedThreadPool(config.getMaxThreads(), daemonThreadsNamed("shard-compactor-worker-%s"));
+        this.nodeBoundedExecutor = new KeyBoundedExecutor<>(nodeExecutor);
+        this.enabled = config.isEnabled();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (enabled) {
+            if (started.compareAndSet(false, true)) {
+                this.scheduledFuture.set(executorService.scheduleWithFixedDelay(new ShardCompactorRunnable(),
+                        interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executorService.shutdownNow();
+        nodeExecutor.shutdownNow();
+    }
+
+    @Managed(description = "Shard merges that completed")
+    public long getCompactions()
+    {
+        return compactions.get();
+    }
+
+    @Managed(description = "Shard merges that failed")
+    public long getFailedCompactions()
+    {
+        return failedCompactions.get();
+    }
+
+    @Managed(description = "Shards replaced by merged shards")
+    public long getCompactedShards()
+    {
+        return compactedShards.get();
+    }
+
+    /**
+     * Groups the shards of each partition by the node storing them, and splits
+     * each group into compactions of at most {@code maxShards} shards.  Only
+     * compactions of at least {@code minShards} shards are returned, and shards
+     * stored on more than one node are never compacted.
+     */
+    @VisibleForTesting
+    static List<Compaction> planCompactions(Multimap<Long, Entry<UUID, String>> shardNodesByPartition, int minShards, int maxShards)
+    {
+        checkArgument(minShards >= 2, "minShards must be at least 2");
+        checkArgument(maxShards >= 2, "maxShards must be at least 2");
+
+        ImmutableList.Builder<Compaction> compactions = ImmutableList.builder();
+        for (Entry<Long, Collection<Entry<UUID, String>>> partition : shardNodesByPartition.asMap().entrySet()) {
+            Map<UUID, Integer> nodeCounts = new HashMap<>();
+            for (Entry<UUID, String> shardNode : partition.getValue()) {
+                Integer count = nodeCounts.get(shardNode.getKey());
+                nodeCounts.put(shardNode.getKey(), (count == null) ? 1 : count + 1);
+            }
+
+            Multimap<String, UUID> nodeShards = ArrayListMultimap.create();
+            for (Entry<UUID, String> shardNode : partition.getValue()) {
+                if (nodeCounts.get(shardNode.getKey()) == 1) {
+                    nodeShards.put(shardNode.getValue(), shardNode.getKey());
+                }
+            }
+
+            for (Entry<String, Collection<UUID>> entry : nodeShards.asMap().entrySet()) {
+                for (List<UUID> shardUuids : Lists.partition(ImmutableList.copyOf(entry.getValue()), maxShards)) {
+                    if (shardUuids.size() >= minShards) {
+                        compactions.add(new Compaction(partition.getKey(), entry.getKey(), shardUuids));
+                    }
+                }
+            }
+        }
+        return compactions.build();
+    }
+
+    /**
+     * Merges the shards of a compaction on the node, and switches the partition
+     * to the merged shard.  The merged shard is dropped if any step fails.
+     */
+    @VisibleForTesting
+    void compactShards(NativeTableHandle tableHandle, Compaction compaction, Node node, ShardCompactionRequest request)
+    {
+        new ShardCompactionJob(tableHandle, compaction, node, request).run();
+    }
+
+    private class ShardCompactorRunnable
+            implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try {
+                Map<String, Node> activeNodes = Maps.uniqueIndex(nodeManager.getAllNodes().getActiveNodes(), getIdentifierFunction());
+
+                ImmutableListMultimap<QualifiedTableName, TableColumn> tableColumns = Multimaps.index(metadataDao.listTableColumns(null, null, null), new Function<TableColumn, QualifiedTableName>()
+                {
+                    @Override
+                    public QualifiedTableName apply(TableColumn input)
+                    {
+                        return input.getTable();
+                    }
+                });
+
+                ImmutableList.Builder<ListenableFuture<Void>> builder = ImmutableList.builder();
+                for (QualifiedTableName tableName : tableColumns.keySet()) {
+                    Table table = metadataDao.getTableInformation(tableName.getCatalogName(), tableName.getSchemaName(), tableName.getTableName());
+                    if (table == null) {
+                        continue;
+                    }
+                    NativeTableHandle tableHandle = new NativeTableHandle(tableName.getSchemaName(), tableName.getTableName(), table.getTableId());
+
+                    ImmutableList.Builder<NativeColumnHandle> columnHandles = ImmutableList.builder();
+                    NativeColumnHandle sortColumnHandle = null;
+                    for (TableColumn column : tableColumns.get(tableName)) {
+                        NativeColumnHandle columnHandle = new NativeColumnHandle(column.getColumnName(), column.getColumnId());
+                        columnHandles.add(columnHandle);
+                        if (column.getColumnName().equals(sortColumn)) {
+                            sortColumnHandle = columnHandle;
+                        }
+                    }
+
+                    for (Compaction compaction : planCompactions(shardManager.getShardNodesByPartition(tableHandle), minShards, maxShards)) {
+                        Node node = activeNodes.get(compaction.getNodeIdentifier());
+                        if (node == null) {
+                            log.debug("Skipping Node %s, which is in the database but not active!", compaction.getNodeIdentifier());
+                            continue;
+                        }
+
+                        ShardCompactionRequest request = new ShardCompactionRequest(compaction.getShardUuids(), columnHandles.build(), sortColumnHandle);
+                        ListenableFutureTask<Void> task = ListenableFutureTask.create(new ShardCompactionJob(tableHandle, compaction, node, request), null);
+                        nodeBoundedExecutor.execute(node.getNodeIdentifier(), task);
+                        builder.add(task);
+                    }
+                }
+
+                try {
+                    Futures.allAsList(builder.build()).get();
+                }
+                catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Throwable e) {
+                log.error(e, "Caught problem when compacting shards!");
+            }
+        }
+    }
+
+    private class ShardCompactionJob
+            implements Runnable
+    {
+        private final NativeTableHandle tableHandle;
+        private final Compaction compaction;
+        private final Node node;
+        private final ShardCompactionRequest request;
+
+        private ShardCompactionJob(NativeTableHandle tableHandle, Compaction compaction, Node node, ShardCompactionRequest request)
+        {
+            this.tableHandle = tableHandle;
+            this.compaction = compaction;
+            this.node = node;
+            this.request = request;
+        }
+
+        @Override
+        public void run()
+        {
+            UUID shardUuid = UUID.randomUUID();
+            URI shardUri = uriAppendPaths(node.getHttpUri(), "/v1/shard/" + shardUuid);
+            try {
+                compactShards(shardUri);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedCompactions.incrementAndGet();
+                dropShard(shardUri, shardUuid);
+                return;
+            }
+            catch (RuntimeException e) {
+                // the node may still create the shard, which is then dropped after the merge
+                failedCompactions.incrementAndGet();
+                log.warn("compaction of %s shards of partition %s on %s failed: %s", compaction.getShardUuids().size(), compaction.getPartitionId(), node, e.getMessage());
+                dropShard(shardUri, shardUuid);
+                return;
+            }
+
+            try {
+                shardManager.replaceShards(tableHandle, compaction.getPartitionId(), ImmutableSet.copyOf(compaction.getShardUuids()), shardUuid, node.getNodeIdentifier());
+            }
+            catch (RuntimeException e) {
+                // the partition changed while the shards were merged, so the merged shard is not needed
+                failedCompactions.incrementAndGet();
+                log.warn("replacing %s shards of partition %s failed: %s", compaction.getShardUuids().size(), compaction.getPartitionId(), e.getMessage());
+                dropShard(shardUri, shardUuid);
+                return;
+            }
+
+            compactions.incrementAndGet();
+            compactedShards.addAndGet(compaction.getShardUuids().size());
+            log.debug("merged %s shards of partition %s into %s", compaction.getShardUuids().size(), compaction.getPartitionId(), shardUuid);
+        }
+
+        /**
+         * Asks the node to merge the shards, and waits until the node has
+         * created the merged shard.  The node merges the shards in the
+         * background, and reports the shard as accepted until it is created.
+         */
+        private void compactShards(URI shardUri)
+                throws InterruptedException
+        {
+            Request compactRequest = Request.Builder.preparePut()
+                    .setUri(shardUri)
+                    .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.JSON_UTF_8.toString())
+                    .setBodyGenerator(jsonBodyGenerator(requestCodec, request))
+                    .build();
+            StatusResponse response = httpClient.execute(compactRequest, createStatusResponseHandler());
+            if (response.getStatusCode() != HttpStatus.ACCEPTED.code()) {
+                throw new RuntimeException("unexpected response status: " + response.getStatusCode());
+            }
+
+            long start = System.nanoTime();
+            while (true) {
+                TimeUnit.MILLISECONDS.sleep(STATUS_POLL_INTERVAL.toMillis());
+
+                response = httpClient.execute(Request.Builder.prepareGet().setUri(shardUri).build(), createStatusResponseHandler());
+                if (response.getStatusCode() == HttpStatus.OK.code()) {
+                    return;
+                }
+                if (response.getStatusCode() != HttpStatus.ACCEPTED.code()) {
+                    throw new RuntimeException("merged shard was not created, status: " + response.getStatusCode());
+                }
+                if (Duration.nanosSince(start).compareTo(compactionTimeout) > 0) {
+                    throw new RuntimeException("merge did not complete within " + compactionTimeout);
+                }
+            }
+        }
+
+        private void dropShard(URI shardUri, UUID shardUuid)
+        {
+            try {
+                httpClient.execute(Request.Builder.prepareDelete().setUri(shardUri).build(), createStatusResponseHandler());
+            }
+            catch (RuntimeException e) {
+                log.warn("drop request failed: %s. Cause: %s", shardUuid, e.getMessage());
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static class Compaction
+    {
+        private final long partitionId;
+        private final String nodeIdentifier;
+        private final List<UUID> shardUuids;
+
+        Compaction(long partitionId, String nodeIdentifier, List<UUID> shardUuids)
+        {
+            this.partitionId = partitionId;
+            this.nodeIdentifier = checkNotNull(nodeIdentifier, "nodeIdentifier is null");
+            this.shardUuids = ImmutableList.copyOf(checkNotNull(shardUuids, "shardUuids is null"));
+        }
+
+        public long getPartitionId()
+        {
+            return partitionId;
+        }
+
+        public String getNodeIdentifier()
+        {
+            return nodeIdentifier;
+        }
+
+        public List<UUID> getShardUuids()
+        {
+            return shardUuids;
+        }
+
+        @Override
+        public String toString()
+        {
+            return Objects.toStringHelper(this)
+                    .add("partitionId", partitionId)
+                    .add("nodeIdentifier", nodeIdentifier)
+                    .add("shardUuids", shardUuids)
+                    .toString();
+        }
+    }
+
+    private static URI uriAppendPaths(URI uri, String path)
+    {
+        return HttpUriBuilder.uriBuilderFrom(uri).appendPath(path).build();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+public class ShardCompactorConfig
+{
+    private boolean enabled = false;
+    private Duration compactorInterval = new Duration(5, TimeUnit.MINUTES);
+    private int minShards = 10;
+    private int maxShards = 100;
+    private String sortColumn;
+    private int maxThreads = 8;
+    private Duration compactionTimeout = new Duration(1, TimeUnit.HOURS);
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Config("shard-compactor.enabled")
+    @ConfigDescription("Merge small shards of a partition in the background")
+    public ShardCompactorConfig setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+        return this;
+    }
+
+    @MinDuration("60s")
+    @NotNull
+    public Duration getCompactorInterval()
+    {
+        return compactorInterval;
+    }
+
+    @Config("shard-compactor.interval")
+    public ShardCompactorConfig setCompactorInterval(Duration compactorInterval)
+    {
+        this.compactorInterval = compactorInterval;
+        return this;
+    }
+
+    @Min(2)
+    public int getMinShards()
+    {
+        return minShards;
+    }
+
+    @Config("shard-compactor.min-shards")
+    @ConfigDescription("Minimum number of shards of a partition on a node before they are merged")
+    public ShardCompactorConfig setMinShards(int minShards)
+    {
+        this.minShards = minShards;
+        return this;
+    }
+
+    @Min(2)
+    public int getMaxShards()
+    {
+        return maxShards;
+    }
+
+    @Config("shard-compactor.max-shards")
+    @ConfigDescription("Maximum number of shards merged into one shard")
+    public ShardCompactorConfig setMaxShards(int maxShards)
+    {
+        this.maxShards = maxShards;
+        return this;
+    }
+
+    public String getSortColumn()
+    {
+        return sortColumn;
+    }
+
+    @Config("shard-compactor.sort-column")
+    @ConfigDescription("Name of the column merged shards are sorted on, for tables that have it")
+    public ShardCompactorConfig setSortColumn(String sortColumn)
+    {
+        this.sortColumn = sortColumn;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    @Config("shard-compactor.max-threads")
+    public ShardCompactorConfig setMaxThreads(int maxThreads)
+    {
+        this.maxThreads = maxThreads;
+        return this;
+    }
+
+    @NotNull
+    public Duration getCompactionTimeout()
+    {
+        return compactionTimeout;
+    }
+
+    @Config("shard-compactor.compaction-timeout")
+    @ConfigDescription("Time after which a merge that has not completed on the node is abandoned and its shard dropped")
+    public ShardCompactorConfig setCompactionTimeout(Duration compactionTimeout)
+    {
+        this.compactionTimeout = compactionTimeout;
+        return this;
+    }
+}
@@ -49,6 +49,13 @@ public interface ShardManager
      */
     void commitUnpartitionedTable(TableHandle tableHandle, Map<UUID, String> shards);
 
+    /**
+     * Replace shards of a partition with a shard stored on the specified node that
+     * contains all of their rows.  The replaced shards no longer belong to the
+     * partition, so they are dropped by the shard cleaner.
+     */
+    void replaceShards(TableHandle tableHandle, long partitionId, Set<UUID> oldShardUuids, UUID newShardUuid, String nodeIdentifier);
+
     /**
      * Get the names of all partitions that have been successfully imported.
      *
@@ -127,6 +127,9 @@ public interface ShardManagerDao
     @SqlQuery("SELECT node_id FROM nodes WHERE node_identifier = :nodeIdentifier")
     Long getNodeId(@Bind("nodeIdentifier") String nodeIdentifier);
 
+    @SqlQuery("SELECT shard_id FROM shards WHERE shard_uuid = :shardUuid")
+    Long getShardId(@Bind("shardUuid") UUID shardUuid);
+
     @SqlQuery("SELECT partition_name, key_name, key_type, key_value\n" +
             " FROM partition_keys\n" +
             " WHERE table_id = :tableId")
@@ -170,6 +173,11 @@ public interface ShardManagerDao
             "WHERE shard_id = :shardId\n")
     void deleteShardFromPartitionShards(@Bind("shardId") long shardId);
 
+    @SqlUpdate("DELETE FROM partition_shards\n" +
+            "WHERE shard_id = :shardId\n" +
+            "  AND partition_id = :partitionId\n")
+    int deletePartitionShard(@Bind("shardId") long shardId, @Bind("partitionId") long partitionId);
+
     @SqlUpdate("DELETE FROM shards\n" +
             "  WHERE shard_id = :shardId\n")
     void deleteShard(@Bind("shardId") long shardId);
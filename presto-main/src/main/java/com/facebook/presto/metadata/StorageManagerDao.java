@@ -34,6 +34,13 @@ public interface StorageManagerDao
             ")")
     void createTableColumns();
 
+    @SqlUpdate("CREATE TABLE IF NOT EXISTS retired_files (\n" +
+            "  path VARCHAR(1024) NOT NULL,\n" +
+            "  retire_time BIGINT NOT NULL,\n" +
+            "  PRIMARY KEY (path)\n" +
+            ")")
+    void createTableRetiredFiles();
+
     @SqlUpdate("INSERT INTO columns (shard_uuid, column_id, filename)\n" +
             "VALUES (:shardUuid, :columnId, :filename)")
     void insertColumn(
@@ -49,6 +56,16 @@ public interface StorageManagerDao
             @Bind("shardUuid") UUID shardUuid,
             @Bind("columnId") long columnId);
 
+    @SqlUpdate("UPDATE columns SET filename = :newFilename\n" +
+            "WHERE shard_uuid = :shardUuid\n" +
+            "  AND column_id = :columnId\n" +
+            "  AND filename = :oldFilename")
+    int updateColumnFilename(
+            @Bind("shardUuid") UUID shardUuid,
+            @Bind("columnId") long columnId,
+            @Bind("oldFilename") String oldFilename,
+            @Bind("newFilename") String newFilename);
+
     @SqlQuery("SELECT filename\n" +
             "FROM columns\n" +
             "WHERE shard_uuid = :shardUuid")
@@ -62,4 +79,19 @@ public interface StorageManagerDao
     @SqlUpdate("DELETE FROM columns\n" +
             "WHERE shard_uuid = :shardUuid")
     void dropShard(@Bind("shardUuid") UUID shardUuid);
+
+    @SqlUpdate("INSERT INTO retired_files (path, retire_time)\n" +
+            "VALUES (:path, :retireTime)")
+    void insertRetiredFile(
+            @Bind("path") String path,
+            @Bind("retireTime") long retireTime);
+
+    @SqlQuery("SELECT path\n" +
+            "FROM retired_files\n" +
+            "WHERE retire_time <= :retireTime")
+    List<String> getRetiredFiles(@Bind("retireTime") long retireTime);
+
+    @SqlUpdate("DELETE FROM retired_files\n" +
+            "WHERE path = :path")
+    void deleteRetiredFile(@Bind("path") String path);
 }
@@ -32,15 +32,50 @@ public abstract class AbstractFilterAndProjectOperator
     private final PageBuilder pageBuilder;
     private boolean finishing;
 
+    // processes dictionary and run length encoded pages, or null if the filter or projections are not deterministic
+    private final EncodedPageProcessor encodedPageProcessor;
+
+    // output of the encoded or columnar path, which bypasses the page builder
+    private Page outputPage;
+
     public AbstractFilterAndProjectOperator(OperatorContext operatorContext, Iterable<TupleInfo> tupleInfos)
+    {
+        this(operatorContext, tupleInfos, false);
+    }
+
+    public AbstractFilterAndProjectOperator(OperatorContext operatorContext, Iterable<TupleInfo> tupleInfos, boolean deterministic)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
         this.pageBuilder = new PageBuilder(getTupleInfos());
+
+        if (deterministic) {
+            encodedPageProcessor = new EncodedPageProcessor(this.tupleInfos)
+            {
+                @Override
+                protected void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
+                {
+                    AbstractFilterAndProjectOperator.this.filterAndProjectRowOriented(blocks, pageBuilder);
+                }
+            };
+        }
+        else {
+            encodedPageProcessor = null;
+        }
     }
 
     protected abstract void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder);
 
+    /**
+     * Filters and projects columnar blocks without copying them into the page builder.
+     * Returns null if the blocks can not be processed this way.  A returned page without
+     * positions is dropped.
+     */
+    protected Page filterAndProjectColumnar(Block[] blocks)
+    {
+        return null;
+    }
+
     @Override
     public OperatorContext getOperatorContext()
     {
@@ -62,7 +97,7 @@ public abstract class AbstractFilterAndProjectOperator
     @Override
     public final boolean isFinished()
     {
-        return finishing && pageBuilder.isEmpty();
+        return finishing && pageBuilder.isEmpty() && outputPage == null;
     }
 
     @Override
@@ -74,7 +109,7 @@ public abstract class AbstractFilterAndProjectOperator
     @Override
     public final boolean needsInput()
     {
-        return !finishing && !pageBuilder.isFull();
+        return !finishing && !pageBuilder.isFull() && outputPage == null;
     }
 
     @Override
@@ -83,14 +118,37 @@ public abstract class AbstractFilterAndProjectOperator
         checkState(!finishing, "Operator is already finishing");
         checkNotNull(page, "page is null");
         checkState(!pageBuilder.isFull(), "Page buffer is full");
+        checkState(outputPage == null, "Output page is not yet consumed");
 
         Block[] blocks = page.getBlocks();
+
+        // rows buffered in the page builder must be output first to preserve the row order
+        if (pageBuilder.isEmpty()) {
+            if (encodedPageProcessor != null && encodedPageProcessor.canProcess(blocks)) {
+                outputPage = encodedPageProcessor.process(blocks);
+                return;
+            }
+
+            Page columnarPage = filterAndProjectColumnar(blocks);
+            if (columnarPage != null) {
+                if (columnarPage.getPositionCount() > 0) {
+                    outputPage = columnarPage;
+                }
+                return;
+            }
+        }
         filterAndProjectRowOriented(blocks, pageBuilder);
     }
 
     @Override
     public final Page getOutput()
     {
+        if (outputPage != null) {
+            Page page = outputPage;
+            outputPage = null;
+            return page;
+        }
+
         if (needsInput() || pageBuilder.isEmpty()) {
             return null;
         }
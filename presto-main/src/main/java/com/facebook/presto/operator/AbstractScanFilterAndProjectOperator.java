@@ -15,13 +15,17 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.ColumnarRecordCursor;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.Split;
 import com.facebook.presto.split.DataStreamProvider;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.DataSize;
 
@@ -29,6 +33,7 @@ import javax.annotation.concurrent.GuardedBy;
 
 import java.io.Closeable;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -44,9 +49,19 @@ public abstract class AbstractScanFilterAndProjectOperator
     private final List<ColumnHandle> columns;
     private final PageBuilder pageBuilder;
 
+    // processes dictionary and run length encoded pages, or null if the filter or projections are not deterministic
+    private final EncodedPageProcessor encodedPageProcessor;
+
+    // join key filters of the hash joins probed with the output of this scan, by column
+    private final Map<Integer, DynamicFilter> dynamicFilters;
+
     @GuardedBy("this")
     private RecordCursor cursor;
 
+    // tuple infos of the cursor columns, set when the cursor returns columnar batches
+    @GuardedBy("this")
+    private List<TupleInfo> cursorTupleInfos;
+
     @GuardedBy("this")
     private Operator operator;
 
@@ -60,14 +75,52 @@ public abstract class AbstractScanFilterAndProjectOperator
             DataStreamProvider dataStreamProvider,
             Iterable<ColumnHandle> columns,
             Iterable<TupleInfo> tupleInfos)
+    {
+        this(operatorContext, sourceId, dataStreamProvider, columns, tupleInfos, ImmutableMap.<Integer, DynamicFilter>of());
+    }
+
+    protected AbstractScanFilterAndProjectOperator(
+            OperatorContext operatorContext,
+            PlanNodeId sourceId,
+            DataStreamProvider dataStreamProvider,
+            Iterable<ColumnHandle> columns,
+            Iterable<TupleInfo> tupleInfos,
+            Map<Integer, DynamicFilter> dynamicFilters)
+    {
+        this(operatorContext, sourceId, dataStreamProvider, columns, tupleInfos, dynamicFilters, false);
+    }
+
+    protected AbstractScanFilterAndProjectOperator(
+            OperatorContext operatorContext,
+            PlanNodeId sourceId,
+            DataStreamProvider dataStreamProvider,
+            Iterable<ColumnHandle> columns,
+            Iterable<TupleInfo> tupleInfos,
+            Map<Integer, DynamicFilter> dynamicFilters,
+            boolean deterministic)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.planNodeId = checkNotNull(sourceId, "sourceId is null");
         this.dataStreamProvider = checkNotNull(dataStreamProvider, "dataStreamProvider is null");
         this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
         this.columns = ImmutableList.copyOf(checkNotNull(columns, "columns is null"));
+        this.dynamicFilters = ImmutableMap.copyOf(checkNotNull(dynamicFilters, "dynamicFilters is null"));
 
         this.pageBuilder = new PageBuilder(getTupleInfos());
+
+        if (deterministic) {
+            encodedPageProcessor = new EncodedPageProcessor(this.tupleInfos)
+            {
+                @Override
+                protected void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
+                {
+                    AbstractScanFilterAndProjectOperator.this.filterAndProjectRowOriented(blocks, pageBuilder);
+                }
+            };
+        }
+        else {
+            encodedPageProcessor = null;
+        }
     }
 
     protected abstract void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder);
@@ -95,6 +148,17 @@ public abstract class AbstractScanFilterAndProjectOperator
         Operator dataStream = dataStreamProvider.createNewDataStream(operatorContext, split, columns);
         if (dataStream instanceof RecordProjectOperator) {
             cursor = ((RecordProjectOperator) dataStream).getCursor();
+            // a page needs at least one block, so scans without columns always read row by row
+            if (cursor instanceof ColumnarRecordCursor && !columns.isEmpty()) {
+                ImmutableList.Builder<TupleInfo> cursorTupleInfos = ImmutableList.builder();
+                for (int field = 0; field < columns.size(); field++) {
+                    cursorTupleInfos.add(new TupleInfo(Type.fromColumnType(cursor.getType(field))));
+                }
+                this.cursorTupleInfos = cursorTupleInfos.build();
+            }
+            else if (!dynamicFilters.isEmpty()) {
+                cursor = new DynamicFilterRecordCursor(cursor, dynamicFilters);
+            }
         }
         else {
             operator = dataStream;
@@ -174,7 +238,25 @@ public abstract class AbstractScanFilterAndProjectOperator
     public Page getOutput()
     {
         if (!finishing) {
-            if (cursor != null) {
+            if (cursorTupleInfos != null) {
+                ColumnarRecordCursor columnarCursor = (ColumnarRecordCursor) cursor;
+                int rowsProcessed = columnarCursor.advanceNextBatch(RecordProjectOperator.ROWS_PER_BATCH);
+                if (rowsProcessed > 0) {
+                    // the filter and projections run before the next batch is read, so the columns can be decoded lazily
+                    Block[] blocks = applyDynamicFilters(RecordProjectOperator.readLazyBatch(columnarCursor, cursorTupleInfos, rowsProcessed));
+                    if (blocks != null) {
+                        filterAndProjectRowOriented(blocks, pageBuilder);
+                    }
+                }
+                long bytesProcessed = cursor.getCompletedBytes() - completedBytes;
+                operatorContext.recordGeneratedInput(new DataSize(bytesProcessed, BYTE), rowsProcessed);
+                completedBytes += bytesProcessed;
+
+                if (rowsProcessed == 0) {
+                    finishing = true;
+                }
+            }
+            else if (cursor != null) {
                 int rowsProcessed = filterAndProjectRowOriented(cursor, pageBuilder);
                 long bytesProcessed = cursor.getCompletedBytes() - completedBytes;
                 operatorContext.recordGeneratedInput(new DataSize(bytesProcessed, BYTE), rowsProcessed);
@@ -187,7 +269,17 @@ public abstract class AbstractScanFilterAndProjectOperator
             else {
                 Page output = operator.getOutput();
                 if (output != null) {
-                    filterAndProjectRowOriented(output.getBlocks(), pageBuilder);
+                    Block[] blocks = applyDynamicFilters(output.getBlocks());
+                    if (blocks != null && encodedPageProcessor != null && encodedPageProcessor.canProcess(blocks)) {
+                        // the encoded output is returned as is, and the buffered rows are returned later
+                        Page page = encodedPageProcessor.process(blocks);
+                        if (page != null) {
+                            return page;
+                        }
+                    }
+                    else if (blocks != null) {
+                        filterAndProjectRowOriented(blocks, pageBuilder);
+                    }
                 }
             }
         }
@@ -201,4 +293,119 @@ public abstract class AbstractScanFilterAndProjectOperator
         pageBuilder.reset();
         return page;
     }
+
+    /**
+     * Returns the rows of the blocks that might match the joins probed with the
+     * output of the scan, or null if no row can match.
+     */
+    private Block[] applyDynamicFilters(Block[] blocks)
+    {
+        for (Map.Entry<Integer, DynamicFilter> entry : dynamicFilters.entrySet()) {
+            blocks = entry.getValue().filter(blocks, entry.getKey());
+            if (blocks == null) {
+                return null;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Skips the rows of the underlying cursor that can not match the keys of
+     * the joins probed with the output of the scan.
+     */
+    private static class DynamicFilterRecordCursor
+            implements RecordCursor
+    {
+        private final RecordCursor delegate;
+        private final int[] fields;
+        private final DynamicFilter[] filters;
+
+        private DynamicFilterRecordCursor(RecordCursor delegate, Map<Integer, DynamicFilter> dynamicFilters)
+        {
+            this.delegate = delegate;
+            this.fields = new int[dynamicFilters.size()];
+            this.filters = new DynamicFilter[dynamicFilters.size()];
+            int index = 0;
+            for (Map.Entry<Integer, DynamicFilter> entry : dynamicFilters.entrySet()) {
+                fields[index] = entry.getKey();
+                filters[index] = entry.getValue();
+                index++;
+            }
+        }
+
+        @Override
+        public long getTotalBytes()
+        {
+            return delegate.getTotalBytes();
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return delegate.getCompletedBytes();
+        }
+
+        @Override
+        public ColumnType getType(int field)
+        {
+            return delegate.getType(field);
+        }
+
+        @Override
+        public boolean advanceNextPosition()
+        {
+            while (delegate.advanceNextPosition()) {
+                if (mightMatch()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean mightMatch()
+        {
+            for (int i = 0; i < filters.length; i++) {
+                if (!filters[i].mightContain(delegate, fields[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean getBoolean(int field)
+        {
+            return delegate.getBoolean(field);
+        }
+
+        @Override
+        public long getLong(int field)
+        {
+            return delegate.getLong(field);
+        }
+
+        @Override
+        public double getDouble(int field)
+        {
+            return delegate.getDouble(field);
+        }
+
+        @Override
+        public byte[] getString(int field)
+        {
+            return delegate.getString(field);
+        }
+
+        @Override
+        public boolean isNull(int field)
+        {
+            return delegate.isNull(field);
+        }
+
+        @Override
+        public void close()
+        {
+            delegate.close();
+        }
+    }
 }
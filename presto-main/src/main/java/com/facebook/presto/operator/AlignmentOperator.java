@@ -19,7 +19,11 @@ import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.block.BlockIterables;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Optional;
+import com.google.common.collect.BoundType;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.DataSize;
 
@@ -86,6 +90,10 @@ public class AlignmentOperator
     private final List<Iterator<Block>> iterators;
     private final List<BlockCursor> cursors;
 
+    private final Iterator<Range<Integer>> skippedRanges;
+    private Range<Integer> nextSkippedRange;
+    private int position;
+
     private boolean finished;
 
     public AlignmentOperator(OperatorContext operatorContext, BlockIterable... channels)
@@ -94,9 +102,21 @@ public class AlignmentOperator
     }
 
     public AlignmentOperator(OperatorContext operatorContext, Iterable<BlockIterable> channels)
+    {
+        this(operatorContext, channels, ImmutableRangeSet.<Integer>of());
+    }
+
+    /**
+     * Creates an operator that does not produce the rows at the skipped positions.
+     * A skipped range without an upper bound finishes the operator without
+     * reading the remaining blocks.
+     */
+    public AlignmentOperator(OperatorContext operatorContext, Iterable<BlockIterable> channels, RangeSet<Integer> skippedPositions)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.tupleInfos = toTupleInfos(checkNotNull(channels, "channels is null"));
+        this.skippedRanges = checkNotNull(skippedPositions, "skippedPositions is null").asRanges().iterator();
+        this.nextSkippedRange = skippedRanges.hasNext() ? skippedRanges.next() : null;
 
         expectedDataSize = BlockIterables.getDataSize(channels);
         expectedPositionCount = BlockIterables.getPositionCount(channels);
@@ -181,6 +201,15 @@ public class AlignmentOperator
             return null;
         }
 
+        while (nextSkippedRange != null && nextSkippedRange.contains(position)) {
+            if (!nextSkippedRange.hasUpperBound()) {
+                finished = true;
+                return null;
+            }
+            skipPositions(upperEndpoint(nextSkippedRange) - position);
+            nextSkippedRange = skippedRanges.hasNext() ? skippedRanges.next() : null;
+        }
+
         // all iterators should end together
         if (cursors.get(0).getRemainingPositions() <= 0 && !iterators.get(0).hasNext()) {
             for (Iterator<Block> iterator : iterators) {
@@ -192,6 +221,9 @@ public class AlignmentOperator
 
         // determine maximum shared length
         int length = Integer.MAX_VALUE;
+        if (nextSkippedRange != null) {
+            length = lowerEndpoint(nextSkippedRange) - position;
+        }
         for (int i = 0; i < iterators.size(); i++) {
             Iterator<? extends Block> iterator = iterators.get(i);
 
@@ -210,11 +242,44 @@ public class AlignmentOperator
             blocks[i] = cursors.get(i).getRegionAndAdvance(length);
         }
 
+        position += length;
+
         Page page = new Page(blocks);
         operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
         return page;
     }
 
+    private void skipPositions(int count)
+    {
+        for (int i = 0; i < iterators.size(); i++) {
+            int remaining = count;
+            while (remaining > 0) {
+                BlockCursor cursor = cursors.get(i);
+                if (cursor.getRemainingPositions() <= 0) {
+                    cursor = iterators.get(i).next().cursor();
+                    cursors.set(i, cursor);
+                }
+                int skipped = Math.min(remaining, cursor.getRemainingPositions());
+                cursor.getRegionAndAdvance(skipped);
+                remaining -= skipped;
+            }
+        }
+        position += count;
+    }
+
+    private static int lowerEndpoint(Range<Integer> range)
+    {
+        if (!range.hasLowerBound()) {
+            return 0;
+        }
+        return range.lowerBoundType() == BoundType.CLOSED ? range.lowerEndpoint() : range.lowerEndpoint() + 1;
+    }
+
+    private static int upperEndpoint(Range<Integer> range)
+    {
+        return range.upperBoundType() == BoundType.OPEN ? range.upperEndpoint() : range.upperEndpoint() + 1;
+    }
+
     private static List<TupleInfo> toTupleInfos(Iterable<BlockIterable> channels)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
@@ -18,7 +18,10 @@ import com.facebook.presto.tuple.TupleInfo;
 import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.longs.Long2IntMap;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
 import it.unimi.dsi.fastutil.longs.LongHash;
@@ -29,6 +32,10 @@ import java.util.Arrays;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
 import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
+import static io.airlift.slice.SizeOf.SIZE_OF_INT;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
 import static io.airlift.slice.SizeOf.sizeOf;
 
 public class ChannelHash
@@ -51,6 +58,7 @@ public class ChannelHash
     private final SliceHashStrategy hashStrategy;
     private final AddressToPositionMap addressToPositionMap;
     private final IntArrayList positionLinks;
+    private final boolean sharedPositionLinks;
 
     public ChannelHash(ChannelIndex channelIndex, OperatorContext operatorContext)
     {
@@ -68,6 +76,33 @@ public class ChannelHash
                 positionLinks.set(position, oldPosition);
             }
         }
+        sharedPositionLinks = false;
+    }
+
+    /**
+     * Creates a hash of a subset of the positions in the channel index.  The
+     * position links array must contain an entry for every position in the
+     * channel index, and may be shared by hashes of other disjoint subsets,
+     * so the hashes of a partitioned channel can be built concurrently.
+     */
+    public ChannelHash(ChannelIndex channelIndex, IntArrayList positionLinks, IntList positions, OperatorContext operatorContext)
+    {
+        checkArgument(positionLinks.size() == channelIndex.getPositionCount(), "positionLinks does not match the channel index");
+        hashStrategy = new SliceHashStrategy(channelIndex.getTupleInfo(), channelIndex.getSlices().elements());
+        addressToPositionMap = new AddressToPositionMap(positions.size(), hashStrategy);
+        addressToPositionMap.defaultReturnValue(-1);
+        this.positionLinks = positionLinks;
+        sharedPositionLinks = true;
+        for (int i = 0; i < positions.size(); i++) {
+            operatorContext.setMemoryReservation(getEstimatedSize());
+            int position = positions.getInt(i);
+            long sliceAddress = channelIndex.getValueAddresses().elements()[position];
+            int oldPosition = addressToPositionMap.put(sliceAddress, position);
+            if (oldPosition >= 0) {
+                // link the new position to the old position
+                positionLinks.set(position, oldPosition);
+            }
+        }
     }
 
     public ChannelHash(ChannelHash hash)
@@ -77,11 +112,25 @@ public class ChannelHash
         this.addressToPositionMap = new AddressToPositionMap(hash.addressToPositionMap, hashStrategy);
         addressToPositionMap.defaultReturnValue(-1);
         this.positionLinks = hash.positionLinks;
+        this.sharedPositionLinks = hash.sharedPositionLinks;
+    }
+
+    /**
+     * Estimates the size of a hash of the specified number of positions,
+     * excluding the position links.
+     */
+    public static long getEstimatedSize(int positionCount)
+    {
+        return (long) HashCommon.arraySize(positionCount, Hash.DEFAULT_LOAD_FACTOR) * (SIZE_OF_LONG + SIZE_OF_INT + SIZE_OF_BYTE);
     }
 
     private long getEstimatedSize()
     {
         long addressToPositionSize = addressToPositionMap.getEstimatedSize().toBytes();
+        if (sharedPositionLinks) {
+            // shared links are accounted for by the owner of the array
+            return addressToPositionSize;
+        }
         long positionLinksSize = sizeOf(positionLinks.elements());
         return addressToPositionSize + positionLinksSize;
     }
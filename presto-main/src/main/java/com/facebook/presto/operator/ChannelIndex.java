@@ -121,6 +121,26 @@ public class ChannelIndex
         }
     }
 
+    /**
+     * Appends the positions of the specified index to this index.  The slices
+     * are shared with the specified index, and only the addresses are copied.
+     */
+    public void indexChannel(ChannelIndex index)
+    {
+        positionCount += index.positionCount;
+
+        int sliceIndexOffset = slices.size();
+        slices.addAll(index.slices);
+        slicesMemorySize += index.slicesMemorySize;
+
+        LongArrayList addresses = index.valueAddresses;
+        valueAddresses.ensureCapacity(valueAddresses.size() + addresses.size());
+        for (int position = 0; position < addresses.size(); position++) {
+            long sliceAddress = addresses.getLong(position);
+            valueAddresses.add(encodeSyntheticAddress(decodeSliceIndex(sliceAddress) + sliceIndexOffset, decodeSliceOffset(sliceAddress)));
+        }
+    }
+
     public void appendTo(int position, BlockBuilder output)
     {
         // get slice an offset for the position
@@ -22,8 +22,10 @@ import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
 import io.airlift.units.DataSize;
 import it.unimi.dsi.fastutil.longs.LongHash;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongOpenCustomHashSet;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
 import static com.facebook.presto.operator.SliceHashStrategy.LOOKUP_SLICE_INDEX;
 import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -34,9 +36,14 @@ import static io.airlift.units.DataSize.Unit.BYTE;
 
 public class ChannelSet
 {
+    // sets smaller than this stay in the processor caches, so a bloom filter would not save any work
+    private static final int BLOOM_FILTER_MIN_SIZE = 16_384;
+
     private final SliceHashStrategy strategy;
     private final AddressValueSet addressValueSet;
     private final boolean containsNull;
+    // rejects most of the values that are not in the set before the set itself is probed, or null for small sets
+    private final BloomFilter bloomFilter;
 
     public ChannelSet(ChannelSet channelSet)
     {
@@ -44,13 +51,16 @@ public class ChannelSet
         this.strategy = new SliceHashStrategy(channelSet.strategy);
         this.addressValueSet = new AddressValueSet(channelSet.addressValueSet, strategy);
         this.containsNull = channelSet.containsNull;
+        // the bloom filter is immutable, so it can be shared
+        this.bloomFilter = channelSet.bloomFilter;
     }
 
-    private ChannelSet(SliceHashStrategy strategy, AddressValueSet addressValueSet, boolean containsNull)
+    private ChannelSet(SliceHashStrategy strategy, AddressValueSet addressValueSet, boolean containsNull, BloomFilter bloomFilter)
     {
         this.strategy = strategy;
         this.addressValueSet = addressValueSet;
         this.containsNull = containsNull;
+        this.bloomFilter = bloomFilter;
     }
 
     public boolean containsNull()
@@ -65,7 +75,11 @@ public class ChannelSet
 
     public boolean contains(BlockCursor cursor)
     {
-        return addressValueSet.contains(SyntheticAddress.encodeSyntheticAddress(LOOKUP_SLICE_INDEX, cursor.getRawOffset()));
+        long address = SyntheticAddress.encodeSyntheticAddress(LOOKUP_SLICE_INDEX, cursor.getRawOffset());
+        if (bloomFilter != null && !bloomFilter.mightContain(strategy.hashCode(address))) {
+            return false;
+        }
+        return addressValueSet.contains(address);
     }
 
     public int size()
@@ -75,20 +89,32 @@ public class ChannelSet
 
     public DataSize getEstimatedSize()
     {
-        return new DataSize(addressValueSet.getEstimatedSize().toBytes() + strategy.getEstimatedSize().toBytes(), BYTE);
+        long bloomFilterSize = bloomFilter == null ? 0 : bloomFilter.getEstimatedSize();
+        return new DataSize(addressValueSet.getEstimatedSize().toBytes() + strategy.getEstimatedSize().toBytes() + bloomFilterSize, BYTE);
     }
 
     private static class AddressValueSet
             extends LongOpenCustomHashSet
     {
-        private AddressValueSet(int expected, LongHash.Strategy strategy)
+        private final OperatorContext operatorContext;
+
+        private AddressValueSet(int expected, LongHash.Strategy strategy, OperatorContext operatorContext)
         {
             super(expected, strategy);
+            this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         }
 
         private AddressValueSet(AddressValueSet addressValueSet, LongHash.Strategy strategy)
         {
             super(addressValueSet, strategy);
+            this.operatorContext = addressValueSet.operatorContext;
+        }
+
+        @Override
+        protected void rehash(int newN)
+        {
+            operatorContext.recordHashTableRehash();
+            super.rehash(newN);
         }
 
         public DataSize getEstimatedSize()
@@ -97,6 +123,55 @@ public class ChannelSet
         }
     }
 
+    /**
+     * Bloom filter over the hash codes of the values of the set, with three bits
+     * per value in a table of 8 to 16 bits per value.
+     */
+    private static class BloomFilter
+    {
+        private static final int HASH_FUNCTIONS = 3;
+
+        private final long[] bits;
+        private final int mask;
+
+        private BloomFilter(int expectedValues)
+        {
+            int bitCount = Math.max(64, Integer.highestOneBit(Math.max(1, expectedValues) * 8 - 1) << 1);
+            this.bits = new long[bitCount >>> 6];
+            this.mask = bitCount - 1;
+        }
+
+        private void add(int hashCode)
+        {
+            long hash = hashCode * 0x9E3779B97F4A7C15L;
+            int hash1 = (int) hash;
+            int hash2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = (hash1 + i * hash2) & mask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(int hashCode)
+        {
+            long hash = hashCode * 0x9E3779B97F4A7C15L;
+            int hash1 = (int) hash;
+            int hash2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = (hash1 + i * hash2) & mask;
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long getEstimatedSize()
+        {
+            return sizeOf(bits);
+        }
+    }
+
     public static class ChannelSetBuilder
     {
         private final SliceHashStrategy strategy;
@@ -119,7 +194,7 @@ public class ChannelSet
 
             // Construct the set from the source
             strategy = new SliceHashStrategy(tupleInfo);
-            addressValueSet = new AddressValueSet(expectedPositions, strategy);
+            addressValueSet = new AddressValueSet(expectedPositions, strategy, operatorContext);
 
             // allocate the first slice of the set
             Slice slice = Slices.allocate((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes());
@@ -131,8 +206,10 @@ public class ChannelSet
         {
             operatorContext.setMemoryReservation(getEstimatedSize());
 
-            BlockCursor sourceCursor = sourceBlock.cursor();
-            Slice sourceSlice = ((UncompressedBlock) sourceBlock).getSlice();
+            // the raw offsets must come from a cursor over the decoded block
+            UncompressedBlock uncompressedBlock = toUncompressedBlock(sourceBlock);
+            BlockCursor sourceCursor = uncompressedBlock.cursor();
+            Slice sourceSlice = uncompressedBlock.getSlice();
             strategy.setLookupSlice(sourceSlice);
 
             for (int position = 0; position < sourceBlock.getPositionCount(); position++) {
@@ -165,7 +242,15 @@ public class ChannelSet
 
         public ChannelSet build()
         {
-            return new ChannelSet(strategy, addressValueSet, containsNull);
+            BloomFilter bloomFilter = null;
+            if (addressValueSet.size() >= BLOOM_FILTER_MIN_SIZE) {
+                bloomFilter = new BloomFilter(addressValueSet.size());
+                LongIterator addresses = addressValueSet.iterator();
+                while (addresses.hasNext()) {
+                    bloomFilter.add(strategy.hashCode(addresses.nextLong()));
+                }
+            }
+            return new ChannelSet(strategy, addressValueSet, containsNull, bloomFilter);
         }
     }
 }
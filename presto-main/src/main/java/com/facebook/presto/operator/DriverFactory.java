@@ -32,6 +32,7 @@ public class DriverFactory
     private final boolean outputDriver;
     private final List<OperatorFactory> operatorFactories;
     private final Set<PlanNodeId> sourceIds;
+    private final int driverInstances;
     private boolean closed;
 
     public DriverFactory(boolean inputDriver, boolean outputDriver, OperatorFactory firstOperatorFactory, OperatorFactory... otherOperatorFactories)
@@ -47,6 +48,17 @@ public class DriverFactory
 
     public DriverFactory(boolean inputDriver, boolean outputDriver, List<OperatorFactory> operatorFactories)
     {
+        this(inputDriver, outputDriver, operatorFactories, 1);
+    }
+
+    /**
+     * Creates a factory for an unpartitioned pipeline that runs the specified
+     * number of drivers.  Partitioned pipelines run one driver per split.
+     */
+    public DriverFactory(boolean inputDriver, boolean outputDriver, List<OperatorFactory> operatorFactories, int driverInstances)
+    {
+        checkArgument(driverInstances > 0, "driverInstances must be at least 1");
+        this.driverInstances = driverInstances;
         this.inputDriver = inputDriver;
         this.outputDriver = outputDriver;
         this.operatorFactories = ImmutableList.copyOf(checkNotNull(operatorFactories, "operatorFactories is null"));
@@ -72,6 +84,11 @@ public class DriverFactory
         return outputDriver;
     }
 
+    public int getDriverInstances()
+    {
+        return driverInstances;
+    }
+
     public Set<PlanNodeId> getSourceIds()
     {
         return sourceIds;
@@ -0,0 +1,392 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Preconditions;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Summary of the keys of a hash join build side, which is used by the scan of
+ * the probe side to drop rows that can not find a match.  The summary contains
+ * the range of the keys and, when the build side has few distinct keys, the
+ * keys themselves.
+ * <p/>
+ * The build operators each collect the keys they index and the filter is
+ * complete once all of them have published their keys.  Until then the filter
+ * accepts every row.  Null keys never match in an equijoin, so rows with a
+ * null key are always rejected by a complete filter.
+ */
+@ThreadSafe
+public class DynamicFilter
+{
+    public static final int MAX_DISTINCT_VALUES = 1024;
+
+    private final TupleInfo.Type type;
+    private final int collectorCount;
+
+    @GuardedBy("this")
+    private int publishedCollectors;
+    @GuardedBy("this")
+    private Collector merged;
+
+    private volatile Collector summary;
+
+    public DynamicFilter(TupleInfo.Type type, int collectorCount)
+    {
+        this.type = checkNotNull(type, "type is null");
+        Preconditions.checkArgument(isSupported(type), "Unsupported type %s", type);
+        Preconditions.checkArgument(collectorCount > 0, "collectorCount must be at least 1");
+        this.collectorCount = collectorCount;
+    }
+
+    public static boolean isSupported(TupleInfo.Type type)
+    {
+        return type == TupleInfo.Type.FIXED_INT_64 || type == TupleInfo.Type.DOUBLE || type == TupleInfo.Type.VARIABLE_BINARY;
+    }
+
+    public TupleInfo.Type getType()
+    {
+        return type;
+    }
+
+    public Collector createCollector()
+    {
+        return new Collector(type);
+    }
+
+    /**
+     * Adds the keys of one build operator.  The filter is complete once the
+     * keys of all build operators are published.
+     */
+    public void publish(Collector collector)
+    {
+        checkNotNull(collector, "collector is null");
+        Preconditions.checkArgument(collector.type == type, "Expected collector of type %s", type);
+
+        Collector complete;
+        synchronized (this) {
+            checkState(publishedCollectors < collectorCount, "All collectors already published");
+            if (merged == null) {
+                merged = collector;
+            }
+            else {
+                merged.merge(collector);
+            }
+            publishedCollectors++;
+            if (publishedCollectors < collectorCount) {
+                return;
+            }
+            complete = merged;
+            merged = null;
+        }
+        summary = complete;
+    }
+
+    public boolean isComplete()
+    {
+        return summary != null;
+    }
+
+    /**
+     * Returns false if the value of the field at the current position of the
+     * cursor can not match any build key.
+     */
+    public boolean mightContain(RecordCursor cursor, int field)
+    {
+        Collector summary = this.summary;
+        if (summary == null) {
+            return true;
+        }
+        if (cursor.isNull(field)) {
+            return false;
+        }
+        switch (type) {
+            case FIXED_INT_64:
+                return summary.mightContain(cursor.getLong(field));
+            case DOUBLE:
+                return summary.mightContain(cursor.getDouble(field));
+            case VARIABLE_BINARY:
+                return summary.mightContain(Slices.wrappedBuffer(cursor.getString(field)));
+            default:
+                throw new AssertionError("Unsupported type " + type);
+        }
+    }
+
+    /**
+     * Returns false if the first field of the tuple at the current position of
+     * the cursor can not match any build key.
+     */
+    public boolean mightContain(BlockCursor cursor)
+    {
+        Collector summary = this.summary;
+        if (summary == null) {
+            return true;
+        }
+        if (cursor.isNull(0)) {
+            return false;
+        }
+        switch (type) {
+            case FIXED_INT_64:
+                return summary.mightContain(cursor.getLong(0));
+            case DOUBLE:
+                return summary.mightContain(cursor.getDouble(0));
+            case VARIABLE_BINARY:
+                return summary.mightContain(cursor.getSlice(0));
+            default:
+                throw new AssertionError("Unsupported type " + type);
+        }
+    }
+
+    /**
+     * Returns the rows of the blocks whose value in the specified channel might
+     * match a build key, or null if no row can match.  The blocks are returned
+     * unchanged when every row might match.
+     */
+    public Block[] filter(Block[] blocks, int channel)
+    {
+        if (summary == null) {
+            return blocks;
+        }
+
+        Block block = blocks[channel];
+        int positionCount = block.getPositionCount();
+        boolean[] selected = new boolean[positionCount];
+        int selectedCount = 0;
+        BlockCursor cursor = block.cursor();
+        for (int position = 0; position < positionCount; position++) {
+            checkState(cursor.advanceNextPosition());
+            if (mightContain(cursor)) {
+                selected[position] = true;
+                selectedCount++;
+            }
+        }
+
+        if (selectedCount == positionCount) {
+            return blocks;
+        }
+        if (selectedCount == 0) {
+            return null;
+        }
+
+        Block[] filtered = new Block[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            BlockBuilder blockBuilder = new BlockBuilder(blocks[i].getTupleInfo());
+            BlockCursor blockCursor = blocks[i].cursor();
+            for (int position = 0; position < positionCount; position++) {
+                checkState(blockCursor.advanceNextPosition());
+                if (selected[position]) {
+                    blockCursor.appendTupleTo(blockBuilder);
+                }
+            }
+            filtered[i] = blockBuilder.build();
+        }
+        return filtered;
+    }
+
+    /**
+     * Collects the keys indexed by a single build operator.
+     */
+    public static class Collector
+    {
+        private final TupleInfo.Type type;
+
+        private boolean empty = true;
+        private long minLong = Long.MAX_VALUE;
+        private long maxLong = Long.MIN_VALUE;
+        private double minDouble = Double.POSITIVE_INFINITY;
+        private double maxDouble = Double.NEGATIVE_INFINITY;
+        private Slice minSlice;
+        private Slice maxSlice;
+
+        // distinct keys, or null once there are too many to track; doubles are tracked by their bits
+        private LongOpenHashSet longValues;
+        private Set<Slice> sliceValues;
+
+        private Collector(TupleInfo.Type type)
+        {
+            this.type = type;
+            switch (type) {
+                case FIXED_INT_64:
+                case DOUBLE:
+                    longValues = new LongOpenHashSet();
+                    break;
+                case VARIABLE_BINARY:
+                    sliceValues = new HashSet<>();
+                    break;
+                default:
+                    throw new AssertionError("Unsupported type " + type);
+            }
+        }
+
+        /**
+         * Adds the keys in the first field of the tuples of the block.
+         */
+        public void add(Block block)
+        {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (cursor.isNull(0)) {
+                    continue;
+                }
+                switch (type) {
+                    case FIXED_INT_64:
+                        addLong(cursor.getLong(0));
+                        break;
+                    case DOUBLE:
+                        addDouble(cursor.getDouble(0));
+                        break;
+                    case VARIABLE_BINARY:
+                        addSlice(cursor.getSlice(0));
+                        break;
+                }
+            }
+        }
+
+        private void addLong(long value)
+        {
+            empty = false;
+            minLong = Math.min(minLong, value);
+            maxLong = Math.max(maxLong, value);
+            if (longValues != null && longValues.add(value) && longValues.size() > MAX_DISTINCT_VALUES) {
+                longValues = null;
+            }
+        }
+
+        private void addDouble(double value)
+        {
+            empty = false;
+            // NaN is not ordered, so it does not narrow the range
+            if (value < minDouble) {
+                minDouble = value;
+            }
+            if (value > maxDouble) {
+                maxDouble = value;
+            }
+            if (longValues != null && longValues.add(Double.doubleToLongBits(value)) && longValues.size() > MAX_DISTINCT_VALUES) {
+                longValues = null;
+            }
+        }
+
+        private void addSlice(Slice value)
+        {
+            empty = false;
+            if (minSlice == null || value.compareTo(minSlice) < 0) {
+                minSlice = Slices.wrappedBuffer(value.getBytes());
+            }
+            if (maxSlice == null || value.compareTo(maxSlice) > 0) {
+                maxSlice = Slices.wrappedBuffer(value.getBytes());
+            }
+            if (sliceValues != null && !sliceValues.contains(value)) {
+                sliceValues.add(Slices.wrappedBuffer(value.getBytes()));
+                if (sliceValues.size() > MAX_DISTINCT_VALUES) {
+                    sliceValues = null;
+                }
+            }
+        }
+
+        private void merge(Collector other)
+        {
+            if (other.empty) {
+                return;
+            }
+            switch (type) {
+                case FIXED_INT_64:
+                    mergeLongValues(other);
+                    minLong = Math.min(minLong, other.minLong);
+                    maxLong = Math.max(maxLong, other.maxLong);
+                    break;
+                case DOUBLE:
+                    mergeLongValues(other);
+                    if (other.minDouble < minDouble) {
+                        minDouble = other.minDouble;
+                    }
+                    if (other.maxDouble > maxDouble) {
+                        maxDouble = other.maxDouble;
+                    }
+                    break;
+                case VARIABLE_BINARY:
+                    if (sliceValues != null && other.sliceValues != null) {
+                        sliceValues.addAll(other.sliceValues);
+                        if (sliceValues.size() > MAX_DISTINCT_VALUES) {
+                            sliceValues = null;
+                        }
+                    }
+                    else {
+                        sliceValues = null;
+                    }
+                    if (minSlice == null || other.minSlice.compareTo(minSlice) < 0) {
+                        minSlice = other.minSlice;
+                    }
+                    if (maxSlice == null || other.maxSlice.compareTo(maxSlice) > 0) {
+                        maxSlice = other.maxSlice;
+                    }
+                    break;
+            }
+            empty = false;
+        }
+
+        private void mergeLongValues(Collector other)
+        {
+            if (longValues != null && other.longValues != null) {
+                longValues.addAll(other.longValues);
+                if (longValues.size() > MAX_DISTINCT_VALUES) {
+                    longValues = null;
+                }
+            }
+            else {
+                longValues = null;
+            }
+        }
+
+        private boolean mightContain(long value)
+        {
+            if (empty || value < minLong || value > maxLong) {
+                return false;
+            }
+            return longValues == null || longValues.contains(value);
+        }
+
+        private boolean mightContain(double value)
+        {
+            if (empty || value < minDouble || value > maxDouble) {
+                return false;
+            }
+            return longValues == null || longValues.contains(Double.doubleToLongBits(value));
+        }
+
+        private boolean mightContain(Slice value)
+        {
+            if (empty || value.compareTo(minSlice) < 0 || value.compareTo(maxSlice) > 0) {
+                return false;
+            }
+            return sliceValues == null || sliceValues.contains(value);
+        }
+    }
+}
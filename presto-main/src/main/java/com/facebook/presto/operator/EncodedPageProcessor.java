@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Filters and projects pages whose blocks are all run length encoded, except
+ * for at most one dictionary encoded block.  The filter and projections are
+ * evaluated once per dictionary entry, or once for a page of runs, and the
+ * results are reused for every position of the page.  The output of a
+ * dictionary page is dictionary encoded and the output of a page of runs is
+ * run length encoded, so the following operators can also work on the
+ * distinct values.
+ * <p/>
+ * The results of a dictionary are also reused for the following pages with the
+ * same dictionary, so the filter and projections must be deterministic.
+ */
+abstract class EncodedPageProcessor
+{
+    private final List<TupleInfo> tupleInfos;
+    private final PageBuilder pageBuilder;
+
+    // the dictionary and run values the current results were computed for
+    private Dictionary dictionary;
+    private List<Tuple> runValues;
+
+    // output dictionary key of each dictionary entry, or -1 if the filter rejects the entry
+    private int[] outputKeys;
+    private Dictionary[] outputDictionaries;
+
+    protected EncodedPageProcessor(List<TupleInfo> tupleInfos)
+    {
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        this.pageBuilder = new PageBuilder(this.tupleInfos);
+    }
+
+    protected abstract void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder);
+
+    /**
+     * Returns true if every block of the page is run length encoded, except for
+     * at most one dictionary encoded block.  A dictionary with more entries than
+     * the page has positions is only processed if its results are already known.
+     */
+    public boolean canProcess(Block[] blocks)
+    {
+        if (blocks.length == 0) {
+            return false;
+        }
+
+        boolean dictionaryFound = false;
+        for (Block block : blocks) {
+            if (block instanceof DictionaryEncodedBlock) {
+                if (dictionaryFound) {
+                    return false;
+                }
+                dictionaryFound = true;
+
+                Dictionary dictionary = ((DictionaryEncodedBlock) block).getDictionary();
+                if (dictionary != this.dictionary && dictionary.size() > block.getPositionCount()) {
+                    return false;
+                }
+            }
+            else if (!(block instanceof RunLengthEncodedBlock)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the filtered and projected page, or null if the filter rejects
+     * every position of the page.
+     */
+    public Page process(Block[] blocks)
+    {
+        int positionCount = blocks[0].getPositionCount();
+
+        DictionaryEncodedBlock dictionaryBlock = null;
+        int dictionaryChannel = -1;
+        Tuple[] values = new Tuple[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            if (blocks[channel] instanceof DictionaryEncodedBlock) {
+                dictionaryBlock = (DictionaryEncodedBlock) blocks[channel];
+                dictionaryChannel = channel;
+            }
+            else {
+                values[channel] = ((RunLengthEncodedBlock) blocks[channel]).getValue();
+            }
+        }
+
+        Dictionary dictionary = (dictionaryBlock == null) ? null : dictionaryBlock.getDictionary();
+        List<Tuple> runValues = Arrays.asList(values);
+        if (outputKeys == null || dictionary != this.dictionary || !runValues.equals(this.runValues)) {
+            evaluate(dictionary, dictionaryChannel, values);
+            this.dictionary = dictionary;
+            this.runValues = runValues;
+        }
+
+        if (dictionaryBlock == null) {
+            if (outputKeys[0] < 0) {
+                return null;
+            }
+            Block[] outputBlocks = new Block[tupleInfos.size()];
+            for (int channel = 0; channel < outputBlocks.length; channel++) {
+                outputBlocks[channel] = new RunLengthEncodedBlock(outputDictionaries[channel].getTuple(0), positionCount);
+            }
+            return new Page(positionCount, outputBlocks);
+        }
+
+        BlockBuilder idBlockBuilder = new BlockBuilder(TupleInfo.SINGLE_LONG);
+        DictionaryEncodedBlockCursor cursor = dictionaryBlock.cursor();
+        while (cursor.advanceNextPosition()) {
+            int outputKey = outputKeys[cursor.getDictionaryKey()];
+            if (outputKey >= 0) {
+                idBlockBuilder.append(outputKey);
+            }
+        }
+        if (idBlockBuilder.isEmpty()) {
+            return null;
+        }
+
+        Block idBlock = idBlockBuilder.build();
+        Block[] outputBlocks = new Block[tupleInfos.size()];
+        for (int channel = 0; channel < outputBlocks.length; channel++) {
+            outputBlocks[channel] = new DictionaryEncodedBlock(outputDictionaries[channel], idBlock);
+        }
+        return new Page(idBlock.getPositionCount(), outputBlocks);
+    }
+
+    private void evaluate(Dictionary dictionary, int dictionaryChannel, Tuple[] values)
+    {
+        Block[] entryBlocks = new Block[values.length];
+        for (int channel = 0; channel < values.length; channel++) {
+            if (values[channel] != null) {
+                entryBlocks[channel] = new RunLengthEncodedBlock(values[channel], 1);
+            }
+        }
+
+        // evaluate each entry as a page with a single position
+        int entryCount = (dictionary == null) ? 1 : dictionary.size();
+        outputKeys = new int[entryCount];
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (dictionary != null) {
+                entryBlocks[dictionaryChannel] = new UncompressedBlock(1, dictionary.getTupleInfo(), dictionary.getTupleSlice(entry));
+            }
+            int outputKey = pageBuilder.getPositionCount();
+            filterAndProjectRowOriented(entryBlocks, pageBuilder);
+            outputKeys[entry] = (pageBuilder.getPositionCount() > outputKey) ? outputKey : -1;
+        }
+
+        outputDictionaries = new Dictionary[tupleInfos.size()];
+        if (!pageBuilder.isEmpty()) {
+            Page page = pageBuilder.build();
+            for (int channel = 0; channel < outputDictionaries.length; channel++) {
+                ImmutableList.Builder<Slice> entries = ImmutableList.builder();
+                BlockCursor cursor = page.getBlock(channel).cursor();
+                while (cursor.advanceNextPosition()) {
+                    entries.add(cursor.getTuple().getTupleSlice());
+                }
+                outputDictionaries[channel] = new Dictionary(tupleInfos.get(channel), entries.build());
+            }
+        }
+        pageBuilder.reset();
+    }
+}
@@ -15,11 +15,15 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.columnar.AbstractColumnarBlock;
+import com.facebook.presto.block.columnar.LazyBlock;
+import com.facebook.presto.operator.ProjectionFunctions.SingleColumnProjection;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
 
+import static com.facebook.presto.operator.FilterFunctions.TRUE_FUNCTION;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -33,14 +37,21 @@ public class FilterAndProjectOperator
         private final FilterFunction filterFunction;
         private final List<ProjectionFunction> projections;
         private final List<TupleInfo> tupleInfos;
+        private final boolean deterministic;
         private boolean closed;
 
         public FilterAndProjectOperatorFactory(int operatorId, FilterFunction filterFunction, Iterable<? extends ProjectionFunction> projections)
+        {
+            this(operatorId, filterFunction, projections, false);
+        }
+
+        public FilterAndProjectOperatorFactory(int operatorId, FilterFunction filterFunction, Iterable<? extends ProjectionFunction> projections, boolean deterministic)
         {
             this.operatorId = operatorId;
             this.filterFunction = checkNotNull(filterFunction, "filterFunction is null");
             this.projections = ImmutableList.copyOf(projections);
             this.tupleInfos = toTupleInfos(checkNotNull(projections, "projections is null"));
+            this.deterministic = deterministic;
         }
 
         @Override
@@ -54,7 +65,7 @@ public class FilterAndProjectOperator
         {
             checkState(!closed, "Factory is already closed");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, FilterAndProjectOperator.class.getSimpleName());
-            return new FilterAndProjectOperator(operatorContext, filterFunction, projections);
+            return new FilterAndProjectOperator(operatorContext, filterFunction, projections, deterministic);
         }
 
         @Override
@@ -67,11 +78,97 @@ public class FilterAndProjectOperator
     private final FilterFunction filterFunction;
     private final List<ProjectionFunction> projections;
 
+    // input channel of each projection, or null if any projection is not a plain column reference
+    private final int[] projectionChannels;
+
     public FilterAndProjectOperator(OperatorContext operatorContext, FilterFunction filterFunction, Iterable<? extends ProjectionFunction> projections)
     {
-        super(operatorContext, toTupleInfos(checkNotNull(projections, "projections is null")));
+        this(operatorContext, filterFunction, projections, false);
+    }
+
+    public FilterAndProjectOperator(OperatorContext operatorContext, FilterFunction filterFunction, Iterable<? extends ProjectionFunction> projections, boolean deterministic)
+    {
+        super(operatorContext, toTupleInfos(checkNotNull(projections, "projections is null")), deterministic);
         this.filterFunction = checkNotNull(filterFunction, "filterFunction is null");
         this.projections = ImmutableList.copyOf(projections);
+        this.projectionChannels = toProjectionChannels(this.projections);
+    }
+
+    @Override
+    protected Page filterAndProjectColumnar(Block[] blocks)
+    {
+        if (projectionChannels == null) {
+            return null;
+        }
+        for (int channel : projectionChannels) {
+            if (!isColumnar(blocks[channel])) {
+                return null;
+            }
+        }
+
+        int rows = blocks[0].getPositionCount();
+        if (filterFunction == TRUE_FUNCTION) {
+            return new Page(rows, selectChannels(blocks));
+        }
+
+        int[] positions = new int[rows];
+        int selectedPositions = selectPositions(blocks, positions);
+        if (selectedPositions == rows) {
+            return new Page(rows, selectChannels(blocks));
+        }
+        if (selectedPositions == 0) {
+            // dropped by the caller, so the projected blocks are never loaded
+            return new Page(0);
+        }
+
+        Block[] outputBlocks = new Block[projectionChannels.length];
+        for (int i = 0; i < projectionChannels.length; i++) {
+            Block block = blocks[projectionChannels[i]];
+            if (block instanceof LazyBlock) {
+                block = ((LazyBlock) block).getBlock();
+                if (!(block instanceof AbstractColumnarBlock)) {
+                    return null;
+                }
+            }
+            outputBlocks[i] = ((AbstractColumnarBlock) block).copyPositions(positions, selectedPositions);
+        }
+        return new Page(selectedPositions, outputBlocks);
+    }
+
+    private Block[] selectChannels(Block[] blocks)
+    {
+        Block[] outputBlocks = new Block[projectionChannels.length];
+        for (int i = 0; i < projectionChannels.length; i++) {
+            outputBlocks[i] = blocks[projectionChannels[i]];
+        }
+        return outputBlocks;
+    }
+
+    private int selectPositions(Block[] blocks, int[] positions)
+    {
+        int rows = blocks[0].getPositionCount();
+
+        BlockCursor[] cursors = new BlockCursor[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            cursors[i] = blocks[i].cursor();
+        }
+
+        int selectedPositions = 0;
+        for (int position = 0; position < rows; position++) {
+            for (BlockCursor cursor : cursors) {
+                checkState(cursor.advanceNextPosition());
+            }
+
+            if (filterFunction.filter(cursors)) {
+                positions[selectedPositions] = position;
+                selectedPositions++;
+            }
+        }
+
+        for (BlockCursor cursor : cursors) {
+            checkState(!cursor.advanceNextPosition());
+        }
+        return selectedPositions;
     }
 
     protected void filterAndProjectRowOriented(Block[] blocks, PageBuilder pageBuilder)
@@ -102,6 +199,31 @@ public class FilterAndProjectOperator
         }
     }
 
+    private static boolean isColumnar(Block block)
+    {
+        return block instanceof AbstractColumnarBlock || block instanceof LazyBlock;
+    }
+
+    private static int[] toProjectionChannels(List<ProjectionFunction> projections)
+    {
+        if (projections.isEmpty()) {
+            return null;
+        }
+
+        int[] channels = new int[projections.size()];
+        for (int i = 0; i < projections.size(); i++) {
+            if (!(projections.get(i) instanceof SingleColumnProjection)) {
+                return null;
+            }
+            SingleColumnProjection projection = (SingleColumnProjection) projections.get(i);
+            if (projection.getFieldIndex() != 0) {
+                return null;
+            }
+            channels[i] = projection.getChannelIndex();
+        }
+        return channels;
+    }
+
     private static List<TupleInfo> toTupleInfos(Iterable<? extends ProjectionFunction> projections)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
@@ -16,6 +16,10 @@ package com.facebook.presto.operator;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.aggregation.AggregationFunction;
 import com.facebook.presto.operator.aggregation.FixedWidthAggregationFunction;
@@ -24,7 +28,9 @@ import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
@@ -32,14 +38,21 @@ import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.slice.SizeOf;
 import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
 import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+import static com.facebook.presto.operator.AggregationFunctionDefinition.aggregation;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
 import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
@@ -58,6 +71,7 @@ public class HashAggregationOperator
         private final Step step;
         private final List<AggregationFunctionDefinition> functionDefinitions;
         private final int expectedGroups;
+        private final Optional<File> spillDirectory;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -68,6 +82,18 @@ public class HashAggregationOperator
                 Step step,
                 List<AggregationFunctionDefinition> functionDefinitions,
                 int expectedGroups)
+        {
+            this(operatorId, groupByTupleInfo, groupByChannel, step, functionDefinitions, expectedGroups, Optional.<File>absent());
+        }
+
+        public HashAggregationOperatorFactory(
+                int operatorId,
+                TupleInfo groupByTupleInfo,
+                int groupByChannel,
+                Step step,
+                List<AggregationFunctionDefinition> functionDefinitions,
+                int expectedGroups,
+                Optional<File> spillDirectory)
         {
             this.operatorId = operatorId;
             this.groupByTupleInfo = groupByTupleInfo;
@@ -75,6 +101,7 @@ public class HashAggregationOperator
             this.step = step;
             this.functionDefinitions = functionDefinitions;
             this.expectedGroups = expectedGroups;
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
             this.tupleInfos = toTupleInfos(groupByTupleInfo, step, functionDefinitions);
         }
@@ -97,7 +124,8 @@ public class HashAggregationOperator
                     groupByChannel,
                     step,
                     functionDefinitions,
-                    expectedGroups
+                    expectedGroups,
+                    spillDirectory
             );
         }
 
@@ -110,19 +138,27 @@ public class HashAggregationOperator
 
     private static final int LOOKUP_SLICE_INDEX = 0xFF_FF_FF_FF;
 
+    // partial aggregation is abandoned once it has seen enough rows to know it
+    // does not reduce them by enough to pay for building the hash table
+    private static final long PARTIAL_AGGREGATION_MIN_INPUT_ROWS = 100_000;
+    private static final double PARTIAL_AGGREGATION_MAX_GROUP_RATIO = 0.8;
+
     private final OperatorContext operatorContext;
     private final TupleInfo groupByTupleInfo;
     private final int groupByChannel;
     private final Step step;
     private final List<AggregationFunctionDefinition> functionDefinitions;
     private final int expectedGroups;
+    private final Optional<File> spillDirectory;
 
     private final List<TupleInfo> tupleInfos;
     private final HashMemoryManager memoryManager;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
 
     private GroupByHashAggregationBuilder aggregationBuilder;
     private Iterator<Page> outputIterator;
     private boolean finishing;
+    private boolean passThrough;
 
     public HashAggregationOperator(
             OperatorContext operatorContext,
@@ -131,6 +167,18 @@ public class HashAggregationOperator
             Step step,
             List<AggregationFunctionDefinition> functionDefinitions,
             int expectedGroups)
+    {
+        this(operatorContext, groupByTupleInfo, groupByChannel, step, functionDefinitions, expectedGroups, Optional.<File>absent());
+    }
+
+    public HashAggregationOperator(
+            OperatorContext operatorContext,
+            TupleInfo groupByTupleInfo,
+            int groupByChannel,
+            Step step,
+            List<AggregationFunctionDefinition> functionDefinitions,
+            int expectedGroups,
+            Optional<File> spillDirectory)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         Preconditions.checkArgument(groupByChannel >= 0, "groupByChannel is negative");
@@ -143,6 +191,7 @@ public class HashAggregationOperator
         this.functionDefinitions = ImmutableList.copyOf(functionDefinitions);
         this.step = step;
         this.expectedGroups = expectedGroups;
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
         this.memoryManager = new HashMemoryManager(operatorContext);
 
         this.tupleInfos = toTupleInfos(groupByTupleInfo, step, functionDefinitions);
@@ -169,7 +218,7 @@ public class HashAggregationOperator
     @Override
     public boolean isFinished()
     {
-        return finishing && aggregationBuilder == null && (outputIterator == null || !outputIterator.hasNext());
+        return finishing && aggregationBuilder == null && spillFiles.isEmpty() && (outputIterator == null || !outputIterator.hasNext());
     }
 
     @Override
@@ -181,7 +230,7 @@ public class HashAggregationOperator
     @Override
     public boolean needsInput()
     {
-        return !finishing && outputIterator == null && (aggregationBuilder == null || !aggregationBuilder.isFull());
+        return !finishing && (outputIterator == null || !outputIterator.hasNext()) && (aggregationBuilder == null || !aggregationBuilder.isFull());
     }
 
     @Override
@@ -189,6 +238,23 @@ public class HashAggregationOperator
     {
         checkState(!finishing, "Operator is already finishing");
         checkNotNull(page, "page is null");
+
+        if (passThrough) {
+            // every row becomes a group of its own, so the intermediate values can be produced without a hash table
+            GroupByHashAggregationBuilder passThroughBuilder = new GroupByHashAggregationBuilder(
+                    functionDefinitions,
+                    step,
+                    page.getPositionCount(),
+                    groupByChannel,
+                    groupByTupleInfo,
+                    memoryManager,
+                    operatorContext,
+                    false);
+            passThroughBuilder.processPage(page);
+            outputIterator = passThroughBuilder.build();
+            return;
+        }
+
         if (aggregationBuilder == null) {
             aggregationBuilder = new GroupByHashAggregationBuilder(
                     functionDefinitions,
@@ -196,7 +262,9 @@ public class HashAggregationOperator
                     expectedGroups,
                     groupByChannel,
                     groupByTupleInfo,
-                    memoryManager);
+                    memoryManager,
+                    operatorContext,
+                    true);
 
             // assume initial aggregationBuilder is not full
         }
@@ -204,6 +272,14 @@ public class HashAggregationOperator
             checkState(!aggregationBuilder.isFull(), "Aggregation buffer is full");
         }
         aggregationBuilder.processPage(page);
+
+        if (step == Step.PARTIAL && aggregationBuilder.getInputRows() >= PARTIAL_AGGREGATION_MIN_INPUT_ROWS &&
+                aggregationBuilder.getGroupCount() > aggregationBuilder.getInputRows() * PARTIAL_AGGREGATION_MAX_GROUP_RATIO) {
+            // the groups are nearly unique, so flush them and pass the remaining rows through
+            passThrough = true;
+            outputIterator = aggregationBuilder.build();
+            aggregationBuilder = null;
+        }
     }
 
     @Override
@@ -211,19 +287,36 @@ public class HashAggregationOperator
     {
         if (outputIterator == null || !outputIterator.hasNext()) {
             // no data
-            if (aggregationBuilder == null) {
+            if (aggregationBuilder == null && spillFiles.isEmpty()) {
+                outputIterator = null;
                 return null;
             }
 
-            // only flush if we are finishing or the aggregation builder is full
-            if (!finishing && !aggregationBuilder.isFull()) {
-                return null;
-            }
+            if (!finishing) {
+                // only flush if we are finishing or the aggregation builder is full
+                if (aggregationBuilder == null || !aggregationBuilder.isFull()) {
+                    return null;
+                }
 
-            // Only partial aggregation can flush early. Also, check that we are not flushing tiny bits at a time
-            checkState(finishing || step == Step.PARTIAL, "Task exceeded max memory size of %s", memoryManager.getMaxMemorySize());
+                // Only partial aggregation can flush early, other steps must spill the groups to disk
+                if (step != Step.PARTIAL) {
+                    checkState(spillDirectory.isPresent(), "Task exceeded max memory size of %s", memoryManager.getMaxMemorySize());
+                    spillToDisk();
+                    return null;
+                }
+            }
 
-            outputIterator = aggregationBuilder.build();
+            if (spillFiles.isEmpty()) {
+                outputIterator = aggregationBuilder.build();
+            }
+            else {
+                // spill the remaining groups so all groups can be merged in hash order
+                if (aggregationBuilder != null) {
+                    spillToDisk();
+                }
+                outputIterator = new SpilledGroupsMerger(ImmutableList.copyOf(spillFiles));
+                spillFiles.clear();
+            }
             aggregationBuilder = null;
 
             if (!outputIterator.hasNext()) {
@@ -234,6 +327,12 @@ public class HashAggregationOperator
         return outputIterator.next();
     }
 
+    private void spillToDisk()
+    {
+        spillFiles.add(SpillFile.spill(spillDirectory.get(), aggregationBuilder.buildSortedIntermediate()));
+        aggregationBuilder = null;
+    }
+
     private static List<TupleInfo> toTupleInfos(TupleInfo groupByTupleInfo, Step step, List<AggregationFunctionDefinition> functionDefinitions)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
@@ -253,7 +352,7 @@ public class HashAggregationOperator
     {
         private final List<Aggregator> aggregates;
         private final SliceHashStrategy hashStrategy;
-        private final Long2IntOpenCustomHashMap addressToGroupId;
+        private final GroupIdMap addressToGroupId;
         private final List<UncompressedBlock> groupByBlocks = new ArrayList<>();
         private final int groupByChannel;
         private final TupleInfo groupByTupleInfo;
@@ -261,14 +360,25 @@ public class HashAggregationOperator
 
         private BlockBuilder blockBuilder;
         private int nextGroupId;
+        private long inputRows;
 
+        // group id of each entry of the last dictionary of the group by channel, or -1 if the entry has not been looked up
+        private Dictionary dictionary;
+        private int[] dictionaryGroupIds;
+
+        /**
+         * Creates a builder that combines the rows with equal keys when
+         * hashGroups is set, and otherwise makes each row a group of its own.
+         */
         private GroupByHashAggregationBuilder(
                 List<AggregationFunctionDefinition> functionDefinitions,
                 Step step,
                 int expectedGroups,
                 int groupByChannel,
                 TupleInfo groupByTupleInfo,
-                HashMemoryManager memoryManager)
+                HashMemoryManager memoryManager,
+                OperatorContext operatorContext,
+                boolean hashGroups)
         {
             this.groupByChannel = groupByChannel;
             this.groupByTupleInfo = groupByTupleInfo;
@@ -283,10 +393,15 @@ public class HashAggregationOperator
 
             // create hash table
             hashStrategy = new SliceHashStrategy(groupByTupleInfo);
-            addressToGroupId = new Long2IntOpenCustomHashMap(expectedGroups, hashStrategy);
+            if (hashGroups) {
+                addressToGroupId = new GroupIdMap(expectedGroups, hashStrategy, operatorContext);
+                addressToGroupId.defaultReturnValue(-1);
+            }
+            else {
+                addressToGroupId = null;
+            }
 
             // initialize hash table
-            addressToGroupId.defaultReturnValue(-1);
             Slice slice = Slices.allocate((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes());
             hashStrategy.addSlice(slice);
 
@@ -303,20 +418,37 @@ public class HashAggregationOperator
                 cursors[i] = blocks[i].cursor();
             }
 
-            Slice groupBySlice = ((UncompressedBlock) blocks[groupByChannel]).getSlice();
-            hashStrategy.setLookupSlice(groupBySlice);
-
-            // process row at a time
             int rows = page.getPositionCount();
-            for (int position = 0; position < rows; position++) {
-                for (BlockCursor cursor : cursors) {
-                    checkState(cursor.advanceNextPosition());
-                }
+            inputRows += rows;
 
-                int groupId = putIfAbsent(groupBySlice, cursors);
+            Block groupByBlock = blocks[groupByChannel];
+            if (addressToGroupId != null && groupByBlock instanceof DictionaryEncodedBlock) {
+                processDictionaryRows(rows, ((DictionaryEncodedBlock) groupByBlock).getDictionary(), cursors);
+            }
+            else if (addressToGroupId != null && groupByBlock instanceof RunLengthEncodedBlock) {
+                // every row of the page is in the same group
+                int groupId = putIfAbsent(((RunLengthEncodedBlock) groupByBlock).getValue().getTupleSlice(), 0);
+                for (int position = 0; position < rows; position++) {
+                    for (BlockCursor cursor : cursors) {
+                        checkState(cursor.advanceNextPosition());
+                    }
+                    processRow(cursors, groupId);
+                }
+            }
+            else {
+                // the raw offsets of the key must come from a cursor over the decoded block
+                UncompressedBlock uncompressedGroupByBlock = toUncompressedBlock(groupByBlock);
+                Slice groupBySlice = uncompressedGroupByBlock.getSlice();
+                cursors[groupByChannel] = uncompressedGroupByBlock.cursor();
+
+                // process row at a time
+                for (int position = 0; position < rows; position++) {
+                    for (BlockCursor cursor : cursors) {
+                        checkState(cursor.advanceNextPosition());
+                    }
 
-                // process the row
-                processRow(cursors, groupId);
+                    addRow(groupBySlice, cursors);
+                }
             }
 
             // verify all cursors are complete
@@ -325,10 +457,49 @@ public class HashAggregationOperator
             }
         }
 
-        private int putIfAbsent(Slice groupBySlice, BlockCursor[] cursors)
+        /**
+         * Looks up the group of each dictionary entry once, instead of once per row.
+         */
+        private void processDictionaryRows(int rows, Dictionary dictionary, BlockCursor[] cursors)
+        {
+            if (dictionary != this.dictionary) {
+                this.dictionary = dictionary;
+                dictionaryGroupIds = new int[dictionary.size()];
+                Arrays.fill(dictionaryGroupIds, -1);
+            }
+
+            DictionaryEncodedBlockCursor groupByCursor = (DictionaryEncodedBlockCursor) cursors[groupByChannel];
+            for (int position = 0; position < rows; position++) {
+                for (BlockCursor cursor : cursors) {
+                    checkState(cursor.advanceNextPosition());
+                }
+
+                int dictionaryKey = groupByCursor.getDictionaryKey();
+                int groupId = dictionaryGroupIds[dictionaryKey];
+                if (groupId < 0) {
+                    groupId = putIfAbsent(dictionary.getTupleSlice(dictionaryKey), 0);
+                    dictionaryGroupIds[dictionaryKey] = groupId;
+                }
+                processRow(cursors, groupId);
+            }
+        }
+
+        private void addRow(Slice groupBySlice, BlockCursor[] cursors)
+        {
+            int groupId = putIfAbsent(groupBySlice, cursors[groupByChannel].getRawOffset());
+
+            // process the row
+            processRow(cursors, groupId);
+        }
+
+        private int putIfAbsent(Slice groupBySlice, int rawOffset)
         {
             // lookup the group id (row number of the key)
-            int rawOffset = cursors[groupByChannel].getRawOffset();
+            if (addressToGroupId == null) {
+                // without a hash table every row is a group of its own
+                return addNewGroup(groupBySlice, rawOffset);
+            }
+            hashStrategy.setLookupSlice(groupBySlice);
             int groupId = addressToGroupId.get(encodeSyntheticAddress(LOOKUP_SLICE_INDEX, rawOffset));
             if (groupId < 0) {
                 groupId = addNewGroup(groupBySlice, rawOffset);
@@ -352,7 +523,9 @@ public class HashAggregationOperator
 
             // record group id in hash
             int groupId = nextGroupId++;
-            addressToGroupId.put(encodeSyntheticAddress(groupByBlocks.size(), groupByValueRawOffset), groupId);
+            if (addressToGroupId != null) {
+                addressToGroupId.put(encodeSyntheticAddress(groupByBlocks.size(), groupByValueRawOffset), groupId);
+            }
 
             // initialize the aggregates
             initializeRow(groupId);
@@ -374,6 +547,16 @@ public class HashAggregationOperator
             }
         }
 
+        public long getInputRows()
+        {
+            return inputRows;
+        }
+
+        public int getGroupCount()
+        {
+            return nextGroupId;
+        }
+
         public boolean isFull()
         {
             long memorySize = hashStrategy.getEstimatedSize();
@@ -418,6 +601,277 @@ public class HashAggregationOperator
                 }
             });
         }
+
+        /**
+         * Builds pages containing the group key followed by the intermediate value
+         * of each aggregate, ordered by the hash of the group key and then by the
+         * key bytes, so runs from several builders can be merged with equal keys
+         * adjacent to each other.
+         */
+        public Iterator<Page> buildSortedIntermediate()
+        {
+            // add the last block if it is not empty
+            if (!blockBuilder.isEmpty()) {
+                UncompressedBlock block = blockBuilder.build();
+                groupByBlocks.add(block);
+            }
+
+            // group ids are assigned in the order the keys are appended to the blocks
+            final Slice[] keySlices = new Slice[nextGroupId];
+            final int[] keyOffsets = new int[nextGroupId];
+            final int[] keyLengths = new int[nextGroupId];
+            final int[] keyHashes = new int[nextGroupId];
+            int groupId = 0;
+            for (UncompressedBlock groupByBlock : groupByBlocks) {
+                Slice slice = groupByBlock.getSlice();
+                BlockCursor cursor = groupByBlock.cursor();
+                while (cursor.advanceNextPosition()) {
+                    int offset = cursor.getRawOffset();
+                    int length = groupByTupleInfo.size(slice, offset);
+                    keySlices[groupId] = slice;
+                    keyOffsets[groupId] = offset;
+                    keyLengths[groupId] = length;
+                    keyHashes[groupId] = slice.hashCode(offset, length);
+                    groupId++;
+                }
+            }
+            checkState(groupId == nextGroupId, "Expected %s groups, but found %s", nextGroupId, groupId);
+
+            final int[] sortedGroupIds = new int[nextGroupId];
+            for (int i = 0; i < sortedGroupIds.length; i++) {
+                sortedGroupIds[i] = i;
+            }
+            IntArrays.quickSort(sortedGroupIds, new AbstractIntComparator()
+            {
+                @Override
+                public int compare(int leftGroupId, int rightGroupId)
+                {
+                    int compare = Integer.compare(keyHashes[leftGroupId], keyHashes[rightGroupId]);
+                    if (compare != 0) {
+                        return compare;
+                    }
+                    return keySlices[leftGroupId].compareTo(keyOffsets[leftGroupId], keyLengths[leftGroupId], keySlices[rightGroupId], keyOffsets[rightGroupId], keyLengths[rightGroupId]);
+                }
+            });
+
+            ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+            tupleInfos.add(groupByTupleInfo);
+            for (Aggregator aggregate : aggregates) {
+                tupleInfos.add(aggregate.getIntermediateTupleInfo());
+            }
+            final PageBuilder pageBuilder = new PageBuilder(tupleInfos.build());
+
+            return new AbstractIterator<Page>()
+            {
+                private int position;
+
+                @Override
+                protected Page computeNext()
+                {
+                    if (position >= sortedGroupIds.length) {
+                        return endOfData();
+                    }
+
+                    pageBuilder.reset();
+                    while (!pageBuilder.isFull() && position < sortedGroupIds.length) {
+                        int groupId = sortedGroupIds[position];
+                        pageBuilder.getBlockBuilder(0).appendTuple(keySlices[groupId], keyOffsets[groupId], keyLengths[groupId]);
+                        for (int channel = 1; channel < aggregates.size() + 1; channel++) {
+                            aggregates.get(channel - 1).evaluateIntermediate(groupId, pageBuilder.getBlockBuilder(channel));
+                        }
+                        position++;
+                    }
+                    return pageBuilder.build();
+                }
+            };
+        }
+    }
+
+    /**
+     * Merges spilled runs of groups and combines the intermediate values of
+     * equal keys.  The runs are sorted by key hash, so all rows for a key are
+     * adjacent in the merged stream and the groups collected so far can be
+     * output whenever the aggregation builder is full and the key changes.
+     * This bounds the memory used by the final aggregation independent of the
+     * number of distinct keys.
+     */
+    private class SpilledGroupsMerger
+            extends AbstractIterator<Page>
+    {
+        private final List<SpillFile> spillFiles;
+        private final List<AggregationFunctionDefinition> mergeFunctionDefinitions;
+        private final PriorityQueue<SpilledGroupsCursor> queue;
+        private Iterator<Page> mergedPages = Iterators.emptyIterator();
+
+        private SpilledGroupsMerger(List<SpillFile> spillFiles)
+        {
+            this.spillFiles = spillFiles;
+
+            // spilled pages contain the group key in channel 0 followed by one intermediate value per aggregate
+            ImmutableList.Builder<AggregationFunctionDefinition> mergeFunctionDefinitions = ImmutableList.builder();
+            for (int i = 0; i < functionDefinitions.size(); i++) {
+                mergeFunctionDefinitions.add(aggregation(functionDefinitions.get(i).getFunction(), new Input(i + 1, 0)));
+            }
+            this.mergeFunctionDefinitions = mergeFunctionDefinitions.build();
+
+            queue = new PriorityQueue<>(spillFiles.size());
+            for (SpillFile spillFile : spillFiles) {
+                SpilledGroupsCursor cursor = new SpilledGroupsCursor(spillFile.read(), groupByTupleInfo);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            while (!mergedPages.hasNext()) {
+                if (queue.isEmpty()) {
+                    for (SpillFile spillFile : spillFiles) {
+                        spillFile.close();
+                    }
+                    return endOfData();
+                }
+                mergedPages = mergeGroups();
+            }
+            return mergedPages.next();
+        }
+
+        private Iterator<Page> mergeGroups()
+        {
+            GroupByHashAggregationBuilder builder = new GroupByHashAggregationBuilder(
+                    mergeFunctionDefinitions,
+                    Step.FINAL,
+                    expectedGroups,
+                    0,
+                    groupByTupleInfo,
+                    memoryManager,
+                    operatorContext,
+                    true);
+
+            Slice previousKeySlice = null;
+            int previousKeyOffset = 0;
+            int previousKeyLength = 0;
+            while (!queue.isEmpty()) {
+                SpilledGroupsCursor cursor = queue.peek();
+
+                // a key can only be flushed once all its intermediate values have been combined
+                if (previousKeySlice != null && builder.isFull() && !cursor.keyEquals(previousKeySlice, previousKeyOffset, previousKeyLength)) {
+                    break;
+                }
+
+                queue.remove();
+                builder.addRow(cursor.getKeySlice(), cursor.getCursors());
+                previousKeySlice = cursor.getKeySlice();
+                previousKeyOffset = cursor.getKeyOffset();
+                previousKeyLength = cursor.getKeyLength();
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    private static class SpilledGroupsCursor
+            implements Comparable<SpilledGroupsCursor>
+    {
+        private final Iterator<Page> pages;
+        private final TupleInfo groupByTupleInfo;
+
+        private BlockCursor[] cursors;
+        private Slice keySlice;
+        private int keyOffset;
+        private int keyLength;
+        private int keyHash;
+
+        private SpilledGroupsCursor(Iterator<Page> pages, TupleInfo groupByTupleInfo)
+        {
+            this.pages = pages;
+            this.groupByTupleInfo = groupByTupleInfo;
+        }
+
+        public boolean advance()
+        {
+            while (cursors == null || !cursors[0].advanceNextPosition()) {
+                if (!pages.hasNext()) {
+                    cursors = null;
+                    return false;
+                }
+                Block[] blocks = pages.next().getBlocks();
+                UncompressedBlock keyBlock = toUncompressedBlock(blocks[0]);
+                cursors = new BlockCursor[blocks.length];
+                cursors[0] = keyBlock.cursor();
+                for (int i = 1; i < blocks.length; i++) {
+                    cursors[i] = blocks[i].cursor();
+                }
+                keySlice = keyBlock.getSlice();
+            }
+
+            for (int i = 1; i < cursors.length; i++) {
+                checkState(cursors[i].advanceNextPosition());
+            }
+
+            keyOffset = cursors[0].getRawOffset();
+            keyLength = groupByTupleInfo.size(keySlice, keyOffset);
+            keyHash = keySlice.hashCode(keyOffset, keyLength);
+            return true;
+        }
+
+        public BlockCursor[] getCursors()
+        {
+            return cursors;
+        }
+
+        public Slice getKeySlice()
+        {
+            return keySlice;
+        }
+
+        public int getKeyOffset()
+        {
+            return keyOffset;
+        }
+
+        public int getKeyLength()
+        {
+            return keyLength;
+        }
+
+        public boolean keyEquals(Slice slice, int offset, int length)
+        {
+            return keySlice.equals(keyOffset, keyLength, slice, offset, length);
+        }
+
+        @Override
+        public int compareTo(SpilledGroupsCursor other)
+        {
+            int compare = Integer.compare(keyHash, other.keyHash);
+            if (compare != 0) {
+                return compare;
+            }
+            return keySlice.compareTo(keyOffset, keyLength, other.keySlice, other.keyOffset, other.keyLength);
+        }
+    }
+
+    private static class GroupIdMap
+            extends Long2IntOpenCustomHashMap
+    {
+        private final OperatorContext operatorContext;
+
+        private GroupIdMap(int expectedGroups, Strategy strategy, OperatorContext operatorContext)
+        {
+            super(expectedGroups, strategy);
+            this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        }
+
+        @Override
+        protected void rehash(int newN)
+        {
+            operatorContext.recordHashTableRehash();
+            super.rehash(newN);
+        }
     }
 
     public static class HashMemoryManager
@@ -478,11 +932,15 @@ public class HashAggregationOperator
 
         TupleInfo getTupleInfo();
 
+        TupleInfo getIntermediateTupleInfo();
+
         void initialize(int position);
 
         void addValue(BlockCursor[] cursors, int position);
 
         void evaluate(int position, BlockBuilder output);
+
+        void evaluateIntermediate(int position, BlockBuilder output);
     }
 
     private static class FixedWidthAggregator
@@ -526,6 +984,12 @@ public class HashAggregationOperator
             }
         }
 
+        @Override
+        public TupleInfo getIntermediateTupleInfo()
+        {
+            return function.getIntermediateTupleInfo();
+        }
+
         @Override
         public void initialize(int position)
         {
@@ -589,6 +1053,18 @@ public class HashAggregationOperator
                 function.evaluateFinal(slice, sliceOffset, output);
             }
         }
+
+        @Override
+        public void evaluateIntermediate(int position, BlockBuilder output)
+        {
+            int offset = position * fixedWidthSize;
+
+            int sliceIndex = offset / sliceSize; // todo do this with shifts
+            Slice slice = slices.get(sliceIndex);
+            int sliceOffset = offset - (sliceIndex * sliceSize);
+
+            function.evaluateIntermediate(slice, sliceOffset, output);
+        }
     }
 
     private static class VariableWidthAggregator<T>
@@ -636,6 +1112,12 @@ public class HashAggregationOperator
             }
         }
 
+        @Override
+        public TupleInfo getIntermediateTupleInfo()
+        {
+            return function.getIntermediateTupleInfo();
+        }
+
         @Override
         public void initialize(int position)
         {
@@ -685,6 +1167,12 @@ public class HashAggregationOperator
                 function.evaluateFinal(value, output);
             }
         }
+
+        @Override
+        public void evaluateIntermediate(int position, BlockBuilder output)
+        {
+            function.evaluateIntermediate(intermediateValues.get(position), output);
+        }
     }
 
     public static class SliceHashStrategy
@@ -13,33 +13,97 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.slice.Slice;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.SIZE_OF_INT;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
 
 @ThreadSafe
 public class HashBuilderOperator
         implements Operator
 {
+    private static final int SPILL_PARTITION_COUNT = 8;
+
     public static class HashSupplier
     {
         private final List<TupleInfo> tupleInfos;
+        private final int hashChannel;
         private final SettableFuture<HashData> hashFuture = SettableFuture.create();
 
+        // when the hash is built by multiple operators, each operator indexes a segment of the rows,
+        // and once all segments are added each operator builds the hash of one partition of the key
+        private final HashPartitioner buildPartitioner;
+        private final SettableFuture<?> segmentsFuture = SettableFuture.create();
+        @GuardedBy("this")
+        private final List<PagesIndex> segments = new ArrayList<>();
+        @GuardedBy("this")
+        private final List<IntArrayList[]> segmentPartitionPositions = new ArrayList<>();
+        @GuardedBy("this")
+        private final ChannelHash[] partitionHashes;
+        @GuardedBy("this")
+        private int builtPartitions;
+        private PagesIndex mergedIndex;
+        private IntArrayList positionLinks;
+
+        // the spilled build partitions are shared by all probe operators and
+        // are deleted when the last reference is released
+        @GuardedBy("this")
+        private int referenceCount;
+        @GuardedBy("this")
+        private boolean released;
+
+        // one spilled build partition at a time is loaded, and its hash is shared by the probe operators joining it
+        @GuardedBy("this")
+        private SpilledBuildPartition loadedPartition;
+        @GuardedBy("this")
+        private int loadedPartitionReferences;
+        @GuardedBy("this")
+        private boolean loading;
+        @GuardedBy("this")
+        private SettableFuture<?> loadedPartitionReleased = SettableFuture.create();
+
         public HashSupplier(List<TupleInfo> tupleInfos)
+        {
+            this(tupleInfos, 0);
+        }
+
+        public HashSupplier(List<TupleInfo> tupleInfos, int hashChannel)
+        {
+            this(tupleInfos, hashChannel, 1);
+        }
+
+        public HashSupplier(List<TupleInfo> tupleInfos, int hashChannel, int buildPartitionCount)
         {
             this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+            Preconditions.checkArgument(hashChannel >= 0, "hashChannel is negative");
+            this.hashChannel = hashChannel;
+            this.buildPartitioner = new HashPartitioner(tupleInfos.get(hashChannel), buildPartitionCount);
+            this.partitionHashes = new ChannelHash[buildPartitionCount];
         }
 
         public List<TupleInfo> getTupleInfos()
@@ -47,6 +111,16 @@ public class HashBuilderOperator
             return tupleInfos;
         }
 
+        public int getHashChannel()
+        {
+            return hashChannel;
+        }
+
+        public int getBuildPartitionCount()
+        {
+            return partitionHashes.length;
+        }
+
         public ListenableFuture<SourceHash> getSourceHash()
         {
             return Futures.transform(hashFuture, new Function<HashData, SourceHash>()
@@ -54,30 +128,281 @@ public class HashBuilderOperator
                 @Override
                 public SourceHash apply(HashData hashData)
                 {
-                    return new SourceHash(new ChannelHash(hashData.channelHash), hashData.pagesIndex);
+                    // hash strategies can not be shared across threads
+                    ChannelHash[] channelHashes = new ChannelHash[hashData.channelHashes.length];
+                    for (int partition = 0; partition < channelHashes.length; partition++) {
+                        channelHashes[partition] = new ChannelHash(hashData.channelHashes[partition]);
+                    }
+                    return new SourceHash(
+                            channelHashes,
+                            hashData.buildPartitioner,
+                            hashData.pagesIndex,
+                            hashData.spillPartitioner,
+                            hashData.spilledPartitions,
+                            hashData.spillDirectory);
                 }
             });
         }
 
         void setHash(ChannelHash channelHash, PagesIndex pagesIndex)
         {
-            HashData hashData = new HashData(
-                    checkNotNull(channelHash, "channelHash is null"),
-                    checkNotNull(pagesIndex, "pagesIndex is null"));
+            setHash(channelHash, pagesIndex, null, ImmutableMap.<Integer, SpillFile>of(), null);
+        }
+
+        void setHash(ChannelHash channelHash, PagesIndex pagesIndex, HashPartitioner spillPartitioner, Map<Integer, SpillFile> spilledPartitions, File spillDirectory)
+        {
+            checkNotNull(channelHash, "channelHash is null");
+            setHash(new HashData(
+                    new ChannelHash[] {channelHash},
+                    buildPartitioner,
+                    checkNotNull(pagesIndex, "pagesIndex is null"),
+                    spillPartitioner,
+                    ImmutableMap.copyOf(checkNotNull(spilledPartitions, "spilledPartitions is null")),
+                    spillDirectory));
+        }
+
+        /**
+         * Adds the rows indexed by one of the build operators, with the positions
+         * of the rows in each build partition.  Once all segments are added, the
+         * segments are merged into a single index, and the memory of the merged
+         * index and the shared position links is reserved by the operator adding
+         * the last segment.
+         */
+        void addSegment(PagesIndex segment, IntArrayList[] partitionPositions, OperatorContext operatorContext)
+        {
+            checkNotNull(segment, "segment is null");
+            checkNotNull(partitionPositions, "partitionPositions is null");
+            checkNotNull(operatorContext, "operatorContext is null");
+            Preconditions.checkArgument(partitionPositions.length == partitionHashes.length, "Expected %s partitions", partitionHashes.length);
+
+            synchronized (this) {
+                checkState(segments.size() < partitionHashes.length, "All segments already added");
+                segments.add(segment);
+                segmentPartitionPositions.add(partitionPositions);
+                if (segments.size() < partitionHashes.length) {
+                    return;
+                }
+
+                long positionCount = 0;
+                for (PagesIndex pagesIndex : segments) {
+                    positionCount += pagesIndex.getPositionCount();
+                }
+                // the merged index copies the value addresses of every channel
+                reserveMemory(operatorContext, positionCount * (SIZE_OF_LONG * tupleInfos.size() + SIZE_OF_INT));
+
+                mergedIndex = new PagesIndex(tupleInfos, 0, null);
+                for (PagesIndex pagesIndex : segments) {
+                    mergedIndex.addIndex(pagesIndex);
+                }
+                int[] links = new int[mergedIndex.getPositionCount()];
+                Arrays.fill(links, -1);
+                positionLinks = IntArrayList.wrap(links);
+            }
+            segmentsFuture.set(null);
+        }
+
+        ListenableFuture<?> getSegmentsFuture()
+        {
+            return segmentsFuture;
+        }
+
+        /**
+         * Builds the hash of one partition of the merged index.  The partitions
+         * are built concurrently by the build operators.
+         */
+        ChannelHash buildPartition(int partition, OperatorContext operatorContext)
+        {
+            checkState(segmentsFuture.isDone(), "Segments are not complete");
+
+            List<PagesIndex> segments;
+            List<IntArrayList[]> segmentPartitionPositions;
+            synchronized (this) {
+                segments = ImmutableList.copyOf(this.segments);
+                segmentPartitionPositions = ImmutableList.copyOf(this.segmentPartitionPositions);
+            }
+
+            // rebase the segment positions to positions in the merged index
+            IntArrayList positions = new IntArrayList();
+            int segmentOffset = 0;
+            for (int segment = 0; segment < segments.size(); segment++) {
+                IntArrayList segmentPositions = segmentPartitionPositions.get(segment)[partition];
+                for (int i = 0; i < segmentPositions.size(); i++) {
+                    positions.add(segmentOffset + segmentPositions.getInt(i));
+                }
+                segmentOffset += segments.get(segment).getPositionCount();
+            }
+
+            // the operator reservation already covers its segment, so the hash must be reserved in addition to it
+            reserveMemory(operatorContext, ChannelHash.getEstimatedSize(positions.size()));
+            return new ChannelHash(mergedIndex.getIndex(hashChannel), positionLinks, positions, operatorContext);
+        }
+
+        void setPartitionHash(int partition, ChannelHash channelHash)
+        {
+            checkNotNull(channelHash, "channelHash is null");
+
+            synchronized (this) {
+                checkState(partitionHashes[partition] == null, "Partition hash already set");
+                partitionHashes[partition] = channelHash;
+                builtPartitions++;
+                if (builtPartitions < partitionHashes.length) {
+                    return;
+                }
+            }
+            setHash(new HashData(
+                    partitionHashes.clone(),
+                    buildPartitioner,
+                    mergedIndex,
+                    null,
+                    ImmutableMap.<Integer, SpillFile>of(),
+                    null));
+        }
+
+        private void setHash(HashData hashData)
+        {
 
             boolean wasSet = hashFuture.set(hashData);
             checkState(wasSet, "Hash already set");
+
+            synchronized (this) {
+                if (released) {
+                    hashData.deleteSpilledPartitions();
+                }
+            }
+        }
+
+        /**
+         * Adds a reference to the hash, which keeps the spilled build partitions
+         * on disk until the reference is released.
+         */
+        public synchronized void retain()
+        {
+            checkState(!released, "Hash has already been released");
+            referenceCount++;
+        }
+
+        public synchronized void release()
+        {
+            checkState(referenceCount > 0, "Hash is not retained");
+            referenceCount--;
+            if (referenceCount == 0) {
+                released = true;
+                loadedPartition = null;
+                if (hashFuture.isDone()) {
+                    Futures.getUnchecked(hashFuture).deleteSpilledPartitions();
+                }
+            }
+        }
+
+        /**
+         * Acquires a spilled build partition for a probe operator.  Only one
+         * partition is loaded at a time: if another partition is loaded and still
+         * acquired, the returned future completes when it is released and the
+         * caller must try again.  Otherwise the partition is loaded by the caller,
+         * unless it is already loaded or split, and the returned future is done.
+         * A loaded partition must be released once the caller has joined it.
+         */
+        ListenableFuture<?> acquireSpilledPartition(SpilledBuildPartition partition, OperatorContext operatorContext)
+        {
+            checkNotNull(partition, "partition is null");
+            checkNotNull(operatorContext, "operatorContext is null");
+
+            synchronized (this) {
+                checkState(!released, "Hash has already been released");
+                if (partition.isSplit()) {
+                    return Futures.immediateFuture(null);
+                }
+                if (loadedPartition == partition && !loading) {
+                    loadedPartitionReferences++;
+                    return Futures.immediateFuture(null);
+                }
+                if (loadedPartition != null && (loading || loadedPartitionReferences > 0)) {
+                    return loadedPartitionReleased;
+                }
+
+                if (loadedPartition != null) {
+                    loadedPartition.unload();
+                }
+                loadedPartition = partition;
+                loadedPartitionReferences = 1;
+                loading = true;
+            }
+
+            // the partition is loaded outside of the lock, so operators joining other partitions are not blocked
+            boolean loaded = false;
+            try {
+                partition.load(tupleInfos, hashChannel, operatorContext);
+                loaded = true;
+            }
+            finally {
+                SettableFuture<?> releasedFuture;
+                synchronized (this) {
+                    loading = false;
+                    if (!loaded || partition.isSplit()) {
+                        // a split partition holds no memory, so nothing is acquired
+                        loadedPartition = null;
+                        loadedPartitionReferences = 0;
+                    }
+                    releasedFuture = loadedPartitionReleased;
+                    loadedPartitionReleased = SettableFuture.create();
+                }
+                releasedFuture.set(null);
+            }
+            return Futures.immediateFuture(null);
+        }
+
+        void releaseSpilledPartition(SpilledBuildPartition partition)
+        {
+            checkNotNull(partition, "partition is null");
+
+            SettableFuture<?> releasedFuture;
+            synchronized (this) {
+                checkState(loadedPartition == partition && loadedPartitionReferences > 0, "Partition is not acquired");
+                loadedPartitionReferences--;
+                if (loadedPartitionReferences > 0) {
+                    return;
+                }
+                // the partition stays loaded until another partition is acquired
+                releasedFuture = loadedPartitionReleased;
+                loadedPartitionReleased = SettableFuture.create();
+            }
+            releasedFuture.set(null);
         }
 
         private static class HashData
         {
-            private final ChannelHash channelHash;
+            private final ChannelHash[] channelHashes;
+            private final HashPartitioner buildPartitioner;
             private final PagesIndex pagesIndex;
-
-            private HashData(ChannelHash channelHash, PagesIndex pagesIndex)
+            private final HashPartitioner spillPartitioner;
+            private final Map<Integer, SpilledBuildPartition> spilledPartitions;
+            private final File spillDirectory;
+
+            private HashData(
+                    ChannelHash[] channelHashes,
+                    HashPartitioner buildPartitioner,
+                    PagesIndex pagesIndex,
+                    HashPartitioner spillPartitioner,
+                    Map<Integer, SpillFile> spilledPartitions,
+                    File spillDirectory)
             {
-                this.channelHash = channelHash;
+                this.channelHashes = channelHashes;
+                this.buildPartitioner = buildPartitioner;
                 this.pagesIndex = pagesIndex;
+                this.spillPartitioner = spillPartitioner;
+                ImmutableMap.Builder<Integer, SpilledBuildPartition> partitions = ImmutableMap.builder();
+                for (Map.Entry<Integer, SpillFile> entry : spilledPartitions.entrySet()) {
+                    partitions.put(entry.getKey(), new SpilledBuildPartition(spillPartitioner, entry.getValue()));
+                }
+                this.spilledPartitions = partitions.build();
+                this.spillDirectory = spillDirectory;
+            }
+
+            private void deleteSpilledPartitions()
+            {
+                for (SpilledBuildPartition partition : spilledPartitions.values()) {
+                    partition.close();
+                }
             }
         }
     }
@@ -89,6 +414,9 @@ public class HashBuilderOperator
         private final HashSupplier hashSupplier;
         private final int hashChannel;
         private final int expectedPositions;
+        private final Optional<File> spillDirectory;
+        private final Optional<DynamicFilter> dynamicFilter;
+        private int nextBuildPartition;
         private boolean closed;
 
         public HashBuilderOperatorFactory(
@@ -96,12 +424,63 @@ public class HashBuilderOperator
                 List<TupleInfo> tupleInfos,
                 int hashChannel,
                 int expectedPositions)
+        {
+            this(operatorId, tupleInfos, hashChannel, expectedPositions, Optional.<File>absent());
+        }
+
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                int expectedPositions,
+                Optional<File> spillDirectory)
+        {
+            this(operatorId, tupleInfos, hashChannel, expectedPositions, spillDirectory, 1);
+        }
+
+        /**
+         * Creates a factory for a hash built by the specified number of operators,
+         * each running in its own driver.
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                int expectedPositions,
+                Optional<File> spillDirectory,
+                int buildConcurrency)
+        {
+            this(operatorId, tupleInfos, hashChannel, expectedPositions, spillDirectory, buildConcurrency, Optional.<DynamicFilter>absent());
+        }
+
+        /**
+         * Creates a factory that also publishes the keys of the hash to the
+         * specified dynamic filter.  The filter must expect one collector per
+         * build operator.
+         */
+        public HashBuilderOperatorFactory(
+                int operatorId,
+                List<TupleInfo> tupleInfos,
+                int hashChannel,
+                int expectedPositions,
+                Optional<File> spillDirectory,
+                int buildConcurrency,
+                Optional<DynamicFilter> dynamicFilter)
         {
             this.operatorId = operatorId;
-            this.hashSupplier = new HashSupplier(checkNotNull(tupleInfos, "tupleInfos is null"));
+            Preconditions.checkArgument(buildConcurrency > 0, "buildConcurrency must be at least 1");
+            this.hashSupplier = new HashSupplier(checkNotNull(tupleInfos, "tupleInfos is null"), hashChannel, buildConcurrency);
             Preconditions.checkArgument(hashChannel >= 0, "hashChannel is negative");
             this.hashChannel = hashChannel;
             this.expectedPositions = checkNotNull(expectedPositions, "expectedPositions is null");
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+            Preconditions.checkArgument(buildConcurrency == 1 || !spillDirectory.isPresent(), "Spilling is not supported for a concurrent hash build");
+            this.dynamicFilter = checkNotNull(dynamicFilter, "dynamicFilter is null");
+            if (dynamicFilter.isPresent()) {
+                TupleInfo keyTupleInfo = tupleInfos.get(hashChannel);
+                Preconditions.checkArgument(keyTupleInfo.getFieldCount() == 1 && keyTupleInfo.getTypes().get(0) == dynamicFilter.get().getType(),
+                        "Dynamic filter type does not match hash channel %s", keyTupleInfo);
+            }
         }
 
         public HashSupplier getHashSupplier()
@@ -119,12 +498,16 @@ public class HashBuilderOperator
         public Operator createOperator(DriverContext driverContext)
         {
             checkState(!closed, "Factory is already closed");
+            checkState(nextBuildPartition < hashSupplier.getBuildPartitionCount(), "All %s build operators already created", hashSupplier.getBuildPartitionCount());
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, HashBuilderOperator.class.getSimpleName());
             return new HashBuilderOperator(
                     operatorContext,
                     hashSupplier,
                     hashChannel,
-                    expectedPositions);
+                    expectedPositions,
+                    spillDirectory,
+                    nextBuildPartition++,
+                    dynamicFilter);
         }
 
         @Override
@@ -137,8 +520,18 @@ public class HashBuilderOperator
     private final OperatorContext operatorContext;
     private final HashSupplier hashSupplier;
     private final int hashChannel;
+    private final int expectedPositions;
+    private final Optional<File> spillDirectory;
+    private final HashPartitioner partitioner;
+    private final int buildPartition;
+    private final Optional<DynamicFilter> dynamicFilter;
+    private final DynamicFilter.Collector dynamicFilterCollector;
+
+    private PagesIndex pagesIndex;
+    private boolean segmentAdded;
 
-    private final PagesIndex pagesIndex;
+    private final boolean[] spilledPartitions;
+    private PartitionedSpiller spiller;
 
     private boolean finished;
 
@@ -147,11 +540,55 @@ public class HashBuilderOperator
             HashSupplier hashSupplier,
             int hashChannel,
             int expectedPositions)
+    {
+        this(operatorContext, hashSupplier, hashChannel, expectedPositions, Optional.<File>absent());
+    }
+
+    public HashBuilderOperator(
+            OperatorContext operatorContext,
+            HashSupplier hashSupplier,
+            int hashChannel,
+            int expectedPositions,
+            Optional<File> spillDirectory)
+    {
+        this(operatorContext, hashSupplier, hashChannel, expectedPositions, spillDirectory, 0);
+    }
+
+    public HashBuilderOperator(
+            OperatorContext operatorContext,
+            HashSupplier hashSupplier,
+            int hashChannel,
+            int expectedPositions,
+            Optional<File> spillDirectory,
+            int buildPartition)
+    {
+        this(operatorContext, hashSupplier, hashChannel, expectedPositions, spillDirectory, buildPartition, Optional.<DynamicFilter>absent());
+    }
+
+    public HashBuilderOperator(
+            OperatorContext operatorContext,
+            HashSupplier hashSupplier,
+            int hashChannel,
+            int expectedPositions,
+            Optional<File> spillDirectory,
+            int buildPartition,
+            Optional<DynamicFilter> dynamicFilter)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
         this.hashSupplier = checkNotNull(hashSupplier, "hashSupplier is null");
         this.hashChannel = hashChannel;
+        this.expectedPositions = expectedPositions;
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
         this.pagesIndex = new PagesIndex(hashSupplier.getTupleInfos(), expectedPositions, operatorContext);
+
+        Preconditions.checkArgument(buildPartition >= 0 && buildPartition < hashSupplier.getBuildPartitionCount(), "buildPartition is invalid");
+        this.buildPartition = buildPartition;
+
+        this.partitioner = new HashPartitioner(hashSupplier.getTupleInfos().get(hashChannel), SPILL_PARTITION_COUNT);
+        this.spilledPartitions = new boolean[partitioner.getPartitionCount()];
+
+        this.dynamicFilter = checkNotNull(dynamicFilter, "dynamicFilter is null");
+        this.dynamicFilterCollector = dynamicFilter.isPresent() ? dynamicFilter.get().createCollector() : null;
     }
 
     @Override
@@ -173,8 +610,21 @@ public class HashBuilderOperator
             return;
         }
 
+        if (hashSupplier.getBuildPartitionCount() > 1) {
+            finishBuildPartition();
+            return;
+        }
+
+        publishDynamicFilter();
+
         ChannelHash channelHash = new ChannelHash(pagesIndex.getIndex(hashChannel), operatorContext);
-        hashSupplier.setHash(channelHash, pagesIndex);
+        if (spiller == null) {
+            hashSupplier.setHash(channelHash, pagesIndex);
+        }
+        else {
+            hashSupplier.setHash(channelHash, pagesIndex, partitioner, spiller.finish(), spillDirectory.get());
+            spiller = null;
+        }
         finished = true;
     }
 
@@ -187,6 +637,9 @@ public class HashBuilderOperator
     @Override
     public ListenableFuture<?> isBlocked()
     {
+        if (segmentAdded && !finished) {
+            return hashSupplier.getSegmentsFuture();
+        }
         return NOT_BLOCKED;
     }
 
@@ -202,7 +655,20 @@ public class HashBuilderOperator
         checkNotNull(page, "page is null");
         checkState(!isFinished(), "Operator is already finished");
 
-        pagesIndex.addPage(page);
+        // collect the keys before the page is partitioned, so spilled rows are included
+        if (dynamicFilterCollector != null) {
+            dynamicFilterCollector.add(page.getBlock(hashChannel));
+        }
+
+        if (spiller == null) {
+            if (!addToIndex(page)) {
+                checkState(spillDirectory.isPresent(), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+                spillPartitions();
+            }
+        }
+        else {
+            addPartitionedPage(page);
+        }
         operatorContext.recordGeneratedOutput(page.getDataSize(), page.getPositionCount());
     }
 
@@ -211,4 +677,153 @@ public class HashBuilderOperator
     {
         return null;
     }
+
+    /**
+     * Adds the page to the index and returns false if partitions must be spilled.
+     * When spilling is enabled, the index is limited to half of the task memory,
+     * which leaves the probe side room to join the spilled partitions.
+     */
+    private boolean addToIndex(Page page)
+    {
+        if (!pagesIndex.tryAddPage(page)) {
+            return false;
+        }
+        return !spillDirectory.isPresent() || pagesIndex.getEstimatedSize().toBytes() <= operatorContext.getMaxMemorySize().toBytes() / 2;
+    }
+
+    private void finishBuildPartition()
+    {
+        if (!segmentAdded) {
+            // assign the positions of this segment to build partitions
+            ChannelIndex channelIndex = pagesIndex.getIndex(hashChannel);
+            HashPartitioner buildPartitioner = new HashPartitioner(channelIndex.getTupleInfo(), hashSupplier.getBuildPartitionCount());
+            reserveMemory(operatorContext, (long) channelIndex.getPositionCount() * SIZE_OF_INT);
+            IntArrayList[] partitionPositions = new IntArrayList[buildPartitioner.getPartitionCount()];
+            for (int partition = 0; partition < partitionPositions.length; partition++) {
+                partitionPositions[partition] = new IntArrayList();
+            }
+            long[] addresses = channelIndex.getValueAddresses().elements();
+            for (int position = 0; position < channelIndex.getPositionCount(); position++) {
+                long sliceAddress = addresses[position];
+                Slice slice = channelIndex.getSliceForSyntheticAddress(sliceAddress);
+                partitionPositions[buildPartitioner.getPartition(slice, decodeSliceOffset(sliceAddress))].add(position);
+            }
+
+            hashSupplier.addSegment(pagesIndex, partitionPositions, operatorContext);
+            segmentAdded = true;
+            publishDynamicFilter();
+        }
+
+        // wait for the other build operators to add their segments
+        if (!hashSupplier.getSegmentsFuture().isDone()) {
+            return;
+        }
+
+        hashSupplier.setPartitionHash(buildPartition, hashSupplier.buildPartition(buildPartition, operatorContext));
+        pagesIndex = null;
+        finished = true;
+    }
+
+    private static void reserveMemory(OperatorContext operatorContext, long bytes)
+    {
+        checkState(operatorContext.reserveMemory(bytes), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+    }
+
+    private void publishDynamicFilter()
+    {
+        if (dynamicFilter.isPresent()) {
+            dynamicFilter.get().publish(dynamicFilterCollector);
+        }
+    }
+
+    private void addPartitionedPage(Page page)
+    {
+        List<Page> inMemoryPages = spillRows(page);
+        for (int i = 0; i < inMemoryPages.size(); i++) {
+            if (!addToIndex(inMemoryPages.get(i))) {
+                spillPartitions();
+
+                // the remaining pages may contain rows of the partitions that were just spilled
+                for (Page remainingPage : inMemoryPages.subList(i + 1, inMemoryPages.size())) {
+                    addPartitionedPage(remainingPage);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spills the upper half of the partitions that are still in memory, and
+     * rebuilds the index from the rows of the remaining partitions.  The new
+     * index is smaller than the old one, so it always fits in the memory
+     * already reserved by this operator.
+     */
+    private void spillPartitions()
+    {
+        if (spiller == null) {
+            spiller = new PartitionedSpiller(spillDirectory.get(), hashSupplier.getTupleInfos(), partitioner.getPartitionCount());
+        }
+
+        int inMemoryPartitions = 0;
+        for (boolean spilled : spilledPartitions) {
+            if (!spilled) {
+                inMemoryPartitions++;
+            }
+        }
+        int partitionsToSpill = Math.max(inMemoryPartitions / 2, 1);
+        for (int partition = spilledPartitions.length - 1; partition >= 0 && partitionsToSpill > 0; partition--) {
+            if (!spilledPartitions[partition]) {
+                spilledPartitions[partition] = true;
+                partitionsToSpill--;
+            }
+        }
+
+        PagesIndex oldPagesIndex = pagesIndex;
+        pagesIndex = new PagesIndex(hashSupplier.getTupleInfos(), expectedPositions, operatorContext);
+        Iterator<Page> pages = oldPagesIndex.getPages();
+        while (pages.hasNext()) {
+            for (Page inMemoryPage : spillRows(pages.next())) {
+                pagesIndex.addPage(inMemoryPage);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of spilled partitions to the spiller and returns the
+     * remaining rows.
+     */
+    private List<Page> spillRows(Page page)
+    {
+        ImmutableList.Builder<Page> inMemoryPages = ImmutableList.builder();
+        PageBuilder pageBuilder = new PageBuilder(hashSupplier.getTupleInfos());
+
+        BlockCursor[] cursors = new BlockCursor[page.getChannelCount()];
+        for (int channel = 0; channel < cursors.length; channel++) {
+            cursors[channel] = page.getBlock(channel).cursor();
+        }
+        cursors[hashChannel] = toUncompressedBlock(page.getBlock(hashChannel)).cursor();
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            for (BlockCursor cursor : cursors) {
+                checkState(cursor.advanceNextPosition());
+            }
+
+            int partition = partitioner.getPartition(cursors[hashChannel]);
+            if (spilledPartitions[partition]) {
+                spiller.append(partition, cursors);
+            }
+            else {
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+                }
+                if (pageBuilder.isFull()) {
+                    inMemoryPages.add(pageBuilder.build());
+                    pageBuilder.reset();
+                }
+            }
+        }
+        if (!pageBuilder.isEmpty()) {
+            inMemoryPages.add(pageBuilder.build());
+        }
+        return inMemoryPages.build();
+    }
 }
@@ -13,22 +13,36 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlockCursor;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.HashBuilderOperator.HashSupplier;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
-
+import io.airlift.slice.Slice;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
 import static com.facebook.presto.util.MoreFutures.tryGetUnchecked;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class HashJoinOperator
-        implements Operator
+        implements Operator, Closeable
 {
     public static HashJoinOperatorFactory innerJoin(int operatorId, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel)
     {
@@ -63,6 +77,8 @@ public class HashJoinOperator
                     .addAll(probeTupleInfos)
                     .addAll(hashSupplier.getTupleInfos())
                     .build();
+
+            hashSupplier.retain();
         }
 
         @Override
@@ -82,13 +98,20 @@ public class HashJoinOperator
         @Override
         public void close()
         {
-            closed = true;
+            if (!closed) {
+                closed = true;
+                hashSupplier.release();
+            }
         }
     }
 
+    private static final int UNKNOWN_JOIN_POSITION = -2;
+
     private final ListenableFuture<SourceHash> sourceHashFuture;
+    private final HashSupplier hashSupplier;
 
     private final OperatorContext operatorContext;
+    private final List<TupleInfo> probeTupleInfos;
     private final int probeJoinChannel;
     private final int probeJoinChannelFieldCount;
     private final boolean enableOuterJoin;
@@ -100,7 +123,23 @@ public class HashJoinOperator
 
     private SourceHash hash;
     private boolean finishing;
+    private boolean released;
     private int joinPosition = -1;
+    private boolean probePositionSpilled;
+
+    // probe rows of the build partitions that were spilled, and the partitions left to join; the hash of
+    // each spilled build partition is loaded once by the hash supplier and shared by the probe operators
+    private PartitionedSpiller probeSpiller;
+    private final Deque<SpilledPartition> spilledPartitions = new ArrayDeque<>();
+    private SpilledPartition joiningPartition;
+    private Iterator<Page> spilledProbePages;
+    private ListenableFuture<?> spilledPartitionFuture;
+
+    // join position of each entry of the dictionary of the probe join channel, computed once per entry and hash
+    private Dictionary probeDictionary;
+    private SourceHash probeDictionaryHash;
+    private int[] dictionaryJoinPositions;
+    private DictionaryEncodedBlockCursor probeDictionaryCursor;
 
     public HashJoinOperator(OperatorContext operatorContext, HashSupplier hashSupplier, List<TupleInfo> probeTupleInfos, int probeJoinChannel, boolean enableOuterJoin)
     {
@@ -111,7 +150,9 @@ public class HashJoinOperator
         checkNotNull(probeTupleInfos, "probeTupleInfos is null");
         Preconditions.checkArgument(probeJoinChannel >= 0, "probeJoinChannel is negative");
 
+        this.hashSupplier = hashSupplier;
         this.sourceHashFuture = hashSupplier.getSourceHash();
+        this.probeTupleInfos = ImmutableList.copyOf(probeTupleInfos);
         this.probeJoinChannel = probeJoinChannel;
         this.probeJoinChannelFieldCount = probeTupleInfos.get(probeJoinChannel).getFieldCount();
         this.enableOuterJoin = enableOuterJoin;
@@ -123,6 +164,8 @@ public class HashJoinOperator
         this.pageBuilder = new PageBuilder(tupleInfos);
 
         this.cursors = new BlockCursor[probeTupleInfos.size()];
+
+        hashSupplier.retain();
     }
 
     @Override
@@ -146,11 +189,15 @@ public class HashJoinOperator
     @Override
     public boolean isFinished()
     {
-        boolean finished = finishing && cursors[0] == null && pageBuilder.isEmpty();
+        boolean finished = finishing && cursors[0] == null && pageBuilder.isEmpty() && !hasSpilledProbeRows();
 
         // if finished drop references so memory is freed early
         if (finished) {
             hash = null;
+            if (!released) {
+                released = true;
+                hashSupplier.release();
+            }
 
             for (int i = 0; i < cursors.length; i++) {
                 cursors[i] = null;
@@ -160,9 +207,40 @@ public class HashJoinOperator
         return finished;
     }
 
+    @Override
+    public void close()
+    {
+        // the driver can be closed before the operator is finished, for example by a limit, and
+        // the spilled partition must be released or the other probe operators would wait for it forever
+        finishing = true;
+        hash = null;
+        spilledProbePages = null;
+        if (probeSpiller != null) {
+            probeSpiller.abort();
+            probeSpiller = null;
+        }
+        if (joiningPartition != null) {
+            hashSupplier.releaseSpilledPartition(joiningPartition.getBuild());
+            joiningPartition.getProbe().close();
+            joiningPartition = null;
+        }
+        for (SpilledPartition partition : spilledPartitions) {
+            partition.getProbe().close();
+        }
+        spilledPartitions.clear();
+
+        if (!released) {
+            released = true;
+            hashSupplier.release();
+        }
+    }
+
     @Override
     public ListenableFuture<?> isBlocked()
     {
+        if (spilledPartitionFuture != null && !spilledPartitionFuture.isDone()) {
+            return spilledPartitionFuture;
+        }
         return sourceHashFuture;
     }
 
@@ -175,6 +253,9 @@ public class HashJoinOperator
 
         if (hash == null) {
             hash = tryGetUnchecked(sourceHashFuture);
+            if (hash != null && hash.hasSpilledPartitions()) {
+                probeSpiller = new PartitionedSpiller(hash.getSpillDirectory(), probeTupleInfos, hash.getPartitioner().getPartitionCount());
+            }
         }
         return hash != null && cursors[0] == null;
     }
@@ -187,14 +268,36 @@ public class HashJoinOperator
         checkState(hash != null, "Hash has not been built yet");
         checkState(cursors[0] == null, "Current page has not been completely processed yet");
 
+        addProbePage(page);
+    }
+
+    private void addProbePage(Page page)
+    {
         // open cursors
         for (int i = 0; i < page.getChannelCount(); i++) {
             cursors[i] = page.getBlock(i).cursor();
         }
 
-        // set hashing strategy to use probe block
-        UncompressedBlock probeJoinBlock = (UncompressedBlock) page.getBlock(probeJoinChannel);
-        hash.setProbeSlice(probeJoinBlock.getSlice());
+        Block probeJoinBlock = page.getBlock(probeJoinChannel);
+        if (probeJoinBlock instanceof DictionaryEncodedBlock && !hash.hasSpilledPartitions()) {
+            // look up each dictionary entry once, instead of once per row
+            Dictionary dictionary = ((DictionaryEncodedBlock) probeJoinBlock).getDictionary();
+            if (dictionary != probeDictionary || hash != probeDictionaryHash) {
+                probeDictionary = dictionary;
+                probeDictionaryHash = hash;
+                dictionaryJoinPositions = new int[dictionary.size()];
+                Arrays.fill(dictionaryJoinPositions, UNKNOWN_JOIN_POSITION);
+            }
+            probeDictionaryCursor = (DictionaryEncodedBlockCursor) cursors[probeJoinChannel];
+        }
+        else {
+            probeDictionaryCursor = null;
+
+            // set hashing strategy to use probe block, and read the raw offsets of the keys from the decoded block
+            UncompressedBlock uncompressedProbeJoinBlock = toUncompressedBlock(probeJoinBlock);
+            hash.setProbeSlice(uncompressedProbeJoinBlock.getSlice());
+            cursors[probeJoinChannel] = uncompressedProbeJoinBlock.cursor();
+        }
 
         // initialize to invalid join position to force output code to advance the cursors
         joinPosition = -1;
@@ -204,19 +307,18 @@ public class HashJoinOperator
     public Page getOutput()
     {
         // join probe page with the hash
-        if (cursors[0] != null) {
-            while (joinCurrentPosition()) {
-                if (!advanceProbePosition()) {
-                    break;
-                }
-                if (!outerJoinCurrentPosition()) {
-                    break;
-                }
+        joinProbePage();
+
+        // once the probe input is finished, join the rows of the partitions that were spilled
+        while (finishing && cursors[0] == null && !pageBuilder.isFull() && hasSpilledProbeRows()) {
+            if (!loadNextSpilledProbePage()) {
+                break;
             }
+            joinProbePage();
         }
 
         // only flush full pages unless we are done
-        if (pageBuilder.isFull() || (finishing && !pageBuilder.isEmpty() && cursors[0] == null)) {
+        if (pageBuilder.isFull() || (finishing && !pageBuilder.isEmpty() && cursors[0] == null && !hasSpilledProbeRows())) {
             Page page = pageBuilder.build();
             pageBuilder.reset();
             return page;
@@ -225,6 +327,20 @@ public class HashJoinOperator
         return null;
     }
 
+    private void joinProbePage()
+    {
+        if (cursors[0] != null) {
+            while (joinCurrentPosition()) {
+                if (!advanceProbePosition()) {
+                    break;
+                }
+                if (!outerJoinCurrentPosition()) {
+                    break;
+                }
+            }
+        }
+    }
+
     private boolean joinCurrentPosition()
     {
         // while we have a position to join against...
@@ -259,20 +375,52 @@ public class HashJoinOperator
         }
 
         // update join position
-        if (tupleContainsNull(cursors[probeJoinChannel])) {
+        probePositionSpilled = false;
+        if (probeDictionaryCursor != null) {
+            joinPosition = getDictionaryJoinPosition(probeDictionaryCursor.getDictionaryKey());
+        }
+        else if (tupleContainsNull(cursors[probeJoinChannel])) {
             // Null values will never match in an equijoin, so just omit them from the probe side
             joinPosition = -1;
         }
         else {
-            joinPosition = hash.getJoinPosition(cursors[probeJoinChannel]);
+            int spilledPartition = hash.getSpilledPartition(cursors[probeJoinChannel]);
+            if (spilledPartition >= 0) {
+                // the matching build rows are on disk, so join this row after the probe input is finished
+                probeSpiller.append(spilledPartition, cursors);
+                probePositionSpilled = true;
+                joinPosition = -1;
+            }
+            else {
+                joinPosition = hash.getJoinPosition(cursors[probeJoinChannel]);
+            }
         }
 
         return true;
     }
 
+    private int getDictionaryJoinPosition(int dictionaryKey)
+    {
+        int position = dictionaryJoinPositions[dictionaryKey];
+        if (position == UNKNOWN_JOIN_POSITION) {
+            Slice entry = probeDictionary.getTupleSlice(dictionaryKey);
+            BlockCursor entryCursor = new UncompressedBlock(1, probeDictionary.getTupleInfo(), entry).cursor();
+            checkState(entryCursor.advanceNextPosition());
+            if (tupleContainsNull(entryCursor)) {
+                position = -1;
+            }
+            else {
+                hash.setProbeSlice(entry);
+                position = hash.getJoinPosition(entryCursor);
+            }
+            dictionaryJoinPositions[dictionaryKey] = position;
+        }
+        return position;
+    }
+
     private boolean outerJoinCurrentPosition()
     {
-        if (enableOuterJoin && joinPosition < 0) {
+        if (enableOuterJoin && joinPosition < 0 && !probePositionSpilled) {
             // write probe columns
             int outputIndex = 0;
             for (BlockCursor cursor : cursors) {
@@ -320,4 +468,117 @@ public class HashJoinOperator
         }
         return containsNull;
     }
+
+    private boolean hasSpilledProbeRows()
+    {
+        return probeSpiller != null || joiningPartition != null || !spilledPartitions.isEmpty();
+    }
+
+    /**
+     * Opens the next page of spilled probe rows.  Returns false if the operator
+     * must wait for another operator to release the partition it is joining.
+     */
+    private boolean loadNextSpilledProbePage()
+    {
+        if (probeSpiller != null) {
+            Map<Integer, SpilledBuildPartition> buildPartitions = hash.getSpilledPartitions();
+            Map<Integer, SpillFile> probePartitions = probeSpiller.finish();
+            probeSpiller = null;
+
+            // all probe operators join the partitions in the same order, so they can share the loaded partition
+            for (Map.Entry<Integer, SpillFile> entry : probePartitions.entrySet()) {
+                spilledPartitions.add(new SpilledPartition(buildPartitions.get(entry.getKey()), entry.getValue()));
+            }
+        }
+
+        while (cursors[0] == null) {
+            if (spilledProbePages != null && spilledProbePages.hasNext()) {
+                addProbePage(spilledProbePages.next());
+                return true;
+            }
+
+            if (joiningPartition != null) {
+                hash = null;
+                spilledProbePages = null;
+                hashSupplier.releaseSpilledPartition(joiningPartition.getBuild());
+                joiningPartition.getProbe().close();
+                joiningPartition = null;
+            }
+
+            if (spilledPartitions.isEmpty()) {
+                return true;
+            }
+
+            SpilledPartition partition = spilledPartitions.peek();
+            if (partition.getBuild().isEmpty() && !enableOuterJoin) {
+                // none of the probe rows can match
+                partition.getProbe().close();
+                spilledPartitions.remove();
+                continue;
+            }
+
+            spilledPartitionFuture = hashSupplier.acquireSpilledPartition(partition.getBuild(), operatorContext);
+            if (!spilledPartitionFuture.isDone()) {
+                return false;
+            }
+            spilledPartitions.remove();
+
+            if (partition.getBuild().isSplit()) {
+                splitSpilledPartition(partition);
+            }
+            else {
+                joiningPartition = partition;
+                hash = partition.getBuild().getSourceHash();
+                spilledProbePages = partition.getProbe().read();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the probe rows of a partition whose build rows did not fit in
+     * memory the same way as the build rows were split, and joins the sub
+     * partitions before the remaining partitions.
+     */
+    private void splitSpilledPartition(SpilledPartition partition)
+    {
+        SpilledBuildPartition build = partition.getBuild();
+        Map<Integer, SpillFile> probePartitions = PartitionedSpiller.spill(
+                partition.getProbe().getFile().getParentFile(),
+                probeTupleInfos,
+                probeJoinChannel,
+                build.getSubPartitioner(),
+                partition.getProbe().read());
+        partition.getProbe().close();
+
+        List<SpilledPartition> subPartitions = new ArrayList<>();
+        for (Map.Entry<Integer, SpillFile> entry : probePartitions.entrySet()) {
+            subPartitions.add(new SpilledPartition(build.getSubPartitions().get(entry.getKey()), entry.getValue()));
+        }
+        for (SpilledPartition subPartition : Lists.reverse(subPartitions)) {
+            spilledPartitions.addFirst(subPartition);
+        }
+    }
+
+    private static class SpilledPartition
+    {
+        private final SpilledBuildPartition build;
+        private final SpillFile probe;
+
+        private SpilledPartition(SpilledBuildPartition build, SpillFile probe)
+        {
+            this.build = checkNotNull(build, "build is null");
+            this.probe = checkNotNull(probe, "probe is null");
+        }
+
+        public SpilledBuildPartition getBuild()
+        {
+            return build;
+        }
+
+        public SpillFile getProbe()
+        {
+            return probe;
+        }
+    }
 }
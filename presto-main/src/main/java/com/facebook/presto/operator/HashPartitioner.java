@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.Slice;
+import it.unimi.dsi.fastutil.HashCommon;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Assigns rows to partitions by the hash of a key channel.  This is used to
+ * split both sides of a join into partitions that can be spilled and joined
+ * independently, and to split a hash build across drivers.
+ * <p/>
+ * Each level mixes the hash with a different seed, so a partition that is
+ * still too large can be split again at the next level.  The partition is
+ * taken from the high bits of the mixed hash, which keeps it independent of
+ * the low bits used to address the hash table built for the partition.
+ */
+public class HashPartitioner
+{
+    public static final int MAX_LEVELS = 4;
+
+    private static final int GOLDEN_RATIO = 0x9E37_79B9;
+
+    private final TupleInfo tupleInfo;
+    private final int partitionCount;
+    private final int level;
+    private final int seed;
+
+    public HashPartitioner(TupleInfo tupleInfo, int partitionCount)
+    {
+        this(tupleInfo, partitionCount, 0);
+    }
+
+    public HashPartitioner(TupleInfo tupleInfo, int partitionCount, int level)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+        checkArgument(partitionCount > 0, "partitionCount must be at least 1");
+        checkArgument(level >= 0 && level < MAX_LEVELS, "level must be between 0 and %s", MAX_LEVELS - 1);
+        this.partitionCount = partitionCount;
+        this.level = level;
+        this.seed = level * GOLDEN_RATIO;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public int getPartitionCount()
+    {
+        return partitionCount;
+    }
+
+    public boolean canRepartition()
+    {
+        return level + 1 < MAX_LEVELS;
+    }
+
+    public HashPartitioner nextLevel()
+    {
+        return new HashPartitioner(tupleInfo, partitionCount, level + 1);
+    }
+
+    public int getPartition(BlockCursor cursor)
+    {
+        return getPartition(cursor.getRawSlice(), cursor.getRawOffset());
+    }
+
+    public int getPartition(Slice slice, int offset)
+    {
+        int length = tupleInfo.size(slice, offset);
+        long hash = HashCommon.murmurHash3(slice.hashCode(offset, length) ^ seed) & 0xFFFF_FFFFL;
+        return (int) ((hash * partitionCount) >>> 32);
+    }
+}
@@ -17,6 +17,9 @@ import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.DataSize;
+
+import javax.annotation.concurrent.GuardedBy;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -24,6 +27,7 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static com.facebook.presto.operator.Operator.NOT_BLOCKED;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -31,16 +35,36 @@ public class InMemoryExchange
 {
     private final List<TupleInfo> tupleInfos;
     private final Queue<Page> buffer;
+    private final long maxBufferedBytes;
     private final List<SettableFuture<?>> blockedCallers = new ArrayList<>();
+    private final List<SettableFuture<?>> blockedWriters = new ArrayList<>();
+    @GuardedBy("this")
+    private long bufferedBytes;
     private boolean finishing;
     private boolean noMoreSinkFactories;
     private int sinkFactories;
     private int sinks;
 
     public InMemoryExchange(List<TupleInfo> tupleInfos)
+    {
+        this(tupleInfos, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an exchange whose sinks are blocked while the buffered pages
+     * hold more than the specified size.
+     */
+    public InMemoryExchange(List<TupleInfo> tupleInfos, DataSize maxBufferedSize)
+    {
+        this(tupleInfos, checkNotNull(maxBufferedSize, "maxBufferedSize is null").toBytes());
+    }
+
+    private InMemoryExchange(List<TupleInfo> tupleInfos, long maxBufferedBytes)
     {
         this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
         this.buffer = new ConcurrentLinkedQueue<>();
+        checkArgument(maxBufferedBytes > 0, "maxBufferedBytes must be positive");
+        this.maxBufferedBytes = maxBufferedBytes;
     }
 
     public List<TupleInfo> getTupleInfos()
@@ -96,6 +120,7 @@ public class InMemoryExchange
     {
         finishing = true;
         notifyBlockedCallers();
+        notifyBlockedWriters();
     }
 
     public synchronized boolean isFinished()
@@ -109,6 +134,7 @@ public class InMemoryExchange
             return;
         }
         buffer.add(page);
+        bufferedBytes += page.getDataSize().toBytes();
         notifyBlockedCallers();
     }
 
@@ -120,6 +146,29 @@ public class InMemoryExchange
         blockedCallers.clear();
     }
 
+    private synchronized void notifyBlockedWriters()
+    {
+        for (SettableFuture<?> blockedWriter : blockedWriters) {
+            blockedWriter.set(null);
+        }
+        blockedWriters.clear();
+    }
+
+    public synchronized boolean isFull()
+    {
+        return !finishing && bufferedBytes >= maxBufferedBytes;
+    }
+
+    public synchronized ListenableFuture<?> waitForNotFull()
+    {
+        if (!isFull()) {
+            return NOT_BLOCKED;
+        }
+        SettableFuture<?> settableFuture = SettableFuture.create();
+        blockedWriters.add(settableFuture);
+        return settableFuture;
+    }
+
     public synchronized ListenableFuture<?> waitForNotEmpty()
     {
         if (finishing || !buffer.isEmpty()) {
@@ -132,7 +181,14 @@ public class InMemoryExchange
 
     public synchronized Page removePage()
     {
-        return buffer.poll();
+        Page page = buffer.poll();
+        if (page != null) {
+            bufferedBytes -= page.getDataSize().toBytes();
+            if (!isFull()) {
+                notifyBlockedWriters();
+            }
+        }
+        return page;
     }
 
     private class InMemoryExchangeSinkOperatorFactory
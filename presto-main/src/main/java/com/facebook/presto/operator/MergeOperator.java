@@ -0,0 +1,377 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.split.RemoteSplit;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.slice.Slice;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Merges the sorted output of remote tasks into a single sorted stream.
+ * Unlike {@link ExchangeOperator}, which interleaves the pages of all remote
+ * tasks, each task is read by its own {@link ExchangeClient}, so the order of
+ * every stream is preserved.
+ * <p/>
+ * A row can only be produced once the current row of every stream is known,
+ * so the merge stops whenever the stream of the smallest row runs out of
+ * buffered pages, and the operator is blocked on that stream.
+ * <p/>
+ * Rows are compared on the raw values of the sort channels, like
+ * {@link PagesIndex.MultiSliceFieldOrderedTupleComparator} compares them when
+ * the remote tasks sort their rows.
+ */
+public class MergeOperator
+        implements SourceOperator
+{
+    public static class MergeOperatorFactory
+            implements SourceOperatorFactory
+    {
+        private final int operatorId;
+        private final PlanNodeId sourceId;
+        private final Supplier<ExchangeClient> exchangeClientSupplier;
+        private final List<TupleInfo> tupleInfos;
+        private final int[] sortChannels;
+        private final boolean[] sortOrder;
+        private boolean closed;
+
+        public MergeOperatorFactory(int operatorId, PlanNodeId sourceId, Supplier<ExchangeClient> exchangeClientSupplier, List<TupleInfo> tupleInfos, int[] sortChannels, boolean[] sortOrder)
+        {
+            this.operatorId = operatorId;
+            this.sourceId = checkNotNull(sourceId, "sourceId is null");
+            this.exchangeClientSupplier = checkNotNull(exchangeClientSupplier, "exchangeClientSupplier is null");
+            this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+            this.sortChannels = checkNotNull(sortChannels, "sortChannels is null").clone();
+            this.sortOrder = checkNotNull(sortOrder, "sortOrder is null").clone();
+            checkArgument(sortChannels.length == sortOrder.length, "sortChannels and sortOrder must have the same length");
+        }
+
+        @Override
+        public PlanNodeId getSourceId()
+        {
+            return sourceId;
+        }
+
+        @Override
+        public List<TupleInfo> getTupleInfos()
+        {
+            return tupleInfos;
+        }
+
+        @Override
+        public SourceOperator createOperator(DriverContext driverContext)
+        {
+            checkState(!closed, "Factory is already closed");
+
+            OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, MergeOperator.class.getSimpleName());
+            return new MergeOperator(operatorContext, sourceId, exchangeClientSupplier, tupleInfos, sortChannels, sortOrder);
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+
+    private enum RunState
+    {
+        READY, BLOCKED, FINISHED
+    }
+
+    private final OperatorContext operatorContext;
+    private final PlanNodeId sourceId;
+    private final Supplier<ExchangeClient> exchangeClientSupplier;
+    private final List<TupleInfo> tupleInfos;
+    private final int[] sortChannels;
+    private final boolean[] sortOrder;
+
+    private final Set<URI> locations = new HashSet<>();
+    private final List<ExchangeClient> clients = new ArrayList<>();
+    private final SettableFuture<?> noMoreSplitsFuture = SettableFuture.create();
+    private final PageBuilder pageBuilder;
+
+    // the merge starts once all remote tasks are known
+    private BlockCursor[][] cursors;
+    private IntHeapPriorityQueue queue;
+    private IntArrayList blockedRuns;
+    private boolean finished;
+
+    public MergeOperator(
+            OperatorContext operatorContext,
+            PlanNodeId sourceId,
+            Supplier<ExchangeClient> exchangeClientSupplier,
+            List<TupleInfo> tupleInfos,
+            int[] sortChannels,
+            boolean[] sortOrder)
+    {
+        this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceId = checkNotNull(sourceId, "sourceId is null");
+        this.exchangeClientSupplier = checkNotNull(exchangeClientSupplier, "exchangeClientSupplier is null");
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        this.sortChannels = checkNotNull(sortChannels, "sortChannels is null");
+        this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+        this.pageBuilder = new PageBuilder(tupleInfos);
+    }
+
+    @Override
+    public PlanNodeId getSourceId()
+    {
+        return sourceId;
+    }
+
+    @Override
+    public synchronized void addSplit(Split split)
+    {
+        checkNotNull(split, "split is null");
+        checkArgument(split instanceof RemoteSplit, "split is not a remote split");
+        checkState(!noMoreSplitsFuture.isDone(), "No more splits already set");
+
+        URI location = ((RemoteSplit) split).getLocation();
+        if (!locations.add(location)) {
+            return;
+        }
+
+        ExchangeClient client = exchangeClientSupplier.get();
+        client.addLocation(location);
+        client.noMoreLocations();
+        clients.add(client);
+    }
+
+    @Override
+    public synchronized void noMoreSplits()
+    {
+        noMoreSplitsFuture.set(null);
+    }
+
+    @Override
+    public OperatorContext getOperatorContext()
+    {
+        return operatorContext;
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    @Override
+    public synchronized void finish()
+    {
+        for (ExchangeClient client : clients) {
+            client.close();
+        }
+        finished = true;
+    }
+
+    @Override
+    public synchronized boolean isFinished()
+    {
+        return finished;
+    }
+
+    @Override
+    public synchronized ListenableFuture<?> isBlocked()
+    {
+        if (!noMoreSplitsFuture.isDone()) {
+            return noMoreSplitsFuture;
+        }
+        if (blockedRuns == null) {
+            return NOT_BLOCKED;
+        }
+
+        for (IntIterator iterator = blockedRuns.iterator(); iterator.hasNext(); ) {
+            ListenableFuture<?> blocked = clients.get(iterator.nextInt()).isBlocked();
+            if (!blocked.isDone()) {
+                return blocked;
+            }
+        }
+        return NOT_BLOCKED;
+    }
+
+    @Override
+    public boolean needsInput()
+    {
+        return false;
+    }
+
+    @Override
+    public void addInput(Page page)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " can not take input");
+    }
+
+    @Override
+    public synchronized Page getOutput()
+    {
+        if (finished || !noMoreSplitsFuture.isDone()) {
+            return null;
+        }
+
+        if (queue == null) {
+            cursors = new BlockCursor[clients.size()][];
+            queue = new IntHeapPriorityQueue(Math.max(clients.size(), 1), new RunComparator());
+            blockedRuns = new IntArrayList();
+            for (int run = 0; run < clients.size(); run++) {
+                blockedRuns.add(run);
+            }
+        }
+
+        // resume the streams that were waiting for pages
+        for (IntIterator iterator = blockedRuns.iterator(); iterator.hasNext(); ) {
+            int run = iterator.nextInt();
+            RunState state = advance(run);
+            if (state != RunState.BLOCKED) {
+                iterator.remove();
+                if (state == RunState.READY) {
+                    queue.enqueue(run);
+                }
+            }
+        }
+
+        // the next row can not be determined until every stream has a current row
+        while (blockedRuns.isEmpty() && !queue.isEmpty() && !pageBuilder.isFull()) {
+            int run = queue.firstInt();
+            BlockCursor[] runCursors = cursors[run];
+            for (int channel = 0; channel < runCursors.length; channel++) {
+                runCursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+
+            RunState state = advance(run);
+            if (state == RunState.READY) {
+                queue.changed();
+            }
+            else {
+                queue.dequeueInt();
+                if (state == RunState.BLOCKED) {
+                    blockedRuns.add(run);
+                }
+            }
+        }
+
+        if (blockedRuns.isEmpty() && queue.isEmpty()) {
+            finished = true;
+        }
+
+        if (pageBuilder.isEmpty()) {
+            return null;
+        }
+        Page page = pageBuilder.build();
+        pageBuilder.reset();
+        return page;
+    }
+
+    private RunState advance(int run)
+    {
+        BlockCursor[] runCursors = cursors[run];
+        if (runCursors != null && runCursors[0].advanceNextPosition()) {
+            for (int channel = 1; channel < runCursors.length; channel++) {
+                checkState(runCursors[channel].advanceNextPosition(), "Channels of a page have different position counts");
+            }
+            return RunState.READY;
+        }
+
+        cursors[run] = null;
+        ExchangeClient client = clients.get(run);
+        Page page = client.pollPage();
+        while (page != null && page.getPositionCount() == 0) {
+            page = client.pollPage();
+        }
+        if (page == null) {
+            return client.isClosed() ? RunState.FINISHED : RunState.BLOCKED;
+        }
+        operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
+
+        Block[] blocks = page.getBlocks();
+        runCursors = new BlockCursor[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            runCursors[channel] = blocks[channel].cursor();
+            checkState(runCursors[channel].advanceNextPosition(), "Page is empty");
+        }
+        cursors[run] = runCursors;
+        return RunState.READY;
+    }
+
+    private class RunComparator
+            extends AbstractIntComparator
+    {
+        @Override
+        public int compare(int leftRun, int rightRun)
+        {
+            BlockCursor[] leftCursors = cursors[leftRun];
+            BlockCursor[] rightCursors = cursors[rightRun];
+
+            for (int i = 0; i < sortChannels.length; i++) {
+                int channel = sortChannels[i];
+                TupleInfo tupleInfo = tupleInfos.get(channel);
+
+                Slice leftSlice = leftCursors[channel].getRawSlice();
+                int leftOffset = leftCursors[channel].getRawOffset();
+                Slice rightSlice = rightCursors[channel].getRawSlice();
+                int rightOffset = rightCursors[channel].getRawOffset();
+
+                int comparison;
+                switch (tupleInfo.getTypes().get(0)) {
+                    case BOOLEAN:
+                        comparison = Boolean.compare(
+                                tupleInfo.getBoolean(leftSlice, leftOffset, 0),
+                                tupleInfo.getBoolean(rightSlice, rightOffset, 0));
+                        break;
+                    case FIXED_INT_64:
+                        comparison = Long.compare(
+                                tupleInfo.getLong(leftSlice, leftOffset, 0),
+                                tupleInfo.getLong(rightSlice, rightOffset, 0));
+                        break;
+                    case DOUBLE:
+                        comparison = Double.compare(
+                                tupleInfo.getDouble(leftSlice, leftOffset, 0),
+                                tupleInfo.getDouble(rightSlice, rightOffset, 0));
+                        break;
+                    case VARIABLE_BINARY:
+                        comparison = tupleInfo.getSlice(leftSlice, leftOffset, 0)
+                                .compareTo(tupleInfo.getSlice(rightSlice, rightOffset, 0));
+                        break;
+                    default:
+                        throw new AssertionError("unimplemented type: " + tupleInfo.getTypes().get(0));
+                }
+                if (comparison != 0) {
+                    return sortOrder[i] ? comparison : -comparison;
+                }
+            }
+            return 0;
+        }
+    }
+}
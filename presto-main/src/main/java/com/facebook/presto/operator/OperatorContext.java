@@ -73,6 +73,7 @@ public class OperatorContext
     private final AtomicLong finishUserNanos = new AtomicLong();
 
     private final AtomicLong memoryReservation = new AtomicLong();
+    private final AtomicLong hashTableRehashes = new AtomicLong();
 
     private final AtomicReference<Supplier<Object>> infoSupplier = new AtomicReference<>();
 
@@ -173,6 +174,15 @@ public class OperatorContext
         finishUserNanos.getAndAdd(nanosBetween(intervalUserStart.get(), currentThreadUserTime()));
     }
 
+    /**
+     * Records that a hash table of the operator outgrew its capacity and was
+     * rehashed, which indicates the table was sized too small for its input.
+     */
+    public void recordHashTableRehash()
+    {
+        hashTableRehashes.incrementAndGet();
+    }
+
     public DataSize getMaxMemorySize()
     {
         return driverContext.getMaxMemorySize();
@@ -193,6 +203,12 @@ public class OperatorContext
     }
 
     public synchronized long setMemoryReservation(long newMemoryReservation)
+    {
+        checkState(trySetMemoryReservation(newMemoryReservation), "Task exceeded max memory size of %s", getMaxMemorySize());
+        return newMemoryReservation;
+    }
+
+    public synchronized boolean trySetMemoryReservation(long newMemoryReservation)
     {
         checkArgument(newMemoryReservation >= 0, "newMemoryReservation is negative");
 
@@ -200,10 +216,9 @@ public class OperatorContext
 
         // currently, operator memory is not be released
         if (delta > 0) {
-            checkState(reserveMemory(delta), "Task exceeded max memory size of %s", getMaxMemorySize());
+            return reserveMemory(delta);
         }
-
-        return newMemoryReservation;
+        return true;
     }
 
     public void setInfoSupplier(Supplier<Object> infoSupplier)
@@ -272,6 +287,7 @@ public class OperatorContext
                 new Duration(finishUserNanos.get(), NANOSECONDS).convertToMostSuccinctTimeUnit(),
 
                 new DataSize(memoryReservation.get(), BYTE).convertToMostSuccinctDataSize(),
+                hashTableRehashes.get(),
                 info);
     }
 
@@ -55,6 +55,7 @@ public class OperatorStats
     private final Duration finishUser;
 
     private final DataSize memoryReservation;
+    private final long hashTableRehashes;
 
     private final Object info;
 
@@ -85,6 +86,7 @@ public class OperatorStats
             @JsonProperty("finishUser") Duration finishUser,
 
             @JsonProperty("memoryReservation") DataSize memoryReservation,
+            @JsonProperty("hashTableRehashes") long hashTableRehashes,
 
             @JsonProperty("info") Object info)
     {
@@ -116,6 +118,8 @@ public class OperatorStats
         this.finishUser = checkNotNull(finishUser, "finishUser is null");
 
         this.memoryReservation = checkNotNull(memoryReservation, "memoryReservation is null");
+        checkArgument(hashTableRehashes >= 0, "hashTableRehashes is negative");
+        this.hashTableRehashes = hashTableRehashes;
 
         this.info = info;
     }
@@ -240,6 +244,12 @@ public class OperatorStats
         return memoryReservation;
     }
 
+    @JsonProperty
+    public long getHashTableRehashes()
+    {
+        return hashTableRehashes;
+    }
+
     @Nullable
     @JsonProperty
     public Object getInfo()
@@ -276,6 +286,7 @@ public class OperatorStats
         long finishUser = this.finishUser.roundTo(NANOSECONDS);
 
         long memoryReservation = this.memoryReservation.toBytes();
+        long hashTableRehashes = this.hashTableRehashes;
 
         for (OperatorStats operator : operators) {
             checkArgument(operator.getOperatorId() == operatorId, "Expected operatorId to be %s but was %s", operatorId, operator.getOperatorId());
@@ -302,6 +313,7 @@ public class OperatorStats
             blockedWall += operator.getBlockedWall().roundTo(NANOSECONDS);
 
             memoryReservation += operator.getMemoryReservation().toBytes();
+            hashTableRehashes += operator.getHashTableRehashes();
         }
 
         return new OperatorStats(
@@ -330,6 +342,7 @@ public class OperatorStats
                 new Duration(finishUser, NANOSECONDS).convertToMostSuccinctTimeUnit(),
 
                 new DataSize(memoryReservation, BYTE).convertToMostSuccinctDataSize(),
+                hashTableRehashes,
 
                 // todo merge operator info?
                 null);
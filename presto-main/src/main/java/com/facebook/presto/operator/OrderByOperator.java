@@ -14,10 +14,14 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import it.unimi.dsi.fastutil.booleans.BooleanArrays;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -36,6 +40,7 @@ public class OrderByOperator
         private final int expectedPositions;
         private final int[] sortFields;
         private final boolean[] sortOrder;
+        private final Optional<File> spillDirectory;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -64,6 +69,19 @@ public class OrderByOperator
                 int expectedPositions,
                 int[] sortFields,
                 boolean[] sortOrder)
+        {
+            this(operatorId, sourceTupleInfos, orderByChannel, outputChannels, expectedPositions, sortFields, sortOrder, Optional.<File>absent());
+        }
+
+        public InMemoryOrderByOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int orderByChannel,
+                int[] outputChannels,
+                int expectedPositions,
+                int[] sortFields,
+                boolean[] sortOrder,
+                Optional<File> spillDirectory)
         {
             this.operatorId = operatorId;
             this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
@@ -72,6 +90,7 @@ public class OrderByOperator
             this.expectedPositions = expectedPositions;
             this.sortFields = checkNotNull(sortFields, "sortFields is null");
             this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
             this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels);
         }
@@ -95,7 +114,8 @@ public class OrderByOperator
                     outputChannels,
                     expectedPositions,
                     sortFields,
-                    sortOrder);
+                    sortOrder,
+                    spillDirectory);
         }
 
         @Override
@@ -113,13 +133,18 @@ public class OrderByOperator
     }
 
     private final OperatorContext operatorContext;
+    private final List<TupleInfo> sourceTupleInfos;
     private final int orderByChannel;
     private final int[] sortFields;
     private final boolean[] sortOrder;
     private final int[] outputChannels;
+    private final int expectedPositions;
+    private final Optional<File> spillDirectory;
     private final List<TupleInfo> tupleInfos;
 
-    private final PagesIndex pageIndex;
+    private PagesIndex pageIndex;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private SortedRunMerger merger;
 
     private final PageBuilder pageBuilder;
     private int currentPosition;
@@ -134,13 +159,29 @@ public class OrderByOperator
             int expectedPositions,
             int[] sortFields,
             boolean[] sortOrder)
+    {
+        this(operatorContext, sourceTupleInfos, orderByChannel, outputChannels, expectedPositions, sortFields, sortOrder, Optional.<File>absent());
+    }
+
+    public OrderByOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> sourceTupleInfos,
+            int orderByChannel,
+            int[] outputChannels,
+            int expectedPositions,
+            int[] sortFields,
+            boolean[] sortOrder,
+            Optional<File> spillDirectory)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
         this.orderByChannel = orderByChannel;
         this.outputChannels = checkNotNull(outputChannels, "outputChannels is null");
         this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels);
         this.sortFields = checkNotNull(sortFields, "sortFields is null");
         this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+        this.expectedPositions = expectedPositions;
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
 
         this.pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
 
@@ -167,6 +208,14 @@ public class OrderByOperator
 
             // sort the index
             pageIndex.sort(orderByChannel, sortFields, sortOrder);
+
+            // if any runs were spilled, spill the remaining rows and merge all runs
+            if (!spillFiles.isEmpty()) {
+                if (pageIndex.getPositionCount() > 0) {
+                    spillToDisk();
+                }
+                merger = createSpilledRunsMerger();
+            }
         }
     }
 
@@ -194,7 +243,30 @@ public class OrderByOperator
         checkState(state == State.NEEDS_INPUT, "Operator is already finishing");
         checkNotNull(page, "page is null");
 
-        pageIndex.addPage(page);
+        if (!spillDirectory.isPresent()) {
+            pageIndex.addPage(page);
+            return;
+        }
+
+        if (!pageIndex.tryAddPage(page)) {
+            pageIndex.sort(orderByChannel, sortFields, sortOrder);
+            spillToDisk();
+        }
+    }
+
+    private void spillToDisk()
+    {
+        spillFiles.add(SpillFile.spill(spillDirectory.get(), pageIndex.getPages()));
+        pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+    }
+
+    private SortedRunMerger createSpilledRunsMerger()
+    {
+        ImmutableList.Builder<Iterator<Page>> runs = ImmutableList.builder();
+        for (SpillFile spillFile : spillFiles) {
+            runs.add(spillFile.read());
+        }
+        return new SortedRunMerger(sourceTupleInfos, runs.build(), orderByChannel, sortFields, sortOrder);
     }
 
     @Override
@@ -204,6 +276,18 @@ public class OrderByOperator
             return null;
         }
 
+        if (merger != null) {
+            Page page = merger.nextPage(pageBuilder, outputChannels);
+            if (page == null) {
+                state = State.FINISHED;
+                for (SpillFile spillFile : spillFiles) {
+                    spillFile.close();
+                }
+                spillFiles.clear();
+            }
+            return page;
+        }
+
         if (currentPosition >= pageIndex.getPositionCount()) {
             state = State.FINISHED;
             return null;
@@ -81,6 +81,14 @@ public class PageBuilder
         declaredPositions++;
     }
 
+    /**
+     * Returns the number of positions declared since the last reset.
+     */
+    public int getPositionCount()
+    {
+        return declaredPositions;
+    }
+
     public boolean isFull()
     {
         if (declaredPositions == Integer.MAX_VALUE) {
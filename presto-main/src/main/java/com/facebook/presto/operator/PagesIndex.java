@@ -15,9 +15,9 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
-import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
+import com.google.common.collect.AbstractIterator;
 import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
@@ -25,8 +25,13 @@ import it.unimi.dsi.fastutil.Arrays;
 import it.unimi.dsi.fastutil.Swapper;
 import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 
+import java.util.Iterator;
 import java.util.List;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * PagesIndex a low-level data structure which contains the address of every value position of every channel.
  * This data structure is not general purpose and is designed for a few specific uses:
@@ -67,14 +72,45 @@ public class PagesIndex
     }
 
     public void addPage(Page page)
+    {
+        checkState(tryAddPage(page), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+    }
+
+    /**
+     * Adds the page to the index.  Returns false if the memory reservation could
+     * not be increased to cover the index, in which case the page has still been
+     * added and the caller is expected to release the index, for example by
+     * spilling it to disk.
+     */
+    public boolean tryAddPage(Page page)
     {
         positionCount += page.getPositionCount();
         Block[] blocks = page.getBlocks();
         for (int channel = 0; channel < indexes.length; channel++) {
-            indexes[channel].indexBlock((UncompressedBlock) blocks[channel]);
+            indexes[channel].indexBlock(toUncompressedBlock(blocks[channel]));
+        }
+
+        long newEstimatedSize = calculateEstimatedSize();
+        if (!operatorContext.trySetMemoryReservation(newEstimatedSize)) {
+            return false;
         }
+        estimatedSize = newEstimatedSize;
+        return true;
+    }
 
-        estimatedSize = operatorContext.setMemoryReservation(calculateEstimatedSize());
+    /**
+     * Appends the positions of the specified index to this index.  The memory
+     * of the added positions is not reserved again, since it is still reserved
+     * by the operator that built the specified index.
+     */
+    public void addIndex(PagesIndex index)
+    {
+        checkArgument(index.tupleInfos.equals(tupleInfos), "index has different tuple infos");
+
+        positionCount += index.positionCount;
+        for (int channel = 0; channel < indexes.length; channel++) {
+            indexes[channel].indexChannel(index.indexes[channel]);
+        }
     }
 
     public DataSize getEstimatedSize()
@@ -114,6 +150,35 @@ public class PagesIndex
         indexes[channel].appendTo(position, output);
     }
 
+    /**
+     * Returns pages containing every channel of the index in position order.
+     */
+    public Iterator<Page> getPages()
+    {
+        return new AbstractIterator<Page>()
+        {
+            private final PageBuilder pageBuilder = new PageBuilder(tupleInfos);
+            private int currentPosition;
+
+            @Override
+            protected Page computeNext()
+            {
+                if (currentPosition >= positionCount) {
+                    return endOfData();
+                }
+
+                pageBuilder.reset();
+                while (!pageBuilder.isFull() && currentPosition < positionCount) {
+                    for (int channel = 0; channel < indexes.length; channel++) {
+                        indexes[channel].appendTo(currentPosition, pageBuilder.getBlockBuilder(channel));
+                    }
+                    currentPosition++;
+                }
+                return pageBuilder.build();
+            }
+        };
+    }
+
     public void sort(int orderByChannel, int[] sortFields, boolean[] sortOrder)
     {
         ChannelIndex index = indexes[orderByChannel];
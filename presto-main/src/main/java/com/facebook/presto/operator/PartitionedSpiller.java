@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Copies rows into one spill file per partition.  A file is only created for
+ * partitions that receive at least one row.
+ */
+public class PartitionedSpiller
+{
+    private final File spillDirectory;
+    private final List<TupleInfo> tupleInfos;
+    private final PageBuilder[] pageBuilders;
+    private final SpillFile.Writer[] writers;
+    private boolean finished;
+
+    public PartitionedSpiller(File spillDirectory, List<TupleInfo> tupleInfos, int partitionCount)
+    {
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        checkArgument(partitionCount > 0, "partitionCount must be at least 1");
+        this.pageBuilders = new PageBuilder[partitionCount];
+        this.writers = new SpillFile.Writer[partitionCount];
+    }
+
+    /**
+     * Splits the pages by the partition of the key channel and writes each
+     * partition to its own file.
+     */
+    public static Map<Integer, SpillFile> spill(File spillDirectory, List<TupleInfo> tupleInfos, int keyChannel, HashPartitioner partitioner, Iterator<Page> pages)
+    {
+        PartitionedSpiller spiller = new PartitionedSpiller(spillDirectory, tupleInfos, partitioner.getPartitionCount());
+        try {
+            BlockCursor[] cursors = new BlockCursor[tupleInfos.size()];
+            while (pages.hasNext()) {
+                Page page = pages.next();
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    cursors[channel] = page.getBlock(channel).cursor();
+                }
+                cursors[keyChannel] = toUncompressedBlock(page.getBlock(keyChannel)).cursor();
+                for (int position = 0; position < page.getPositionCount(); position++) {
+                    for (BlockCursor cursor : cursors) {
+                        checkState(cursor.advanceNextPosition());
+                    }
+                    spiller.append(partitioner.getPartition(cursors[keyChannel]), cursors);
+                }
+            }
+            return spiller.finish();
+        }
+        catch (RuntimeException e) {
+            spiller.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the current row of the cursors to the specified partition.
+     */
+    public void append(int partition, BlockCursor[] cursors)
+    {
+        checkState(!finished, "Spiller is finished");
+
+        PageBuilder pageBuilder = pageBuilders[partition];
+        if (pageBuilder == null) {
+            pageBuilder = new PageBuilder(tupleInfos);
+            pageBuilders[partition] = pageBuilder;
+            writers[partition] = new SpillFile.Writer(spillDirectory);
+        }
+
+        for (int channel = 0; channel < cursors.length; channel++) {
+            cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+        }
+        if (pageBuilder.isFull()) {
+            writers[partition].append(pageBuilder.build());
+            pageBuilder.reset();
+        }
+    }
+
+    /**
+     * Flushes the buffered rows and returns the spill file of each partition
+     * that received rows.
+     */
+    public Map<Integer, SpillFile> finish()
+    {
+        checkState(!finished, "Spiller is finished");
+        finished = true;
+
+        ImmutableMap.Builder<Integer, SpillFile> files = ImmutableMap.builder();
+        for (int partition = 0; partition < writers.length; partition++) {
+            if (writers[partition] == null) {
+                continue;
+            }
+            PageBuilder pageBuilder = pageBuilders[partition];
+            if (!pageBuilder.isEmpty()) {
+                writers[partition].append(pageBuilder.build());
+            }
+            files.put(partition, writers[partition].finish());
+            pageBuilders[partition] = null;
+        }
+        return files.build();
+    }
+
+    public void abort()
+    {
+        finished = true;
+        for (int partition = 0; partition < writers.length; partition++) {
+            if (writers[partition] != null) {
+                writers[partition].abort();
+            }
+            pageBuilders[partition] = null;
+        }
+    }
+}
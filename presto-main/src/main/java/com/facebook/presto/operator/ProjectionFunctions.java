@@ -45,7 +45,7 @@ public class ProjectionFunctions
         return tupleInfos.build();
     }
 
-    private static class SingleColumnProjection
+    static class SingleColumnProjection
             implements ProjectionFunction
     {
         private final Type columnType;
@@ -65,6 +65,16 @@ public class ProjectionFunctions
             this.info = new TupleInfo(columnType);
         }
 
+        public int getChannelIndex()
+        {
+            return channelIndex;
+        }
+
+        public int getFieldIndex()
+        {
+            return fieldIndex;
+        }
+
         @Override
         public TupleInfo getTupleInfo()
         {
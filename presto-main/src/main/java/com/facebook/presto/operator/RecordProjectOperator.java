@@ -13,14 +13,24 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.columnar.BooleanArrayBlock;
+import com.facebook.presto.block.columnar.DoubleArrayBlock;
+import com.facebook.presto.block.columnar.LazyBlock;
+import com.facebook.presto.block.columnar.LongArrayBlock;
+import com.facebook.presto.block.columnar.VariableWidthBlock;
 import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.ColumnarRecordCursor;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import io.airlift.units.DataSize;
 
 import java.io.Closeable;
@@ -33,6 +43,7 @@ public class RecordProjectOperator
         implements Operator, Closeable
 {
     private static final int ROWS_PER_REQUEST = 16384;
+    static final int ROWS_PER_BATCH = 1024;
     private final OperatorContext operatorContext;
     private final RecordCursor cursor;
     private final List<TupleInfo> tupleInfos;
@@ -116,6 +127,10 @@ public class RecordProjectOperator
     @Override
     public Page getOutput()
     {
+        if (cursor instanceof ColumnarRecordCursor) {
+            return getColumnarOutput((ColumnarRecordCursor) cursor);
+        }
+
         if (!finishing) {
             int i = 0;
             for (; i < ROWS_PER_REQUEST; i++) {
@@ -172,4 +187,95 @@ public class RecordProjectOperator
 
         return page;
     }
+
+    private Page getColumnarOutput(ColumnarRecordCursor cursor)
+    {
+        if (finishing) {
+            return null;
+        }
+
+        int positionCount = cursor.advanceNextBatch(ROWS_PER_BATCH);
+
+        long bytesProcessed = cursor.getCompletedBytes() - completedBytes;
+        operatorContext.recordGeneratedInput(new DataSize(bytesProcessed, BYTE), positionCount);
+        completedBytes += bytesProcessed;
+
+        if (positionCount == 0) {
+            finishing = true;
+            return null;
+        }
+
+        Page page = new Page(positionCount, readBatch(cursor, tupleInfos, positionCount));
+        operatorContext.recordGeneratedInput(page.getDataSize(), page.getPositionCount());
+        return page;
+    }
+
+    /**
+     * Creates a columnar block for each field of the current batch of the cursor.
+     */
+    static Block[] readBatch(ColumnarRecordCursor cursor, List<TupleInfo> tupleInfos, int positionCount)
+    {
+        Block[] blocks = new Block[tupleInfos.size()];
+        for (int field = 0; field < blocks.length; field++) {
+            blocks[field] = readColumn(cursor, tupleInfos.get(field), field, positionCount);
+        }
+        return blocks;
+    }
+
+    /**
+     * Creates a lazy block for each field of the current batch of the cursor,
+     * so the cursor only decodes the fields that are actually read.  The
+     * blocks must not be used after the cursor advances to the next batch.
+     */
+    static Block[] readLazyBatch(final ColumnarRecordCursor cursor, List<TupleInfo> tupleInfos, final int positionCount)
+    {
+        Block[] blocks = new Block[tupleInfos.size()];
+        for (int field = 0; field < blocks.length; field++) {
+            final int column = field;
+            final TupleInfo tupleInfo = tupleInfos.get(field);
+            blocks[field] = new LazyBlock(tupleInfo, positionCount, new Supplier<Block>()
+            {
+                @Override
+                public Block get()
+                {
+                    return readColumn(cursor, tupleInfo, column, positionCount);
+                }
+            });
+        }
+        return blocks;
+    }
+
+    private static Block readColumn(ColumnarRecordCursor cursor, TupleInfo tupleInfo, int field, int positionCount)
+    {
+        Type type = tupleInfo.getTypes().get(0);
+        switch (type) {
+            case BOOLEAN:
+                return new BooleanArrayBlock(positionCount, cursor.getNulls(field), cursor.getBooleans(field));
+            case FIXED_INT_64:
+                return new LongArrayBlock(positionCount, cursor.getNulls(field), cursor.getLongs(field));
+            case DOUBLE:
+                return new DoubleArrayBlock(positionCount, cursor.getNulls(field), cursor.getDoubles(field));
+            case VARIABLE_BINARY:
+                return createVariableWidthBlock(positionCount, cursor.getNulls(field), cursor.getStrings(field));
+            default:
+                throw new AssertionError("unimplemented type: " + type);
+        }
+    }
+
+    private static VariableWidthBlock createVariableWidthBlock(int positionCount, boolean[] nulls, byte[][] values)
+    {
+        int[] offsets = new int[positionCount + 1];
+        for (int position = 0; position < positionCount; position++) {
+            int length = nulls[position] ? 0 : values[position].length;
+            offsets[position + 1] = offsets[position] + length;
+        }
+
+        Slice data = Slices.allocate(offsets[positionCount]);
+        for (int position = 0; position < positionCount; position++) {
+            if (!nulls[position]) {
+                data.setBytes(offsets[position], values[position]);
+            }
+        }
+        return new VariableWidthBlock(positionCount, nulls, offsets, data);
+    }
 }
@@ -21,8 +21,10 @@ import com.facebook.presto.split.DataStreamProvider;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -40,6 +42,7 @@ public class ScanFilterAndProjectOperator
         private final FilterFunction filterFunction;
         private final List<ProjectionFunction> projections;
         private final List<TupleInfo> tupleInfos;
+        private final Map<Integer, DynamicFilter> dynamicFilters;
         private boolean closed;
 
         public ScanFilterAndProjectOperatorFactory(
@@ -49,6 +52,18 @@ public class ScanFilterAndProjectOperator
                 Iterable<ColumnHandle> columns,
                 FilterFunction filterFunction,
                 Iterable<? extends ProjectionFunction> projections)
+        {
+            this(operatorId, sourceId, dataStreamProvider, columns, filterFunction, projections, ImmutableMap.<Integer, DynamicFilter>of());
+        }
+
+        public ScanFilterAndProjectOperatorFactory(
+                int operatorId,
+                PlanNodeId sourceId,
+                DataStreamProvider dataStreamProvider,
+                Iterable<ColumnHandle> columns,
+                FilterFunction filterFunction,
+                Iterable<? extends ProjectionFunction> projections,
+                Map<Integer, DynamicFilter> dynamicFilters)
         {
             this.operatorId = operatorId;
             this.sourceId = checkNotNull(sourceId, "sourceId is null");
@@ -57,6 +72,7 @@ public class ScanFilterAndProjectOperator
             this.filterFunction = checkNotNull(filterFunction, "filterFunction is null");
             this.projections = ImmutableList.copyOf(checkNotNull(projections, "projections is null"));
             this.tupleInfos = toTupleInfos(this.projections);
+            this.dynamicFilters = ImmutableMap.copyOf(checkNotNull(dynamicFilters, "dynamicFilters is null"));
         }
 
         @Override
@@ -76,7 +92,7 @@ public class ScanFilterAndProjectOperator
         {
             checkState(!closed, "Factory is already closed");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, FilterAndProjectOperator.class.getSimpleName());
-            return new ScanFilterAndProjectOperator(operatorContext, sourceId, dataStreamProvider, columns, filterFunction, projections);
+            return new ScanFilterAndProjectOperator(operatorContext, sourceId, dataStreamProvider, columns, filterFunction, projections, dynamicFilters);
         }
 
         @Override
@@ -96,12 +112,25 @@ public class ScanFilterAndProjectOperator
             Iterable<ColumnHandle> columns,
             FilterFunction filterFunction,
             Iterable<? extends ProjectionFunction> projections)
+    {
+        this(operatorContext, sourceId, dataStreamProvider, columns, filterFunction, projections, ImmutableMap.<Integer, DynamicFilter>of());
+    }
+
+    public ScanFilterAndProjectOperator(
+            OperatorContext operatorContext,
+            PlanNodeId sourceId,
+            DataStreamProvider dataStreamProvider,
+            Iterable<ColumnHandle> columns,
+            FilterFunction filterFunction,
+            Iterable<? extends ProjectionFunction> projections,
+            Map<Integer, DynamicFilter> dynamicFilters)
     {
         super(operatorContext,
                 sourceId,
                 dataStreamProvider,
                 columns,
-                toTupleInfos(ImmutableList.copyOf(checkNotNull(projections, "projections is null"))));
+                toTupleInfos(ImmutableList.copyOf(checkNotNull(projections, "projections is null"))),
+                dynamicFilters);
         this.filterFunction = checkNotNull(filterFunction, "filterFunction is null");
         this.projections = ImmutableList.copyOf(checkNotNull(projections, "projections is null"));
     }
@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Merges runs of pages, each sorted on the same channel and fields, into a
+ * single sorted stream.  Only the current page of each run is held in memory.
+ * <p/>
+ * The current sort key of each run is tracked with a synthetic address whose
+ * slice index is the run number, so rows are compared with the same
+ * {@link MultiSliceFieldOrderedTupleComparator} used to sort each run.
+ */
+public class SortedRunMerger
+{
+    private final List<TupleInfo> tupleInfos;
+    private final List<Iterator<Page>> runs;
+    private final int orderByChannel;
+
+    private final BlockCursor[][] cursors;
+    private final long[] sortKeyAddresses;
+    private final Slice[] sortKeySlices;
+    private final int markedRow;
+    private final IntHeapPriorityQueue queue;
+
+    public SortedRunMerger(List<TupleInfo> tupleInfos, List<Iterator<Page>> runs, int orderByChannel, int[] sortFields, boolean[] sortOrder)
+    {
+        this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+        this.runs = ImmutableList.copyOf(checkNotNull(runs, "runs is null"));
+        checkArgument(orderByChannel >= 0 && orderByChannel < tupleInfos.size(), "orderByChannel is invalid");
+        this.orderByChannel = orderByChannel;
+
+        // one slot per run plus one to remember the key of a marked row
+        this.cursors = new BlockCursor[runs.size()][];
+        this.sortKeyAddresses = new long[runs.size() + 1];
+        this.sortKeySlices = new Slice[runs.size() + 1];
+        this.markedRow = runs.size();
+
+        MultiSliceFieldOrderedTupleComparator comparator = new MultiSliceFieldOrderedTupleComparator(
+                sortFields,
+                sortOrder,
+                tupleInfos.get(orderByChannel),
+                sortKeyAddresses,
+                sortKeySlices);
+
+        queue = new IntHeapPriorityQueue(Math.max(runs.size(), 1), comparator);
+        for (int run = 0; run < runs.size(); run++) {
+            if (advance(run)) {
+                queue.enqueue(run);
+            }
+        }
+    }
+
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    public boolean isFinished()
+    {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Appends the next rows in sort order to the page builder until it is full
+     * and returns the page, or returns null if all runs are exhausted.
+     */
+    public Page nextPage(PageBuilder pageBuilder, int[] outputChannels)
+    {
+        pageBuilder.reset();
+        while (!pageBuilder.isFull() && !queue.isEmpty()) {
+            appendNextRow(pageBuilder, outputChannels);
+        }
+
+        if (pageBuilder.isEmpty()) {
+            return null;
+        }
+        return pageBuilder.build();
+    }
+
+    /**
+     * Returns pages containing every channel of all rows that are equal to the
+     * next row on the specified fields of the order by channel.  Since the runs
+     * are sorted, these rows are a whole partition when the fields are a prefix
+     * of the sort fields.
+     */
+    public List<Page> nextPartition(PageBuilder pageBuilder, int[] partitionFields)
+    {
+        checkState(!queue.isEmpty(), "All runs are exhausted");
+
+        boolean[] partitionOrder = new boolean[partitionFields.length];
+        Arrays.fill(partitionOrder, true);
+        MultiSliceFieldOrderedTupleComparator partitionComparator = new MultiSliceFieldOrderedTupleComparator(
+                partitionFields,
+                partitionOrder,
+                tupleInfos.get(orderByChannel),
+                sortKeyAddresses,
+                sortKeySlices);
+
+        markNextRow();
+
+        int[] allChannels = new int[tupleInfos.size()];
+        for (int channel = 0; channel < allChannels.length; channel++) {
+            allChannels[channel] = channel;
+        }
+
+        ImmutableList.Builder<Page> pages = ImmutableList.builder();
+        pageBuilder.reset();
+        while (!queue.isEmpty() && partitionComparator.compare(queue.firstInt(), markedRow) == 0) {
+            if (pageBuilder.isFull()) {
+                pages.add(pageBuilder.build());
+                pageBuilder.reset();
+            }
+            appendNextRow(pageBuilder, allChannels);
+        }
+        if (!pageBuilder.isEmpty()) {
+            pages.add(pageBuilder.build());
+        }
+        return pages.build();
+    }
+
+    private void markNextRow()
+    {
+        // copy the key, since the page of the run may be released before the comparison
+        int run = queue.firstInt();
+        BlockCursor cursor = cursors[run][orderByChannel];
+        Slice slice = cursor.getRawSlice();
+        int offset = cursor.getRawOffset();
+        int length = tupleInfos.get(orderByChannel).size(slice, offset);
+
+        Slice key = Slices.allocate(length);
+        key.setBytes(0, slice, offset, length);
+        sortKeySlices[markedRow] = key;
+        sortKeyAddresses[markedRow] = encodeSyntheticAddress(markedRow, 0);
+    }
+
+    private void appendNextRow(PageBuilder pageBuilder, int[] outputChannels)
+    {
+        int run = queue.firstInt();
+        BlockCursor[] runCursors = cursors[run];
+        for (int i = 0; i < outputChannels.length; i++) {
+            runCursors[outputChannels[i]].appendTupleTo(pageBuilder.getBlockBuilder(i));
+        }
+
+        if (advance(run)) {
+            queue.changed();
+        }
+        else {
+            queue.dequeueInt();
+        }
+    }
+
+    private boolean advance(int run)
+    {
+        BlockCursor[] runCursors = cursors[run];
+        while (runCursors == null || !runCursors[0].advanceNextPosition()) {
+            Iterator<Page> pages = runs.get(run);
+            if (!pages.hasNext()) {
+                cursors[run] = null;
+                sortKeySlices[run] = null;
+                return false;
+            }
+
+            Block[] blocks = pages.next().getBlocks();
+            runCursors = new BlockCursor[blocks.length];
+            for (int channel = 0; channel < blocks.length; channel++) {
+                runCursors[channel] = blocks[channel].cursor();
+            }
+            cursors[run] = runCursors;
+        }
+
+        for (int channel = 1; channel < runCursors.length; channel++) {
+            checkState(runCursors[channel].advanceNextPosition(), "Channels of a page have different position counts");
+        }
+
+        BlockCursor sortCursor = runCursors[orderByChannel];
+        sortKeySlices[run] = sortCursor.getRawSlice();
+        sortKeyAddresses[run] = encodeSyntheticAddress(run, sortCursor.getRawOffset());
+        return true;
+    }
+}
@@ -15,19 +15,42 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.google.common.collect.ImmutableMap;
 import io.airlift.slice.Slice;
 
+import java.io.File;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class SourceHash
 {
-    private final ChannelHash channelHash;
+    // a hash built by multiple drivers is split into one channel hash per partition of the key
+    private final ChannelHash[] channelHashes;
+    private final HashPartitioner hashPartitioner;
     private final PagesIndex pagesIndex;
     private final int channelCount;
 
+    // partitions of the build side that were spilled to disk instead of being added to this hash
+    private final HashPartitioner partitioner;
+    private final Map<Integer, SpilledBuildPartition> spilledPartitions;
+    private final File spillDirectory;
+
     public SourceHash(ChannelHash channelHash, PagesIndex pagesIndex)
     {
-        this.channelHash = channelHash;
+        this(new ChannelHash[] {channelHash}, null, pagesIndex, null, ImmutableMap.<Integer, SpilledBuildPartition>of(), null);
+    }
+
+    public SourceHash(ChannelHash[] channelHashes, HashPartitioner hashPartitioner, PagesIndex pagesIndex, HashPartitioner partitioner, Map<Integer, SpilledBuildPartition> spilledPartitions, File spillDirectory)
+    {
+        checkArgument(channelHashes.length == 1 || hashPartitioner.getPartitionCount() == channelHashes.length, "hashPartitioner does not match the channel hashes");
+        this.channelHashes = channelHashes;
+        this.hashPartitioner = hashPartitioner;
         this.pagesIndex = pagesIndex;
         this.channelCount = pagesIndex.getTupleInfos().size();
+        this.partitioner = partitioner;
+        this.spilledPartitions = spilledPartitions;
+        this.spillDirectory = spillDirectory;
     }
 
     public int getChannelCount()
@@ -37,21 +60,63 @@ public class SourceHash
 
     public void setProbeSlice(Slice slice)
     {
-        channelHash.setLookupSlice(slice);
+        for (ChannelHash channelHash : channelHashes) {
+            channelHash.setLookupSlice(slice);
+        }
     }
 
     public int getJoinPosition(BlockCursor cursor)
     {
-        return channelHash.get(cursor);
+        if (channelHashes.length == 1) {
+            return channelHashes[0].get(cursor);
+        }
+        return channelHashes[hashPartitioner.getPartition(cursor)].get(cursor);
     }
 
     public int getNextJoinPosition(int joinPosition)
     {
-        return channelHash.getNextPosition(joinPosition);
+        // the channel hashes of all partitions share the position links
+        return channelHashes[0].getNextPosition(joinPosition);
     }
 
     public void appendTupleTo(int channel, int position, BlockBuilder blockBuilder)
     {
         pagesIndex.appendTupleTo(channel, position, blockBuilder);
     }
+
+    public boolean hasSpilledPartitions()
+    {
+        return !spilledPartitions.isEmpty();
+    }
+
+    public Map<Integer, SpilledBuildPartition> getSpilledPartitions()
+    {
+        return spilledPartitions;
+    }
+
+    public HashPartitioner getPartitioner()
+    {
+        return partitioner;
+    }
+
+    public File getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    /**
+     * Returns the partition of the probe key if the build rows of the partition
+     * were spilled, or -1 if the probe key can be joined against this hash.
+     */
+    public int getSpilledPartition(BlockCursor cursor)
+    {
+        if (spilledPartitions.isEmpty()) {
+            return -1;
+        }
+        int partition = partitioner.getPartition(cursor);
+        if (!spilledPartitions.containsKey(partition)) {
+            return -1;
+        }
+        return partition;
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.serde.PagesSerde;
+import com.facebook.presto.serde.PagesWriter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.Closeables;
+import io.airlift.slice.InputStreamSliceInput;
+import io.airlift.slice.OutputStreamSliceOutput;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A run of pages written to a local file so an operator can release the
+ * memory held by the pages and read them back later.  The file is deleted
+ * when the spill file is closed.
+ */
+public class SpillFile
+        implements Closeable
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long pageCount;
+    private final long positionCount;
+    private final List<InputStreamSliceInput> openInputs = new ArrayList<>();
+    private boolean closed;
+
+    private SpillFile(File file, long pageCount, long positionCount)
+    {
+        this.file = checkNotNull(file, "file is null");
+        this.pageCount = pageCount;
+        this.positionCount = positionCount;
+    }
+
+    public static SpillFile spill(File spillDirectory, Iterator<Page> pages)
+    {
+        checkNotNull(pages, "pages is null");
+
+        Writer writer = new Writer(spillDirectory);
+        try {
+            while (pages.hasNext()) {
+                writer.append(pages.next());
+            }
+            return writer.finish();
+        }
+        catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes pages to a new spill file incrementally.  The file is deleted if
+     * the writer is aborted.
+     */
+    public static class Writer
+    {
+        private final File file;
+        private final OutputStreamSliceOutput sliceOutput;
+        private final PagesWriter pagesWriter;
+        private long pageCount;
+        private long positionCount;
+        private boolean finished;
+
+        public Writer(File spillDirectory)
+        {
+            checkNotNull(spillDirectory, "spillDirectory is null");
+
+            File file = null;
+            try {
+                if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs() && !spillDirectory.isDirectory()) {
+                    throw new IOException("Unable to create spill directory " + spillDirectory);
+                }
+                file = File.createTempFile("spill", ".pages", spillDirectory);
+                this.file = file;
+                this.sliceOutput = new OutputStreamSliceOutput(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+                this.pagesWriter = PagesSerde.createPagesWriter(sliceOutput);
+            }
+            catch (IOException e) {
+                if (file != null) {
+                    file.delete();
+                }
+                throw Throwables.propagate(e);
+            }
+        }
+
+        public void append(Page page)
+        {
+            checkNotNull(page, "page is null");
+            checkState(!finished, "Writer is finished");
+
+            pagesWriter.append(page);
+            pageCount++;
+            positionCount += page.getPositionCount();
+        }
+
+        public SpillFile finish()
+        {
+            checkState(!finished, "Writer is finished");
+            finished = true;
+            try {
+                sliceOutput.close();
+            }
+            catch (IOException e) {
+                file.delete();
+                throw Throwables.propagate(e);
+            }
+            return new SpillFile(file, pageCount, positionCount);
+        }
+
+        public void abort()
+        {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            Closeables.closeQuietly(sliceOutput);
+            file.delete();
+        }
+    }
+
+    /**
+     * Deletes a spill directory with all of the spill files in it.  Files that
+     * are still open are removed from the directory, and their space is
+     * released when they are closed.
+     */
+    public static void deleteSpillDirectory(File spillDirectory)
+    {
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        File[] files = spillDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteSpillDirectory(file);
+                }
+                else {
+                    file.delete();
+                }
+            }
+        }
+        spillDirectory.delete();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public long getPageCount()
+    {
+        return pageCount;
+    }
+
+    public long getPositionCount()
+    {
+        return positionCount;
+    }
+
+    public long getSizeInBytes()
+    {
+        return file.length();
+    }
+
+    /**
+     * Returns an iterator over the pages in this file.  The underlying stream
+     * is closed when the iterator is exhausted or this file is closed.
+     */
+    public synchronized Iterator<Page> read()
+    {
+        checkState(!closed, "Spill file is closed");
+        try {
+            final InputStreamSliceInput sliceInput = new InputStreamSliceInput(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            openInputs.add(sliceInput);
+            final Iterator<Page> pages = PagesSerde.readPages(sliceInput);
+            return new AbstractIterator<Page>()
+            {
+                @Override
+                protected Page computeNext()
+                {
+                    if (!pages.hasNext()) {
+                        Closeables.closeQuietly(sliceInput);
+                        return endOfData();
+                    }
+                    return pages.next();
+                }
+            };
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (InputStreamSliceInput sliceInput : openInputs) {
+            Closeables.closeQuietly(sliceInput);
+        }
+        openInputs.clear();
+        file.delete();
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.toString();
+    }
+}
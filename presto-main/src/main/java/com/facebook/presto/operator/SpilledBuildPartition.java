@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A partition of the build side of a hash join that was spilled to disk.  The
+ * partition is loaded by one probe operator, and the hash of the loaded rows is
+ * shared by all probe operators joining the partition at the same time.  If
+ * the rows do not fit in memory, the load splits the partition with the next
+ * level of the partitioner instead, and each probe operator splits its probe
+ * rows of the partition the same way.
+ */
+class SpilledBuildPartition
+        implements Closeable
+{
+    private final HashPartitioner partitioner;
+    private final SpillFile build;
+
+    // written by the probe operator loading the partition, and read by the operators that acquire it afterwards
+    private volatile Map<Integer, SpilledBuildPartition> subPartitions;
+    private volatile PagesIndex pagesIndex;
+    private volatile ChannelHash channelHash;
+
+    /**
+     * Creates a partition of the rows in the build file, or an empty partition
+     * if the partitioner did not assign any build rows to it.
+     */
+    SpilledBuildPartition(HashPartitioner partitioner, @Nullable SpillFile build)
+    {
+        this.partitioner = checkNotNull(partitioner, "partitioner is null");
+        this.build = build;
+    }
+
+    public boolean isEmpty()
+    {
+        return build == null;
+    }
+
+    public boolean isSplit()
+    {
+        return subPartitions != null;
+    }
+
+    public boolean isLoaded()
+    {
+        return channelHash != null;
+    }
+
+    public HashPartitioner getSubPartitioner()
+    {
+        return partitioner.nextLevel();
+    }
+
+    /**
+     * Returns the partitions this partition was split into, including an
+     * empty partition for each sub partition without build rows.
+     */
+    public Map<Integer, SpilledBuildPartition> getSubPartitions()
+    {
+        checkState(subPartitions != null, "Partition is not split");
+        return subPartitions;
+    }
+
+    public SourceHash getSourceHash()
+    {
+        checkState(channelHash != null, "Partition is not loaded");
+
+        // hash strategies can not be shared across threads
+        return new SourceHash(new ChannelHash(channelHash), pagesIndex);
+    }
+
+    /**
+     * Builds the hash of the partition, or splits the partition if the build
+     * rows do not fit in memory.  The memory of the hash is reserved by the
+     * loading operator only, since the other operators share the hash.
+     */
+    void load(List<TupleInfo> tupleInfos, int hashChannel, OperatorContext operatorContext)
+    {
+        checkState(!isSplit() && !isLoaded(), "Partition is already loaded");
+
+        PagesIndex pagesIndex = new PagesIndex(tupleInfos, build == null ? 0 : (int) build.getPositionCount(), operatorContext);
+        if (build != null) {
+            Iterator<Page> pages = build.read();
+            while (pages.hasNext()) {
+                if (!pagesIndex.tryAddPage(pages.next())) {
+                    checkState(partitioner.canRepartition(), "Task exceeded max memory size of %s", operatorContext.getMaxMemorySize());
+                    split(tupleInfos, hashChannel);
+                    return;
+                }
+            }
+        }
+        this.channelHash = new ChannelHash(pagesIndex.getIndex(hashChannel), operatorContext);
+        this.pagesIndex = pagesIndex;
+    }
+
+    /**
+     * Drops the hash, so another partition can be loaded.
+     */
+    void unload()
+    {
+        channelHash = null;
+        pagesIndex = null;
+    }
+
+    private void split(List<TupleInfo> tupleInfos, int hashChannel)
+    {
+        HashPartitioner subPartitioner = partitioner.nextLevel();
+        Map<Integer, SpillFile> files = PartitionedSpiller.spill(build.getFile().getParentFile(), tupleInfos, hashChannel, subPartitioner, build.read());
+
+        ImmutableMap.Builder<Integer, SpilledBuildPartition> subPartitions = ImmutableMap.builder();
+        for (int partition = 0; partition < subPartitioner.getPartitionCount(); partition++) {
+            subPartitions.put(partition, new SpilledBuildPartition(subPartitioner, files.get(partition)));
+        }
+        this.subPartitions = subPartitions.build();
+
+        // the rows are now in the files of the sub partitions
+        build.close();
+    }
+
+    @Override
+    public void close()
+    {
+        unload();
+        if (build != null) {
+            build.close();
+        }
+        if (subPartitions != null) {
+            for (SpilledBuildPartition subPartition : subPartitions.values()) {
+                subPartition.close();
+            }
+        }
+    }
+}
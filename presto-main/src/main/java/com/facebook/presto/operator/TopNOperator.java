@@ -15,25 +15,31 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockCursor;
-import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.RawTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
-import com.facebook.presto.tuple.TupleReadable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
 import com.google.common.util.concurrent.ListenableFuture;
-import io.airlift.units.DataSize;
+import io.airlift.slice.Slice;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrays;
 
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
- * Returns the top N rows from the source sorted according to the specified ordering in the keyChannelIndex channel.
+ * Returns the top N rows from the source sorted according to the specified comparator on the keyChannelIndex channel.
+ * <p/>
+ * The candidate rows are not materialized.  Each candidate is a position in one of the
+ * retained input pages, and the candidates are kept in a heap of row numbers with the
+ * row that sorts last at the top.  A row that does not sort before the top of a full
+ * heap is skipped after a single comparison of its raw key.
  */
 public class TopNOperator
         implements Operator
@@ -45,7 +51,7 @@ public class TopNOperator
         private final int n;
         private final int keyChannelIndex;
         private final List<ProjectionFunction> projections;
-        private final Ordering<TupleReadable> ordering;
+        private final RawTupleComparator comparator;
         private final boolean partial;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
@@ -55,14 +61,14 @@ public class TopNOperator
                 int n,
                 int keyChannelIndex,
                 List<ProjectionFunction> projections,
-                Ordering<TupleReadable> ordering,
+                RawTupleComparator comparator,
                 boolean partial)
         {
             this.operatorId = operatorId;
             this.n = n;
             this.keyChannelIndex = keyChannelIndex;
             this.projections = projections;
-            this.ordering = ordering;
+            this.comparator = comparator;
             this.partial = partial;
             this.tupleInfos = toTupleInfos(projections);
         }
@@ -83,7 +89,7 @@ public class TopNOperator
                     n,
                     keyChannelIndex,
                     projections,
-                    ordering,
+                    comparator,
                     partial);
         }
 
@@ -94,14 +100,14 @@ public class TopNOperator
         }
     }
 
-    private static final int MAX_INITIAL_PRIORITY_QUEUE_SIZE = 10000;
-    private static final DataSize OVERHEAD_PER_TUPLE = new DataSize(100, DataSize.Unit.BYTE); // for estimating in-memory size. This is a completely arbitrary number
+    private static final int INITIAL_ROW_CAPACITY = 1024;
+    private static final int COMPACTION_MIN_POSITIONS = 16 * 1024;
 
     private final OperatorContext operatorContext;
     private final int n;
     private final int keyChannelIndex;
     private final List<ProjectionFunction> projections;
-    private final Ordering<TupleReadable> ordering;
+    private final RawTupleComparator comparator;
     private final List<TupleInfo> tupleInfos;
     private final TopNMemoryManager memoryManager;
     private final boolean partial;
@@ -111,14 +117,14 @@ public class TopNOperator
     private TopNBuilder topNBuilder;
     private boolean finishing;
 
-    private Iterator<KeyAndTuples> outputIterator;
+    private Iterator<Page> outputIterator;
 
     public TopNOperator(
             OperatorContext operatorContext,
             int n,
             int keyChannelIndex,
             List<ProjectionFunction> projections,
-            Ordering<TupleReadable> ordering,
+            RawTupleComparator comparator,
             boolean partial)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
@@ -132,8 +138,7 @@ public class TopNOperator
         this.projections = ImmutableList.copyOf(checkNotNull(projections, "projections is null"));
         checkArgument(!projections.isEmpty(), "projections is empty");
 
-        // the priority queue needs to sort in reverse order to be able to remove the least element in O(1)
-        this.ordering = checkNotNull(ordering, "ordering is null").reverse();
+        this.comparator = checkNotNull(comparator, "comparator is null");
 
         this.partial = partial;
 
@@ -189,7 +194,7 @@ public class TopNOperator
             topNBuilder = new TopNBuilder(
                     n,
                     keyChannelIndex,
-                    ordering,
+                    comparator,
                     memoryManager);
         }
 
@@ -218,11 +223,21 @@ public class TopNOperator
             topNBuilder = null;
         }
 
+        if (!outputIterator.hasNext()) {
+            return null;
+        }
+
+        // the sorted rows are produced in pages of the source layout, so project them into the output layout
+        Block[] blocks = outputIterator.next().getBlocks();
+        BlockCursor[] cursors = new BlockCursor[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            cursors[channel] = blocks[channel].cursor();
+        }
+
         pageBuilder.reset();
-        while (!pageBuilder.isFull() && outputIterator.hasNext()) {
-            KeyAndTuples next = outputIterator.next();
+        while (advanceAll(cursors)) {
             for (int i = 0; i < projections.size(); i++) {
-                projections.get(i).project(next.getTuples(), pageBuilder.getBlockBuilder(i));
+                projections.get(i).project(cursors, pageBuilder.getBlockBuilder(i));
             }
         }
 
@@ -230,6 +245,15 @@ public class TopNOperator
         return page;
     }
 
+    private static boolean advanceAll(BlockCursor[] cursors)
+    {
+        boolean advanced = false;
+        for (BlockCursor cursor : cursors) {
+            advanced = cursor.advanceNextPosition();
+        }
+        return advanced;
+    }
+
     private static List<TupleInfo> toTupleInfos(List<ProjectionFunction> projections)
     {
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
@@ -243,228 +267,339 @@ public class TopNOperator
     {
         private final int n;
         private final int keyChannelIndex;
-        private final Ordering<TupleReadable> ordering;
+        private final RawTupleComparator comparator;
         private final TopNMemoryManager memoryManager;
-        private final PriorityQueue<KeyAndTuples> globalCandidates;
-
-        private long memorySize;
 
-        private TopNBuilder(int n, int keyChannelIndex, Ordering<TupleReadable> ordering, TopNMemoryManager memoryManager)
+        // the raw tuples of each candidate row, by channel and row number
+        private List<TupleInfo> sourceTupleInfos;
+        private Slice[][] rowSlices;
+        private int[][] rowOffsets;
+        private int[] rowPages;
+
+        // row numbers ordered as a heap with the row that sorts last at the top
+        private int[] heap;
+        private int rowCount;
+
+        // the input pages referenced by the candidate rows
+        private final IntArrayList pageRowCounts = new IntArrayList();
+        private final IntArrayList pagePositionCounts = new IntArrayList();
+        private final LongArrayList pageSizes = new LongArrayList();
+        private final IntArrayList freePageIds = new IntArrayList();
+        private long retainedPositions;
+        private long retainedSize;
+
+        private TopNBuilder(int n, int keyChannelIndex, RawTupleComparator comparator, TopNMemoryManager memoryManager)
         {
             this.n = n;
             this.keyChannelIndex = keyChannelIndex;
-            this.ordering = ordering;
+            this.comparator = comparator;
             this.memoryManager = memoryManager;
-            this.globalCandidates = new PriorityQueue<>(Math.min(n, MAX_INITIAL_PRIORITY_QUEUE_SIZE), KeyAndTuples.keyComparator(ordering));
         }
 
         public void processPage(Page page)
         {
-            Iterable<KeyAndPosition> keyAndPositions = computePageCandidatePositions(globalCandidates, page);
-            long sizeDelta = mergeWithGlobalCandidates(globalCandidates, page, keyAndPositions);
-            memorySize += sizeDelta;
-        }
+            if (sourceTupleInfos == null) {
+                initialize(page);
+            }
 
-        private long mergeWithGlobalCandidates(PriorityQueue<KeyAndTuples> globalCandidates, Page page, Iterable<KeyAndPosition> pageValueAndPositions)
-        {
-            long sizeDelta = 0;
+            Block[] blocks = page.getBlocks();
+            BlockCursor keyCursor = toUncompressedBlock(blocks[keyChannelIndex]).cursor();
+            Slice[] keySlices = rowSlices[keyChannelIndex];
+            int[] keyOffsets = rowOffsets[keyChannelIndex];
 
-            // Sort by positions so that we can advance through the values via cursors
-            List<KeyAndPosition> positionSorted = Ordering.from(KeyAndPosition.positionComparator()).sortedCopy(pageValueAndPositions);
+            // the page and cursors over all channels are only created once a row of the page is a candidate
+            int pageId = -1;
+            BlockCursor[] cursors = null;
 
-            Block[] blocks = page.getBlocks();
-            BlockCursor[] cursors = new BlockCursor[blocks.length];
-            for (int i = 0; i < blocks.length; i++) {
-                cursors[i] = blocks[i].cursor();
-            }
-            for (KeyAndPosition keyAndPosition : positionSorted) {
-                for (BlockCursor cursor : cursors) {
-                    checkState(cursor.advanceToPosition(keyAndPosition.getPosition()));
+            for (int position = 0; position < page.getPositionCount(); position++) {
+                checkState(keyCursor.advanceNextPosition());
+
+                int row;
+                if (rowCount < n) {
+                    row = rowCount;
+                    ensureCapacity(rowCount + 1);
                 }
-                if (globalCandidates.size() < n) {
-                    Tuple[] tuples = getTuples(keyAndPosition, cursors);
-                    for (Tuple tuple : tuples) {
-                        sizeDelta += tuple.size();
+                else {
+                    // skip the row unless it sorts before the last candidate
+                    row = heap[0];
+                    if (comparator.compare(keyCursor.getRawSlice(), keyCursor.getRawOffset(), keySlices[row], keyOffsets[row]) >= 0) {
+                        continue;
                     }
-                    sizeDelta += OVERHEAD_PER_TUPLE.toBytes();
-                    globalCandidates.add(new KeyAndTuples(keyAndPosition.getKey(), tuples));
+                    releasePage(rowPages[row]);
                 }
-                else if (ordering.compare(keyAndPosition.getKey(), globalCandidates.peek().getKey()) > 0) {
-                    KeyAndTuples previous = globalCandidates.remove();
-                    for (Tuple tuple : previous.getTuples()) {
-                        sizeDelta -= tuple.size();
-                    }
 
-                    Tuple[] tuples = getTuples(keyAndPosition, cursors);
-                    globalCandidates.add(new KeyAndTuples(keyAndPosition.getKey(), tuples));
-                    for (Tuple tuple : tuples) {
-                        sizeDelta += tuple.size();
+                if (pageId < 0) {
+                    // pin the page until all of its rows are processed
+                    pageId = retainPage(page);
+                    pageRowCounts.set(pageId, 1);
+                    cursors = new BlockCursor[blocks.length];
+                    for (int channel = 0; channel < blocks.length; channel++) {
+                        cursors[channel] = toUncompressedBlock(blocks[channel]).cursor();
                     }
-                    sizeDelta += keyAndPosition.getKey().size();
                 }
+
+                for (int channel = 0; channel < cursors.length; channel++) {
+                    checkState(cursors[channel].advanceToPosition(position));
+                    rowSlices[channel][row] = cursors[channel].getRawSlice();
+                    rowOffsets[channel][row] = cursors[channel].getRawOffset();
+                }
+                rowPages[row] = pageId;
+                pageRowCounts.set(pageId, pageRowCounts.getInt(pageId) + 1);
+
+                if (rowCount < n) {
+                    heap[rowCount] = row;
+                    rowCount++;
+                    siftUp(rowCount - 1);
+                }
+                else {
+                    siftDown(0);
+                }
+            }
+
+            if (pageId >= 0) {
+                releasePage(pageId);
             }
 
-            return sizeDelta;
+            // copy the candidates out of the input pages when most of the retained rows are no longer candidates
+            if (retainedPositions > Math.max(2L * rowCount, COMPACTION_MIN_POSITIONS)) {
+                compact();
+            }
         }
 
-        private Iterable<KeyAndPosition> computePageCandidatePositions(PriorityQueue<KeyAndTuples> globalCandidates, Page page)
+        private void initialize(Page page)
         {
-            PriorityQueue<KeyAndPosition> pageCandidates = new PriorityQueue<>(Math.min(n, MAX_INITIAL_PRIORITY_QUEUE_SIZE), KeyAndPosition.keyComparator(ordering));
-            KeyAndTuples smallestGlobalCandidate = globalCandidates.peek(); // This can be null if globalCandidates is empty
-            BlockCursor cursor = page.getBlock(keyChannelIndex).cursor();
-            while (cursor.advanceNextPosition()) {
-                // Only consider value if it would be a candidate when compared against the current global candidates
-                if (globalCandidates.size() < n || ordering.compare(cursor, smallestGlobalCandidate.getKey()) > 0) {
-                    if (pageCandidates.size() < n) {
-                        pageCandidates.add(new KeyAndPosition(cursor.getTuple(), cursor.getPosition()));
-                    }
-                    else if (ordering.compare(cursor, pageCandidates.peek().getKey()) > 0) {
-                        pageCandidates.remove();
-                        pageCandidates.add(new KeyAndPosition(cursor.getTuple(), cursor.getPosition()));
-                    }
-                }
+            ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
+            for (Block block : page.getBlocks()) {
+                tupleInfos.add(block.getTupleInfo());
             }
-            return pageCandidates;
+            sourceTupleInfos = tupleInfos.build();
+
+            int capacity = Math.min(n, INITIAL_ROW_CAPACITY);
+            rowSlices = new Slice[sourceTupleInfos.size()][capacity];
+            rowOffsets = new int[sourceTupleInfos.size()][capacity];
+            rowPages = new int[capacity];
+            heap = new int[capacity];
         }
 
-        private Tuple[] getTuples(KeyAndPosition keyAndPosition, BlockCursor[] cursors)
+        private void ensureCapacity(int rows)
         {
-            // TODO: pre-project columns to minimize storage in global candidate set
-            Tuple[] tuples = new Tuple[cursors.length];
-            for (int channel = 0; channel < cursors.length; channel++) {
-                // Optimization since key channel already has a materialized Tuple
-                tuples[channel] = (channel == keyChannelIndex) ? keyAndPosition.getKey() : cursors[channel].getTuple();
+            if (rows <= heap.length) {
+                return;
+            }
+
+            int capacity = (int) Math.min(n, Math.max(rows, 2L * heap.length));
+            for (int channel = 0; channel < rowSlices.length; channel++) {
+                rowSlices[channel] = ObjectArrays.setLength(rowSlices[channel], capacity);
+                rowOffsets[channel] = IntArrays.setLength(rowOffsets[channel], capacity);
             }
-            return tuples;
+            rowPages = IntArrays.setLength(rowPages, capacity);
+            heap = IntArrays.setLength(heap, capacity);
         }
 
-        private boolean isFull()
+        private int retainPage(Page page)
         {
-            return memoryManager.canUse(memorySize);
+            int pageId;
+            if (freePageIds.isEmpty()) {
+                pageId = pageRowCounts.size();
+                pageRowCounts.add(0);
+                pagePositionCounts.add(page.getPositionCount());
+                pageSizes.add(page.getDataSize().toBytes());
+            }
+            else {
+                pageId = freePageIds.popInt();
+                pageRowCounts.set(pageId, 0);
+                pagePositionCounts.set(pageId, page.getPositionCount());
+                pageSizes.set(pageId, page.getDataSize().toBytes());
+            }
+            retainedPositions += page.getPositionCount();
+            retainedSize += page.getDataSize().toBytes();
+            return pageId;
         }
 
-        public Iterator<KeyAndTuples> build()
+        private void releasePage(int pageId)
         {
-            ImmutableList.Builder<KeyAndTuples> minSortedGlobalCandidates = ImmutableList.builder();
-            while (!globalCandidates.isEmpty()) {
-                minSortedGlobalCandidates.add(globalCandidates.remove());
+            int rows = pageRowCounts.getInt(pageId) - 1;
+            pageRowCounts.set(pageId, rows);
+            if (rows == 0) {
+                retainedPositions -= pagePositionCounts.getInt(pageId);
+                retainedSize -= pageSizes.getLong(pageId);
+                freePageIds.add(pageId);
             }
-            return minSortedGlobalCandidates.build().reverse().iterator();
         }
-    }
 
-    public static class TopNMemoryManager
-    {
-        private final OperatorContext operatorContext;
-        private long currentMemoryReservation;
-
-        public TopNMemoryManager(OperatorContext operatorContext)
+        /**
+         * Copies the candidate rows in the order of the row numbers into new pages,
+         * so the input pages are no longer referenced.
+         */
+        private void compact()
         {
-            this.operatorContext = operatorContext;
+            pageRowCounts.clear();
+            pagePositionCounts.clear();
+            pageSizes.clear();
+            freePageIds.clear();
+            retainedPositions = 0;
+            retainedSize = 0;
+
+            PageBuilder pageBuilder = new PageBuilder(sourceTupleInfos);
+            int firstRow = 0;
+            for (int row = 0; row < rowCount; row++) {
+                for (int channel = 0; channel < rowSlices.length; channel++) {
+                    pageBuilder.getBlockBuilder(channel).appendTuple(rowSlices[channel][row], rowOffsets[channel][row]);
+                }
+                if (pageBuilder.isFull() || row == rowCount - 1) {
+                    Page page = pageBuilder.build();
+                    pageBuilder.reset();
+                    movePage(page, firstRow);
+                    firstRow = row + 1;
+                }
+            }
         }
 
-        public boolean canUse(long memorySize)
+        private void movePage(Page page, int firstRow)
         {
-            // remove the pre-allocated memory from this size
-            memorySize -= operatorContext.getOperatorPreAllocatedMemory().toBytes();
+            int pageId = retainPage(page);
+            pageRowCounts.set(pageId, page.getPositionCount());
 
-            long delta = memorySize - currentMemoryReservation;
-            if (delta <= 0) {
-                return false;
-            }
-
-            if (!operatorContext.reserveMemory(delta)) {
-                return true;
+            Block[] blocks = page.getBlocks();
+            for (int channel = 0; channel < blocks.length; channel++) {
+                BlockCursor cursor = blocks[channel].cursor();
+                for (int row = firstRow; row < firstRow + page.getPositionCount(); row++) {
+                    checkState(cursor.advanceNextPosition());
+                    rowSlices[channel][row] = cursor.getRawSlice();
+                    rowOffsets[channel][row] = cursor.getRawOffset();
+                    rowPages[row] = pageId;
+                }
             }
-
-            // reservation worked, record the reservation
-            currentMemoryReservation = Math.max(currentMemoryReservation, memorySize);
-            return false;
         }
 
-        public Object getMaxMemorySize()
+        private int compareRows(int leftRow, int rightRow)
         {
-            return operatorContext.getMaxMemorySize();
+            Slice[] keySlices = rowSlices[keyChannelIndex];
+            int[] keyOffsets = rowOffsets[keyChannelIndex];
+            return comparator.compare(keySlices[leftRow], keyOffsets[leftRow], keySlices[rightRow], keyOffsets[rightRow]);
         }
-    }
 
-    private static class KeyAndPosition
-    {
-        private final Tuple key;
-        private final int position;
-
-        private KeyAndPosition(Tuple key, int position)
+        private void siftUp(int index)
         {
-            this.key = key;
-            this.position = position;
+            int row = heap[index];
+            while (index > 0) {
+                int parentIndex = (index - 1) >>> 1;
+                int parent = heap[parentIndex];
+                if (compareRows(row, parent) <= 0) {
+                    break;
+                }
+                heap[index] = parent;
+                index = parentIndex;
+            }
+            heap[index] = row;
         }
 
-        public Tuple getKey()
+        private void siftDown(int index)
         {
-            return key;
+            int row = heap[index];
+            while (true) {
+                int childIndex = (index << 1) + 1;
+                if (childIndex >= rowCount) {
+                    break;
+                }
+                if (childIndex + 1 < rowCount && compareRows(heap[childIndex + 1], heap[childIndex]) > 0) {
+                    childIndex++;
+                }
+                if (compareRows(row, heap[childIndex]) >= 0) {
+                    break;
+                }
+                heap[index] = heap[childIndex];
+                index = childIndex;
+            }
+            heap[index] = row;
         }
 
-        public int getPosition()
+        private boolean isFull()
         {
-            return position;
+            return memoryManager.canUse(getEstimatedSize());
         }
 
-        public static Comparator<KeyAndPosition> keyComparator(final Comparator<TupleReadable> tupleReadableComparator)
+        private long getEstimatedSize()
         {
-            return new Comparator<KeyAndPosition>()
-            {
-                @Override
-                public int compare(KeyAndPosition o1, KeyAndPosition o2)
-                {
-                    return tupleReadableComparator.compare(o1.getKey(), o2.getKey());
-                }
-            };
+            if (heap == null) {
+                return 0;
+            }
+            // references and offsets of every channel, plus the page and heap entry of each row
+            long rowSize = rowSlices.length * (8L + 4L) + 4L + 4L;
+            return retainedSize + heap.length * rowSize;
         }
 
-        public static Comparator<KeyAndPosition> positionComparator()
+        /**
+         * Returns pages with the candidate rows in sorted order.
+         */
+        public Iterator<Page> build()
         {
-            return new Comparator<KeyAndPosition>()
-            {
-                @Override
-                public int compare(KeyAndPosition o1, KeyAndPosition o2)
-                {
-                    return Long.compare(o1.getPosition(), o2.getPosition());
+            ImmutableList.Builder<Page> pages = ImmutableList.builder();
+            if (rowCount == 0) {
+                return pages.build().iterator();
+            }
+
+            // pop the heap until it is empty, which leaves the rows sorted with the first row at the start of the array
+            int sortedRowCount = rowCount;
+            for (int size = sortedRowCount; size > 1; size--) {
+                int last = heap[0];
+                heap[0] = heap[size - 1];
+                rowCount = size - 1;
+                siftDown(0);
+                heap[size - 1] = last;
+            }
+            rowCount = 0;
+
+            PageBuilder pageBuilder = new PageBuilder(sourceTupleInfos);
+            for (int i = 0; i < sortedRowCount; i++) {
+                int row = heap[i];
+                for (int channel = 0; channel < rowSlices.length; channel++) {
+                    pageBuilder.getBlockBuilder(channel).appendTuple(rowSlices[channel][row], rowOffsets[channel][row]);
+                }
+                if (pageBuilder.isFull()) {
+                    pages.add(pageBuilder.build());
+                    pageBuilder.reset();
                 }
-            };
+            }
+            if (!pageBuilder.isEmpty()) {
+                pages.add(pageBuilder.build());
+            }
+            return pages.build().iterator();
         }
     }
 
-    private static class KeyAndTuples
+    public static class TopNMemoryManager
     {
-        private final Tuple key;
-        private final Tuple[] tuples;
+        private final OperatorContext operatorContext;
+        private long currentMemoryReservation;
 
-        private KeyAndTuples(Tuple key, Tuple[] tuples)
+        public TopNMemoryManager(OperatorContext operatorContext)
         {
-            this.key = key;
-            this.tuples = tuples;
+            this.operatorContext = operatorContext;
         }
 
-        public Tuple getKey()
+        public boolean canUse(long memorySize)
         {
-            return key;
-        }
+            // remove the pre-allocated memory from this size
+            memorySize -= operatorContext.getOperatorPreAllocatedMemory().toBytes();
 
-        public Tuple[] getTuples()
-        {
-            return tuples;
+            long delta = memorySize - currentMemoryReservation;
+            if (delta <= 0) {
+                return false;
+            }
+
+            if (!operatorContext.reserveMemory(delta)) {
+                return true;
+            }
+
+            // reservation worked, record the reservation
+            currentMemoryReservation = Math.max(currentMemoryReservation, memorySize);
+            return false;
         }
 
-        public static Comparator<KeyAndTuples> keyComparator(final Comparator<TupleReadable> tupleReadableComparator)
+        public Object getMaxMemorySize()
         {
-            return new Comparator<KeyAndTuples>()
-            {
-                @Override
-                public int compare(KeyAndTuples o1, KeyAndTuples o2)
-                {
-                    return tupleReadableComparator.compare(o1.getKey(), o2.getKey());
-                }
-            };
+            return operatorContext.getMaxMemorySize();
         }
     }
 }
@@ -16,13 +16,17 @@ package com.facebook.presto.operator;
 import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
 import com.facebook.presto.operator.window.WindowFunction;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Booleans;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
 import it.unimi.dsi.fastutil.ints.IntComparator;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -43,6 +47,8 @@ public class WindowOperator
         private final int[] sortFields;
         private final boolean[] sortOrder;
         private final int expectedPositions;
+        private final Optional<File> spillDirectory;
+        private final boolean preSorted;
         private final List<TupleInfo> tupleInfos;
         private boolean closed;
 
@@ -56,6 +62,37 @@ public class WindowOperator
                 int[] sortFields,
                 boolean[] sortOrder,
                 int expectedPositions)
+        {
+            this(operatorId, sourceTupleInfos, orderingChannel, outputChannels, windowFunctions, partitionFields, sortFields, sortOrder, expectedPositions, Optional.<File>absent());
+        }
+
+        public InMemoryWindowOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int orderingChannel,
+                int[] outputChannels,
+                List<WindowFunction> windowFunctions,
+                int[] partitionFields,
+                int[] sortFields,
+                boolean[] sortOrder,
+                int expectedPositions,
+                Optional<File> spillDirectory)
+        {
+            this(operatorId, sourceTupleInfos, orderingChannel, outputChannels, windowFunctions, partitionFields, sortFields, sortOrder, expectedPositions, spillDirectory, false);
+        }
+
+        public InMemoryWindowOperatorFactory(
+                int operatorId,
+                List<TupleInfo> sourceTupleInfos,
+                int orderingChannel,
+                int[] outputChannels,
+                List<WindowFunction> windowFunctions,
+                int[] partitionFields,
+                int[] sortFields,
+                boolean[] sortOrder,
+                int expectedPositions,
+                Optional<File> spillDirectory,
+                boolean preSorted)
         {
             this.operatorId = operatorId;
             this.sourceTupleInfos = sourceTupleInfos;
@@ -66,6 +103,8 @@ public class WindowOperator
             this.sortFields = sortFields;
             this.sortOrder = sortOrder;
             this.expectedPositions = expectedPositions;
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+            this.preSorted = preSorted;
 
             this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels, windowFunctions);
         }
@@ -91,7 +130,9 @@ public class WindowOperator
                     partitionFields,
                     sortFields,
                     sortOrder,
-                    expectedPositions);
+                    expectedPositions,
+                    spillDirectory,
+                    preSorted);
         }
 
         @Override
@@ -109,15 +150,23 @@ public class WindowOperator
     }
 
     private final OperatorContext operatorContext;
+    private final List<TupleInfo> sourceTupleInfos;
     private final int orderingChannel;
     private final int[] outputChannels;
     private final List<WindowFunction> windowFunctions;
     private final int[] partitionFields;
     private final int[] sortFields;
     private final boolean[] sortOrder;
+    private final int[] orderFields;
+    private final boolean[] ordering;
+    private final int expectedPositions;
+    private final Optional<File> spillDirectory;
+    private final boolean preSorted;
     private final List<TupleInfo> tupleInfos;
 
-    private final PagesIndex pageIndex;
+    private PagesIndex pageIndex;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private SortedRunMerger merger;
 
     private final PageBuilder pageBuilder;
 
@@ -132,6 +181,9 @@ public class WindowOperator
     private int peerGroupEnd;
     private int peerGroupCount;
 
+    // when the input is pre-sorted, the positions before this one form complete partitions
+    private int completePartitionsEnd;
+
     public WindowOperator(
             OperatorContext operatorContext,
             List<TupleInfo> sourceTupleInfos,
@@ -142,14 +194,63 @@ public class WindowOperator
             int[] sortFields,
             boolean[] sortOrder,
             int expectedPositions)
+    {
+        this(operatorContext, sourceTupleInfos, orderingChannel, outputChannels, windowFunctions, partitionFields, sortFields, sortOrder, expectedPositions, Optional.<File>absent());
+    }
+
+    public WindowOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> sourceTupleInfos,
+            int orderingChannel,
+            int[] outputChannels,
+            List<WindowFunction> windowFunctions,
+            int[] partitionFields,
+            int[] sortFields,
+            boolean[] sortOrder,
+            int expectedPositions,
+            Optional<File> spillDirectory)
+    {
+        this(operatorContext, sourceTupleInfos, orderingChannel, outputChannels, windowFunctions, partitionFields, sortFields, sortOrder, expectedPositions, spillDirectory, false);
+    }
+
+    /**
+     * If {@code preSorted} is set, the input must already be grouped by the
+     * partition fields and sorted by the sort fields within each partition.
+     * The input is then not sorted, and each partition is output as soon as
+     * the first row of the next partition arrives, so only the partition
+     * being read is held in memory.
+     */
+    public WindowOperator(
+            OperatorContext operatorContext,
+            List<TupleInfo> sourceTupleInfos,
+            int orderingChannel,
+            int[] outputChannels,
+            List<WindowFunction> windowFunctions,
+            int[] partitionFields,
+            int[] sortFields,
+            boolean[] sortOrder,
+            int expectedPositions,
+            Optional<File> spillDirectory,
+            boolean preSorted)
     {
         this.operatorContext = checkNotNull(operatorContext, "operatorContext is null");
+        this.sourceTupleInfos = ImmutableList.copyOf(checkNotNull(sourceTupleInfos, "sourceTupleInfos is null"));
         this.orderingChannel = orderingChannel;
         this.outputChannels = checkNotNull(outputChannels, "outputChannels is null").clone();
         this.windowFunctions = checkNotNull(windowFunctions, "windowFunctions is null");
         this.partitionFields = checkNotNull(partitionFields, "partitionFields is null").clone();
         this.sortFields = checkNotNull(sortFields, "sortFields is null").clone();
         this.sortOrder = checkNotNull(sortOrder, "sortOrder is null").clone();
+        this.expectedPositions = expectedPositions;
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
+        this.preSorted = preSorted;
+
+        // sort by partition fields, then sort fields
+        this.orderFields = Ints.concat(this.partitionFields, this.sortFields);
+
+        boolean[] partitionOrder = new boolean[this.partitionFields.length];
+        Arrays.fill(partitionOrder, true);
+        this.ordering = Booleans.concat(partitionOrder, this.sortOrder);
 
         this.tupleInfos = toTupleInfos(sourceTupleInfos, outputChannels, windowFunctions);
 
@@ -172,29 +273,50 @@ public class WindowOperator
     @Override
     public void finish()
     {
-        if (state == State.NEEDS_INPUT) {
+        if (state == State.NEEDS_INPUT && preSorted) {
             state = State.HAS_OUTPUT;
 
-            // sort by partition fields, then sort fields
-            int[] orderFields = Ints.concat(partitionFields, sortFields);
-
-            boolean[] partitionOrder = new boolean[partitionFields.length];
-            Arrays.fill(partitionOrder, true);
-            boolean[] ordering = Booleans.concat(partitionOrder, sortOrder);
+            // the last partition is complete
+            completePartitionsEnd = pageIndex.getPositionCount();
+            createComparators();
+        }
+        else if (state == State.NEEDS_INPUT) {
+            state = State.HAS_OUTPUT;
 
             // sort the index
             pageIndex.sort(orderingChannel, orderFields, ordering);
 
-            // create partition comparator
-            ChannelIndex index = pageIndex.getIndex(orderingChannel);
-            partitionComparator = new MultiSliceFieldOrderedTupleComparator(partitionFields, partitionOrder, index);
+            if (spillFiles.isEmpty()) {
+                createComparators();
+            }
+            else {
+                // spill the remaining rows and stream the partitions out of a merge of all runs
+                if (pageIndex.getPositionCount() > 0) {
+                    spillToDisk();
+                }
 
-            // create order comparator
-            index = pageIndex.getIndex(orderingChannel);
-            orderComparator = new MultiSliceFieldOrderedTupleComparator(sortFields, sortOrder, index);
+                ImmutableList.Builder<Iterator<Page>> runs = ImmutableList.builder();
+                for (SpillFile spillFile : spillFiles) {
+                    runs.add(spillFile.read());
+                }
+                merger = new SortedRunMerger(sourceTupleInfos, runs.build(), orderingChannel, orderFields, ordering);
+            }
         }
     }
 
+    private void createComparators()
+    {
+        // create partition comparator
+        boolean[] partitionOrder = new boolean[partitionFields.length];
+        Arrays.fill(partitionOrder, true);
+        ChannelIndex index = pageIndex.getIndex(orderingChannel);
+        partitionComparator = new MultiSliceFieldOrderedTupleComparator(partitionFields, partitionOrder, index);
+
+        // create order comparator
+        index = pageIndex.getIndex(orderingChannel);
+        orderComparator = new MultiSliceFieldOrderedTupleComparator(sortFields, sortOrder, index);
+    }
+
     @Override
     public boolean isFinished()
     {
@@ -210,7 +332,8 @@ public class WindowOperator
     @Override
     public boolean needsInput()
     {
-        return state == State.NEEDS_INPUT;
+        // pre-sorted input is not accepted until the complete partitions are output
+        return state == State.NEEDS_INPUT && (!preSorted || currentPosition >= completePartitionsEnd);
     }
 
     @Override
@@ -219,24 +342,111 @@ public class WindowOperator
         checkState(state == State.NEEDS_INPUT, "Operator is already finishing");
         checkNotNull(page, "page is null");
 
+        if (preSorted) {
+            addPreSortedInput(page);
+            return;
+        }
+
+        if (!spillDirectory.isPresent()) {
+            pageIndex.addPage(page);
+            return;
+        }
+
+        if (!pageIndex.tryAddPage(page)) {
+            pageIndex.sort(orderingChannel, orderFields, ordering);
+            spillToDisk();
+        }
+    }
+
+    private void addPreSortedInput(Page page)
+    {
+        checkState(currentPosition >= completePartitionsEnd, "Complete partitions have not been output");
+
+        // drop the partitions that have been output
+        if (currentPosition > 0) {
+            PagesIndex remaining = new PagesIndex(sourceTupleInfos, Math.max(pageIndex.getPositionCount() - currentPosition, page.getPositionCount()), operatorContext);
+            PageBuilder pageBuilder = new PageBuilder(sourceTupleInfos);
+            for (int position = currentPosition; position < pageIndex.getPositionCount(); position++) {
+                for (int channel = 0; channel < sourceTupleInfos.size(); channel++) {
+                    pageIndex.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(channel));
+                }
+                if (pageBuilder.isFull()) {
+                    remaining.addPage(pageBuilder.build());
+                    pageBuilder.reset();
+                }
+            }
+            if (!pageBuilder.isEmpty()) {
+                remaining.addPage(pageBuilder.build());
+            }
+            pageIndex = remaining;
+
+            currentPosition = 0;
+            partitionEnd = 0;
+            peerGroupEnd = 0;
+            completePartitionsEnd = 0;
+        }
+
+        int firstNewPosition = pageIndex.getPositionCount();
         pageIndex.addPage(page);
+        createComparators();
+
+        // every partition before the start of the last partition is complete
+        for (int position = Math.max(firstNewPosition, 1); position < pageIndex.getPositionCount(); position++) {
+            if (partitionComparator.compare(position - 1, position) != 0) {
+                completePartitionsEnd = position;
+            }
+        }
+    }
+
+    private void spillToDisk()
+    {
+        spillFiles.add(SpillFile.spill(spillDirectory.get(), pageIndex.getPages()));
+        pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+    }
+
+    /**
+     * Loads the next partition from the merge of the spilled runs into the index.
+     */
+    private boolean loadNextPartition()
+    {
+        if (merger == null || merger.isFinished()) {
+            return false;
+        }
+
+        pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions, operatorContext);
+        for (Page page : merger.nextPartition(new PageBuilder(sourceTupleInfos), partitionFields)) {
+            pageIndex.addPage(page);
+        }
+        createComparators();
+
+        currentPosition = 0;
+        partitionEnd = 0;
+        peerGroupEnd = 0;
+        return true;
     }
 
     @Override
     public Page getOutput()
     {
-        if (state != State.HAS_OUTPUT) {
+        if (state == State.FINISHED) {
             return null;
         }
-
-        if (currentPosition >= pageIndex.getPositionCount()) {
-            state = State.FINISHED;
+        if (state == State.NEEDS_INPUT && (!preSorted || currentPosition >= completePartitionsEnd)) {
             return null;
         }
 
         // iterate through the positions sequentially until we have one full page
         pageBuilder.reset();
-        while (!pageBuilder.isFull() && currentPosition < pageIndex.getPositionCount()) {
+        while (!pageBuilder.isFull()) {
+            if (preSorted) {
+                if (currentPosition >= completePartitionsEnd) {
+                    break;
+                }
+            }
+            else if (currentPosition >= pageIndex.getPositionCount() && !loadNextPartition()) {
+                break;
+            }
+
             // check for new partition
             boolean newPartition = (currentPosition == 0) || (currentPosition == partitionEnd);
             if (newPartition) {
@@ -284,6 +494,10 @@ public class WindowOperator
         // output the page if we have any data
         if (pageBuilder.isEmpty()) {
             state = State.FINISHED;
+            for (SpillFile spillFile : spillFiles) {
+                spillFile.close();
+            }
+            spillFiles.clear();
             return null;
         }
 
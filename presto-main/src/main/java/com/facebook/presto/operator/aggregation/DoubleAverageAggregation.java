@@ -16,6 +16,7 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.columnar.DoubleArrayBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import io.airlift.slice.Slice;
@@ -83,12 +84,26 @@ public class DoubleAverageAggregation
         double sum = TUPLE_INFO.getDouble(valueSlice, valueOffset, 1);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
-                hasNonNull = true;
-                count++;
-                sum += cursor.getDouble(field);
+        if (block instanceof DoubleArrayBlock) {
+            DoubleArrayBlock doubleArrayBlock = (DoubleArrayBlock) block;
+            double[] values = doubleArrayBlock.getDoubles();
+            boolean[] valueIsNull = doubleArrayBlock.getValueIsNull();
+            for (int position = 0; position < block.getPositionCount(); position++) {
+                if (!valueIsNull[position]) {
+                    hasNonNull = true;
+                    count++;
+                    sum += values[position];
+                }
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    count++;
+                    sum += cursor.getDouble(field);
+                }
             }
         }
 
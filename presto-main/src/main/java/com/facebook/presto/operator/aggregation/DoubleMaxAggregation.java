@@ -16,6 +16,7 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.columnar.DoubleArrayBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import io.airlift.slice.Slice;
 
@@ -76,11 +77,24 @@ public class DoubleMaxAggregation
         double max = SINGLE_DOUBLE.getDouble(valueSlice, valueOffset, 0);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
-                hasNonNull = true;
-                max = Math.max(max, cursor.getDouble(field));
+        if (block instanceof DoubleArrayBlock) {
+            DoubleArrayBlock doubleArrayBlock = (DoubleArrayBlock) block;
+            double[] values = doubleArrayBlock.getDoubles();
+            boolean[] valueIsNull = doubleArrayBlock.getValueIsNull();
+            for (int position = 0; position < block.getPositionCount(); position++) {
+                if (!valueIsNull[position]) {
+                    hasNonNull = true;
+                    max = Math.max(max, values[position]);
+                }
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    max = Math.max(max, cursor.getDouble(field));
+                }
             }
         }
 
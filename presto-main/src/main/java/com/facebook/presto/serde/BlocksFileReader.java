@@ -38,6 +38,7 @@ public class BlocksFileReader
     private final Slice blocksSlice;
     private final BlockIterable blockIterable;
     private final BlocksFileStats stats;
+    private final Optional<ZoneMap> zoneMap;
 
     public BlocksFileReader(Slice slice)
     {
@@ -55,6 +56,14 @@ public class BlocksFileReader
         // read stats
         stats = BlocksFileStats.deserialize(input);
 
+        // read zone map, which is not present in older files and for unsupported types
+        if (input.isReadable()) {
+            zoneMap = Optional.of(ZoneMap.deserialize(blockEncoding.getTupleInfo().getTypes().get(0), input));
+        }
+        else {
+            zoneMap = Optional.absent();
+        }
+
         blocksSlice = slice.slice(0, footerOffset);
         blockIterable = new EncodedBlockIterable(blockEncoding, blocksSlice, Ints.checkedCast(stats.getRowCount()));
     }
@@ -87,6 +96,11 @@ public class BlocksFileReader
         return stats;
     }
 
+    public Optional<ZoneMap> getZoneMap()
+    {
+        return zoneMap;
+    }
+
     @Override
     public Iterator<Block> iterator()
     {
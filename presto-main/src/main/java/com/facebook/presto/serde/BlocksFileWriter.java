@@ -15,6 +15,7 @@ package com.facebook.presto.serde;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -59,6 +60,7 @@ public class BlocksFileWriter
     private final BlocksFileEncoding encoding;
     private final OutputSupplier<? extends OutputStream> outputSupplier;
     private final StatsBuilder statsBuilder = new StatsBuilder();
+    private ZoneMap.Builder zoneMapBuilder;
     private Encoder encoder;
     private SliceOutput sliceOutput;
     private boolean closed;
@@ -78,8 +80,15 @@ public class BlocksFileWriter
         if (!Iterables.isEmpty(tuples)) {
             if (encoder == null) {
                 open();
+                TupleInfo tupleInfo = Iterables.getFirst(tuples, null).getTupleInfo();
+                if (ZoneMap.isSupported(tupleInfo)) {
+                    zoneMapBuilder = new ZoneMap.Builder(tupleInfo);
+                }
             }
             statsBuilder.process(tuples);
+            if (zoneMapBuilder != null) {
+                zoneMapBuilder.add(tuples);
+            }
             encoder.append(tuples);
         }
         return this;
@@ -128,6 +137,11 @@ public class BlocksFileWriter
         // write stats
         BlocksFileStats.serialize(statsBuilder.build(), sliceOutput);
 
+        // write zone map, if the type is supported
+        if (zoneMapBuilder != null) {
+            ZoneMap.serialize(zoneMapBuilder.build(), sliceOutput);
+        }
+
         // write footer size
         int footerSize = sliceOutput.size() - startingIndex;
         checkState(footerSize > 0);
@@ -72,6 +72,27 @@ public class DictionaryBlockEncoding
         return new DictionaryEncodedBlock(dictionary, idBlock);
     }
 
+    // blocks can only be written with the same dictionary instance, so dictionaries are compared by identity
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        DictionaryBlockEncoding that = (DictionaryBlockEncoding) o;
+        return dictionary == that.dictionary && idBlockEncoding.equals(that.idBlockEncoding);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * System.identityHashCode(dictionary) + idBlockEncoding.hashCode();
+    }
+
     public static void serialize(SliceOutput output, DictionaryBlockEncoding encoding)
     {
         DictionarySerde.writeDictionary(output, encoding.dictionary);
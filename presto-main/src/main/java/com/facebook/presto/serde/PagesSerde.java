@@ -23,6 +23,7 @@ import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,20 +47,27 @@ public final class PagesSerde
             {
                 Preconditions.checkNotNull(page, "page is null");
 
-                if (blockEncodings == null) {
-                    Block[] blocks = page.getBlocks();
-                    blockEncodings = new BlockEncoding[blocks.length];
-                    sliceOutput.writeInt(blocks.length);
-                    for (int i = 0; i < blocks.length; i++) {
-                        Block block = blocks[i];
-                        BlockEncoding blockEncoding = block.getEncoding();
-                        blockEncodings[i] = blockEncoding;
+                // pages from different sources can have different encodings (e.g. each shard has its
+                // own dictionary), so the encodings are written again whenever they change
+                Block[] blocks = page.getBlocks();
+                BlockEncoding[] pageEncodings = new BlockEncoding[blocks.length];
+                for (int i = 0; i < blocks.length; i++) {
+                    pageEncodings[i] = blocks[i].getEncoding();
+                }
+
+                sliceOutput.writeInt(page.getPositionCount());
+                if (Arrays.equals(pageEncodings, blockEncodings)) {
+                    sliceOutput.writeByte(0);
+                }
+                else {
+                    blockEncodings = pageEncodings;
+                    sliceOutput.writeByte(1);
+                    sliceOutput.writeInt(blockEncodings.length);
+                    for (BlockEncoding blockEncoding : blockEncodings) {
                         BlockEncodings.writeBlockEncoding(sliceOutput, blockEncoding);
                     }
                 }
 
-                sliceOutput.writeInt(page.getPositionCount());
-                Block[] blocks = page.getBlocks();
                 for (int i = 0; i < blocks.length; i++) {
                     blockEncodings[i].writeBlock(sliceOutput, blocks[i]);
                 }
@@ -115,24 +123,12 @@ public final class PagesSerde
     private static class PagesReader
             extends AbstractIterator<Page>
     {
-        private final BlockEncoding[] blockEncodings;
         private final SliceInput sliceInput;
+        private BlockEncoding[] blockEncodings;
 
         public PagesReader(SliceInput sliceInput)
         {
             this.sliceInput = sliceInput;
-
-            if (!sliceInput.isReadable()) {
-                endOfData();
-                blockEncodings = new BlockEncoding[0];
-            } else {
-                int channelCount = sliceInput.readInt();
-
-                blockEncodings = new BlockEncoding[channelCount];
-                for (int i = 0; i < blockEncodings.length; i++) {
-                    blockEncodings[i] = BlockEncodings.readBlockEncoding(sliceInput);
-                }
-            }
         }
 
         @Override
@@ -143,6 +139,15 @@ public final class PagesSerde
             }
 
             int positions = sliceInput.readInt();
+            if (sliceInput.readByte() != 0) {
+                int channelCount = sliceInput.readInt();
+                blockEncodings = new BlockEncoding[channelCount];
+                for (int i = 0; i < blockEncodings.length; i++) {
+                    blockEncodings[i] = BlockEncodings.readBlockEncoding(sliceInput);
+                }
+            }
+            Preconditions.checkState(blockEncodings != null, "first page does not have block encodings");
+
             Block[] blocks = new Block[blockEncodings.length];
             for (int i = 0; i < blocks.length; i++) {
                 blocks[i] = blockEncodings[i].readBlock(sliceInput);
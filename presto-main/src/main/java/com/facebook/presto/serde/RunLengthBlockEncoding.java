@@ -66,6 +66,26 @@ public class RunLengthBlockEncoding
         return new RunLengthEncodedBlock(tuple, tupleCount);
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        RunLengthBlockEncoding that = (RunLengthBlockEncoding) o;
+        return tupleInfo.equals(that.tupleInfo);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return tupleInfo.hashCode();
+    }
+
     public static void serialize(SliceOutput output, RunLengthBlockEncoding encoding)
     {
         TupleInfoSerde.writeTupleInfo(output, encoding.tupleInfo);
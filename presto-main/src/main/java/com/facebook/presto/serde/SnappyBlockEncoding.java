@@ -67,6 +67,26 @@ public class SnappyBlockEncoding
         return new SnappyBlock(tupleCount, tupleInfo, block);
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        SnappyBlockEncoding that = (SnappyBlockEncoding) o;
+        return tupleInfo.equals(that.tupleInfo);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return tupleInfo.hashCode();
+    }
+
     public static void serialize(SliceOutput output, SnappyBlockEncoding encoding)
     {
         TupleInfoSerde.writeTupleInfo(output, encoding.getTupleInfo());
@@ -21,6 +21,8 @@ import io.airlift.slice.Slice;
 import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+
 public class UncompressedBlockEncoding
         implements BlockEncoding
 {
@@ -47,7 +49,7 @@ public class UncompressedBlockEncoding
     @Override
     public void writeBlock(SliceOutput sliceOutput, Block block)
     {
-        UncompressedBlock uncompressedBlock = (UncompressedBlock) block;
+        UncompressedBlock uncompressedBlock = toUncompressedBlock(block);
         Preconditions.checkArgument(block.getTupleInfo().equals(tupleInfo), "Invalid tuple info");
         writeUncompressedBlock(sliceOutput,
                 uncompressedBlock.getPositionCount(),
@@ -72,6 +74,26 @@ public class UncompressedBlockEncoding
                 .writeBytes(slice);
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        UncompressedBlockEncoding that = (UncompressedBlockEncoding) o;
+        return tupleInfo.equals(that.tupleInfo);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return tupleInfo.hashCode();
+    }
+
     public static void serialize(SliceOutput output, UncompressedBlockEncoding encoding)
     {
         TupleInfoSerde.writeTupleInfo(output, encoding.tupleInfo);
@@ -0,0 +1,378 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.spi.Domain;
+import com.facebook.presto.spi.Range;
+import com.facebook.presto.spi.SortedRangeSet;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The minimum and maximum values and the null count of each run of
+ * {@link #ZONE_POSITIONS} positions (a zone) of a column file.  A scan can
+ * skip every zone whose values can not satisfy the predicate of the query.
+ */
+public class ZoneMap
+{
+    public static final int ZONE_POSITIONS = 8192;
+
+    private final TupleInfo.Type type;
+    private final List<Zone> zones;
+
+    public ZoneMap(TupleInfo.Type type, List<Zone> zones)
+    {
+        this.type = checkNotNull(type, "type is null");
+        checkArgument(isSupported(type), "Unsupported type %s", type);
+        this.zones = ImmutableList.copyOf(checkNotNull(zones, "zones is null"));
+    }
+
+    public static boolean isSupported(TupleInfo tupleInfo)
+    {
+        return tupleInfo.getFieldCount() == 1 && isSupported(tupleInfo.getTypes().get(0));
+    }
+
+    private static boolean isSupported(TupleInfo.Type type)
+    {
+        return type == TupleInfo.Type.FIXED_INT_64 || type == TupleInfo.Type.DOUBLE || type == TupleInfo.Type.VARIABLE_BINARY;
+    }
+
+    public TupleInfo.Type getType()
+    {
+        return type;
+    }
+
+    public List<Zone> getZones()
+    {
+        return zones;
+    }
+
+    public long getPositionCount()
+    {
+        long positionCount = 0;
+        for (Zone zone : zones) {
+            positionCount += zone.getPositionCount();
+        }
+        return positionCount;
+    }
+
+    /**
+     * Returns false if no value of the column can be contained in the domain.
+     */
+    public boolean overlaps(Domain domain)
+    {
+        for (Zone zone : zones) {
+            if (zone.overlaps(domain)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void serialize(ZoneMap zoneMap, SliceOutput sliceOutput)
+    {
+        sliceOutput.appendInt(zoneMap.zones.size());
+        for (Zone zone : zoneMap.zones) {
+            sliceOutput.appendInt(zone.positionCount);
+            sliceOutput.appendInt(zone.nullCount);
+            sliceOutput.writeByte(zone.min != null ? 1 : 0);
+            if (zone.min != null) {
+                writeValue(zoneMap.type, zone.min, sliceOutput);
+                writeValue(zoneMap.type, zone.max, sliceOutput);
+            }
+        }
+    }
+
+    public static ZoneMap deserialize(TupleInfo.Type type, SliceInput input)
+    {
+        int zoneCount = input.readInt();
+        ImmutableList.Builder<Zone> zones = ImmutableList.builder();
+        for (int i = 0; i < zoneCount; i++) {
+            int positionCount = input.readInt();
+            int nullCount = input.readInt();
+            if (input.readByte() != 0) {
+                Comparable<?> min = readValue(type, input);
+                Comparable<?> max = readValue(type, input);
+                zones.add(new Zone(positionCount, nullCount, min, max));
+            }
+            else {
+                zones.add(new Zone(positionCount, nullCount, null, null));
+            }
+        }
+        return new ZoneMap(type, zones.build());
+    }
+
+    private static void writeValue(TupleInfo.Type type, Comparable<?> value, SliceOutput sliceOutput)
+    {
+        switch (type) {
+            case FIXED_INT_64:
+                sliceOutput.appendLong((Long) value);
+                break;
+            case DOUBLE:
+                sliceOutput.appendDouble((Double) value);
+                break;
+            case VARIABLE_BINARY:
+                Slice slice = (Slice) value;
+                sliceOutput.appendInt(slice.length());
+                sliceOutput.appendBytes(slice);
+                break;
+            default:
+                throw new AssertionError("Unsupported type " + type);
+        }
+    }
+
+    private static Comparable<?> readValue(TupleInfo.Type type, SliceInput input)
+    {
+        switch (type) {
+            case FIXED_INT_64:
+                return input.readLong();
+            case DOUBLE:
+                return input.readDouble();
+            case VARIABLE_BINARY:
+                int length = input.readInt();
+                return Slices.wrappedBuffer(input.readSlice(length).getBytes());
+            default:
+                throw new AssertionError("Unsupported type " + type);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("type", type)
+                .add("zones", zones)
+                .toString();
+    }
+
+    public static class Zone
+    {
+        private final int positionCount;
+        private final int nullCount;
+        // null if there are no non-null values, or if the values are not ordered
+        private final Comparable<?> min;
+        private final Comparable<?> max;
+
+        public Zone(int positionCount, int nullCount, Comparable<?> min, Comparable<?> max)
+        {
+            checkArgument(positionCount > 0, "positionCount must be positive");
+            checkArgument(nullCount >= 0 && nullCount <= positionCount, "nullCount must be between 0 and positionCount");
+            checkArgument((min == null) == (max == null), "min and max must both be present or absent");
+            this.positionCount = positionCount;
+            this.nullCount = nullCount;
+            this.min = min;
+            this.max = max;
+        }
+
+        public int getPositionCount()
+        {
+            return positionCount;
+        }
+
+        public int getNullCount()
+        {
+            return nullCount;
+        }
+
+        public Comparable<?> getMin()
+        {
+            return min;
+        }
+
+        public Comparable<?> getMax()
+        {
+            return max;
+        }
+
+        /**
+         * Returns false if no value of the zone can be contained in the domain.
+         */
+        public boolean overlaps(Domain domain)
+        {
+            checkNotNull(domain, "domain is null");
+            if (nullCount > 0 && domain.isNullAllowed()) {
+                return true;
+            }
+            if (nullCount == positionCount) {
+                return false;
+            }
+            if (min == null) {
+                return true;
+            }
+
+            Comparable<?> low = toNativeValue(min);
+            Comparable<?> high = toNativeValue(max);
+            if (low == null || high == null || domain.getType() != low.getClass()) {
+                return true;
+            }
+            return domain.overlaps(Domain.create(SortedRangeSet.of(Range.range(low, true, high, true)), false));
+        }
+
+        private static Comparable<?> toNativeValue(Comparable<?> value)
+        {
+            if (!(value instanceof Slice)) {
+                return value;
+            }
+            // strings are ordered by UTF-16 code units in a domain, which matches the byte order of the column only for ASCII bounds
+            Slice slice = (Slice) value;
+            for (int i = 0; i < slice.length(); i++) {
+                if (slice.getByte(i) < 0) {
+                    return null;
+                }
+            }
+            return slice.toString(UTF_8);
+        }
+
+        @Override
+        public String toString()
+        {
+            return Objects.toStringHelper(this)
+                    .add("positionCount", positionCount)
+                    .add("nullCount", nullCount)
+                    .add("min", min instanceof Slice ? ((Slice) min).toString(UTF_8) : min)
+                    .add("max", max instanceof Slice ? ((Slice) max).toString(UTF_8) : max)
+                    .toString();
+        }
+    }
+
+    public static class Builder
+    {
+        private final TupleInfo.Type type;
+        private final ImmutableList.Builder<Zone> zones = ImmutableList.builder();
+
+        private int positionCount;
+        private int nullCount;
+        private boolean unordered;
+        private long minLong;
+        private long maxLong;
+        private double minDouble;
+        private double maxDouble;
+        private Slice minSlice;
+        private Slice maxSlice;
+
+        public Builder(TupleInfo tupleInfo)
+        {
+            checkNotNull(tupleInfo, "tupleInfo is null");
+            checkArgument(isSupported(tupleInfo), "Unsupported tuple %s", tupleInfo);
+            this.type = tupleInfo.getTypes().get(0);
+        }
+
+        public Builder add(Iterable<Tuple> tuples)
+        {
+            checkNotNull(tuples, "tuples is null");
+            for (Tuple tuple : tuples) {
+                add(tuple);
+            }
+            return this;
+        }
+
+        private void add(Tuple tuple)
+        {
+            int nonNullCount = positionCount - nullCount;
+            positionCount++;
+            if (tuple.isNull(0)) {
+                nullCount++;
+            }
+            else {
+                switch (type) {
+                    case FIXED_INT_64:
+                        long longValue = tuple.getLong(0);
+                        if (nonNullCount == 0 || longValue < minLong) {
+                            minLong = longValue;
+                        }
+                        if (nonNullCount == 0 || longValue > maxLong) {
+                            maxLong = longValue;
+                        }
+                        break;
+                    case DOUBLE:
+                        double doubleValue = tuple.getDouble(0);
+                        if (Double.isNaN(doubleValue)) {
+                            // NaN is not ordered, so the zone can not be bounded
+                            unordered = true;
+                            break;
+                        }
+                        // the two zeros are equal, but a domain orders negative zero first
+                        double low = (doubleValue == 0) ? -0.0 : doubleValue;
+                        double high = (doubleValue == 0) ? 0.0 : doubleValue;
+                        if (nonNullCount == 0 || Double.compare(low, minDouble) < 0) {
+                            minDouble = low;
+                        }
+                        if (nonNullCount == 0 || Double.compare(high, maxDouble) > 0) {
+                            maxDouble = high;
+                        }
+                        break;
+                    case VARIABLE_BINARY:
+                        Slice sliceValue = tuple.getSlice(0);
+                        if (nonNullCount == 0 || sliceValue.compareTo(minSlice) < 0) {
+                            minSlice = Slices.wrappedBuffer(sliceValue.getBytes());
+                        }
+                        if (nonNullCount == 0 || sliceValue.compareTo(maxSlice) > 0) {
+                            maxSlice = Slices.wrappedBuffer(sliceValue.getBytes());
+                        }
+                        break;
+                }
+            }
+
+            if (positionCount == ZONE_POSITIONS) {
+                finishZone();
+            }
+        }
+
+        private void finishZone()
+        {
+            if (positionCount == nullCount || unordered) {
+                zones.add(new Zone(positionCount, nullCount, null, null));
+            }
+            else {
+                switch (type) {
+                    case FIXED_INT_64:
+                        zones.add(new Zone(positionCount, nullCount, minLong, maxLong));
+                        break;
+                    case DOUBLE:
+                        zones.add(new Zone(positionCount, nullCount, minDouble, maxDouble));
+                        break;
+                    case VARIABLE_BINARY:
+                        zones.add(new Zone(positionCount, nullCount, minSlice, maxSlice));
+                        break;
+                }
+            }
+
+            positionCount = 0;
+            nullCount = 0;
+            unordered = false;
+            minSlice = null;
+            maxSlice = null;
+        }
+
+        public ZoneMap build()
+        {
+            if (positionCount > 0) {
+                finishZone();
+            }
+            return new ZoneMap(type, zones.build());
+        }
+    }
+}
@@ -19,12 +19,22 @@ import com.facebook.presto.metadata.NativeColumnHandle;
 import com.facebook.presto.operator.AlignmentOperator;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorContext;
+import com.facebook.presto.serde.ZoneMap;
 import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.Domain;
 import com.facebook.presto.spi.Split;
+import com.facebook.presto.spi.TupleDomain;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.common.primitives.Ints;
 import com.google.inject.Inject;
 
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -49,7 +59,51 @@ public class NativeDataStreamProvider
     @Override
     public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
     {
-        return new AlignmentOperator(operatorContext, createChannels(split, columns));
+        List<BlockIterable> channels = createChannels(split, columns);
+        return new AlignmentOperator(operatorContext, channels, getSkippedPositions((NativeSplit) split));
+    }
+
+    /**
+     * Returns the positions of the shard in zones where some column can not
+     * satisfy the predicate of the query.  When the zones at the end of the shard
+     * are skipped, the range is left unbounded so the scan stops early.
+     */
+    private RangeSet<Integer> getSkippedPositions(NativeSplit split)
+    {
+        TupleDomain effectivePredicate = split.getEffectivePredicate();
+        if (effectivePredicate.isNone()) {
+            return ImmutableRangeSet.of(Range.atLeast(0));
+        }
+
+        RangeSet<Integer> skippedPositions = TreeRangeSet.create();
+        long positionCount = -1;
+        for (Map.Entry<ColumnHandle, Domain> entry : effectivePredicate.getDomains().entrySet()) {
+            if (!(entry.getKey() instanceof NativeColumnHandle)) {
+                continue;
+            }
+            Optional<ZoneMap> zoneMap = storageManager.getZoneMap(split.getShardUuid(), entry.getKey());
+            if (!zoneMap.isPresent()) {
+                continue;
+            }
+
+            int start = 0;
+            for (ZoneMap.Zone zone : zoneMap.get().getZones()) {
+                int end = start + zone.getPositionCount();
+                if (!zone.overlaps(entry.getValue())) {
+                    skippedPositions.add(Range.closedOpen(start, end));
+                }
+                start = end;
+            }
+            positionCount = start;
+        }
+
+        if (positionCount > 0) {
+            Range<Integer> lastRange = skippedPositions.rangeContaining(Ints.checkedCast(positionCount - 1));
+            if (lastRange != null) {
+                skippedPositions.add(Range.atLeast(lastRange.lowerEndpoint()));
+            }
+        }
+        return skippedPositions;
     }
 
     private List<BlockIterable> createChannels(Split split, List<ColumnHandle> columns)
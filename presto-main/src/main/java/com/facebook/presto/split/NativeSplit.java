@@ -15,6 +15,7 @@ package com.facebook.presto.split;
 
 import com.facebook.presto.spi.HostAddress;
 import com.facebook.presto.spi.Split;
+import com.facebook.presto.spi.TupleDomain;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
@@ -30,16 +31,24 @@ public class NativeSplit
 {
     private final UUID shardUuid;
     private final List<HostAddress> addresses;
+    private final TupleDomain effectivePredicate;
+
+    public NativeSplit(UUID shardUuid, List<HostAddress> addresses)
+    {
+        this(shardUuid, addresses, TupleDomain.all());
+    }
 
     @JsonCreator
     public NativeSplit(
             @JsonProperty("shardUuid") UUID shardUuid,
-            @JsonProperty("addresses") List<HostAddress> addresses)
+            @JsonProperty("addresses") List<HostAddress> addresses,
+            @JsonProperty("effectivePredicate") TupleDomain effectivePredicate)
     {
         this.shardUuid = checkNotNull(shardUuid, "shardUuid is null");
 
         checkNotNull(addresses, "addresses is null");
         this.addresses = ImmutableList.copyOf(addresses);
+        this.effectivePredicate = checkNotNull(effectivePredicate, "effectivePredicate is null");
     }
 
     @Override
@@ -62,6 +71,16 @@ public class NativeSplit
         return shardUuid;
     }
 
+    /**
+     * The predicate of the query on the columns of the table.  Rows outside of
+     * these domains can be skipped by the scan.
+     */
+    @JsonProperty
+    public TupleDomain getEffectivePredicate()
+    {
+        return effectivePredicate;
+    }
+
     @Override
     public Object getInfo()
     {
@@ -74,6 +93,7 @@ public class NativeSplit
         return Objects.toStringHelper(this)
                 .add("shardUuid", shardUuid)
                 .add("hosts", addresses)
+                .add("effectivePredicate", effectivePredicate)
                 .toString();
     }
 }
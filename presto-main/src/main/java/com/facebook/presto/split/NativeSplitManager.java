@@ -107,7 +107,7 @@ public class NativeSplitManager
 
         log.debug("Partition key retrieval, native table %s (%d keys): %dms", tableHandle, allPartitionKeys.size(), partitionTimer.elapsed(TimeUnit.MILLISECONDS));
 
-        List<Partition> partitions = ImmutableList.copyOf(Collections2.transform(tablePartitions, new PartitionFunction(columnHandles, allPartitionKeys)));
+        List<Partition> partitions = ImmutableList.copyOf(Collections2.transform(tablePartitions, new PartitionFunction(columnHandles, allPartitionKeys, tupleDomain)));
 
         log.debug("Partition generation, native table %s (%d partitions): %dms", tableHandle, partitions.size(), partitionTimer.elapsed(TimeUnit.MILLISECONDS));
 
@@ -143,7 +143,7 @@ public class NativeSplitManager
             for (Map.Entry<UUID, Collection<String>> entry : shardNodes.build().asMap().entrySet()) {
                 List<HostAddress> addresses = getAddressesForNodes(nodesById, entry.getValue());
                 checkState(addresses.size() > 0, "no host for shard %s found", entry.getKey());
-                Split split = new NativeSplit(entry.getKey(), addresses);
+                Split split = new NativeSplit(entry.getKey(), addresses, nativePartition.getEffectivePredicate());
                 splits.add(split);
             }
         }
@@ -168,11 +168,13 @@ public class NativeSplitManager
     {
         private final long partitionId;
         private final TupleDomain tupleDomain;
+        private final TupleDomain effectivePredicate;
 
-        public NativePartition(long partitionId, TupleDomain tupleDomain)
+        public NativePartition(long partitionId, TupleDomain tupleDomain, TupleDomain effectivePredicate)
         {
             this.partitionId = partitionId;
             this.tupleDomain = checkNotNull(tupleDomain, "tupleDomain is null");
+            this.effectivePredicate = checkNotNull(effectivePredicate, "effectivePredicate is null");
         }
 
         @Override
@@ -192,6 +194,15 @@ public class NativeSplitManager
             return tupleDomain;
         }
 
+        /**
+         * The predicate of the query that the partition was selected for, which
+         * is passed on to the splits so that the workers can skip rows.
+         */
+        public TupleDomain getEffectivePredicate()
+        {
+            return effectivePredicate;
+        }
+
         @Override
         public int hashCode()
         {
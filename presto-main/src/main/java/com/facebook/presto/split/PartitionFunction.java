@@ -34,12 +34,15 @@ public class PartitionFunction
 {
     private final Map<String, ColumnHandle> columnHandles;
     private final Multimap<String, ? extends PartitionKey> allPartitionKeys;
+    private final TupleDomain effectivePredicate;
 
     PartitionFunction(Map<String, ColumnHandle> columnHandles,
-            Multimap<String, ? extends PartitionKey> allPartitionKeys)
+            Multimap<String, ? extends PartitionKey> allPartitionKeys,
+            TupleDomain effectivePredicate)
     {
         this.columnHandles = checkNotNull(columnHandles, "columnHandles is null");
         this.allPartitionKeys = checkNotNull(allPartitionKeys, "allPartitionKeys is null");
+        this.effectivePredicate = checkNotNull(effectivePredicate, "effectivePredicate is null");
     }
 
     @Override
@@ -84,6 +87,6 @@ public class PartitionFunction
             }
         }
 
-        return new NativePartition(tablePartition.getPartitionId(), TupleDomain.withColumnDomains(builder.build()));
+        return new NativePartition(tablePartition.getPartitionId(), TupleDomain.withColumnDomains(builder.build()), effectivePredicate);
     }
 }
@@ -35,6 +35,7 @@ import com.facebook.presto.byteCode.instruction.LabelNode;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.operator.AbstractFilterAndProjectOperator;
 import com.facebook.presto.operator.AbstractScanFilterAndProjectOperator;
+import com.facebook.presto.operator.DynamicFilter;
 import com.facebook.presto.operator.DriverContext;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorContext;
@@ -47,9 +48,11 @@ import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.split.DataStreamProvider;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.DeterminismEvaluator;
 import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.Input;
+import com.facebook.presto.tuple.RawTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleReadable;
 import com.google.common.annotations.VisibleForTesting;
@@ -60,8 +63,11 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 import com.google.common.io.Files;
+import com.google.common.primitives.Primitives;
 import io.airlift.log.Logger;
 import io.airlift.slice.Slice;
 import org.objectweb.asm.ClassReader;
@@ -140,6 +146,17 @@ public class ExpressionCompiler
                 }
             });
 
+    private final LoadingCache<TupleComparatorCacheKey, RawTupleComparator> tupleComparators = CacheBuilder.newBuilder().maximumSize(1000).build(
+            new CacheLoader<TupleComparatorCacheKey, RawTupleComparator>()
+            {
+                @Override
+                public RawTupleComparator load(TupleComparatorCacheKey key)
+                        throws Exception
+                {
+                    return internalCompileTupleComparator(key.getTupleInfo(), key.getSortFields(), key.getSortOrder());
+                }
+            });
+
     @Inject
     public ExpressionCompiler(Metadata metadata)
     {
@@ -242,11 +259,12 @@ public class ExpressionCompiler
                 arg("operatorContext", OperatorContext.class),
                 arg("tupleInfos", type(Iterable.class, TupleInfo.class)))
                 .getBody()
-                .comment("super(operatorContext, tupleInfos);")
+                .comment("super(operatorContext, tupleInfos, deterministic);")
                 .pushThis()
                 .getVariable("operatorContext")
                 .getVariable("tupleInfos")
-                .invokeConstructor(AbstractFilterAndProjectOperator.class, OperatorContext.class, Iterable.class)
+                .push(isDeterministic(filter, projections))
+                .invokeConstructor(AbstractFilterAndProjectOperator.class, OperatorContext.class, Iterable.class, boolean.class)
                 .comment("this.session = operatorContext.getSession();")
                 .pushThis()
                 .getVariable("operatorContext")
@@ -304,6 +322,122 @@ public class ExpressionCompiler
         return new TypedOperatorClass(filterAndProjectClass, tupleInfos);
     }
 
+    /**
+     * Returns a comparator for raw tuples of the specified type that orders the
+     * tuples by the sort fields, ascending where the sort order is true.  The
+     * comparisons for the field types are unrolled into the generated class.
+     */
+    public RawTupleComparator compileTupleComparator(TupleInfo tupleInfo, List<Integer> sortFields, List<Boolean> sortOrder)
+    {
+        return tupleComparators.getUnchecked(new TupleComparatorCacheKey(tupleInfo, sortFields, sortOrder));
+    }
+
+    @VisibleForTesting
+    public RawTupleComparator internalCompileTupleComparator(TupleInfo tupleInfo, List<Integer> sortFields, List<Boolean> sortOrder)
+    {
+        Preconditions.checkArgument(sortFields.size() == sortOrder.size(), "sortFields size (%s) doesn't match sortOrder size (%s)", sortFields.size(), sortOrder.size());
+
+        ClassDefinition classDefinition = new ClassDefinition(new CompilerContext(bootstrapMethod),
+                a(PUBLIC, FINAL),
+                typeFromPathName("RawTupleComparator_" + CLASS_ID.incrementAndGet()),
+                type(Object.class),
+                type(RawTupleComparator.class));
+
+        FieldDefinition tupleInfoField = classDefinition.declareField(a(PRIVATE, FINAL), "tupleInfo", TupleInfo.class);
+
+        classDefinition.declareConstructor(new CompilerContext(bootstrapMethod),
+                a(PUBLIC),
+                arg("tupleInfo", TupleInfo.class))
+                .getBody()
+                .comment("super();")
+                .pushThis()
+                .invokeConstructor(Object.class)
+                .comment("this.tupleInfo = tupleInfo;")
+                .pushThis()
+                .getVariable("tupleInfo")
+                .putField(tupleInfoField)
+                .ret();
+
+        MethodDefinition compareMethod = classDefinition.declareMethod(new CompilerContext(bootstrapMethod),
+                a(PUBLIC),
+                "compare",
+                type(int.class),
+                arg("leftSlice", Slice.class),
+                arg("leftOffset", int.class),
+                arg("rightSlice", Slice.class),
+                arg("rightOffset", int.class));
+
+        LocalVariableDefinition comparisonVariable = compareMethod.getCompilerContext().declareVariable(int.class, "comparison");
+        Block body = compareMethod.getBody();
+        for (int i = 0; i < sortFields.size(); i++) {
+            int field = sortFields.get(i);
+            Class<?> javaType;
+            String getter;
+            switch (tupleInfo.getTypes().get(field)) {
+                case BOOLEAN:
+                    javaType = boolean.class;
+                    getter = "getBoolean";
+                    break;
+                case FIXED_INT_64:
+                    javaType = long.class;
+                    getter = "getLong";
+                    break;
+                case DOUBLE:
+                    javaType = double.class;
+                    getter = "getDouble";
+                    break;
+                case VARIABLE_BINARY:
+                    javaType = Slice.class;
+                    getter = "getSlice";
+                    break;
+                default:
+                    throw new AssertionError("unimplemented type: " + tupleInfo.getTypes().get(field));
+            }
+
+            body.comment("comparison = compare(tupleInfo.%s(leftSlice, leftOffset, %s), tupleInfo.%s(rightSlice, rightOffset, %s));", getter, field, getter, field)
+                    .pushThis()
+                    .getField(tupleInfoField)
+                    .getVariable("leftSlice")
+                    .getVariable("leftOffset")
+                    .push(field)
+                    .invokeVirtual(TupleInfo.class, getter, javaType, Slice.class, int.class, int.class)
+                    .pushThis()
+                    .getField(tupleInfoField)
+                    .getVariable("rightSlice")
+                    .getVariable("rightOffset")
+                    .push(field)
+                    .invokeVirtual(TupleInfo.class, getter, javaType, Slice.class, int.class, int.class);
+
+            if (javaType == Slice.class) {
+                body.invokeVirtual(Slice.class, "compareTo", int.class, Slice.class);
+            }
+            else {
+                body.invokeStatic(Primitives.wrap(javaType), "compare", int.class, javaType, javaType);
+            }
+            if (!sortOrder.get(i)) {
+                body.intNegate();
+            }
+
+            LabelNode equal = new LabelNode("equal_" + i);
+            body.putVariable(comparisonVariable)
+                    .comment("if (comparison != 0) return comparison;")
+                    .getVariable(comparisonVariable)
+                    .ifZeroGoto(equal)
+                    .getVariable(comparisonVariable)
+                    .retInt()
+                    .visitLabel(equal);
+        }
+        body.push(0).retInt();
+
+        Class<? extends RawTupleComparator> comparatorClass = defineClass(classDefinition, RawTupleComparator.class, createClassLoader());
+        try {
+            return comparatorClass.getConstructor(TupleInfo.class).newInstance(tupleInfo);
+        }
+        catch (ReflectiveOperationException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     public SourceOperatorFactory compileScanFilterAndProjectOperator(
             int operatorId,
             PlanNodeId sourceId,
@@ -313,7 +447,20 @@ public class ExpressionCompiler
             List<Expression> projections,
             Map<Input, Type> inputTypes)
     {
-        return sourceOperatorFactories.getUnchecked(new OperatorCacheKey(filter, projections, inputTypes, sourceId)).create(operatorId, dataStreamProvider, columns);
+        return compileScanFilterAndProjectOperator(operatorId, sourceId, dataStreamProvider, columns, filter, projections, inputTypes, ImmutableMap.<Integer, DynamicFilter>of());
+    }
+
+    public SourceOperatorFactory compileScanFilterAndProjectOperator(
+            int operatorId,
+            PlanNodeId sourceId,
+            DataStreamProvider dataStreamProvider,
+            List<ColumnHandle> columns,
+            Expression filter,
+            List<Expression> projections,
+            Map<Input, Type> inputTypes,
+            Map<Integer, DynamicFilter> dynamicFilters)
+    {
+        return sourceOperatorFactories.getUnchecked(new OperatorCacheKey(filter, projections, inputTypes, sourceId)).create(operatorId, dataStreamProvider, columns, dynamicFilters);
     }
 
     @VisibleForTesting
@@ -335,7 +482,8 @@ public class ExpressionCompiler
                     PlanNodeId.class,
                     DataStreamProvider.class,
                     Iterable.class,
-                    Iterable.class);
+                    Iterable.class,
+                    Map.class);
         }
         catch (NoSuchMethodException e) {
             throw Throwables.propagate(e);
@@ -370,16 +518,19 @@ public class ExpressionCompiler
                 arg("sourceId", PlanNodeId.class),
                 arg("dataStreamProvider", DataStreamProvider.class),
                 arg("columns", type(Iterable.class, ColumnHandle.class)),
-                arg("tupleInfos", type(Iterable.class, TupleInfo.class)))
+                arg("tupleInfos", type(Iterable.class, TupleInfo.class)),
+                arg("dynamicFilters", type(Map.class, Integer.class, DynamicFilter.class)))
                 .getBody()
-                .comment("super(operatorContext, sourceId, dataStreamProvider, columns, tupleInfos);")
+                .comment("super(operatorContext, sourceId, dataStreamProvider, columns, tupleInfos, dynamicFilters, deterministic);")
                 .pushThis()
                 .getVariable("operatorContext")
                 .getVariable("sourceId")
                 .getVariable("dataStreamProvider")
                 .getVariable("columns")
                 .getVariable("tupleInfos")
-                .invokeConstructor(AbstractScanFilterAndProjectOperator.class, OperatorContext.class, PlanNodeId.class, DataStreamProvider.class, Iterable.class, Iterable.class)
+                .getVariable("dynamicFilters")
+                .push(isDeterministic(filter, projections))
+                .invokeConstructor(AbstractScanFilterAndProjectOperator.class, OperatorContext.class, PlanNodeId.class, DataStreamProvider.class, Iterable.class, Iterable.class, Map.class, boolean.class)
                 .comment("this.session = operatorContext.getSession();")
                 .pushThis()
                 .getVariable("operatorContext")
@@ -795,6 +946,15 @@ public class ExpressionCompiler
         return body.getType();
     }
 
+    /**
+     * Returns true if the results of the filter and projections only depend on their inputs, so the
+     * results for a dictionary entry or a run can be reused for all positions with that value.
+     */
+    private static boolean isDeterministic(Expression filter, List<Expression> projections)
+    {
+        return DeterminismEvaluator.isDeterministic(filter) && Iterables.all(projections, DeterminismEvaluator.deterministic());
+    }
+
     private static class TypedOperatorClass
     {
         private final Class<? extends Operator> operatorClass;
@@ -948,6 +1108,66 @@ public class ExpressionCompiler
         }
     }
 
+    private static final class TupleComparatorCacheKey
+    {
+        private final TupleInfo tupleInfo;
+        private final List<Integer> sortFields;
+        private final List<Boolean> sortOrder;
+
+        private TupleComparatorCacheKey(TupleInfo tupleInfo, List<Integer> sortFields, List<Boolean> sortOrder)
+        {
+            this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+            this.sortFields = ImmutableList.copyOf(checkNotNull(sortFields, "sortFields is null"));
+            this.sortOrder = ImmutableList.copyOf(checkNotNull(sortOrder, "sortOrder is null"));
+        }
+
+        private TupleInfo getTupleInfo()
+        {
+            return tupleInfo;
+        }
+
+        private List<Integer> getSortFields()
+        {
+            return sortFields;
+        }
+
+        private List<Boolean> getSortOrder()
+        {
+            return sortOrder;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(tupleInfo, sortFields, sortOrder);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final TupleComparatorCacheKey other = (TupleComparatorCacheKey) obj;
+            return Objects.equal(this.tupleInfo, other.tupleInfo) &&
+                    Objects.equal(this.sortFields, other.sortFields) &&
+                    Objects.equal(this.sortOrder, other.sortOrder);
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("tupleInfo", tupleInfo)
+                    .add("sortFields", sortFields)
+                    .add("sortOrder", sortOrder)
+                    .toString();
+        }
+    }
+
     private static class FilterAndProjectOperatorFactoryFactory
     {
         private final Constructor<? extends Operator> constructor;
@@ -1028,9 +1248,9 @@ public class ExpressionCompiler
             this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
         }
 
-        public SourceOperatorFactory create(int operatorId, DataStreamProvider dataStreamProvider, List<ColumnHandle> columns)
+        public SourceOperatorFactory create(int operatorId, DataStreamProvider dataStreamProvider, List<ColumnHandle> columns, Map<Integer, DynamicFilter> dynamicFilters)
         {
-            return new ScanFilterAndProjectOperatorFactory(constructor, operatorId, sourceId, dataStreamProvider, columns, tupleInfos);
+            return new ScanFilterAndProjectOperatorFactory(constructor, operatorId, sourceId, dataStreamProvider, columns, tupleInfos, dynamicFilters);
         }
     }
 
@@ -1043,6 +1263,7 @@ public class ExpressionCompiler
         private final DataStreamProvider dataStreamProvider;
         private final List<ColumnHandle> columns;
         private final List<TupleInfo> tupleInfos;
+        private final Map<Integer, DynamicFilter> dynamicFilters;
         private boolean closed;
 
         public ScanFilterAndProjectOperatorFactory(
@@ -1051,7 +1272,8 @@ public class ExpressionCompiler
                 PlanNodeId sourceId,
                 DataStreamProvider dataStreamProvider,
                 List<ColumnHandle> columns,
-                List<TupleInfo> tupleInfos)
+                List<TupleInfo> tupleInfos,
+                Map<Integer, DynamicFilter> dynamicFilters)
         {
             this.constructor = checkNotNull(constructor, "constructor is null");
             this.operatorId = operatorId;
@@ -1059,6 +1281,7 @@ public class ExpressionCompiler
             this.dataStreamProvider = checkNotNull(dataStreamProvider, "dataStreamProvider is null");
             this.columns = ImmutableList.copyOf(checkNotNull(columns, "columns is null"));
             this.tupleInfos = ImmutableList.copyOf(checkNotNull(tupleInfos, "tupleInfos is null"));
+            this.dynamicFilters = ImmutableMap.copyOf(checkNotNull(dynamicFilters, "dynamicFilters is null"));
         }
 
         @Override
@@ -1079,7 +1302,7 @@ public class ExpressionCompiler
             checkState(!closed, "Factory is already closed");
             OperatorContext operatorContext = driverContext.addOperatorContext(operatorId, constructor.getDeclaringClass().getSimpleName());
             try {
-                return constructor.newInstance(operatorContext, sourceId, dataStreamProvider, columns, tupleInfos);
+                return constructor.newInstance(operatorContext, sourceId, dataStreamProvider, columns, tupleInfos, dynamicFilters);
             }
             catch (InvocationTargetException e) {
                 throw Throwables.propagate(e.getCause());
@@ -45,8 +45,10 @@ import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.FunctionCall;
 import com.facebook.presto.sql.tree.QualifiedName;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
 import java.util.HashMap;
@@ -62,13 +64,21 @@ import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.SINGLE;
  */
 public class DistributedLogicalPlanner
 {
+    /**
+     * Joins whose build side is estimated to produce at most this many rows are
+     * broadcast even when distributed joins are enabled.
+     */
+    private static final long MAX_BROADCAST_JOIN_ROWS = 1_000_000;
+
     private final Metadata metadata;
     private final PlanNodeIdAllocator idAllocator;
+    private final boolean distributedJoinsEnabled;
 
-    public DistributedLogicalPlanner(Metadata metadata, PlanNodeIdAllocator idAllocator)
+    public DistributedLogicalPlanner(Metadata metadata, PlanNodeIdAllocator idAllocator, boolean distributedJoinsEnabled)
     {
         this.metadata = metadata;
         this.idAllocator = idAllocator;
+        this.distributedJoinsEnabled = distributedJoinsEnabled;
     }
 
     public SubPlan createSubPlans(Plan plan, boolean createSingleNodePlan)
@@ -99,11 +109,15 @@ public class DistributedLogicalPlanner
         @Override
         public SubPlanBuilder visitAggregation(AggregationNode node, Void context)
         {
+            // the groups are estimated before the source is replaced by an exchange, so the
+            // workers can size the hash table without access to the table statistics
+            Long expectedGroups = estimate(new RowCountEstimator(metadata).estimateGroupCount(node.getSource(), node.getGroupBy()));
+
             SubPlanBuilder current = node.getSource().accept(this, context);
 
             if (!current.isDistributed()) {
                 // add the aggregation node as the root of the current fragment
-                current.setRoot(new AggregationNode(node.getId(), current.getRoot(), node.getGroupBy(), node.getAggregations(), node.getFunctions(), SINGLE));
+                current.setRoot(new AggregationNode(node.getId(), current.getRoot(), node.getGroupBy(), node.getAggregations(), node.getFunctions(), SINGLE, expectedGroups));
                 return current;
             }
 
@@ -112,10 +126,10 @@ public class DistributedLogicalPlanner
             List<Symbol> groupBy = node.getGroupBy();
 
             // else, we need to "close" the current fragment and create an unpartitioned fragment for the final aggregation
-            return addDistributedAggregation(current, aggregations, functions, groupBy);
+            return addDistributedAggregation(current, aggregations, functions, groupBy, expectedGroups);
         }
 
-        private SubPlanBuilder addDistributedAggregation(SubPlanBuilder plan, Map<Symbol, FunctionCall> aggregations, Map<Symbol, FunctionHandle> functions, List<Symbol> groupBy)
+        private SubPlanBuilder addDistributedAggregation(SubPlanBuilder plan, Map<Symbol, FunctionCall> aggregations, Map<Symbol, FunctionHandle> functions, List<Symbol> groupBy, Long expectedGroups)
         {
             Map<Symbol, FunctionCall> finalCalls = new HashMap<>();
             Map<Symbol, FunctionCall> intermediateCalls = new HashMap<>();
@@ -133,13 +147,14 @@ public class DistributedLogicalPlanner
             }
 
             // create partial aggregation plan
-            AggregationNode partialAggregation = new AggregationNode(idAllocator.getNextId(), plan.getRoot(), groupBy, intermediateCalls, intermediateFunctions, PARTIAL);
+            AggregationNode partialAggregation = new AggregationNode(idAllocator.getNextId(), plan.getRoot(), groupBy, intermediateCalls, intermediateFunctions, PARTIAL, expectedGroups);
             plan.setRoot(new SinkNode(idAllocator.getNextId(), partialAggregation, partialAggregation.getOutputSymbols()));
             plan.setOutputPartitioning(OutputPartitioning.HASH);
+            plan.setPartitionBy(groupBy);
 
             // create final aggregation plan
             ExchangeNode source = new ExchangeNode(idAllocator.getNextId(), plan.getId(), plan.getRoot().getOutputSymbols());
-            AggregationNode finalAggregation = new AggregationNode(idAllocator.getNextId(), source, groupBy, finalCalls, functions, FINAL);
+            AggregationNode finalAggregation = new AggregationNode(idAllocator.getNextId(), source, groupBy, finalCalls, functions, FINAL, expectedGroups);
 
             if (groupBy.isEmpty()) {
                 plan = createSingleNodePlan(finalAggregation)
@@ -157,12 +172,22 @@ public class DistributedLogicalPlanner
         {
             SubPlanBuilder current = node.getSource().accept(this, context);
 
-            if (current.isDistributed()) {
+            if (current.isDistributed() && !isPartitionedByWindow(current, node.getPartitionBy())) {
                 current.setRoot(new SinkNode(idAllocator.getNextId(), current.getRoot(), current.getRoot().getOutputSymbols()));
+                ExchangeNode source = new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols());
 
-                // create a new non-partitioned fragment
-                current = createSingleNodePlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols()))
-                        .addChild(current.build());
+                if (node.getPartitionBy().isEmpty()) {
+                    // create a new non-partitioned fragment
+                    current = createSingleNodePlan(source)
+                            .addChild(current.build());
+                }
+                else {
+                    // all rows of a window partition are sent to the same task, so each task evaluates its own partitions
+                    current.setOutputPartitioning(OutputPartitioning.HASH)
+                            .setPartitionBy(node.getPartitionBy());
+                    current = createFixedDistributionPlan(source)
+                            .addChild(current.build());
+                }
             }
 
             current.setRoot(new WindowNode(node.getId(), current.getRoot(), node.getPartitionBy(), node.getOrderBy(), node.getOrderings(), node.getWindowFunctions(), node.getFunctionHandles()));
@@ -170,6 +195,25 @@ public class DistributedLogicalPlanner
             return current;
         }
 
+        /**
+         * Returns true if the fragment evaluates a window partitioned on the same
+         * symbols, possibly under projections and filters, in which case the rows of
+         * each window partition are already in one task.
+         */
+        private boolean isPartitionedByWindow(SubPlanBuilder current, List<Symbol> partitionBy)
+        {
+            if (current.getDistribution() != PlanDistribution.FIXED || partitionBy.isEmpty()) {
+                return false;
+            }
+
+            PlanNode root = current.getRoot();
+            while (root instanceof ProjectNode || root instanceof FilterNode) {
+                root = Iterables.getOnlyElement(root.getSources());
+            }
+            return root instanceof WindowNode &&
+                    ImmutableSet.copyOf(((WindowNode) root).getPartitionBy()).equals(ImmutableSet.copyOf(partitionBy));
+        }
+
         @Override
         public SubPlanBuilder visitFilter(FilterNode node, Void context)
         {
@@ -220,10 +264,12 @@ public class DistributedLogicalPlanner
             SubPlanBuilder current = node.getSource().accept(this, context);
 
             if (current.isDistributed()) {
-                current.setRoot(new SinkNode(idAllocator.getNextId(), current.getRoot(), current.getRoot().getOutputSymbols()));
+                // sort in every task, and merge the sorted outputs in a new non-partitioned fragment
+                SortNode sort = new SortNode(node.getId(), current.getRoot(), node.getOrderBy(), node.getOrderings());
+                current.setRoot(new SinkNode(idAllocator.getNextId(), sort, sort.getOutputSymbols()));
 
-                // create a new non-partitioned fragment
-                current = createSingleNodePlan(new ExchangeNode(idAllocator.getNextId(), current.getId(), current.getRoot().getOutputSymbols()))
+                ExchangeNode merge = new ExchangeNode(idAllocator.getNextId(), current.getId(), sort.getOutputSymbols(), node.getOrderBy(), node.getOrderings());
+                return createSingleNodePlan(merge)
                         .addChild(current.build());
             }
 
@@ -336,7 +382,8 @@ public class DistributedLogicalPlanner
                 return addDistributedAggregation(subPlanBuilder,
                         ImmutableMap.of(node.getOutput(), aggregate),
                         ImmutableMap.of(node.getOutput(), sum.getHandle()),
-                        ImmutableList.<Symbol>of());
+                        ImmutableList.<Symbol>of(),
+                        null);
             }
 
             return subPlanBuilder;
@@ -345,10 +392,17 @@ public class DistributedLogicalPlanner
         @Override
         public SubPlanBuilder visitJoin(JoinNode node, Void context)
         {
+            PlanNode buildNode = node.getType() == JoinNode.Type.RIGHT ? node.getLeft() : node.getRight();
+            Long expectedBuildRows = estimate(new RowCountEstimator(metadata).estimateRowCount(buildNode));
+
             SubPlanBuilder left = node.getLeft().accept(this, context);
             SubPlanBuilder right = node.getRight().accept(this, context);
 
             if (left.isDistributed() || right.isDistributed()) {
+                if (isPartitionedJoin(node, expectedBuildRows)) {
+                    return addPartitionedJoin(node, left, right, expectedBuildRows);
+                }
+
                 switch (node.getType()) {
                     case INNER:
                     case LEFT:
@@ -357,7 +411,8 @@ public class DistributedLogicalPlanner
                                 node.getType(),
                                 left.getRoot(),
                                 new ExchangeNode(idAllocator.getNextId(), right.getId(), right.getRoot().getOutputSymbols()),
-                                node.getCriteria()));
+                                node.getCriteria(),
+                                expectedBuildRows));
                         left.addChild(right.build());
 
                         return left;
@@ -367,7 +422,8 @@ public class DistributedLogicalPlanner
                                 node.getType(),
                                 new ExchangeNode(idAllocator.getNextId(), left.getId(), left.getRoot().getOutputSymbols()),
                                 right.getRoot(),
-                                node.getCriteria()));
+                                node.getCriteria(),
+                                expectedBuildRows));
                         right.addChild(left.build());
 
                         return right;
@@ -376,15 +432,64 @@ public class DistributedLogicalPlanner
                 }
             }
             else {
-                JoinNode join = new JoinNode(node.getId(), node.getType(), left.getRoot(), right.getRoot(), node.getCriteria());
+                JoinNode join = new JoinNode(node.getId(), node.getType(), left.getRoot(), right.getRoot(), node.getCriteria(), expectedBuildRows);
                 return createSingleNodePlan(join)
                         .setChildren(Iterables.concat(left.getChildren(), right.getChildren()));
             }
         }
 
+        /**
+         * A join is partitioned on the join keys, instead of broadcasting the build
+         * side to every task of the probe side, unless the build side is estimated to
+         * be small.  Rows are routed by the raw value of the first join key, so the
+         * first keys of both sides must have the same type.
+         */
+        private boolean isPartitionedJoin(JoinNode node, Long expectedBuildRows)
+        {
+            if (!distributedJoinsEnabled || node.getCriteria().isEmpty()) {
+                return false;
+            }
+
+            JoinNode.EquiJoinClause clause = node.getCriteria().get(0);
+            if (allocator.getTypes().get(clause.getLeft()) != allocator.getTypes().get(clause.getRight())) {
+                return false;
+            }
+
+            return expectedBuildRows == null || expectedBuildRows > MAX_BROADCAST_JOIN_ROWS;
+        }
+
+        private SubPlanBuilder addPartitionedJoin(JoinNode node, SubPlanBuilder left, SubPlanBuilder right, Long expectedBuildRows)
+        {
+            JoinNode.EquiJoinClause clause = node.getCriteria().get(0);
+
+            left.setRoot(new SinkNode(idAllocator.getNextId(), left.getRoot(), left.getRoot().getOutputSymbols()))
+                    .setOutputPartitioning(OutputPartitioning.HASH)
+                    .setPartitionBy(ImmutableList.of(clause.getLeft()));
+
+            right.setRoot(new SinkNode(idAllocator.getNextId(), right.getRoot(), right.getRoot().getOutputSymbols()))
+                    .setOutputPartitioning(OutputPartitioning.HASH)
+                    .setPartitionBy(ImmutableList.of(clause.getRight()));
+
+            // both sides are partitioned over the same nodes, so each task joins one partition of the key space
+            JoinNode join = new JoinNode(node.getId(),
+                    node.getType(),
+                    new ExchangeNode(idAllocator.getNextId(), left.getId(), left.getRoot().getOutputSymbols()),
+                    new ExchangeNode(idAllocator.getNextId(), right.getId(), right.getRoot().getOutputSymbols()),
+                    node.getCriteria(),
+                    expectedBuildRows);
+
+            return createFixedDistributionPlan(join)
+                    .addChild(left.build())
+                    .addChild(right.build());
+        }
+
         @Override
         public SubPlanBuilder visitSemiJoin(SemiJoinNode node, Void context)
         {
+            // the filtering source is estimated before it is replaced by an exchange, so the
+            // workers can size the set without access to the table statistics
+            Long expectedFilteringValues = estimateFilteringValues(node.getFilteringSource(), node.getFilteringSourceJoinSymbol());
+
             SubPlanBuilder source = node.getSource().accept(this, context);
             SubPlanBuilder filteringSource = node.getFilteringSource().accept(this, context);
 
@@ -395,18 +500,39 @@ public class DistributedLogicalPlanner
                         new ExchangeNode(idAllocator.getNextId(), filteringSource.getId(), filteringSource.getRoot().getOutputSymbols()),
                         node.getSourceJoinSymbol(),
                         node.getFilteringSourceJoinSymbol(),
-                        node.getSemiJoinOutput()));
+                        node.getSemiJoinOutput(),
+                        expectedFilteringValues));
                 source.addChild(filteringSource.build());
 
                 return source;
             }
             else {
-                SemiJoinNode semiJoinNode = new SemiJoinNode(node.getId(), source.getRoot(), filteringSource.getRoot(), node.getSourceJoinSymbol(), node.getFilteringSourceJoinSymbol(), node.getSemiJoinOutput());
+                SemiJoinNode semiJoinNode = new SemiJoinNode(
+                        node.getId(),
+                        source.getRoot(),
+                        filteringSource.getRoot(),
+                        node.getSourceJoinSymbol(),
+                        node.getFilteringSourceJoinSymbol(),
+                        node.getSemiJoinOutput(),
+                        expectedFilteringValues);
                 return createSingleNodePlan(semiJoinNode)
                         .setChildren(Iterables.concat(source.getChildren(), filteringSource.getChildren()));
             }
         }
 
+        private Long estimateFilteringValues(PlanNode filteringSource, Symbol filteringSymbol)
+        {
+            return estimate(new RowCountEstimator(metadata).estimateGroupCount(filteringSource, ImmutableList.of(filteringSymbol)));
+        }
+
+        private Long estimate(Optional<Double> estimate)
+        {
+            if (!estimate.isPresent()) {
+                return null;
+            }
+            return (long) Math.ceil(estimate.get());
+        }
+
         @Override
         public SubPlanBuilder visitUnion(UnionNode node, Void context)
         {
@@ -13,12 +13,14 @@
  */
 package com.facebook.presto.sql.planner;
 
+import com.facebook.presto.execution.TaskManagerConfig;
 import com.facebook.presto.metadata.FunctionHandle;
 import com.facebook.presto.metadata.LocalStorageManager;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.operator.AggregationFunctionDefinition;
 import com.facebook.presto.operator.AggregationOperator.AggregationOperatorFactory;
 import com.facebook.presto.operator.DriverFactory;
+import com.facebook.presto.operator.DynamicFilter;
 import com.facebook.presto.operator.ExchangeClient;
 import com.facebook.presto.operator.ExchangeOperator.ExchangeOperatorFactory;
 import com.facebook.presto.operator.FilterAndProjectOperator.FilterAndProjectOperatorFactory;
@@ -33,6 +35,7 @@ import com.facebook.presto.operator.HashSemiJoinOperator.HashSemiJoinOperatorFac
 import com.facebook.presto.operator.InMemoryExchange;
 import com.facebook.presto.operator.InMemoryExchangeSourceOperator.InMemoryExchangeSourceOperatorFactory;
 import com.facebook.presto.operator.LimitOperator.LimitOperatorFactory;
+import com.facebook.presto.operator.MergeOperator.MergeOperatorFactory;
 import com.facebook.presto.operator.OperatorFactory;
 import com.facebook.presto.operator.OrderByOperator.InMemoryOrderByOperatorFactory;
 import com.facebook.presto.operator.OutputFactory;
@@ -61,6 +64,7 @@ import com.facebook.presto.sql.planner.plan.LimitNode;
 import com.facebook.presto.sql.planner.plan.MaterializedViewWriterNode;
 import com.facebook.presto.sql.planner.plan.OutputNode;
 import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
 import com.facebook.presto.sql.planner.plan.PlanVisitor;
 import com.facebook.presto.sql.planner.plan.ProjectNode;
 import com.facebook.presto.sql.planner.plan.SampleNode;
@@ -80,13 +84,13 @@ import com.facebook.presto.sql.tree.FunctionCall;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
 import com.facebook.presto.sql.tree.SortItem;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
+import com.facebook.presto.tuple.RawTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
-import com.facebook.presto.tuple.TupleReadable;
 import com.facebook.presto.util.IterableTransformer;
 import com.facebook.presto.util.MoreFunctions;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
@@ -101,12 +105,16 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import io.airlift.log.Logger;
 import io.airlift.node.NodeInfo;
+import io.airlift.units.DataSize;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -121,13 +129,20 @@ import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.right
 import static com.facebook.presto.sql.tree.Input.fieldGetter;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.equalTo;
 import static com.google.common.base.Predicates.not;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
 
 public class LocalExecutionPlanner
 {
     private static final Logger log = Logger.get(LocalExecutionPlanner.class);
 
+    private static final int DEFAULT_EXPECTED_GROUPS = 10_000;
+    private static final int DEFAULT_EXPECTED_POSITIONS = 100_000;
+    private static final int MAX_EXPECTED_POSITIONS = 1_000_000;
+    private static final DataSize MAX_HASH_BUILD_EXCHANGE_BUFFER_SIZE = new DataSize(16, MEGABYTE);
+
     private final NodeInfo nodeInfo;
     private final Metadata metadata;
 
@@ -136,6 +151,7 @@ public class LocalExecutionPlanner
     private final RecordSinkManager recordSinkManager;
     private final Supplier<ExchangeClient> exchangeClientSupplier;
     private final ExpressionCompiler compiler;
+    private final int hashBuildConcurrency;
 
     @Inject
     public LocalExecutionPlanner(NodeInfo nodeInfo,
@@ -144,7 +160,8 @@ public class LocalExecutionPlanner
             LocalStorageManager storageManager,
             RecordSinkManager recordSinkManager,
             Supplier<ExchangeClient> exchangeClientSupplier,
-            ExpressionCompiler compiler)
+            ExpressionCompiler compiler,
+            TaskManagerConfig taskManagerConfig)
     {
         this.nodeInfo = checkNotNull(nodeInfo, "nodeInfo is null");
         this.dataStreamProvider = dataStreamProvider;
@@ -153,14 +170,18 @@ public class LocalExecutionPlanner
         this.storageManager = checkNotNull(storageManager, "storageManager is null");
         this.recordSinkManager = checkNotNull(recordSinkManager, "recordSinkManager is null");
         this.compiler = checkNotNull(compiler, "compiler is null");
+
+        checkNotNull(taskManagerConfig, "taskManagerConfig is null");
+        this.hashBuildConcurrency = taskManagerConfig.getHashBuildConcurrency();
     }
 
     public LocalExecutionPlan plan(Session session,
             PlanNode plan,
             Map<Symbol, Type> types,
-            OutputFactory outputOperatorFactory)
+            OutputFactory outputOperatorFactory,
+            Optional<File> spillDirectory)
     {
-        LocalExecutionPlanContext context = new LocalExecutionPlanContext(session, types);
+        LocalExecutionPlanContext context = new LocalExecutionPlanContext(session, types, spillDirectory);
 
         PhysicalOperation physicalOperation = plan.accept(new Visitor(), context);
         DriverFactory driverFactory = new DriverFactory(
@@ -179,22 +200,28 @@ public class LocalExecutionPlanner
     {
         private final Session session;
         private final Map<Symbol, Type> types;
+        private final Optional<File> spillDirectory;
 
         private final List<DriverFactory> driverFactories;
 
+        // join key filters for the table scans of the plan, by scan column
+        private final Map<PlanNodeId, Map<Integer, DynamicFilter>> dynamicFilters;
+
         private int nextOperatorId;
         private boolean inputDriver = true;
 
-        public LocalExecutionPlanContext(Session session, Map<Symbol, Type> types)
+        public LocalExecutionPlanContext(Session session, Map<Symbol, Type> types, Optional<File> spillDirectory)
         {
-            this(session, types, new ArrayList<DriverFactory>());
+            this(session, types, spillDirectory, new ArrayList<DriverFactory>(), new HashMap<PlanNodeId, Map<Integer, DynamicFilter>>());
         }
 
-        private LocalExecutionPlanContext(Session session, Map<Symbol, Type> types, List<DriverFactory> driverFactories)
+        private LocalExecutionPlanContext(Session session, Map<Symbol, Type> types, Optional<File> spillDirectory, List<DriverFactory> driverFactories, Map<PlanNodeId, Map<Integer, DynamicFilter>> dynamicFilters)
         {
             this.session = session;
             this.types = types;
+            this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is null");
             this.driverFactories = driverFactories;
+            this.dynamicFilters = dynamicFilters;
         }
 
         public void addDriverFactory(DriverFactory driverFactory)
@@ -217,6 +244,11 @@ public class LocalExecutionPlanner
             return types;
         }
 
+        public Optional<File> getSpillDirectory()
+        {
+            return spillDirectory;
+        }
+
         private int getNextOperatorId()
         {
             return nextOperatorId++;
@@ -234,7 +266,28 @@ public class LocalExecutionPlanner
 
         public LocalExecutionPlanContext createSubContext()
         {
-            return new LocalExecutionPlanContext(session, types, driverFactories);
+            return new LocalExecutionPlanContext(session, types, spillDirectory, driverFactories, dynamicFilters);
+        }
+
+        public void addDynamicFilter(PlanNodeId scanId, int column, DynamicFilter dynamicFilter)
+        {
+            Map<Integer, DynamicFilter> scanFilters = dynamicFilters.get(scanId);
+            if (scanFilters == null) {
+                scanFilters = new HashMap<>();
+                dynamicFilters.put(scanId, scanFilters);
+            }
+            if (!scanFilters.containsKey(column)) {
+                scanFilters.put(column, checkNotNull(dynamicFilter, "dynamicFilter is null"));
+            }
+        }
+
+        public Map<Integer, DynamicFilter> getDynamicFilters(PlanNodeId scanId)
+        {
+            Map<Integer, DynamicFilter> scanFilters = dynamicFilters.get(scanId);
+            if (scanFilters == null) {
+                return ImmutableMap.of();
+            }
+            return ImmutableMap.copyOf(scanFilters);
         }
     }
 
@@ -261,7 +314,24 @@ public class LocalExecutionPlanner
         {
             List<TupleInfo> tupleInfos = getSourceOperatorTupleInfos(node, context.getTypes());
 
-            OperatorFactory operatorFactory = new ExchangeOperatorFactory(context.getNextOperatorId(), node.getId(), exchangeClientSupplier, tupleInfos);
+            OperatorFactory operatorFactory;
+            if (node.isOrdered()) {
+                // the remote outputs are sorted, so merge them rather than interleave them
+                List<Symbol> orderBySymbols = node.getOrderBy();
+                int[] sortChannels = new int[orderBySymbols.size()];
+                boolean[] sortOrder = new boolean[orderBySymbols.size()];
+                for (int i = 0; i < sortChannels.length; i++) {
+                    Symbol symbol = orderBySymbols.get(i);
+
+                    sortChannels[i] = node.getOutputSymbols().indexOf(symbol);
+                    sortOrder[i] = (node.getOrderings().get(symbol) == SortItem.Ordering.ASCENDING);
+                }
+
+                operatorFactory = new MergeOperatorFactory(context.getNextOperatorId(), node.getId(), exchangeClientSupplier, tupleInfos, sortChannels, sortOrder);
+            }
+            else {
+                operatorFactory = new ExchangeOperatorFactory(context.getNextOperatorId(), node.getId(), exchangeClientSupplier, tupleInfos);
+            }
 
             // Fow now, we assume that remote plans always produce one symbol per channel. TODO: remove this assumption
             ImmutableMultimap.Builder<Symbol, Input> outputMappings = ImmutableMultimap.builder();
@@ -374,11 +444,77 @@ public class LocalExecutionPlanner
                     partitionFields,
                     sortFields,
                     sortOrder,
-                    1_000_000);
+                    1_000_000,
+                    context.getSpillDirectory(),
+                    isPreSorted(node));
 
             return new PhysicalOperation(operatorFactory, outputMappings.build(), source);
         }
 
+        /**
+         * Returns true if the source of the window produces its rows grouped by the
+         * partition symbols and sorted by the order symbols, which is the case when
+         * the source is, possibly under projections and filters, a window or a sort
+         * that starts with the same ordering.
+         */
+        private boolean isPreSorted(WindowNode node)
+        {
+            PlanNode source = node.getSource();
+            while (source instanceof ProjectNode || source instanceof FilterNode) {
+                source = Iterables.getOnlyElement(source.getSources());
+            }
+
+            // the ordering of the rows produced by the source
+            ImmutableList.Builder<Symbol> sourceOrderBy = ImmutableList.builder();
+            ImmutableList.Builder<SortItem.Ordering> sourceOrderings = ImmutableList.builder();
+            if (source instanceof WindowNode) {
+                WindowNode window = (WindowNode) source;
+                for (Symbol symbol : window.getPartitionBy()) {
+                    sourceOrderBy.add(symbol);
+                    sourceOrderings.add(SortItem.Ordering.ASCENDING);
+                }
+                for (Symbol symbol : window.getOrderBy()) {
+                    sourceOrderBy.add(symbol);
+                    sourceOrderings.add(window.getOrderings().get(symbol));
+                }
+            }
+            else if (source instanceof SortNode) {
+                SortNode sort = (SortNode) source;
+                for (Symbol symbol : sort.getOrderBy()) {
+                    sourceOrderBy.add(symbol);
+                    sourceOrderings.add(sort.getOrderings().get(symbol));
+                }
+            }
+            else {
+                return false;
+            }
+
+            return isOrderedBy(sourceOrderBy.build(), sourceOrderings.build(), node);
+        }
+
+        private boolean isOrderedBy(List<Symbol> sourceOrderBy, List<SortItem.Ordering> sourceOrderings, WindowNode node)
+        {
+            int partitionCount = node.getPartitionBy().size();
+            List<Symbol> orderBy = node.getOrderBy();
+            if (sourceOrderBy.size() < partitionCount + orderBy.size()) {
+                return false;
+            }
+
+            // the rows are grouped by any permutation of the partition symbols
+            if (!ImmutableSet.copyOf(sourceOrderBy.subList(0, partitionCount)).equals(ImmutableSet.copyOf(node.getPartitionBy()))) {
+                return false;
+            }
+
+            // and must be sorted by the order symbols within each partition
+            for (int i = 0; i < orderBy.size(); i++) {
+                Symbol symbol = orderBy.get(i);
+                if (!symbol.equals(sourceOrderBy.get(partitionCount + i)) || node.getOrderings().get(symbol) != sourceOrderings.get(partitionCount + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         @Override
         public PhysicalOperation visitTopN(TopNNode node, LocalExecutionPlanContext context)
         {
@@ -392,13 +528,13 @@ public class LocalExecutionPlanner
             int orderByChannel = Iterables.getOnlyElement(getChannelSetForSymbols(orderBySymbols, source.getLayout()));
 
             List<Integer> sortFields = new ArrayList<>();
-            List<SortItem.Ordering> sortOrders = new ArrayList<>();
+            List<Boolean> sortOrder = new ArrayList<>();
             for (Symbol symbol : orderBySymbols) {
                 sortFields.add(getFirst(source.getLayout().get(symbol)).getField());
-                sortOrders.add(node.getOrderings().get(symbol));
+                sortOrder.add(node.getOrderings().get(symbol) == SortItem.Ordering.ASCENDING);
             }
 
-            Ordering<TupleReadable> ordering = Ordering.from(new FieldOrderedTupleComparator(sortFields, sortOrders));
+            RawTupleComparator comparator = compiler.compileTupleComparator(source.getTupleInfos().get(orderByChannel), sortFields, sortOrder);
 
             IdentityProjectionInfo mappings = computeIdentityMapping(node.getOutputSymbols(), source.getLayout(), context.getTypes());
 
@@ -407,7 +543,7 @@ public class LocalExecutionPlanner
                     (int) node.getCount(),
                     orderByChannel,
                     mappings.getProjections(),
-                    ordering,
+                    comparator,
                     node.isPartial());
 
             return new PhysicalOperation(operator, mappings.getOutputLayout(), source);
@@ -446,7 +582,8 @@ public class LocalExecutionPlanner
                     outputChannels,
                     10_000,
                     sortFields,
-                    sortOrder);
+                    sortOrder,
+                    context.getSpillDirectory());
 
             return new PhysicalOperation(operator, source.getLayout(), source);
         }
@@ -587,7 +724,8 @@ public class LocalExecutionPlanner
                             columns,
                             rewrittenFilter,
                             rewrittenProjections,
-                            sourceTypes);
+                            sourceTypes,
+                            context.getDynamicFilters(sourceNode.getId()));
 
                     return new PhysicalOperation(operatorFactory, outputMappings);
                 }
@@ -639,12 +777,14 @@ public class LocalExecutionPlanner
                         dataStreamProvider,
                         columns,
                         filterFunction,
-                        projectionFunctions);
+                        projectionFunctions,
+                        context.getDynamicFilters(sourceNode.getId()));
 
                 return new PhysicalOperation(operatorFactory, outputMappings);
             }
             else {
-                OperatorFactory operatorFactory = new FilterAndProjectOperatorFactory(context.getNextOperatorId(), filterFunction, projectionFunctions);
+                boolean deterministic = DeterminismEvaluator.isDeterministic(filterExpression) && Iterables.all(projectionExpressions, DeterminismEvaluator.deterministic());
+                OperatorFactory operatorFactory = new FilterAndProjectOperatorFactory(context.getNextOperatorId(), filterFunction, projectionFunctions, deterministic);
                 return new PhysicalOperation(operatorFactory, outputMappings, source);
             }
         }
@@ -677,6 +817,15 @@ public class LocalExecutionPlanner
         @Override
         public PhysicalOperation visitTableScan(TableScanNode node, LocalExecutionPlanContext context)
         {
+            // only the scan filter and project operator applies the join key filters
+            if (!context.getDynamicFilters(node.getId()).isEmpty()) {
+                List<Expression> projections = new ArrayList<>();
+                for (Symbol symbol : node.getOutputSymbols()) {
+                    projections.add(new QualifiedNameReference(symbol.toQualifiedName()));
+                }
+                return visitScanFilterAndProject(context, node, BooleanLiteral.TRUE_LITERAL, projections, node.getOutputSymbols());
+            }
+
             ImmutableMultimap.Builder<Symbol, Input> outputMappings = ImmutableMultimap.builder();
             List<ColumnHandle> columns = new ArrayList<>();
 
@@ -719,6 +868,9 @@ public class LocalExecutionPlanner
                 List<Symbol> buildSymbols,
                 LocalExecutionPlanContext context)
         {
+            // register the filter before the probe is planned, so the scan of the probe side can apply it
+            Optional<DynamicFilter> dynamicFilter = createDynamicFilter(node, probeNode, probeSymbols, buildSymbols, context);
+
             // Plan probe and introduce a projection to put all fields from the probe side into a single channel if necessary
             PhysicalOperation probeSource = probeNode.accept(this, context);
             probeSource = packIfNecessary(probeSymbols, probeSource, context.getTypes(), context);
@@ -731,20 +883,62 @@ public class LocalExecutionPlanner
             int probeChannel = Iterables.getOnlyElement(getChannelSetForSymbols(probeSymbols, probeSource.getLayout()));
             int buildChannel = Iterables.getOnlyElement(getChannelSetForSymbols(buildSymbols, buildSource.getLayout()));
 
-            HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
-                    buildContext.getNextOperatorId(),
-                    buildSource.getTupleInfos(),
-                    buildChannel,
-                    100_000);
+            // the filter is already registered with the probe scan, so it can not be dropped here: a single
+            // join key is always packed alone into the key channel, with the type checked by createDynamicFilter
+            if (dynamicFilter.isPresent()) {
+                TupleInfo buildKeyTupleInfo = buildSource.getTupleInfos().get(buildChannel);
+                checkState(buildKeyTupleInfo.equals(new TupleInfo(dynamicFilter.get().getType())), "Build key channel %s does not match the dynamic filter type %s", buildKeyTupleInfo, dynamicFilter.get().getType());
+            }
+
+            int expectedPositions = getExpectedPositions(node.getExpectedBuildRows(), DEFAULT_EXPECTED_POSITIONS);
+
+            HashBuilderOperatorFactory hashBuilderOperatorFactory;
+            if (hashBuildConcurrency > 1 && !context.getSpillDirectory().isPresent()) {
+                // the build source feeds an in memory exchange, which is drained by multiple hash build drivers
+                InMemoryExchange exchange = new InMemoryExchange(buildSource.getTupleInfos(), MAX_HASH_BUILD_EXCHANGE_BUFFER_SIZE);
+                context.addDriverFactory(new DriverFactory(
+                        buildContext.isInputDriver(),
+                        false,
+                        ImmutableList.<OperatorFactory>builder()
+                                .addAll(buildSource.getOperatorFactories())
+                                .add(exchange.createSinkFactory(buildContext.getNextOperatorId()))
+                                .build()));
+                exchange.noMoreSinkFactories();
+
+                OperatorFactory exchangeSource = new InMemoryExchangeSourceOperatorFactory(buildContext.getNextOperatorId(), exchange);
+                hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
+                        buildContext.getNextOperatorId(),
+                        buildSource.getTupleInfos(),
+                        buildChannel,
+                        // each build operator indexes its share of the build rows
+                        Math.max(expectedPositions / hashBuildConcurrency, 1),
+                        context.getSpillDirectory(),
+                        hashBuildConcurrency,
+                        dynamicFilter);
+                context.addDriverFactory(new DriverFactory(
+                        false,
+                        false,
+                        ImmutableList.of(exchangeSource, hashBuilderOperatorFactory),
+                        hashBuildConcurrency));
+            }
+            else {
+                hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
+                        buildContext.getNextOperatorId(),
+                        buildSource.getTupleInfos(),
+                        buildChannel,
+                        expectedPositions,
+                        context.getSpillDirectory(),
+                        1,
+                        dynamicFilter);
+                context.addDriverFactory(new DriverFactory(
+                        buildContext.isInputDriver(),
+                        false,
+                        ImmutableList.<OperatorFactory>builder()
+                                .addAll(buildSource.getOperatorFactories())
+                                .add(hashBuilderOperatorFactory)
+                                .build()));
+            }
             HashSupplier hashSupplier = hashBuilderOperatorFactory.getHashSupplier();
-            DriverFactory buildDriverFactory = new DriverFactory(
-                    buildContext.isInputDriver(),
-                    false,
-                    ImmutableList.<OperatorFactory>builder()
-                            .addAll(buildSource.getOperatorFactories())
-                            .add(hashBuilderOperatorFactory)
-                            .build());
-            context.addDriverFactory(buildDriverFactory);
 
             ImmutableMultimap.Builder<Symbol, Input> outputMappings = ImmutableMultimap.builder();
             outputMappings.putAll(probeSource.getLayout());
@@ -761,6 +955,55 @@ public class LocalExecutionPlanner
             return new PhysicalOperation(operator, outputMappings.build(), probeSource);
         }
 
+        /**
+         * Creates a filter of the build keys of an inner join for the table scan
+         * that produces the probe key, when the probe key is a column of the
+         * scan passed through filters and projections unchanged.
+         */
+        private Optional<DynamicFilter> createDynamicFilter(JoinNode node, PlanNode probeNode, List<Symbol> probeSymbols, List<Symbol> buildSymbols, LocalExecutionPlanContext context)
+        {
+            if (node.getType() != JoinNode.Type.INNER || probeSymbols.size() != 1) {
+                return Optional.absent();
+            }
+
+            // the build keys are collected from the key channel of the build side, which holds just
+            // the build key with this type, so both key types are checked before the filter is registered
+            TupleInfo.Type keyType = context.getTypes().get(Iterables.getOnlyElement(buildSymbols)).getRawType();
+            Symbol symbol = Iterables.getOnlyElement(probeSymbols);
+            if (!DynamicFilter.isSupported(keyType) || context.getTypes().get(symbol).getRawType() != keyType) {
+                return Optional.absent();
+            }
+
+            PlanNode source = probeNode;
+            while (!(source instanceof TableScanNode)) {
+                if (source instanceof FilterNode) {
+                    source = ((FilterNode) source).getSource();
+                }
+                else if (source instanceof ProjectNode) {
+                    Expression expression = ((ProjectNode) source).getOutputMap().get(symbol);
+                    if (!(expression instanceof QualifiedNameReference)) {
+                        return Optional.absent();
+                    }
+                    symbol = Symbol.fromQualifiedName(((QualifiedNameReference) expression).getName());
+                    source = ((ProjectNode) source).getSource();
+                }
+                else {
+                    return Optional.absent();
+                }
+            }
+
+            TableScanNode tableScan = (TableScanNode) source;
+            int column = tableScan.getOutputSymbols().indexOf(symbol);
+            if (column < 0) {
+                return Optional.absent();
+            }
+
+            int collectorCount = (hashBuildConcurrency > 1 && !context.getSpillDirectory().isPresent()) ? hashBuildConcurrency : 1;
+            DynamicFilter dynamicFilter = new DynamicFilter(keyType, collectorCount);
+            context.addDynamicFilter(tableScan.getId(), column, dynamicFilter);
+            return Optional.of(dynamicFilter);
+        }
+
         private HashJoinOperatorFactory createJoinOperator(
                 JoinNode.Type type,
                 HashSupplier hashSupplier,
@@ -794,7 +1037,8 @@ public class LocalExecutionPlanner
             int probeChannel = Iterables.getOnlyElement(getChannelSetForSymbols(ImmutableList.of(node.getSourceJoinSymbol()), probeSource.getLayout()));
             int buildChannel = Iterables.getOnlyElement(getChannelSetForSymbols(ImmutableList.of(node.getFilteringSourceJoinSymbol()), buildSource.getLayout()));
 
-            SetBuilderOperatorFactory setBuilderOperatorFactory = new SetBuilderOperatorFactory(buildContext.getNextOperatorId(), buildSource.getTupleInfos(), buildChannel, 100_000);
+            int expectedPositions = getExpectedPositions(node.getExpectedFilteringValues(), DEFAULT_EXPECTED_POSITIONS);
+            SetBuilderOperatorFactory setBuilderOperatorFactory = new SetBuilderOperatorFactory(buildContext.getNextOperatorId(), buildSource.getTupleInfos(), buildChannel, expectedPositions);
             SetSupplier setProvider = setBuilderOperatorFactory.getSetProvider();
             DriverFactory buildDriverFactory = new DriverFactory(
                     buildContext.isInputDriver(),
@@ -1079,12 +1323,25 @@ public class LocalExecutionPlanner
                     groupByChannel,
                     node.getStep(),
                     functionDefinitions,
-                    10_000);
+                    getExpectedPositions(node.getExpectedGroups(), DEFAULT_EXPECTED_GROUPS),
+                    context.getSpillDirectory());
 
             return new PhysicalOperation(operatorFactory, outputMappings.build(), source);
         }
     }
 
+    /**
+     * Sizes a hash table from the estimate of the coordinator, but does not trust
+     * a large estimate with a large allocation.
+     */
+    private static int getExpectedPositions(@Nullable Long estimate, int defaultPositions)
+    {
+        if (estimate == null) {
+            return defaultPositions;
+        }
+        return (int) Math.max(Math.min(estimate, MAX_EXPECTED_POSITIONS), 1);
+    }
+
     private static TableCommitter createTableCommitter(final TableCommitNode node, final Metadata metadata)
     {
         return new TableCommitter()
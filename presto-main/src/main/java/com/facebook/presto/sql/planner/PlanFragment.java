@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 @Immutable
@@ -62,6 +63,7 @@ public class PlanFragment
     private final List<PlanNode> sources;
     private final Set<PlanNodeId> sourceIds;
     private final OutputPartitioning outputPartitioning;
+    private final List<Symbol> partitionBy;
 
     @JsonCreator
     public PlanFragment(
@@ -70,7 +72,8 @@ public class PlanFragment
             @JsonProperty("symbols") Map<Symbol, Type> symbols,
             @JsonProperty("distribution") PlanDistribution distribution,
             @JsonProperty("partitionedSource") PlanNodeId partitionedSource,
-            @JsonProperty("outputPartitioning") OutputPartitioning outputPartitioning)
+            @JsonProperty("outputPartitioning") OutputPartitioning outputPartitioning,
+            @JsonProperty("partitionBy") List<Symbol> partitionBy)
     {
         this.id = checkNotNull(id, "id is null");
         this.root = checkNotNull(root, "root is null");
@@ -105,6 +108,8 @@ public class PlanFragment
         this.sourceIds = sourceIds.build();
 
         this.outputPartitioning = checkNotNull(outputPartitioning, "outputPartitioning is null");
+        this.partitionBy = ImmutableList.copyOf(checkNotNull(partitionBy, "partitionBy is null"));
+        checkArgument(root.getOutputSymbols().containsAll(this.partitionBy), "Partition by symbols (%s) not in fragment output (%s)", this.partitionBy, root.getOutputSymbols());
     }
 
     @JsonProperty
@@ -143,6 +148,16 @@ public class PlanFragment
         return outputPartitioning;
     }
 
+    /**
+     * The symbols a hash partitioned output is partitioned on.  An empty list
+     * means the output is partitioned on the first channel.
+     */
+    @JsonProperty
+    public List<Symbol> getPartitionBy()
+    {
+        return partitionBy;
+    }
+
     public List<TupleInfo> getTupleInfos()
     {
         return tupleInfos;
@@ -177,6 +192,7 @@ public class PlanFragment
                 .add("distribution", distribution)
                 .add("partitionedSource", partitionedSource)
                 .add("outputPartitioning", outputPartitioning)
+                .add("partitionBy", partitionBy)
                 .toString();
     }
 
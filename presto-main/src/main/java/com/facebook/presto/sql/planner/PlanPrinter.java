@@ -95,7 +95,7 @@ public class PlanPrinter
 
     public static String graphvizLogicalPlan(PlanNode plan, Map<Symbol, Type> types)
     {
-        PlanFragment fragment = new PlanFragment(new PlanFragmentId("graphviz_plan"), plan, types, PlanDistribution.NONE, plan.getId(), OutputPartitioning.NONE);
+        PlanFragment fragment = new PlanFragment(new PlanFragmentId("graphviz_plan"), plan, types, PlanDistribution.NONE, plan.getId(), OutputPartitioning.NONE, ImmutableList.<Symbol>of());
         return GraphvizPrinter.printLogical(ImmutableList.of(fragment));
     }
 
@@ -319,9 +319,23 @@ public class PlanPrinter
         }
 
         @Override
-        public Void visitExchange(ExchangeNode node, Integer indent)
+        public Void visitExchange(final ExchangeNode node, Integer indent)
         {
-            print(indent, "- Exchange[%s] => [%s]", node.getSourceFragmentIds(), formatOutputs(node.getOutputSymbols()));
+            if (node.isOrdered()) {
+                Iterable<String> keys = Iterables.transform(node.getOrderBy(), new Function<Symbol, String>()
+                {
+                    @Override
+                    public String apply(Symbol input)
+                    {
+                        return input + " " + node.getOrderings().get(input);
+                    }
+                });
+
+                print(indent, "- MergeExchange[%s by (%s)] => [%s]", node.getSourceFragmentIds(), Joiner.on(", ").join(keys), formatOutputs(node.getOutputSymbols()));
+            }
+            else {
+                print(indent, "- Exchange[%s] => [%s]", node.getSourceFragmentIds(), formatOutputs(node.getOutputSymbols()));
+            }
 
             return processExchange(node, indent + 1);
         }
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner;
+
+import com.facebook.presto.metadata.Metadata;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnStatistics;
+import com.facebook.presto.spi.TableStatistics;
+import com.facebook.presto.sql.planner.plan.AggregationNode;
+import com.facebook.presto.sql.planner.plan.FilterNode;
+import com.facebook.presto.sql.planner.plan.LimitNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.ProjectNode;
+import com.facebook.presto.sql.planner.plan.SampleNode;
+import com.facebook.presto.sql.planner.plan.SemiJoinNode;
+import com.facebook.presto.sql.planner.plan.SortNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode;
+import com.facebook.presto.sql.planner.plan.TopNNode;
+import com.facebook.presto.sql.planner.plan.WindowNode;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.QualifiedNameReference;
+import com.google.common.base.Optional;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Estimates the rows produced by a plan from the table statistics of the
+ * connectors.  The estimates are absent for plans that contain operations
+ * whose output can not be estimated.
+ */
+public class RowCountEstimator
+{
+    // the fraction of the rows assumed to pass a filter
+    private static final double FILTER_SELECTIVITY = 0.5;
+
+    private final Metadata metadata;
+
+    public RowCountEstimator(Metadata metadata)
+    {
+        this.metadata = checkNotNull(metadata, "metadata is null");
+    }
+
+    public Optional<Double> estimateRowCount(PlanNode node)
+    {
+        if (node instanceof TableScanNode) {
+            TableStatistics statistics = metadata.getTableStatistics(((TableScanNode) node).getTable());
+            if (!statistics.isRowCountKnown()) {
+                return Optional.absent();
+            }
+            return Optional.of((double) statistics.getRowCount());
+        }
+        if (node instanceof FilterNode) {
+            Optional<Double> rowCount = estimateRowCount(((FilterNode) node).getSource());
+            if (!rowCount.isPresent()) {
+                return rowCount;
+            }
+            return Optional.of(rowCount.get() * FILTER_SELECTIVITY);
+        }
+        if (node instanceof ProjectNode) {
+            return estimateRowCount(((ProjectNode) node).getSource());
+        }
+        if (node instanceof SampleNode) {
+            Optional<Double> rowCount = estimateRowCount(((SampleNode) node).getSource());
+            if (!rowCount.isPresent()) {
+                return rowCount;
+            }
+            return Optional.of(rowCount.get() * ((SampleNode) node).getSampleRatio());
+        }
+        if (node instanceof SortNode) {
+            return estimateRowCount(((SortNode) node).getSource());
+        }
+        if (node instanceof WindowNode) {
+            return estimateRowCount(((WindowNode) node).getSource());
+        }
+        if (node instanceof SemiJoinNode) {
+            return estimateRowCount(((SemiJoinNode) node).getSource());
+        }
+        if (node instanceof LimitNode) {
+            return estimateLimitedRowCount(((LimitNode) node).getSource(), ((LimitNode) node).getCount());
+        }
+        if (node instanceof TopNNode) {
+            return estimateLimitedRowCount(((TopNNode) node).getSource(), ((TopNNode) node).getCount());
+        }
+        if (node instanceof AggregationNode) {
+            return estimateGroupCount(((AggregationNode) node).getSource(), ((AggregationNode) node).getGroupBy());
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Estimates the groups produced by grouping the rows of a plan on the
+     * specified symbols.  The keys are assumed to be independent, so the
+     * estimate is the product of their distinct values, bounded by the rows
+     * of the plan.
+     */
+    public Optional<Double> estimateGroupCount(PlanNode node, List<Symbol> groupBy)
+    {
+        if (groupBy.isEmpty()) {
+            return Optional.of(1.0);
+        }
+        Optional<Double> rowCount = estimateRowCount(node);
+        if (!rowCount.isPresent()) {
+            return rowCount;
+        }
+
+        double groupCount = 1;
+        for (Symbol symbol : groupBy) {
+            Optional<Double> distinctValues = estimateDistinctValues(node, symbol);
+            if (!distinctValues.isPresent()) {
+                return rowCount;
+            }
+            groupCount *= distinctValues.get();
+        }
+        return Optional.of(Math.min(groupCount, rowCount.get()));
+    }
+
+    /**
+     * Estimates the distinct values of a symbol that is a table column passed
+     * through filters and projections unchanged.
+     */
+    public Optional<Double> estimateDistinctValues(PlanNode node, Symbol symbol)
+    {
+        if (node instanceof TableScanNode) {
+            TableScanNode tableScan = (TableScanNode) node;
+            ColumnHandle columnHandle = tableScan.getAssignments().get(symbol);
+            if (columnHandle == null) {
+                return Optional.absent();
+            }
+            ColumnStatistics statistics = metadata.getTableStatistics(tableScan.getTable()).getColumnStatistics(columnHandle);
+            if (!statistics.isDistinctValuesCountKnown()) {
+                return Optional.absent();
+            }
+            return Optional.of((double) statistics.getDistinctValuesCount());
+        }
+        if (node instanceof FilterNode) {
+            return estimateDistinctValues(((FilterNode) node).getSource(), symbol);
+        }
+        if (node instanceof ProjectNode) {
+            Expression expression = ((ProjectNode) node).getOutputMap().get(symbol);
+            if (expression instanceof QualifiedNameReference) {
+                return estimateDistinctValues(((ProjectNode) node).getSource(), Symbol.fromQualifiedName(((QualifiedNameReference) expression).getName()));
+            }
+        }
+        return Optional.absent();
+    }
+
+    private Optional<Double> estimateLimitedRowCount(PlanNode source, long count)
+    {
+        Optional<Double> rowCount = estimateRowCount(source);
+        if (!rowCount.isPresent()) {
+            return Optional.of((double) count);
+        }
+        return Optional.of(Math.min(rowCount.get(), count));
+    }
+}
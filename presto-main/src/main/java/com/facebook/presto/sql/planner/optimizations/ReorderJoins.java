@@ -0,0 +1,241 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner.optimizations;
+
+import com.facebook.presto.metadata.Metadata;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.PlanNodeIdAllocator;
+import com.facebook.presto.sql.planner.RowCountEstimator;
+import com.facebook.presto.sql.planner.Symbol;
+import com.facebook.presto.sql.planner.SymbolAllocator;
+import com.facebook.presto.sql.planner.plan.JoinNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.PlanNodeRewriter;
+import com.facebook.presto.sql.planner.plan.PlanRewriter;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reorders trees of inner joins using the table statistics of the connectors.
+ * <p/>
+ * The join inputs are joined in a left deep tree, so the first input is the probe
+ * side of every join and the other inputs are built into hash tables.  The largest
+ * input is placed first, and each following input is the connected input that
+ * produces the smallest estimated join result.  The joins are left in the written
+ * order unless the row count of every input can be estimated.
+ */
+public class ReorderJoins
+        extends PlanOptimizer
+{
+    private final Metadata metadata;
+
+    public ReorderJoins(Metadata metadata)
+    {
+        this.metadata = checkNotNull(metadata, "metadata is null");
+    }
+
+    @Override
+    public PlanNode optimize(PlanNode plan, Session session, Map<Symbol, Type> types, SymbolAllocator symbolAllocator, PlanNodeIdAllocator idAllocator)
+    {
+        checkNotNull(plan, "plan is null");
+        checkNotNull(session, "session is null");
+        checkNotNull(types, "types is null");
+        checkNotNull(symbolAllocator, "symbolAllocator is null");
+        checkNotNull(idAllocator, "idAllocator is null");
+
+        return PlanRewriter.rewriteWith(new Rewriter(metadata, idAllocator), plan);
+    }
+
+    private static class Rewriter
+            extends PlanNodeRewriter<Void>
+    {
+        private final RowCountEstimator estimator;
+        private final PlanNodeIdAllocator idAllocator;
+
+        private Rewriter(Metadata metadata, PlanNodeIdAllocator idAllocator)
+        {
+            this.estimator = new RowCountEstimator(checkNotNull(metadata, "metadata is null"));
+            this.idAllocator = checkNotNull(idAllocator, "idAllocator is null");
+        }
+
+        @Override
+        public PlanNode rewriteJoin(JoinNode node, Void context, PlanRewriter<Void> planRewriter)
+        {
+            if (node.getType() != JoinNode.Type.INNER) {
+                return planRewriter.defaultRewrite(node, context);
+            }
+
+            List<PlanNode> sources = new ArrayList<>();
+            List<JoinNode.EquiJoinClause> criteria = new ArrayList<>();
+            flattenInnerJoins(node, sources, criteria);
+
+            List<Double> rowCounts = new ArrayList<>();
+            for (PlanNode source : sources) {
+                Optional<Double> rowCount = estimator.estimateRowCount(source);
+                if (!rowCount.isPresent()) {
+                    return planRewriter.defaultRewrite(node, context);
+                }
+                rowCounts.add(rowCount.get());
+            }
+
+            List<Integer> order = chooseJoinOrder(sources, rowCounts, criteria);
+            if (order == null || order.equals(naturalOrder(sources.size()))) {
+                return planRewriter.defaultRewrite(node, context);
+            }
+
+            // build a left deep tree in the chosen order
+            PlanNode result = planRewriter.rewrite(sources.get(order.get(0)), context);
+            Set<Symbol> joinedSymbols = new HashSet<>(result.getOutputSymbols());
+            for (int source : order.subList(1, order.size())) {
+                PlanNode right = planRewriter.rewrite(sources.get(source), context);
+                Set<Symbol> rightSymbols = ImmutableSet.copyOf(right.getOutputSymbols());
+
+                ImmutableList.Builder<JoinNode.EquiJoinClause> clauses = ImmutableList.builder();
+                for (JoinNode.EquiJoinClause clause : criteria) {
+                    if (joinedSymbols.contains(clause.getLeft()) && rightSymbols.contains(clause.getRight())) {
+                        clauses.add(clause);
+                    }
+                    else if (joinedSymbols.contains(clause.getRight()) && rightSymbols.contains(clause.getLeft())) {
+                        clauses.add(new JoinNode.EquiJoinClause(clause.getRight(), clause.getLeft()));
+                    }
+                }
+
+                result = new JoinNode(idAllocator.getNextId(), JoinNode.Type.INNER, result, right, clauses.build());
+                joinedSymbols.addAll(rightSymbols);
+            }
+            return result;
+        }
+
+        private static void flattenInnerJoins(PlanNode node, List<PlanNode> sources, List<JoinNode.EquiJoinClause> criteria)
+        {
+            if (node instanceof JoinNode && ((JoinNode) node).getType() == JoinNode.Type.INNER) {
+                JoinNode joinNode = (JoinNode) node;
+                flattenInnerJoins(joinNode.getLeft(), sources, criteria);
+                flattenInnerJoins(joinNode.getRight(), sources, criteria);
+                criteria.addAll(joinNode.getCriteria());
+            }
+            else {
+                sources.add(node);
+            }
+        }
+
+        /**
+         * Returns the order in which the sources are joined, or null if the sources
+         * can not be joined without a cross join.
+         */
+        private List<Integer> chooseJoinOrder(List<PlanNode> sources, List<Double> rowCounts, List<JoinNode.EquiJoinClause> criteria)
+        {
+            List<Integer> order = new ArrayList<>();
+            Set<Integer> remaining = new HashSet<>(naturalOrder(sources.size()));
+
+            // the largest source is streamed through the hash tables of all the others
+            int first = 0;
+            for (int source = 1; source < sources.size(); source++) {
+                if (rowCounts.get(source) > rowCounts.get(first)) {
+                    first = source;
+                }
+            }
+            order.add(first);
+            remaining.remove(first);
+
+            PlanNode joined = sources.get(first);
+            Set<Symbol> joinedSymbols = new HashSet<>(joined.getOutputSymbols());
+            double joinedRowCount = rowCounts.get(first);
+
+            while (!remaining.isEmpty()) {
+                int best = -1;
+                double bestRowCount = Double.POSITIVE_INFINITY;
+                for (int source : remaining) {
+                    Optional<Double> rowCount = estimateJoinRowCount(joinedSymbols, joinedRowCount, sources.get(source), rowCounts.get(source), criteria);
+                    if (!rowCount.isPresent()) {
+                        continue;
+                    }
+                    // prefer the smaller build side when the results are estimated to be the same size
+                    if (best < 0 || rowCount.get() < bestRowCount || (rowCount.get().equals(bestRowCount) && rowCounts.get(source) < rowCounts.get(best))) {
+                        best = source;
+                        bestRowCount = rowCount.get();
+                    }
+                }
+                if (best < 0) {
+                    return null;
+                }
+
+                order.add(best);
+                remaining.remove(best);
+                joinedSymbols.addAll(sources.get(best).getOutputSymbols());
+                joinedRowCount = bestRowCount;
+            }
+            return order;
+        }
+
+        /**
+         * Estimates the rows produced by joining the source to the already joined sources,
+         * or returns absent if there is no join clause between them.
+         */
+        private Optional<Double> estimateJoinRowCount(Set<Symbol> joinedSymbols, double joinedRowCount, PlanNode source, double sourceRowCount, List<JoinNode.EquiJoinClause> criteria)
+        {
+            Set<Symbol> sourceSymbols = ImmutableSet.copyOf(source.getOutputSymbols());
+
+            boolean connected = false;
+            double distinctValues = 0;
+            for (JoinNode.EquiJoinClause clause : criteria) {
+                Symbol sourceSymbol;
+                if (joinedSymbols.contains(clause.getLeft()) && sourceSymbols.contains(clause.getRight())) {
+                    sourceSymbol = clause.getRight();
+                }
+                else if (joinedSymbols.contains(clause.getRight()) && sourceSymbols.contains(clause.getLeft())) {
+                    sourceSymbol = clause.getLeft();
+                }
+                else {
+                    continue;
+                }
+                connected = true;
+
+                // the most selective clause bounds the size of the result
+                Optional<Double> sourceDistinctValues = estimator.estimateDistinctValues(source, sourceSymbol);
+                if (sourceDistinctValues.isPresent()) {
+                    distinctValues = Math.max(distinctValues, Math.min(sourceDistinctValues.get(), sourceRowCount));
+                }
+            }
+
+            if (!connected) {
+                return Optional.absent();
+            }
+            if (distinctValues == 0) {
+                // without statistics on the join keys, assume each row of the larger side matches one row of the smaller side
+                return Optional.of(Math.max(joinedRowCount, sourceRowCount));
+            }
+            return Optional.of(joinedRowCount * sourceRowCount / distinctValues);
+        }
+
+        private static List<Integer> naturalOrder(int size)
+        {
+            ImmutableList.Builder<Integer> order = ImmutableList.builder();
+            for (int i = 0; i < size; i++) {
+                order.add(i);
+            }
+            return order.build();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import java.util.List;
@@ -36,6 +37,7 @@ public class AggregationNode
     private final Map<Symbol, FunctionCall> aggregations;
     private final Map<Symbol, FunctionHandle> functions;
     private final Step step;
+    private final Long expectedGroups;
 
     public enum Step
     {
@@ -49,13 +51,19 @@ public class AggregationNode
         this(id, source, groupByKeys, aggregations, functions, Step.SINGLE);
     }
 
+    public AggregationNode(PlanNodeId id, PlanNode source, List<Symbol> groupByKeys, Map<Symbol, FunctionCall> aggregations, Map<Symbol, FunctionHandle> functions, Step step)
+    {
+        this(id, source, groupByKeys, aggregations, functions, step, null);
+    }
+
     @JsonCreator
     public AggregationNode(@JsonProperty("id") PlanNodeId id,
             @JsonProperty("source") PlanNode source,
             @JsonProperty("groupBy") List<Symbol> groupByKeys,
             @JsonProperty("aggregations") Map<Symbol, FunctionCall> aggregations,
             @JsonProperty("functions") Map<Symbol, FunctionHandle> functions,
-            @JsonProperty("step") Step step)
+            @JsonProperty("step") Step step,
+            @JsonProperty("expectedGroups") @Nullable Long expectedGroups)
     {
         super(id);
 
@@ -64,6 +72,7 @@ public class AggregationNode
         this.aggregations = aggregations;
         this.functions = functions;
         this.step = step;
+        this.expectedGroups = expectedGroups;
     }
 
     @Override
@@ -108,6 +117,17 @@ public class AggregationNode
         return step;
     }
 
+    /**
+     * Returns the estimated number of groups produced by the aggregation, or
+     * null if the table statistics are not sufficient for an estimate.
+     */
+    @Nullable
+    @JsonProperty("expectedGroups")
+    public Long getExpectedGroups()
+    {
+        return expectedGroups;
+    }
+
     public <C, R> R accept(PlanVisitor<C, R> visitor, C context)
     {
         return visitor.visitAggregation(this, context);
@@ -21,6 +21,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import java.util.List;
@@ -35,13 +36,20 @@ public class JoinNode
     private final PlanNode left;
     private final PlanNode right;
     private final List<EquiJoinClause> criteria;
+    private final Long expectedBuildRows;
+
+    public JoinNode(PlanNodeId id, Type type, PlanNode left, PlanNode right, List<EquiJoinClause> criteria)
+    {
+        this(id, type, left, right, criteria, null);
+    }
 
     @JsonCreator
     public JoinNode(@JsonProperty("id") PlanNodeId id,
             @JsonProperty("type") Type type,
             @JsonProperty("left") PlanNode left,
             @JsonProperty("right") PlanNode right,
-            @JsonProperty("criteria") List<EquiJoinClause> criteria)
+            @JsonProperty("criteria") List<EquiJoinClause> criteria,
+            @JsonProperty("expectedBuildRows") @Nullable Long expectedBuildRows)
     {
         super(id);
 
@@ -54,6 +62,7 @@ public class JoinNode
         this.left = left;
         this.right = right;
         this.criteria = ImmutableList.copyOf(criteria);
+        this.expectedBuildRows = expectedBuildRows;
     }
 
     public enum Type
@@ -114,6 +123,18 @@ public class JoinNode
         return criteria;
     }
 
+    /**
+     * Returns the estimated number of rows of the side of the join that is
+     * built into a hash table, or null if the table statistics are not
+     * sufficient for an estimate.
+     */
+    @Nullable
+    @JsonProperty("expectedBuildRows")
+    public Long getExpectedBuildRows()
+    {
+        return expectedBuildRows;
+    }
+
     @Override
     public List<PlanNode> getSources()
     {
@@ -18,6 +18,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import java.util.List;
@@ -33,6 +34,17 @@ public class SemiJoinNode
     private final Symbol sourceJoinSymbol;
     private final Symbol filteringSourceJoinSymbol;
     private final Symbol semiJoinOutput;
+    private final Long expectedFilteringValues;
+
+    public SemiJoinNode(PlanNodeId id,
+            PlanNode source,
+            PlanNode filteringSource,
+            Symbol sourceJoinSymbol,
+            Symbol filteringSourceJoinSymbol,
+            Symbol semiJoinOutput)
+    {
+        this(id, source, filteringSource, sourceJoinSymbol, filteringSourceJoinSymbol, semiJoinOutput, null);
+    }
 
     @JsonCreator
     public SemiJoinNode(@JsonProperty("id") PlanNodeId id,
@@ -40,7 +52,8 @@ public class SemiJoinNode
             @JsonProperty("filteringSource") PlanNode filteringSource,
             @JsonProperty("sourceJoinSymbol") Symbol sourceJoinSymbol,
             @JsonProperty("filteringSourceJoinSymbol") Symbol filteringSourceJoinSymbol,
-            @JsonProperty("semiJoinOutput") Symbol semiJoinOutput)
+            @JsonProperty("semiJoinOutput") Symbol semiJoinOutput,
+            @JsonProperty("expectedFilteringValues") @Nullable Long expectedFilteringValues)
     {
         super(id);
         this.source = checkNotNull(source, "source is null");
@@ -48,6 +61,7 @@ public class SemiJoinNode
         this.sourceJoinSymbol = checkNotNull(sourceJoinSymbol, "sourceJoinSymbol is null");
         this.filteringSourceJoinSymbol = checkNotNull(filteringSourceJoinSymbol, "filteringSourceJoinSymbol is null");
         this.semiJoinOutput = checkNotNull(semiJoinOutput, "semiJoinOutput is null");
+        this.expectedFilteringValues = expectedFilteringValues;
     }
 
     @JsonProperty("source")
@@ -80,6 +94,17 @@ public class SemiJoinNode
         return semiJoinOutput;
     }
 
+    /**
+     * Returns the estimated number of distinct values of the filtering source,
+     * or null if the table statistics are not sufficient for an estimate.
+     */
+    @Nullable
+    @JsonProperty("expectedFilteringValues")
+    public Long getExpectedFilteringValues()
+    {
+        return expectedFilteringValues;
+    }
+
     @Override
     public List<PlanNode> getSources()
     {
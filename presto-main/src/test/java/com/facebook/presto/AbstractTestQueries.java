@@ -2952,6 +2952,6 @@ public abstract class AbstractTestQueries
         metadata.addInternalSchemaMetadata(MetadataManager.INTERNAL_CONNECTOR_ID, new DualMetadata());
         SplitManager splitManager = new SplitManager(ImmutableSet.<ConnectorSplitManager>of(new DualSplitManager(new InMemoryNodeManager())));
         List<PlanOptimizer> optimizers = new PlanOptimizersFactory(metadata, splitManager).get();
-        return new QueryExplainer(session, optimizers, metadata, new MockPeriodicImportManager(), new MockStorageManager());
+        return new QueryExplainer(session, optimizers, metadata, new MockPeriodicImportManager(), new MockStorageManager(), false);
     }
 }
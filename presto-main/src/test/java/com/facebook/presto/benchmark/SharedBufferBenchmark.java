@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.benchmark;
+
+import com.facebook.presto.HashPagePartitionFunction;
+import com.facebook.presto.OutputBuffers;
+import com.facebook.presto.UnpartitionedPagePartitionFunction;
+import com.facebook.presto.execution.BufferResult;
+import com.facebook.presto.execution.SharedBuffer;
+import com.facebook.presto.operator.Page;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.DataSize;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.facebook.presto.OutputBuffers.INITIAL_EMPTY_OUTPUT_BUFFERS;
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Measures the throughput of a shared buffer with one writer and a growing
+ * number of readers.  The writer and readers run concurrently, so the
+ * reported cpu time is the wall time of the run.
+ */
+public class SharedBufferBenchmark
+        extends AbstractBenchmark
+{
+    private static final int PAGE_COUNT = 2_000;
+    private static final DataSize MAX_BUFFER_SIZE = new DataSize(32, MEGABYTE);
+    private static final DataSize MAX_RESULT_SIZE = new DataSize(1, MEGABYTE);
+
+    private final int consumerCount;
+    private final boolean partitioned;
+    private final Page page = new Page(createLongSequenceBlock(0, 1024));
+
+    private ExecutorService executor;
+
+    public SharedBufferBenchmark(int consumerCount, boolean partitioned)
+    {
+        super((partitioned ? "shared_buffer_partitioned_" : "shared_buffer_broadcast_") + consumerCount, 2, 5);
+        this.consumerCount = consumerCount;
+        this.partitioned = partitioned;
+    }
+
+    @Override
+    protected void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed(getBenchmarkName() + "-%d"));
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Override
+    protected Map<String, Long> runOnce()
+    {
+        OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS;
+        for (int consumer = 0; consumer < consumerCount; consumer++) {
+            if (partitioned) {
+                outputBuffers = outputBuffers.withBuffer(String.valueOf(consumer), new HashPagePartitionFunction(consumer, consumerCount, 0));
+            }
+            else {
+                outputBuffers = outputBuffers.withBuffer(String.valueOf(consumer), new UnpartitionedPagePartitionFunction());
+            }
+        }
+        SharedBuffer sharedBuffer = new SharedBuffer(MAX_BUFFER_SIZE, outputBuffers.withNoMoreBufferIds());
+
+        long start = System.nanoTime();
+
+        ImmutableList.Builder<Future<long[]>> consumers = ImmutableList.builder();
+        for (int consumer = 0; consumer < consumerCount; consumer++) {
+            consumers.add(executor.submit(new Consumer(sharedBuffer, String.valueOf(consumer))));
+        }
+
+        try {
+            for (int i = 0; i < PAGE_COUNT; i++) {
+                sharedBuffer.enqueue(page).get();
+            }
+            sharedBuffer.finish();
+
+            long outputRows = 0;
+            long outputBytes = 0;
+            for (Future<long[]> consumer : consumers.build()) {
+                long[] result = consumer.get();
+                outputRows += result[0];
+                outputBytes += result[1];
+            }
+
+            return ImmutableMap.<String, Long>builder()
+                    .put("cpu_nanos", System.nanoTime() - start)
+                    .put("input_rows", (long) PAGE_COUNT * page.getPositionCount())
+                    .put("input_bytes", PAGE_COUNT * page.getDataSize().toBytes())
+                    .put("output_rows", outputRows)
+                    .put("output_bytes", outputBytes)
+                    .build();
+        }
+        catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static class Consumer
+            implements Callable<long[]>
+    {
+        private final SharedBuffer sharedBuffer;
+        private final String outputId;
+
+        private Consumer(SharedBuffer sharedBuffer, String outputId)
+        {
+            this.sharedBuffer = sharedBuffer;
+            this.outputId = outputId;
+        }
+
+        @Override
+        public long[] call()
+                throws Exception
+        {
+            long rows = 0;
+            long bytes = 0;
+            long token = 0;
+            while (true) {
+                BufferResult result = sharedBuffer.get(outputId, token, MAX_RESULT_SIZE).get();
+                if (result.isBufferClosed()) {
+                    return new long[] {rows, bytes};
+                }
+                List<Page> pages = result.getPages();
+                for (Page page : pages) {
+                    rows += page.getPositionCount();
+                    bytes += page.getDataSize().toBytes();
+                }
+                token = result.getNextToken();
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        for (boolean partitioned : new boolean[] {false, true}) {
+            for (int consumerCount : new int[] {1, 10, 50, 200}) {
+                new SharedBufferBenchmark(consumerCount, partitioned).runBenchmark(
+                        new SimpleLineBenchmarkResultWriter(System.out)
+                );
+            }
+        }
+    }
+}
@@ -14,21 +14,21 @@
 package com.facebook.presto.benchmark;
 
 import com.facebook.presto.block.BlockIterable;
+import com.facebook.presto.metadata.MetadataManager;
 import com.facebook.presto.operator.AlignmentOperator.AlignmentOperatorFactory;
 import com.facebook.presto.operator.OperatorFactory;
 import com.facebook.presto.operator.TopNOperator.TopNOperatorFactory;
 import com.facebook.presto.serde.BlocksFileEncoding;
-import com.facebook.presto.sql.tree.SortItem;
+import com.facebook.presto.sql.gen.ExpressionCompiler;
 import com.facebook.presto.tpch.TpchBlocksProvider;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.operator.ProjectionFunctions.singleColumn;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 
@@ -50,7 +50,7 @@ public class Top100Benchmark
                 100,
                 0,
                 ImmutableList.of(singleColumn(Type.DOUBLE, 0, 0)),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0), ImmutableList.of(SortItem.Ordering.DESCENDING))),
+                new ExpressionCompiler(new MetadataManager()).compileTupleComparator(SINGLE_DOUBLE, ImmutableList.of(0), ImmutableList.of(false)),
                 false);
         return ImmutableList.of(alignmentOperator, topNOperator);
     }
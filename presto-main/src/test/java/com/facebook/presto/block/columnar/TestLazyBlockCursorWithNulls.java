@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.AbstractTestSingleColumnBlockCursorWithNulls;
+import com.google.common.base.Supplier;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestLazyBlockCursorWithNulls
+        extends AbstractTestSingleColumnBlockCursorWithNulls
+{
+    @Override
+    protected Block createExpectedValues()
+    {
+        return new LazyBlock(SINGLE_LONG, 11, new Supplier<Block>()
+        {
+            @Override
+            public Block get()
+            {
+                return createLongArrayBlock();
+            }
+        });
+    }
+
+    @Test
+    public void testNotLoadedUntilRead()
+    {
+        LazyBlock block = (LazyBlock) createExpectedValues();
+        BlockCursor cursor = block.cursor();
+
+        // moving the cursor does not load the block
+        assertTrue(cursor.advanceNextPosition());
+        assertTrue(cursor.advanceToPosition(3));
+        assertEquals(cursor.getPosition(), 3);
+        assertEquals(cursor.getRemainingPositions(), 7);
+        assertFalse(block.isLoaded());
+
+        // reading a value loads the block at the current position
+        assertEquals(cursor.getLong(0), 2222L);
+        assertTrue(block.isLoaded());
+        assertEquals(cursor.getPosition(), 3);
+        assertTrue(cursor.advanceNextPosition());
+        assertTrue(cursor.isNull(0));
+    }
+
+    @Test
+    public void testNotLoadedAfterFinish()
+    {
+        LazyBlock block = (LazyBlock) createExpectedValues();
+        BlockCursor cursor = block.cursor();
+        while (cursor.advanceNextPosition()) {
+            // skip all positions
+        }
+        assertTrue(cursor.isFinished());
+        assertFalse(block.isLoaded());
+    }
+
+    private static Block createLongArrayBlock()
+    {
+        return new LongArrayBlock(
+                11,
+                new boolean[] {true, false, true, false, true, false, true, false, true, false, true},
+                new long[] {0, 1111L, 0, 2222L, 0, 2222L, 0, 2222L, 0, 3333L, 0});
+    }
+}
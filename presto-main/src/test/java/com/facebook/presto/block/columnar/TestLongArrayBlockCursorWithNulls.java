@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.uncompressed.AbstractTestSingleColumnBlockCursorWithNulls;
+import org.testng.annotations.Test;
+
+import static io.airlift.testing.Assertions.assertInstanceOf;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestLongArrayBlockCursorWithNulls
+        extends AbstractTestSingleColumnBlockCursorWithNulls
+{
+    @Override
+    protected Block createExpectedValues()
+    {
+        return new LongArrayBlock(
+                11,
+                new boolean[] {true, false, true, false, true, false, true, false, true, false, true},
+                new long[] {0, 1111L, 0, 2222L, 0, 2222L, 0, 2222L, 0, 3333L, 0});
+    }
+
+    @Test
+    public void testCursorType()
+    {
+        assertInstanceOf(createExpectedValues().cursor(), ColumnarBlockCursor.class);
+    }
+
+    @Test
+    public void testUncompressedBlock()
+    {
+        LongArrayBlock block = (LongArrayBlock) createExpectedValues();
+        assertEquals(block.toUncompressedBlock().getPositionCount(), block.getPositionCount());
+        assertEquals(block.toUncompressedBlock().getSlice(), block.cursor().getRawSlice());
+    }
+
+    @Test
+    public void testCopyPositions()
+    {
+        LongArrayBlock block = (LongArrayBlock) createExpectedValues();
+        LongArrayBlock copy = block.copyPositions(new int[] {1, 2, 9, 0}, 3);
+        assertEquals(copy.getPositionCount(), 3);
+        assertEquals(copy.getLong(0), 1111L);
+        assertTrue(copy.getValueIsNull()[1]);
+        assertEquals(copy.getLong(2), 3333L);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testWrongTypeAccess()
+    {
+        BlockCursor cursor = createExpectedValues().cursor();
+        assertTrue(cursor.advanceNextPosition());
+        cursor.getDouble(0);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testPositionOutOfBounds()
+    {
+        ((LongArrayBlock) createExpectedValues()).getLong(11);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.block.columnar;
+
+import com.facebook.presto.block.AbstractTestBlockCursor;
+import com.facebook.presto.block.Block;
+import io.airlift.slice.Slices;
+import org.testng.annotations.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static io.airlift.testing.Assertions.assertInstanceOf;
+import static org.testng.Assert.assertEquals;
+
+public class TestVariableWidthBlockCursor
+        extends AbstractTestBlockCursor
+{
+    @Override
+    protected Block createExpectedValues()
+    {
+        return new VariableWidthBlock(
+                11,
+                new boolean[11],
+                new int[] {0, 5, 10, 15, 21, 27, 33, 39, 45, 51, 57, 61},
+                Slices.copiedBuffer("appleappleapplebananabananabananabananabananacherrycherrydate", UTF_8));
+    }
+
+    @Test
+    public void testCursorType()
+    {
+        assertInstanceOf(createExpectedValues().cursor(), ColumnarBlockCursor.class);
+    }
+
+    @Test
+    public void testCopyPositions()
+    {
+        VariableWidthBlock block = (VariableWidthBlock) createExpectedValues();
+        VariableWidthBlock copy = block.copyPositions(new int[] {10, 3, 0}, 3);
+        assertEquals(copy.getPositionCount(), 3);
+        assertEquals(copy.getSlice(0).toString(UTF_8), "date");
+        assertEquals(copy.getSlice(1).toString(UTF_8), "banana");
+        assertEquals(copy.getSlice(2).toString(UTF_8), "apple");
+    }
+}
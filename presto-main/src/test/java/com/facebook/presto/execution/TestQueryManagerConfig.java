@@ -32,6 +32,7 @@ public class TestQueryManagerConfig
                 .setClientTimeout(new Duration(5, TimeUnit.MINUTES))
                 .setMaxPendingSplitsPerNode(100)
                 .setInitialHashPartitions(8)
+                .setDistributedJoinsEnabled(false)
                 .setQueryManagerExecutorPoolSize(5)
                 .setRemoteTaskMaxConsecutiveErrorCount(10)
                 .setRemoteTaskMinErrorDuration(new Duration(2, TimeUnit.MINUTES)));
@@ -46,6 +47,7 @@ public class TestQueryManagerConfig
                 .put("query.max-history", "10")
                 .put("query.max-pending-splits-per-node", "33")
                 .put("query.initial-hash-partitions", "16")
+                .put("query.distributed-joins-enabled", "true")
                 .put("query.manager-executor-pool-size", "11")
                 .put("query.remote-task.max-consecutive-error-count", "300")
                 .put("query.remote-task.min-error-duration", "30s")
@@ -57,6 +59,7 @@ public class TestQueryManagerConfig
                 .setClientTimeout(new Duration(10, TimeUnit.SECONDS))
                 .setMaxPendingSplitsPerNode(33)
                 .setInitialHashPartitions(16)
+                .setDistributedJoinsEnabled(true)
                 .setQueryManagerExecutorPoolSize(11)
                 .setRemoteTaskMaxConsecutiveErrorCount(300)
                 .setRemoteTaskMinErrorDuration(new Duration(30, TimeUnit.SECONDS));
@@ -13,14 +13,18 @@
  */
 package com.facebook.presto.execution;
 
+import com.facebook.presto.HashPagePartitionFunction;
 import com.facebook.presto.OutputBuffers;
 import com.facebook.presto.UnpartitionedPagePartitionFunction;
 import com.facebook.presto.block.BlockAssertions;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
 import com.facebook.presto.operator.Page;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
+import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
@@ -40,6 +44,8 @@ import java.util.concurrent.atomic.AtomicReference;
 import static com.facebook.presto.OutputBuffers.INITIAL_EMPTY_OUTPUT_BUFFERS;
 import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
 import static com.facebook.presto.execution.BufferResult.emptyResults;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
@@ -192,7 +198,7 @@ public class TestSharedBuffer
                 createPage(12),
                 createPage(13)));
         assertQueueState(sharedBuffer, "first", 8, 6);
-        assertBufferResultEquals(sharedBuffer.get("first", 14, sizeOfPages(10), NO_WAIT), emptyResults(14, false));
+        assertBufferResultEquals(sharedBuffer.get("first", 14, sizeOfPages(10), NO_WAIT), emptyResults(14, true));
         assertQueueClosed(sharedBuffer, "first", 14);
         assertQueueState(sharedBuffer, "second", 4, 10);
         assertFalse(sharedBuffer.isFinished());
@@ -203,7 +209,7 @@ public class TestSharedBuffer
                 createPage(12),
                 createPage(13)));
         assertQueueState(sharedBuffer, "second", 4, 10);
-        assertBufferResultEquals(sharedBuffer.get("second", 14, sizeOfPages(10), NO_WAIT), emptyResults(14, false));
+        assertBufferResultEquals(sharedBuffer.get("second", 14, sizeOfPages(10), NO_WAIT), emptyResults(14, true));
         assertQueueClosed(sharedBuffer, "first", 14);
         assertQueueClosed(sharedBuffer, "second", 14);
         assertFinished(sharedBuffer);
@@ -539,7 +545,7 @@ public class TestSharedBuffer
 
         // get the last 5 page
         assertEquals(sharedBuffer.get("queue", 1, sizeOfPages(100), MAX_WAIT).size(), 5);
-        sharedBuffer.acknowledge("queue", 5);
+        sharedBuffer.acknowledge("queue", 6);
 
         // verify finished
         assertFinished(sharedBuffer);
@@ -622,6 +628,125 @@ public class TestSharedBuffer
         addPagesJob.waitForFinished();
     }
 
+    @Test
+    public void testAsyncGet()
+            throws Exception
+    {
+        OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                .withBuffer("queue", new UnpartitionedPagePartitionFunction())
+                .withNoMoreBufferIds();
+        SharedBuffer sharedBuffer = new SharedBuffer(sizeOfPages(10), outputBuffers);
+
+        // read is pending until a page arrives
+        ListenableFuture<BufferResult> future = sharedBuffer.get("queue", 0, sizeOfPages(10));
+        assertFalse(future.isDone());
+
+        addPage(sharedBuffer, createPage(0));
+        assertTrue(future.isDone());
+        assertBufferResultEquals(future.get(), bufferResult(0, createPage(0)));
+
+        // pages already available complete the read immediately
+        addPage(sharedBuffer, createPage(1));
+        future = sharedBuffer.get("queue", 1, sizeOfPages(10));
+        assertTrue(future.isDone());
+        assertBufferResultEquals(future.get(), bufferResult(1, createPage(1)));
+
+        // acknowledged pages do not complete the read
+        future = sharedBuffer.get("queue", 2, sizeOfPages(10));
+        assertFalse(future.isDone());
+        assertQueueState(sharedBuffer, "queue", 0, 2);
+
+        // finishing the buffer completes the read with a closed result
+        sharedBuffer.finish();
+        assertTrue(future.isDone());
+        assertBufferResultEquals(future.get(), emptyResults(2, true));
+        assertFinished(sharedBuffer);
+    }
+
+    @Test
+    public void testAsyncGetCancelled()
+            throws Exception
+    {
+        OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                .withBuffer("queue", new UnpartitionedPagePartitionFunction())
+                .withNoMoreBufferIds();
+        SharedBuffer sharedBuffer = new SharedBuffer(sizeOfPages(10), outputBuffers);
+
+        // a cancelled read does not consume pages
+        ListenableFuture<BufferResult> future = sharedBuffer.get("queue", 0, sizeOfPages(10));
+        future.cancel(true);
+        addPage(sharedBuffer, createPage(0));
+        assertQueueState(sharedBuffer, "queue", 1, 0);
+
+        future = sharedBuffer.get("queue", 0, sizeOfPages(10));
+        assertBufferResultEquals(future.get(), bufferResult(0, createPage(0)));
+    }
+
+    @Test
+    public void testDestroyFreesAsyncReader()
+            throws Exception
+    {
+        OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                .withBuffer("queue", new UnpartitionedPagePartitionFunction());
+        SharedBuffer sharedBuffer = new SharedBuffer(sizeOfPages(5), outputBuffers);
+
+        ListenableFuture<BufferResult> future = sharedBuffer.get("queue", 0, sizeOfPages(1));
+        assertFalse(future.isDone());
+
+        sharedBuffer.destroy();
+        assertTrue(future.isDone());
+        assertTrue(future.get().isBufferClosed());
+    }
+
+    @Test
+    public void testHashPartitionedOutput()
+            throws Exception
+    {
+        HashPagePartitionFunction firstPartition = new HashPagePartitionFunction(0, 2, 0);
+        HashPagePartitionFunction secondPartition = new HashPagePartitionFunction(1, 2, 0);
+        OutputBuffers outputBuffers = INITIAL_EMPTY_OUTPUT_BUFFERS
+                .withBuffer("first", firstPartition)
+                .withBuffer("second", secondPartition)
+                .withNoMoreBufferIds();
+        SharedBuffer sharedBuffer = new SharedBuffer(sizeOfPages(10), outputBuffers);
+
+        Page page = new Page(BlockAssertions.createLongSequenceBlock(0, 100));
+        addPage(sharedBuffer, page);
+
+        // each buffer only holds the rows of its own partition
+        BufferResult first = sharedBuffer.get("first", 0, sizeOfPages(10), NO_WAIT);
+        BufferResult second = sharedBuffer.get("second", 0, sizeOfPages(10), NO_WAIT);
+        assertPagesEquals(first.getPages(), firstPartition.partition(ImmutableList.of(page)));
+        assertPagesEquals(second.getPages(), secondPartition.partition(ImmutableList.of(page)));
+        assertEquals(countPositions(first.getPages()) + countPositions(second.getPages()), 100);
+
+        // buffers acknowledge their pages independently
+        sharedBuffer.acknowledge("first", first.size());
+        assertQueueState(sharedBuffer, "first", 0, first.size());
+        assertQueueState(sharedBuffer, "second", second.size(), 0);
+    }
+
+    @Test
+    public void testHashPartitionedDictionaryOutput()
+            throws Exception
+    {
+        ImmutableList.Builder<Slice> keys = ImmutableList.builder();
+        for (int i = 0; i < 100; i++) {
+            keys.add(createTuple((long) i).getTupleSlice());
+        }
+        Page dictionaryPage = new Page(new DictionaryEncodedBlock(new Dictionary(SINGLE_LONG, keys.build()), BlockAssertions.createLongSequenceBlock(0, 100)));
+        Page page = new Page(BlockAssertions.createLongSequenceBlock(0, 100));
+
+        // a dictionary encoded key is partitioned by its value
+        HashPagePartitionFunction partitionFunction = new HashPagePartitionFunction(0, 2, 0);
+        assertPagesEquals(partitionFunction.partition(ImmutableList.of(dictionaryPage)), partitionFunction.partition(ImmutableList.of(page)));
+        List<List<Page>> partitions = partitionFunction.partitionAll(ImmutableList.of(dictionaryPage));
+        List<List<Page>> expectedPartitions = partitionFunction.partitionAll(ImmutableList.of(page));
+        for (int partition = 0; partition < 2; partition++) {
+            assertPagesEquals(partitions.get(partition), expectedPartitions.get(partition));
+        }
+    }
+
     private ListenableFuture<?> enqueuePage(SharedBuffer sharedBuffer, Page page)
     {
         ListenableFuture<?> future = sharedBuffer.enqueue(page);
@@ -679,6 +804,28 @@ public class TestSharedBuffer
         assertEquals(actual.isBufferClosed(), expected.isBufferClosed());
     }
 
+    private static void assertPagesEquals(List<Page> actual, List<Page> expected)
+    {
+        assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < actual.size(); i++) {
+            Page actualPage = actual.get(i);
+            Page expectedPage = expected.get(i);
+            assertEquals(actualPage.getChannelCount(), expectedPage.getChannelCount());
+            for (int channel = 0; channel < actualPage.getChannelCount(); channel++) {
+                assertBlockEquals(actualPage.getBlock(channel), expectedPage.getBlock(channel));
+            }
+        }
+    }
+
+    private static int countPositions(List<Page> pages)
+    {
+        int count = 0;
+        for (Page page : pages) {
+            count += page.getPositionCount();
+        }
+        return count;
+    }
+
     public static BufferResult bufferResult(long token, Page firstPage, Page... otherPages)
     {
         List<Page> pages = ImmutableList.<Page>builder().add(firstPage).add(otherPages).build();
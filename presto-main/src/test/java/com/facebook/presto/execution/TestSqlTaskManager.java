@@ -50,6 +50,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
 import io.airlift.event.client.NullEventClient;
 import io.airlift.json.ObjectMapperProvider;
 import io.airlift.node.NodeInfo;
@@ -67,9 +68,12 @@ import java.util.concurrent.TimeUnit;
 
 import static com.facebook.presto.OutputBuffers.INITIAL_EMPTY_OUTPUT_BUFFERS;
 import static com.facebook.presto.sql.planner.plan.TableScanNode.GeneratedPartitions;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 public class TestSqlTaskManager
@@ -112,7 +116,8 @@ public class TestSqlTaskManager
                 new MockLocalStorageManager(new File("target/temp")),
                 new RecordSinkManager(),
                 new MockExchangeClientSupplier(),
-                new ExpressionCompiler(metadata));
+                new ExpressionCompiler(metadata),
+                new TaskManagerConfig());
 
         taskExecutor = new TaskExecutor(8);
         taskExecutor.start();
@@ -137,7 +142,8 @@ public class TestSqlTaskManager
                 ImmutableMap.<Symbol, Type>of(symbol, Type.VARCHAR),
                 PlanDistribution.SOURCE,
                 tableScanNodeId,
-                OutputPartitioning.NONE);
+                OutputPartitioning.NONE,
+                ImmutableList.<Symbol>of());
 
         taskId = new TaskId("query", "stage", "task");
         session = new Session("user", "test", "default", "default", "test", "test");
@@ -190,14 +196,13 @@ public class TestSqlTaskManager
         taskInfo = sqlTaskManager.getTaskInfo(taskInfo.getTaskId(), false);
         assertEquals(taskInfo.getState(), TaskState.RUNNING);
 
-        BufferResult results = sqlTaskManager.getTaskResults(taskId, "out", 0, new DataSize(1, Unit.MEGABYTE), new Duration(1, TimeUnit.SECONDS));
+        BufferResult results = sqlTaskManager.getTaskResults(taskId, "out", 0, new DataSize(1, Unit.MEGABYTE)).get();
         assertEquals(results.isBufferClosed(), false);
         assertEquals(results.getPages().size(), 1);
         assertEquals(results.getPages().get(0).getPositionCount(), 1);
 
-        results = sqlTaskManager.getTaskResults(taskId, "out", results.getToken() + results.getPages().size(), new DataSize(1, Unit.MEGABYTE), new Duration(1, TimeUnit.SECONDS));
-        // todo this should be true
-        assertEquals(results.isBufferClosed(), false);
+        results = sqlTaskManager.getTaskResults(taskId, "out", results.getToken() + results.getPages().size(), new DataSize(1, Unit.MEGABYTE)).get();
+        assertEquals(results.isBufferClosed(), true);
         assertEquals(results.getPages().size(), 0);
 
         sqlTaskManager.waitForStateChange(taskInfo.getTaskId(), taskInfo.getState(), new Duration(1, TimeUnit.SECONDS));
@@ -290,6 +295,71 @@ public class TestSqlTaskManager
         }
     }
 
+    @Test
+    public void testDeleteSpillDirectoryOfCanceledTask()
+            throws Exception
+    {
+        File spillPath = Files.createTempDir();
+        try {
+            sqlTaskManager = new SqlTaskManager(
+                    planner,
+                    new MockLocationFactory(),
+                    taskExecutor,
+                    new QueryMonitor(new ObjectMapperProvider().get(), new NullEventClient(), new NodeInfo("test")),
+                    new TaskManagerConfig().setSpillEnabled(true).setSpillPath(spillPath));
+
+            TaskInfo taskInfo = sqlTaskManager.updateTask(session,
+                    taskId,
+                    testFragment,
+                    ImmutableList.<TaskSource>of(),
+                    INITIAL_EMPTY_OUTPUT_BUFFERS);
+            assertEquals(taskInfo.getState(), TaskState.RUNNING);
+
+            // a spill file left behind by a driver of the task
+            File spillDirectory = new File(spillPath, taskId.toString());
+            assertTrue(spillDirectory.mkdirs());
+            Files.touch(new File(spillDirectory, "spill.pages"));
+
+            taskInfo = sqlTaskManager.cancelTask(taskId);
+            assertEquals(taskInfo.getState(), TaskState.CANCELED);
+
+            // the directory is deleted by a state change listener
+            for (int i = 0; i < 100 && spillDirectory.exists(); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(spillDirectory.exists());
+        }
+        finally {
+            deleteRecursively(spillPath);
+        }
+    }
+
+    @Test
+    public void testDeleteStaleSpillDirectories()
+            throws Exception
+    {
+        File spillPath = Files.createTempDir();
+        try {
+            File staleSpillDirectory = new File(spillPath, "stale.0.0");
+            assertTrue(staleSpillDirectory.mkdirs());
+            Files.touch(new File(staleSpillDirectory, "spill.pages"));
+
+            sqlTaskManager = new SqlTaskManager(
+                    planner,
+                    new MockLocationFactory(),
+                    taskExecutor,
+                    new QueryMonitor(new ObjectMapperProvider().get(), new NullEventClient(), new NodeInfo("test")),
+                    new TaskManagerConfig().setSpillEnabled(true).setSpillPath(spillPath));
+            sqlTaskManager.start();
+
+            assertFalse(staleSpillDirectory.exists());
+            assertTrue(spillPath.exists());
+        }
+        finally {
+            deleteRecursively(spillPath);
+        }
+    }
+
     public static class MockExchangeClientSupplier
             implements Supplier<ExchangeClient>
     {
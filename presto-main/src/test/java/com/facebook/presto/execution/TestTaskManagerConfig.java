@@ -18,6 +18,7 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -38,7 +39,11 @@ public class TestTaskManagerConfig
                 .setClientTimeout(new Duration(5, TimeUnit.MINUTES))
                 .setMaxTaskMemoryUsage(new DataSize(256, Unit.MEGABYTE))
                 .setOperatorPreAllocatedMemory(new DataSize(16, Unit.MEGABYTE))
-                .setSinkMaxBufferSize(new DataSize(32, Unit.MEGABYTE)));
+                .setSinkMaxBufferSize(new DataSize(32, Unit.MEGABYTE))
+                .setHashBuildConcurrency(1)
+                .setSpillEnabled(false)
+                .setSpillPath(new File("var/spill"))
+                .setHttpResponseThreads(100));
     }
 
     @Test
@@ -52,6 +57,10 @@ public class TestTaskManagerConfig
                 .put("task.info.max-age", "22m")
                 .put("task.client.timeout", "10s")
                 .put("sink.max-buffer-size", "42MB")
+                .put("task.hash-build-concurrency", "8")
+                .put("task.spill-enabled", "true")
+                .put("task.spill-path", "/tmp/spill")
+                .put("task.http-response-threads", "4")
                 .build();
 
         TaskManagerConfig expected = new TaskManagerConfig()
@@ -61,7 +70,11 @@ public class TestTaskManagerConfig
                 .setMaxShardProcessorThreads(3)
                 .setInfoMaxAge(new Duration(22, TimeUnit.MINUTES))
                 .setClientTimeout(new Duration(10, TimeUnit.SECONDS))
-                .setSinkMaxBufferSize(new DataSize(42, Unit.MEGABYTE));
+                .setSinkMaxBufferSize(new DataSize(42, Unit.MEGABYTE))
+                .setHashBuildConcurrency(8)
+                .setSpillEnabled(true)
+                .setSpillPath(new File("/tmp/spill"))
+                .setHttpResponseThreads(4);
 
         assertFullMapping(properties, expected);
     }
@@ -15,7 +15,9 @@ package com.facebook.presto.metadata;
 
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.metadata.ColumnFileHandle.Builder;
+import com.facebook.presto.serde.ZoneMap;
 import com.facebook.presto.spi.ColumnHandle;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.io.Files;
 
@@ -59,6 +61,12 @@ public class MockLocalStorageManager
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public Optional<ZoneMap> getZoneMap(UUID shardUuid, ColumnHandle columnHandle)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public boolean shardExists(UUID shardUuid)
     {
@@ -95,4 +103,10 @@ public class MockLocalStorageManager
     {
         columnFileHandle.commit();
     }
+
+    @Override
+    public void compactShards(UUID shardUuid, List<UUID> sourceShardUuids, List<? extends ColumnHandle> columnHandles, Optional<ColumnHandle> sortColumn)
+    {
+        throw new UnsupportedOperationException();
+    }
 }
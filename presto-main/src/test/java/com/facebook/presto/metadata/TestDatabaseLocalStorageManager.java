@@ -19,14 +19,20 @@ import com.facebook.presto.operator.DriverContext;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorAssertion;
 import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.RowPagesBuilder;
 import com.facebook.presto.operator.TaskContext;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
 import io.airlift.testing.FileUtils;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import io.airlift.units.Duration;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
@@ -36,26 +42,34 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.facebook.presto.metadata.DatabaseLocalStorageManager.getShardPath;
 import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
 public class TestDatabaseLocalStorageManager
 {
+    private IDBI dbi;
     private Handle dummyHandle;
     private File dataDir;
-    private LocalStorageManager storageManager;
+    private DatabaseLocalStorageManager storageManager;
     private ExecutorService executor;
     private DriverContext driverContext;
 
@@ -63,7 +77,7 @@ public class TestDatabaseLocalStorageManager
     public void setup()
             throws IOException
     {
-        IDBI dbi = new DBI("jdbc:h2:mem:test" + System.nanoTime());
+        dbi = new DBI("jdbc:h2:mem:test" + System.nanoTime());
         dummyHandle = dbi.open();
         dataDir = Files.createTempDir();
         DatabaseLocalStorageManagerConfig config = new DatabaseLocalStorageManagerConfig().setDataDirectory(dataDir);
@@ -78,6 +92,7 @@ public class TestDatabaseLocalStorageManager
     @AfterMethod
     public void tearDown()
     {
+        storageManager.stop();
         dummyHandle.close();
         FileUtils.deleteRecursively(dataDir);
         executor.shutdownNow();
@@ -128,6 +143,208 @@ public class TestDatabaseLocalStorageManager
         OperatorAssertion.assertOperatorEquals(operator, expected);
     }
 
+    @Test
+    public void testOptimizeEncodings()
+            throws Exception
+    {
+        UUID shardUuid = UUID.randomUUID();
+        List<ColumnHandle> columnHandles = ImmutableList.<ColumnHandle>of(new NativeColumnHandle("column_7", 7L), new NativeColumnHandle("column_11", 11L));
+
+        // the first column has a few distinct values in long runs, the second column has unique values
+        RowPagesBuilder rowPagesBuilder = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG);
+        for (int i = 0; i < 1000; i++) {
+            rowPagesBuilder.row("a rather long value number " + (i / 100), i);
+        }
+        List<Page> pages = rowPagesBuilder.build();
+
+        ColumnFileHandle fileHandles = storageManager.createStagingFileHandles(shardUuid, columnHandles);
+        for (Page page : pages) {
+            fileHandles.append(page);
+        }
+        storageManager.commit(fileHandles);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (storageManager.getOptimizedColumns() + storageManager.getUnchangedColumns() < 2) {
+            assertTrue(System.nanoTime() < deadline, "optimize job did not finish");
+            Thread.sleep(10);
+        }
+
+        assertEquals(storageManager.getOptimizedColumns(), 1L);
+        assertEquals(storageManager.getUnchangedColumns(), 1L);
+        assertEquals(storageManager.getFailedShards(), 0L);
+        assertTrue(storageManager.getBytesSaved() > 0);
+
+        AlignmentOperatorFactory factory = new AlignmentOperatorFactory(0,
+                storageManager.getBlocks(shardUuid, columnHandles.get(0)),
+                storageManager.getBlocks(shardUuid, columnHandles.get(1)));
+        Operator operator = factory.createOperator(driverContext);
+        OperatorAssertion.assertOperatorEquals(operator, toMaterializedResult(operator.getTupleInfos(), pages));
+
+        // the replaced file is kept for running queries during the grace period
+        File shardPath = getShardPath(new File(dataDir, "storage"), shardUuid);
+        storageManager.deleteRetiredFiles();
+        assertEquals(listFileNames(shardPath), ImmutableSet.of("7.snappy.column", "7.dic-rle.column", "11.snappy.column"));
+
+        // and deleted once the grace period is over
+        DatabaseLocalStorageManager restartedStorageManager = new DatabaseLocalStorageManager(dbi, new DatabaseLocalStorageManagerConfig()
+                .setDataDirectory(dataDir)
+                .setRetiredFileGracePeriod(new Duration(0, TimeUnit.SECONDS)));
+        try {
+            restartedStorageManager.deleteRetiredFiles();
+            assertEquals(listFileNames(shardPath), ImmutableSet.of("7.dic-rle.column", "11.snappy.column"));
+        }
+        finally {
+            restartedStorageManager.stop();
+        }
+    }
+
+    @Test
+    public void testMissingColumnFile()
+            throws Exception
+    {
+        UUID shardUuid = UUID.randomUUID();
+        List<ColumnHandle> columnHandles = ImmutableList.<ColumnHandle>of(new NativeColumnHandle("column_7", 7L));
+        storageManager.commit(storageManager.createStagingFileHandles(shardUuid, columnHandles));
+
+        // shards imported by older versions have no file for an empty column
+        File shardPath = getShardPath(new File(dataDir, "storage"), shardUuid);
+        assertTrue(new File(shardPath, "7.snappy.column").delete());
+        assertFalse(storageManager.getBlocks(shardUuid, columnHandles.get(0)).iterator().hasNext());
+    }
+
+    @Test
+    public void testCompactShards()
+            throws Exception
+    {
+        List<ColumnHandle> columnHandles = ImmutableList.<ColumnHandle>of(new NativeColumnHandle("column_7", 7L), new NativeColumnHandle("column_11", 11L));
+
+        UUID shardUuid1 = UUID.randomUUID();
+        importShard(shardUuid1, columnHandles, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("dave", 3)
+                .row("alice", 0)
+                .build());
+        UUID shardUuid2 = UUID.randomUUID();
+        importShard(shardUuid2, columnHandles, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("charlie", 2)
+                .pageBreak()
+                .row("bob", 1)
+                .build());
+        UUID emptyShardUuid = UUID.randomUUID();
+        importShard(emptyShardUuid, columnHandles, ImmutableList.<Page>of());
+
+        UUID shardUuid = UUID.randomUUID();
+        storageManager.compactShards(shardUuid, ImmutableList.of(shardUuid1, emptyShardUuid, shardUuid2), columnHandles, Optional.of(columnHandles.get(1)));
+        waitForCompaction(shardUuid);
+        assertTrue(storageManager.shardExists(shardUuid));
+
+        // the source shards are left for the shard cleaner
+        assertTrue(storageManager.shardExists(shardUuid1));
+        assertTrue(storageManager.shardExists(shardUuid2));
+
+        AlignmentOperatorFactory factory = new AlignmentOperatorFactory(0,
+                storageManager.getBlocks(shardUuid, columnHandles.get(0)),
+                storageManager.getBlocks(shardUuid, columnHandles.get(1)));
+        Operator operator = factory.createOperator(driverContext);
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64)
+                .row("alice", 0)
+                .row("bob", 1)
+                .row("charlie", 2)
+                .row("dave", 3)
+                .build();
+        OperatorAssertion.assertOperatorEquals(operator, expected);
+    }
+
+    @Test
+    public void testCompactUnsortedShards()
+            throws Exception
+    {
+        List<ColumnHandle> columnHandles = ImmutableList.<ColumnHandle>of(new NativeColumnHandle("column_7", 7L), new NativeColumnHandle("column_11", 11L));
+
+        UUID shardUuid1 = UUID.randomUUID();
+        importShard(shardUuid1, columnHandles, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("dave", 3)
+                .row("alice", 0)
+                .build());
+        UUID shardUuid2 = UUID.randomUUID();
+        importShard(shardUuid2, columnHandles, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("charlie", 2)
+                .pageBreak()
+                .row("bob", 1)
+                .build());
+
+        // the rows are copied in shard order without being indexed
+        UUID shardUuid = UUID.randomUUID();
+        storageManager.doCompactShards(shardUuid, ImmutableList.of(shardUuid1, shardUuid2), columnHandles, Optional.<ColumnHandle>absent());
+        assertTrue(storageManager.shardExists(shardUuid));
+
+        AlignmentOperatorFactory factory = new AlignmentOperatorFactory(0,
+                storageManager.getBlocks(shardUuid, columnHandles.get(0)),
+                storageManager.getBlocks(shardUuid, columnHandles.get(1)));
+        Operator operator = factory.createOperator(driverContext);
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64)
+                .row("dave", 3)
+                .row("alice", 0)
+                .row("charlie", 2)
+                .row("bob", 1)
+                .build();
+        OperatorAssertion.assertOperatorEquals(operator, expected);
+    }
+
+    @Test
+    public void testCompactShardsExceedingMaxSize()
+            throws Exception
+    {
+        storageManager.stop();
+        DatabaseLocalStorageManagerConfig config = new DatabaseLocalStorageManagerConfig()
+                .setDataDirectory(dataDir)
+                .setMaxCompactionSize(new DataSize(1, Unit.BYTE));
+        storageManager = new DatabaseLocalStorageManager(dbi, config);
+
+        List<ColumnHandle> columnHandles = ImmutableList.<ColumnHandle>of(new NativeColumnHandle("column_7", 7L), new NativeColumnHandle("column_11", 11L));
+
+        UUID shardUuid1 = UUID.randomUUID();
+        importShard(shardUuid1, columnHandles, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("dave", 3)
+                .row("alice", 0)
+                .build());
+        UUID shardUuid2 = UUID.randomUUID();
+        importShard(shardUuid2, columnHandles, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("charlie", 2)
+                .build());
+
+        UUID shardUuid = UUID.randomUUID();
+        storageManager.compactShards(shardUuid, ImmutableList.of(shardUuid1, shardUuid2), columnHandles, Optional.of(columnHandles.get(1)));
+        waitForCompaction(shardUuid);
+
+        // a failed compaction leaves neither a shard nor its files behind
+        assertFalse(storageManager.shardExists(shardUuid));
+        assertFalse(getShardPath(new File(dataDir, "storage"), shardUuid).exists());
+        assertEquals(storageManager.getFailedCompactions(), 1L);
+
+        assertTrue(storageManager.shardExists(shardUuid1));
+        assertTrue(storageManager.shardExists(shardUuid2));
+    }
+
+    private void waitForCompaction(UUID shardUuid)
+            throws InterruptedException
+    {
+        long start = System.nanoTime();
+        while (storageManager.isShardActive(shardUuid)) {
+            assertTrue(Duration.nanosSince(start).compareTo(new Duration(10, TimeUnit.SECONDS)) < 0, "compaction did not complete");
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void importShard(UUID shardUuid, List<ColumnHandle> columnHandles, List<Page> pages)
+            throws IOException
+    {
+        ColumnFileHandle fileHandles = storageManager.createStagingFileHandles(shardUuid, columnHandles);
+        for (Page page : pages) {
+            fileHandles.append(page);
+        }
+        storageManager.commit(fileHandles);
+    }
+
     @Test
     public void testImportEmptySource()
             throws IOException
@@ -151,4 +368,15 @@ public class TestDatabaseLocalStorageManager
         File actual = new File("/data/test/db/29/8a/db298a0c-e968-4d5a-8e58-b1021c7eab2c");
         assertEquals(expected, actual);
     }
+
+    private static Set<String> listFileNames(File directory)
+    {
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        Set<String> fileNames = new HashSet<>();
+        for (File file : files) {
+            fileNames.add(file.getName());
+        }
+        return fileNames;
+    }
 }
@@ -15,12 +15,15 @@ package com.facebook.presto.metadata;
 
 import com.google.common.collect.ImmutableMap;
 import io.airlift.configuration.testing.ConfigAssertions;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
 import javax.validation.constraints.NotNull;
 
 import java.io.File;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static io.airlift.testing.ValidationAssertions.assertFailsValidation;
 
@@ -31,7 +34,14 @@ public class TestDatabaseLocalStorageManagerConfig
     {
         ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(DatabaseLocalStorageManagerConfig.class)
                 .setDataDirectory(new File("var/data"))
-                .setTasksPerNode(32));
+                .setTasksPerNode(32)
+                .setOptimizeEncodings(true)
+                .setOptimizerThreads(2)
+                .setMaxMappedFiles(10_000)
+                .setMaxMappedSize(new DataSize(16, DataSize.Unit.GIGABYTE))
+                .setPrefetchMappedFiles(false)
+                .setRetiredFileGracePeriod(new Duration(1, TimeUnit.HOURS))
+                .setMaxCompactionSize(new DataSize(256, DataSize.Unit.MEGABYTE)));
     }
 
     @Test
@@ -40,11 +50,25 @@ public class TestDatabaseLocalStorageManagerConfig
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("storage-manager.data-directory", "/data")
                 .put("storage-manager.tasks-per-node", "16")
+                .put("storage-manager.optimize-encodings", "false")
+                .put("storage-manager.optimizer-threads", "4")
+                .put("storage-manager.max-mapped-files", "500")
+                .put("storage-manager.max-mapped-size", "1GB")
+                .put("storage-manager.prefetch-mapped-files", "true")
+                .put("storage-manager.retired-file-grace-period", "5m")
+                .put("storage-manager.max-compaction-size", "64MB")
                 .build();
 
         DatabaseLocalStorageManagerConfig expected = new DatabaseLocalStorageManagerConfig()
                 .setDataDirectory(new File("/data"))
-                .setTasksPerNode(16);
+                .setTasksPerNode(16)
+                .setOptimizeEncodings(false)
+                .setOptimizerThreads(4)
+                .setMaxMappedFiles(500)
+                .setMaxMappedSize(new DataSize(1, DataSize.Unit.GIGABYTE))
+                .setPrefetchMappedFiles(true)
+                .setRetiredFileGracePeriod(new Duration(5, TimeUnit.MINUTES))
+                .setMaxCompactionSize(new DataSize(64, DataSize.Unit.MEGABYTE));
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
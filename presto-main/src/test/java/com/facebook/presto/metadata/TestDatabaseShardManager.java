@@ -34,10 +34,12 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 
+import static com.google.common.collect.Maps.immutableEntry;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class TestDatabaseShardManager
 {
@@ -93,4 +95,31 @@ public class TestDatabaseShardManager
         Collection<Entry<UUID, String>> partitionShards = allShardNodes.get(partitionId);
         assertEquals(partitionShards.size(), 1);
     }
+
+    @Test
+    public void testReplaceShards()
+    {
+        TableHandle tableHandle = new NativeTableHandle("demo", "test", 1);
+        UUID shardId1 = UUID.randomUUID();
+        UUID shardId2 = UUID.randomUUID();
+        UUID shardId3 = UUID.randomUUID();
+        shardManager.commitPartition(tableHandle, "some-partition", ImmutableList.<PartitionKey>of(), ImmutableMap.of(shardId1, "some-node", shardId2, "some-node"));
+        long partitionId = shardManager.getPartitions(tableHandle).iterator().next().getPartitionId();
+
+        shardManager.replaceShards(tableHandle, partitionId, ImmutableSet.of(shardId1, shardId2), shardId3, "other-node");
+
+        Multimap<Long, Entry<UUID, String>> shardNodes = shardManager.getShardNodesByPartition(tableHandle);
+        assertEquals(ImmutableList.copyOf(shardNodes.get(partitionId)), ImmutableList.of(immutableEntry(shardId3, "other-node")));
+
+        assertEquals(shardManager.getTableNodes(tableHandle), ImmutableSet.of("other-node"));
+
+        // replacing shards that are no longer part of the partition changes nothing
+        try {
+            shardManager.replaceShards(tableHandle, partitionId, ImmutableSet.of(shardId1, shardId3), UUID.randomUUID(), "other-node");
+            fail("expected exception");
+        }
+        catch (RuntimeException expected) {
+        }
+        assertEquals(ImmutableList.copyOf(shardManager.getShardNodesByPartition(tableHandle).get(partitionId)), ImmutableList.of(immutableEntry(shardId3, "other-node")));
+    }
 }
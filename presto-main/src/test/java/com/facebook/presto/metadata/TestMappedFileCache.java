@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import com.google.common.io.Files;
+import io.airlift.slice.Slice;
+import io.airlift.testing.FileUtils;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class TestMappedFileCache
+{
+    private File dataDir;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        dataDir = Files.createTempDir();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        FileUtils.deleteRecursively(dataDir);
+    }
+
+    @Test
+    public void testHitsAndMisses()
+            throws Exception
+    {
+        MappedFileCache cache = new MappedFileCache(10, new DataSize(1, DataSize.Unit.MEGABYTE), false);
+        File file = createFile("a", "hello");
+
+        Slice slice = cache.get(file);
+        assertEquals(slice.toString(UTF_8), "hello");
+        assertSame(cache.get(file), slice);
+
+        assertEquals(cache.getMisses(), 1L);
+        assertEquals(cache.getHits(), 1L);
+        assertEquals(cache.getMappedFiles(), 1);
+        assertEquals(cache.getMappedBytes(), 5L);
+    }
+
+    @Test
+    public void testEvictByCount()
+            throws Exception
+    {
+        MappedFileCache cache = new MappedFileCache(2, new DataSize(1, DataSize.Unit.MEGABYTE), false);
+        File a = createFile("a", "aaa");
+        File b = createFile("b", "bbb");
+        File c = createFile("c", "ccc");
+
+        Slice sliceA = cache.get(a);
+        Slice sliceB = cache.get(b);
+        // a is now more recently used than b
+        cache.get(a);
+        cache.get(c);
+
+        assertEquals(cache.getEvictions(), 1L);
+        assertEquals(cache.getMappedFiles(), 2);
+        assertSame(cache.get(a), sliceA);
+        assertNotSame(cache.get(b), sliceB);
+
+        // an evicted mapping stays readable while it is referenced
+        assertEquals(sliceB.toString(UTF_8), "bbb");
+    }
+
+    @Test
+    public void testEvictBySize()
+            throws Exception
+    {
+        MappedFileCache cache = new MappedFileCache(10, new DataSize(10, DataSize.Unit.BYTE), false);
+        cache.get(createFile("a", "aaaaaa"));
+        cache.get(createFile("b", "bbbbbb"));
+
+        assertEquals(cache.getEvictions(), 1L);
+        assertEquals(cache.getMappedFiles(), 1);
+        assertEquals(cache.getMappedBytes(), 6L);
+
+        // a file larger than the cache is still mapped
+        Slice slice = cache.get(createFile("c", "cccccccccccc"));
+        assertEquals(slice.toString(UTF_8), "cccccccccccc");
+        assertEquals(cache.getMappedFiles(), 1);
+        assertEquals(cache.getMappedBytes(), 12L);
+    }
+
+    @Test
+    public void testInvalidate()
+            throws Exception
+    {
+        MappedFileCache cache = new MappedFileCache(10, new DataSize(1, DataSize.Unit.MEGABYTE), false);
+        File file = createFile("a", "old");
+        assertEquals(cache.get(file).toString(UTF_8), "old");
+
+        cache.invalidate(file);
+        assertEquals(cache.getMappedFiles(), 0);
+        assertEquals(cache.getMappedBytes(), 0L);
+
+        Files.write("new value", file, UTF_8);
+        assertEquals(cache.get(file).toString(UTF_8), "new value");
+        assertEquals(cache.getMisses(), 2L);
+    }
+
+    @Test
+    public void testPrefetch()
+            throws Exception
+    {
+        MappedFileCache cache = new MappedFileCache(10, new DataSize(1, DataSize.Unit.MEGABYTE), true);
+        try {
+            assertEquals(cache.get(createFile("a", "hello")).toString(UTF_8), "hello");
+        }
+        finally {
+            cache.close();
+        }
+    }
+
+    private File createFile(String name, String contents)
+            throws IOException
+    {
+        File file = new File(dataDir, name).getAbsoluteFile();
+        Files.write(contents, file, UTF_8);
+        return file;
+    }
+}
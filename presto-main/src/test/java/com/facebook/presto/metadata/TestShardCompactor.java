@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import com.facebook.presto.metadata.ShardCompactor.Compaction;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.units.Duration;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.IDBI;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.immutableEntry;
+import static io.airlift.json.JsonCodec.jsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestShardCompactor
+{
+    @Test
+    public void testPlanCompactions()
+    {
+        ImmutableMultimap.Builder<Long, Entry<UUID, String>> shardNodesBuilder = ImmutableMultimap.builder();
+
+        // partition 1 has five shards on node a and two shards on node b
+        List<UUID> nodeAShards = randomUuids(5);
+        for (UUID shardUuid : nodeAShards) {
+            shardNodesBuilder.put(1L, immutableEntry(shardUuid, "a"));
+        }
+        for (UUID shardUuid : randomUuids(2)) {
+            shardNodesBuilder.put(1L, immutableEntry(shardUuid, "b"));
+        }
+
+        // partition 2 has three shards on node a, but one of them is also stored on node b
+        List<UUID> partitionTwoShards = randomUuids(3);
+        for (UUID shardUuid : partitionTwoShards) {
+            shardNodesBuilder.put(2L, immutableEntry(shardUuid, "a"));
+        }
+        shardNodesBuilder.put(2L, immutableEntry(partitionTwoShards.get(0), "b"));
+
+        Multimap<Long, Entry<UUID, String>> shardNodes = shardNodesBuilder.build();
+
+        List<Compaction> compactions = ShardCompactor.planCompactions(shardNodes, 3, 3);
+        assertEquals(compactions.size(), 1);
+        assertEquals(compactions.get(0).getPartitionId(), 1L);
+        assertEquals(compactions.get(0).getNodeIdentifier(), "a");
+        assertEquals(compactions.get(0).getShardUuids(), nodeAShards.subList(0, 3));
+
+        // a smaller minimum also merges the remaining shards of each group
+        compactions = ShardCompactor.planCompactions(shardNodes, 2, 3);
+        ImmutableSet.Builder<List<UUID>> builder = ImmutableSet.builder();
+        for (Compaction compaction : compactions) {
+            builder.add(compaction.getShardUuids());
+        }
+        Set<List<UUID>> merged = builder.build();
+        assertEquals(compactions.size(), 4);
+        assertTrue(merged.contains(nodeAShards.subList(3, 5)));
+        assertTrue(merged.contains(partitionTwoShards.subList(1, 3)));
+    }
+
+    @Test
+    public void testDropShardWhenCompactRequestFails()
+            throws Exception
+    {
+        RecordingHandler handler = new RecordingHandler(HttpStatus.INTERNAL_SERVER_ERROR, HttpStatus.OK);
+        compactShards(handler, new Duration(1, TimeUnit.HOURS));
+        assertEquals(handler.getMethods(), ImmutableList.of("PUT", "DELETE"));
+        assertEquals(ImmutableSet.copyOf(handler.getUris()).size(), 1);
+    }
+
+    @Test
+    public void testDropShardWhenCompactionFails()
+            throws Exception
+    {
+        RecordingHandler handler = new RecordingHandler(HttpStatus.ACCEPTED, HttpStatus.NOT_FOUND);
+        compactShards(handler, new Duration(1, TimeUnit.HOURS));
+        assertEquals(handler.getMethods(), ImmutableList.of("PUT", "GET", "DELETE"));
+        assertEquals(ImmutableSet.copyOf(handler.getUris()).size(), 1);
+    }
+
+    @Test
+    public void testDropShardWhenCompactionTimesOut()
+            throws Exception
+    {
+        RecordingHandler handler = new RecordingHandler(HttpStatus.ACCEPTED, HttpStatus.ACCEPTED);
+        compactShards(handler, new Duration(1, TimeUnit.MILLISECONDS));
+        assertEquals(handler.getMethods(), ImmutableList.of("PUT", "GET", "DELETE"));
+        assertEquals(ImmutableSet.copyOf(handler.getUris()).size(), 1);
+    }
+
+    private static void compactShards(RecordingHandler handler, Duration compactionTimeout)
+            throws Exception
+    {
+        IDBI dbi = new DBI("jdbc:h2:mem:test" + System.nanoTime());
+        Handle dummyHandle = dbi.open();
+        try {
+            ShardCompactor compactor = new ShardCompactor(new InMemoryNodeManager(),
+                    new DatabaseShardManager(dbi),
+                    dbi,
+                    new TestingHttpClient(handler),
+                    jsonCodec(ShardCompactionRequest.class),
+                    new ShardCompactorConfig().setCompactionTimeout(compactionTimeout));
+            try {
+                List<UUID> shardUuids = randomUuids(2);
+                List<NativeColumnHandle> columnHandles = ImmutableList.of(new NativeColumnHandle("column_7", 7L));
+                compactor.compactShards(new NativeTableHandle("schema", "table", 1),
+                        new Compaction(1, "a", shardUuids),
+                        new Node("a", URI.create("http://a"), NodeVersion.UNKNOWN),
+                        new ShardCompactionRequest(shardUuids, columnHandles, null));
+                assertEquals(compactor.getFailedCompactions(), 1L);
+                assertEquals(compactor.getCompactions(), 0L);
+            }
+            finally {
+                compactor.stop();
+            }
+        }
+        finally {
+            dummyHandle.close();
+        }
+    }
+
+    private static class RecordingHandler
+            implements Function<Request, Response>
+    {
+        private final HttpStatus putStatus;
+        private final HttpStatus getStatus;
+        private final List<String> methods = new CopyOnWriteArrayList<>();
+        private final List<URI> uris = new CopyOnWriteArrayList<>();
+
+        private RecordingHandler(HttpStatus putStatus, HttpStatus getStatus)
+        {
+            this.putStatus = putStatus;
+            this.getStatus = getStatus;
+        }
+
+        public List<String> getMethods()
+        {
+            return ImmutableList.copyOf(methods);
+        }
+
+        public List<URI> getUris()
+        {
+            return ImmutableList.copyOf(uris);
+        }
+
+        @Override
+        public Response apply(Request request)
+        {
+            methods.add(request.getMethod());
+            uris.add(request.getUri());
+            switch (request.getMethod()) {
+                case "PUT":
+                    return new TestingResponse(putStatus, ImmutableListMultimap.<String, String>of(), new byte[0]);
+                case "GET":
+                    return new TestingResponse(getStatus, ImmutableListMultimap.<String, String>of(), new byte[0]);
+                default:
+                    return new TestingResponse(HttpStatus.NO_CONTENT, ImmutableListMultimap.<String, String>of(), new byte[0]);
+            }
+        }
+    }
+
+    private static List<UUID> randomUuids(int count)
+    {
+        ImmutableList.Builder<UUID> uuids = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            uuids.add(UUID.randomUUID());
+        }
+        return uuids.build();
+    }
+}
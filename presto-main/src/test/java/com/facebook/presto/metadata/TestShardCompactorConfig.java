@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.metadata;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.configuration.testing.ConfigAssertions;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class TestShardCompactorConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(ShardCompactorConfig.class)
+                .setEnabled(false)
+                .setCompactorInterval(new Duration(5, TimeUnit.MINUTES))
+                .setMinShards(10)
+                .setMaxShards(100)
+                .setSortColumn(null)
+                .setMaxThreads(8)
+                .setCompactionTimeout(new Duration(1, TimeUnit.HOURS)));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("shard-compactor.enabled", "true")
+                .put("shard-compactor.interval", "10m")
+                .put("shard-compactor.min-shards", "20")
+                .put("shard-compactor.max-shards", "50")
+                .put("shard-compactor.sort-column", "ds")
+                .put("shard-compactor.max-threads", "4")
+                .put("shard-compactor.compaction-timeout", "30m")
+                .build();
+
+        ShardCompactorConfig expected = new ShardCompactorConfig()
+                .setEnabled(true)
+                .setCompactorInterval(new Duration(10, TimeUnit.MINUTES))
+                .setMinShards(20)
+                .setMaxShards(50)
+                .setSortColumn("ds")
+                .setMaxThreads(4)
+                .setCompactionTimeout(new Duration(30, TimeUnit.MINUTES));
+
+        ConfigAssertions.assertFullMapping(properties, expected);
+    }
+}
@@ -17,6 +17,10 @@ import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.AlignmentOperator.AlignmentOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -127,7 +131,37 @@ public class TestAlignmentOperator
         assertEquals(operator.getOutput(), null);
     }
 
+    @Test
+    public void testSkippedPositions()
+            throws Exception
+    {
+        RangeSet<Integer> skippedPositions = TreeRangeSet.create();
+        skippedPositions.add(Range.closedOpen(2, 6));
+        skippedPositions.add(Range.atLeast(10));
+
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, AlignmentOperator.class.getSimpleName());
+        Operator operator = new AlignmentOperator(operatorContext, createChannels(), skippedPositions);
+
+        List<Page> expected = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("alice", 0)
+                .row("bob", 1)
+                .pageBreak()
+                .row("charlie", 6)
+                .row("dave", 7)
+                .pageBreak()
+                .row("alice", 8)
+                .row("bob", 9)
+                .build();
+
+        assertOperatorEquals(operator, expected);
+    }
+
     private Operator createAlignmentOperator()
+    {
+        return new AlignmentOperatorFactory(0, createChannels()).createOperator(driverContext);
+    }
+
+    private static List<BlockIterable> createChannels()
     {
         BlockIterable channel0 = blockIterableBuilder(VARIABLE_BINARY)
                 .append("alice")
@@ -161,6 +195,6 @@ public class TestAlignmentOperator
                 .append(11)
                 .build();
 
-        return new AlignmentOperatorFactory(0, channel0, channel1).createOperator(driverContext);
+        return ImmutableList.of(channel0, channel1);
     }
 }
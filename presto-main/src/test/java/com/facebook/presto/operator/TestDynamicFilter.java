@@ -0,0 +1,280 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.connector.dual.DualSplit;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.HashBuilderOperator.HashBuilderOperatorFactory;
+import com.facebook.presto.operator.ScanFilterAndProjectOperator.ScanFilterAndProjectOperatorFactory;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.HostAddress;
+import com.facebook.presto.spi.InMemoryRecordSet;
+import com.facebook.presto.spi.Split;
+import com.facebook.presto.split.DataStreamProvider;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.planner.Symbol;
+import com.facebook.presto.sql.planner.TestingColumnHandle;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static com.facebook.presto.operator.ProjectionFunctions.singleColumn;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestDynamicFilter
+{
+    private ExecutorService executor;
+    private TaskContext taskContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIncompleteFilterAcceptsAllRows()
+    {
+        DynamicFilter dynamicFilter = new DynamicFilter(FIXED_INT_64, 2);
+        DynamicFilter.Collector collector = dynamicFilter.createCollector();
+        collector.add(rowPagesBuilder(SINGLE_LONG).row(1).build().get(0).getBlock(0));
+        dynamicFilter.publish(collector);
+
+        // the second build operator has not published its keys yet
+        assertFalse(dynamicFilter.isComplete());
+        Block[] blocks = rowPagesBuilder(SINGLE_LONG).row(5).row(6).build().get(0).getBlocks();
+        assertSame(dynamicFilter.filter(blocks, 0), blocks);
+    }
+
+    @Test
+    public void testBuildPublishesKeys()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_VARBINARY, SINGLE_LONG)
+                .row("a", 1)
+                .row(null, 2)
+                .pageBreak()
+                .row("c", 3)
+                .build());
+        DynamicFilter dynamicFilter = new DynamicFilter(VARIABLE_BINARY, 1);
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(
+                1,
+                buildOperator.getTupleInfos(),
+                0,
+                100,
+                Optional.<File>absent(),
+                1,
+                Optional.of(dynamicFilter));
+
+        Driver driver = new Driver(driverContext, buildOperator, hashBuilderOperatorFactory.createOperator(driverContext));
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+        assertTrue(dynamicFilter.isComplete());
+
+        // "b" is within the range of the keys, but it is not one of the keys, and null keys never match
+        List<Page> probe = rowPagesBuilder(SINGLE_LONG, SINGLE_VARBINARY)
+                .row(1, "a")
+                .row(2, "b")
+                .row(3, null)
+                .row(4, "c")
+                .row(5, "d")
+                .build();
+        Block[] filtered = dynamicFilter.filter(probe.get(0).getBlocks(), 1);
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, VARIABLE_BINARY)
+                .row(1, "a")
+                .row(4, "c")
+                .build();
+        assertEquals(toMaterializedResult(ImmutableList.of(SINGLE_LONG, SINGLE_VARBINARY), ImmutableList.of(new Page(filtered))), expected);
+
+        Block[] rejected = rowPagesBuilder(SINGLE_LONG, SINGLE_VARBINARY).row(6, "b").build().get(0).getBlocks();
+        assertNull(dynamicFilter.filter(rejected, 1));
+    }
+
+    @Test
+    public void testManyDistinctKeysUseRange()
+    {
+        DynamicFilter dynamicFilter = new DynamicFilter(FIXED_INT_64, 2);
+
+        // the even keys of the two build operators together are too many to track individually
+        DynamicFilter.Collector first = dynamicFilter.createCollector();
+        DynamicFilter.Collector second = dynamicFilter.createCollector();
+        RowPagesBuilder firstKeys = rowPagesBuilder(SINGLE_LONG);
+        RowPagesBuilder secondKeys = rowPagesBuilder(SINGLE_LONG);
+        for (int i = 0; i < DynamicFilter.MAX_DISTINCT_VALUES; i++) {
+            firstKeys.row(2 * i + 100);
+            secondKeys.row(2 * i + 100 + 2 * DynamicFilter.MAX_DISTINCT_VALUES);
+        }
+        for (Page page : firstKeys.build()) {
+            first.add(page.getBlock(0));
+        }
+        for (Page page : secondKeys.build()) {
+            second.add(page.getBlock(0));
+        }
+        dynamicFilter.publish(first);
+        dynamicFilter.publish(second);
+        assertTrue(dynamicFilter.isComplete());
+
+        long max = 100 + 4 * DynamicFilter.MAX_DISTINCT_VALUES - 2;
+        Block[] blocks = rowPagesBuilder(SINGLE_LONG)
+                .row(99)
+                .row(100)
+                .row(101)
+                .row(max)
+                .row(max + 1)
+                .build()
+                .get(0)
+                .getBlocks();
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64)
+                .row(100)
+                .row(101)
+                .row(max)
+                .build();
+        assertEquals(toMaterializedResult(ImmutableList.of(SINGLE_LONG), ImmutableList.of(new Page(dynamicFilter.filter(blocks, 0)))), expected);
+    }
+
+    @Test
+    public void testScanAppliesFilterToPages()
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG, SINGLE_VARBINARY)
+                .row(1, "a")
+                .row(2, "b")
+                .pageBreak()
+                .row(3, "c")
+                .pageBreak()
+                .row(4, "d")
+                .row(5, "e")
+                .build();
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, VARIABLE_BINARY)
+                .row(2, "b")
+                .row(5, "e")
+                .build();
+
+        assertEquals(scan(staticDataStreamProvider(input), createFilter(2, 5)), expected);
+    }
+
+    @Test
+    public void testScanAppliesFilterToCursor()
+    {
+        final InMemoryRecordSet recordSet = InMemoryRecordSet.builder(ImmutableList.of(ColumnType.LONG, ColumnType.STRING))
+                .addRow(1L, "a")
+                .addRow(2L, "b")
+                .addRow(null, "c")
+                .addRow(5L, "e")
+                .build();
+        DataStreamProvider dataStreamProvider = new DataStreamProvider()
+        {
+            @Override
+            public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
+            {
+                return new RecordProjectOperator(operatorContext, recordSet);
+            }
+        };
+
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, VARIABLE_BINARY)
+                .row(2, "b")
+                .row(5, "e")
+                .build();
+
+        assertEquals(scan(dataStreamProvider, createFilter(2, 5)), expected);
+    }
+
+    private static DynamicFilter createFilter(long... keys)
+    {
+        DynamicFilter dynamicFilter = new DynamicFilter(FIXED_INT_64, 1);
+        DynamicFilter.Collector collector = dynamicFilter.createCollector();
+        RowPagesBuilder rowPagesBuilder = rowPagesBuilder(SINGLE_LONG);
+        for (long key : keys) {
+            rowPagesBuilder.row(key);
+        }
+        collector.add(rowPagesBuilder.build().get(0).getBlock(0));
+        dynamicFilter.publish(collector);
+        return dynamicFilter;
+    }
+
+    private MaterializedResult scan(DataStreamProvider dataStreamProvider, DynamicFilter dynamicFilter)
+    {
+        ScanFilterAndProjectOperatorFactory factory = new ScanFilterAndProjectOperatorFactory(
+                0,
+                new PlanNodeId("0"),
+                dataStreamProvider,
+                ImmutableList.<ColumnHandle>of(new TestingColumnHandle(new Symbol("key")), new TestingColumnHandle(new Symbol("value"))),
+                FilterFunctions.TRUE_FUNCTION,
+                ImmutableList.of(singleColumn(FIXED_INT_64, 0, 0), singleColumn(VARIABLE_BINARY, 1, 0)),
+                ImmutableMap.of(0, dynamicFilter));
+
+        SourceOperator operator = factory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+        operator.addSplit(new DualSplit(HostAddress.fromString("127.0.0.1")));
+        operator.noMoreSplits();
+
+        ImmutableList.Builder<Page> output = ImmutableList.builder();
+        while (!operator.isFinished()) {
+            Page page = operator.getOutput();
+            if (page != null) {
+                output.add(page);
+            }
+        }
+        return toMaterializedResult(operator.getTupleInfos(), output.build());
+    }
+
+    private static DataStreamProvider staticDataStreamProvider(final List<Page> pages)
+    {
+        return new DataStreamProvider()
+        {
+            @Override
+            public Operator createNewDataStream(OperatorContext operatorContext, Split split, List<ColumnHandle> columns)
+            {
+                return new StaticOperator(operatorContext, pages);
+            }
+        };
+    }
+}
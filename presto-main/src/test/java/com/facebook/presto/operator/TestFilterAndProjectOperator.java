@@ -13,6 +13,11 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.columnar.LongArrayBlock;
+import com.facebook.presto.block.columnar.VariableWidthBlock;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.FilterAndProjectOperator.FilterAndProjectOperatorFactory;
 import com.facebook.presto.spi.RecordCursor;
@@ -21,6 +26,8 @@ import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleReadable;
 import com.facebook.presto.util.MaterializedResult;
 import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -28,7 +35,10 @@ import org.testng.annotations.Test;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.operator.FilterFunctions.TRUE_FUNCTION;
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
 import static com.facebook.presto.operator.ProjectionFunctions.concat;
 import static com.facebook.presto.operator.ProjectionFunctions.singleColumn;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
@@ -36,9 +46,15 @@ import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static com.google.common.base.Charsets.UTF_8;
+import static io.airlift.testing.Assertions.assertInstanceOf;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 
 public class TestFilterAndProjectOperator
 {
@@ -106,4 +122,141 @@ public class TestFilterAndProjectOperator
 
         assertOperatorEquals(operator, input, expected);
     }
+
+    @Test
+    public void testDictionaryInput()
+            throws Exception
+    {
+        Dictionary dictionary = new Dictionary(SINGLE_VARBINARY,
+                createTuple("apple").getTupleSlice(),
+                createTuple("banana").getTupleSlice(),
+                createTuple("cherry").getTupleSlice());
+        Page input = new Page(
+                new DictionaryEncodedBlock(dictionary, createLongsBlock(0, 1, 2, 1, 0, 2, 1)),
+                new RunLengthEncodedBlock(createTuple(5), 7));
+
+        CountingFilterFunction filterFunction = new CountingFilterFunction("apple");
+        Operator operator = new FilterAndProjectOperatorFactory(
+                0,
+                filterFunction,
+                ImmutableList.of(concat(singleColumn(VARIABLE_BINARY, 0, 0), singleColumn(FIXED_INT_64, 1, 0))),
+                true).createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64))
+                .row("banana", 5)
+                .row("cherry", 5)
+                .row("banana", 5)
+                .row("cherry", 5)
+                .row("banana", 5)
+                .build();
+
+        // the filter and projection are evaluated once per dictionary entry, and the output is dictionary encoded
+        operator.addInput(input);
+        Page output = operator.getOutput();
+        assertInstanceOf(output.getBlock(0), DictionaryEncodedBlock.class);
+        assertEquals(toMaterializedResult(operator.getTupleInfos(), ImmutableList.of(output)), expected);
+        assertEquals(filterFunction.getCalls(), 3);
+
+        // the results of the dictionary are reused for the next page
+        operator.addInput(input);
+        assertEquals(toMaterializedResult(operator.getTupleInfos(), ImmutableList.of(operator.getOutput())), expected);
+        assertEquals(filterFunction.getCalls(), 3);
+    }
+
+    @Test
+    public void testRunLengthEncodedInput()
+            throws Exception
+    {
+        CountingFilterFunction filterFunction = new CountingFilterFunction("apple");
+        Operator operator = new FilterAndProjectOperatorFactory(
+                0,
+                filterFunction,
+                ImmutableList.of(singleColumn(FIXED_INT_64, 1, 0)),
+                true).createOperator(driverContext);
+
+        operator.addInput(new Page(new RunLengthEncodedBlock(createTuple("banana"), 1000), new RunLengthEncodedBlock(createTuple(5), 1000)));
+        Page output = operator.getOutput();
+        assertInstanceOf(output.getBlock(0), RunLengthEncodedBlock.class);
+        assertEquals(output.getPositionCount(), 1000);
+        assertEquals(((RunLengthEncodedBlock) output.getBlock(0)).getValue(), createTuple(5));
+        assertEquals(filterFunction.getCalls(), 1);
+
+        // a run rejected by the filter produces no output
+        operator.addInput(new Page(new RunLengthEncodedBlock(createTuple("apple"), 1000), new RunLengthEncodedBlock(createTuple(5), 1000)));
+        assertNull(operator.getOutput());
+        assertEquals(filterFunction.getCalls(), 2);
+    }
+
+    @Test
+    public void testColumnarInputWithoutFilter()
+            throws Exception
+    {
+        LongArrayBlock block = new LongArrayBlock(3, new boolean[] {false, true, false}, new long[] {1, 0, 3});
+        Operator operator = new FilterAndProjectOperatorFactory(
+                0,
+                TRUE_FUNCTION,
+                ImmutableList.of(singleColumn(FIXED_INT_64, 1, 0))).createOperator(driverContext);
+
+        // the projected block is passed through without copying
+        operator.addInput(new Page(createLongsBlock(7, 8, 9), block));
+        Page output = operator.getOutput();
+        assertEquals(output.getChannelCount(), 1);
+        assertSame(output.getBlock(0), block);
+    }
+
+    @Test
+    public void testColumnarInputWithFilter()
+            throws Exception
+    {
+        Operator operator = new FilterAndProjectOperatorFactory(
+                0,
+                new CountingFilterFunction("apple"),
+                ImmutableList.of(singleColumn(FIXED_INT_64, 1, 0))).createOperator(driverContext);
+
+        Page input = new Page(
+                new VariableWidthBlock(4, new boolean[4], new int[] {0, 5, 11, 16, 22}, Slices.copiedBuffer("applebananaapplecherry", UTF_8)),
+                new LongArrayBlock(4, new boolean[] {false, false, false, true}, new long[] {1, 2, 3, 0}));
+
+        MaterializedResult expected = resultBuilder(SINGLE_LONG)
+                .row(2)
+                .row((Long) null)
+                .build();
+
+        // the selected positions are copied into a columnar block
+        operator.addInput(input);
+        Page output = operator.getOutput();
+        assertInstanceOf(output.getBlock(0), LongArrayBlock.class);
+        assertEquals(toMaterializedResult(operator.getTupleInfos(), ImmutableList.of(output)), expected);
+    }
+
+    private static class CountingFilterFunction
+            implements FilterFunction
+    {
+        private final Slice rejectedValue;
+        private int calls;
+
+        private CountingFilterFunction(String rejectedValue)
+        {
+            this.rejectedValue = Slices.copiedBuffer(rejectedValue, UTF_8);
+        }
+
+        public int getCalls()
+        {
+            return calls;
+        }
+
+        @Override
+        public boolean filter(TupleReadable... cursors)
+        {
+            calls++;
+            return !cursors[0].getSlice(0).equals(rejectedValue);
+        }
+
+        @Override
+        public boolean filter(RecordCursor cursor)
+        {
+            calls++;
+            return !Slices.wrappedBuffer(cursor.getString(0)).equals(rejectedValue);
+        }
+    }
 }
@@ -14,6 +14,10 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.HashAggregationOperator.HashAggregationOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
@@ -21,19 +25,26 @@ import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.sql.tree.Input;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.block.BlockAssertions.COMPOSITE_SEQUENCE_TUPLE_INFO;
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.operator.AggregationFunctionDefinition.aggregation;
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
 import static com.facebook.presto.operator.OperatorAssertion.toPages;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.operator.aggregation.CountAggregation.COUNT;
@@ -47,10 +58,16 @@ import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.Assertions.assertEqualsIgnoreOrder;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestHashAggregationOperator
 {
@@ -116,6 +133,39 @@ public class TestHashAggregationOperator
         assertOperatorEquals(operator, input, expected);
     }
 
+    @Test
+    public void testEncodedGroupByChannel()
+            throws Exception
+    {
+        Dictionary dictionary = new Dictionary(SINGLE_VARBINARY,
+                createTuple("apple").getTupleSlice(),
+                createTuple("banana").getTupleSlice(),
+                createTuple("cherry").getTupleSlice());
+        List<Page> input = ImmutableList.of(
+                new Page(new DictionaryEncodedBlock(dictionary, createLongsBlock(0, 1, 2, 1, 0, 2, 1)), createLongsBlock(1, 2, 3, 4, 5, 6, 7)),
+                new Page(new RunLengthEncodedBlock(createTuple("banana"), 3), createLongsBlock(10, 20, 30)),
+                new Page(new DictionaryEncodedBlock(dictionary, createLongsBlock(2, 2)), createLongsBlock(100, 200)));
+
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                0,
+                SINGLE_VARBINARY,
+                0,
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(1, 0))),
+                100_000);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64)
+                .row("apple", 2, 6)
+                .row("banana", 6, 73)
+                .row("cherry", 4, 309)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size of 10B")
     public void testMemoryLimit()
     {
@@ -146,6 +196,71 @@ public class TestHashAggregationOperator
         toPages(operator, input);
     }
 
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_VARBINARY, SINGLE_VARBINARY, SINGLE_VARBINARY, SINGLE_LONG)
+                .addSequencePage(10, 100, 0, 100, 0)
+                .addSequencePage(10, 100, 0, 200, 0)
+                .addSequencePage(10, 100, 0, 300, 0)
+                .build();
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(10, Unit.BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File spillDirectory = Files.createTempDir();
+        try {
+            HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                    0,
+                    SINGLE_VARBINARY,
+                    1,
+                    Step.SINGLE,
+                    ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                            aggregation(LONG_SUM, new Input(3, 0)),
+                            aggregation(LONG_AVERAGE, new Input(3, 0)),
+                            aggregation(VAR_BINARY_MAX, new Input(2, 0))),
+                    100_000,
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64, DOUBLE, VARIABLE_BINARY)
+                    .row("0", 3, 0, 0.0, "300")
+                    .row("1", 3, 3, 1.0, "301")
+                    .row("2", 3, 6, 2.0, "302")
+                    .row("3", 3, 9, 3.0, "303")
+                    .row("4", 3, 12, 4.0, "304")
+                    .row("5", 3, 15, 5.0, "305")
+                    .row("6", 3, 18, 6.0, "306")
+                    .row("7", 3, 21, 7.0, "307")
+                    .row("8", 3, 24, 8.0, "308")
+                    .row("9", 3, 27, 9.0, "309")
+                    .build();
+
+            // the groups of every page exceed the memory limit, so each page is spilled as a run of groups
+            for (Page page : input) {
+                assertTrue(operator.needsInput());
+                operator.addInput(page);
+                assertNull(operator.getOutput());
+            }
+            assertEquals(spillDirectory.list().length, input.size());
+
+            operator.finish();
+            List<Page> pages = toPages(operator);
+            MaterializedResult actual = toMaterializedResult(operator.getTupleInfos(), pages);
+            assertEqualsIgnoreOrder(actual.getMaterializedTuples(), expected.getMaterializedTuples());
+
+            // spill files are removed once they have been merged
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(spillDirectory);
+        }
+    }
+
     @Test
     public void testMultiSliceAggregationOutput()
     {
@@ -169,4 +284,128 @@ public class TestHashAggregationOperator
 
         assertEquals(toPages(operator, input).size(), 2);
     }
+
+    @Test
+    public void testRehashesAreRecorded()
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG)
+                .addSequencePage(10_000, 0)
+                .build();
+
+        // a hash table sized for the input is never rehashed
+        Operator operator = createCountOperator(0, 10_000);
+        toPages(operator, input);
+        assertEquals(operator.getOperatorContext().getOperatorStats().getHashTableRehashes(), 0L);
+
+        Operator undersizedOperator = createCountOperator(1, 10);
+        toPages(undersizedOperator, input);
+        assertTrue(undersizedOperator.getOperatorContext().getOperatorStats().getHashTableRehashes() > 0);
+    }
+
+    @Test
+    public void testPartialAggregationPassThrough()
+    {
+        // unique keys are passed through once partial aggregation is found not to reduce the rows
+        Operator operator = createPartialSumOperator(0);
+        int outputPositions = 0;
+        for (int page = 0; page < 15; page++) {
+            operator.addInput(rowPagesBuilder(SINGLE_LONG, SINGLE_LONG).addSequencePage(10_000, page * 10_000, 0).build().get(0));
+            if (page >= 10) {
+                // the rows are emitted before the input is finished
+                assertFalse(operator.needsInput());
+            }
+            outputPositions += countPositions(drainOutput(operator));
+        }
+        operator.finish();
+        outputPositions += countPositions(drainOutput(operator));
+        assertTrue(operator.isFinished());
+        assertEquals(outputPositions, 150_000);
+
+        // repeated keys are still combined
+        RowPagesBuilder repeatedKeys = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG);
+        for (int page = 0; page < 15; page++) {
+            repeatedKeys.addSequencePage(10_000, 0, page);
+        }
+        assertEquals(countPositions(toPages(createPartialSumOperator(1), repeatedKeys.build())), 10_000);
+    }
+
+    @Test
+    public void testPartialAggregationPassThroughWithDictionaryKeys()
+    {
+        // the unique keys of each page are encoded in a dictionary of their own
+        Operator operator = createPartialSumOperator(0);
+        ImmutableList.Builder<Page> output = ImmutableList.builder();
+        for (int page = 0; page < 15; page++) {
+            ImmutableList.Builder<Slice> keys = ImmutableList.builder();
+            for (int i = 0; i < 10_000; i++) {
+                keys.add(createTuple(page * 10_000L + i).getTupleSlice());
+            }
+            Dictionary dictionary = new Dictionary(SINGLE_LONG, keys.build());
+            operator.addInput(new Page(new DictionaryEncodedBlock(dictionary, createLongSequenceBlock(0, 10_000)), createLongSequenceBlock(0, 10_000)));
+            output.addAll(drainOutput(operator));
+        }
+        operator.finish();
+        output.addAll(drainOutput(operator));
+        assertTrue(operator.isFinished());
+
+        // every key is output once, whether it was aggregated or passed through
+        long keySum = 0;
+        int outputPositions = 0;
+        for (Page page : output.build()) {
+            BlockCursor cursor = page.getBlock(0).cursor();
+            while (cursor.advanceNextPosition()) {
+                keySum += cursor.getLong(0);
+                outputPositions++;
+            }
+        }
+        assertEquals(outputPositions, 150_000);
+        assertEquals(keySum, 149_999L * 150_000 / 2);
+    }
+
+    private static List<Page> drainOutput(Operator operator)
+    {
+        ImmutableList.Builder<Page> pages = ImmutableList.builder();
+        while (!operator.needsInput() && !operator.isFinished()) {
+            Page page = operator.getOutput();
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        return pages.build();
+    }
+
+    private Operator createPartialSumOperator(int operatorId)
+    {
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                operatorId,
+                SINGLE_LONG,
+                0,
+                Step.PARTIAL,
+                ImmutableList.of(aggregation(LONG_SUM, new Input(1, 0))),
+                100_000);
+
+        return operatorFactory.createOperator(driverContext);
+    }
+
+    private static int countPositions(List<Page> pages)
+    {
+        int positions = 0;
+        for (Page page : pages) {
+            positions += page.getPositionCount();
+        }
+        return positions;
+    }
+
+    private Operator createCountOperator(int operatorId, int expectedGroups)
+    {
+        HashAggregationOperatorFactory operatorFactory = new HashAggregationOperatorFactory(
+                operatorId,
+                SINGLE_LONG,
+                0,
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0))),
+                expectedGroups);
+
+        return operatorFactory.createOperator(driverContext);
+    }
 }
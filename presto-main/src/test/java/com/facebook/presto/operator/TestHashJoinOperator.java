@@ -13,31 +13,53 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.HashBuilderOperator.HashBuilderOperatorFactory;
+import com.facebook.presto.operator.HashBuilderOperator.HashSupplier;
 import com.facebook.presto.operator.HashJoinOperator.HashJoinOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static com.facebook.presto.operator.OperatorAssertion.toPages;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.NULL_STRING_TUPLE;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.Assertions.assertEqualsIgnoreOrder;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TestHashJoinOperator
 {
@@ -347,6 +369,57 @@ public class TestHashJoinOperator
         assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testOuterJoinWithDictionaryProbe()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_VARBINARY)
+                .row("a")
+                .row("b")
+                .row("c")
+                .build());
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 0, 100);
+        Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        // probe with the keys "a", null, "d" and "b" encoded in a dictionary
+        Dictionary dictionary = new Dictionary(SINGLE_VARBINARY,
+                createTuple("a").getTupleSlice(),
+                NULL_STRING_TUPLE.getTupleSlice(),
+                createTuple("d").getTupleSlice(),
+                createTuple("b").getTupleSlice());
+        Page probePage = new Page(
+                new DictionaryEncodedBlock(dictionary, createLongsBlock(0, 1, 2, 0, 3, 1)),
+                createLongsBlock(1, 2, 3, 4, 5, 6));
+        HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.outerJoin(
+                0,
+                hashBuilderOperatorFactory.getHashSupplier(),
+                ImmutableList.of(SINGLE_VARBINARY, SINGLE_LONG),
+                0);
+        Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+        // expected, once for each probe page
+        MaterializedResult.Builder expected = resultBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64, VARIABLE_BINARY));
+        for (int i = 0; i < 2; i++) {
+            expected.row("a", 1, "a")
+                    .row(null, 2, null)
+                    .row("d", 3, null)
+                    .row("a", 4, "a")
+                    .row("b", 5, "b")
+                    .row(null, 6, null);
+        }
+
+        assertOperatorEquals(joinOperator, ImmutableList.of(probePage, probePage), expected.build());
+    }
+
     @Test
     public void testOuterJoinWithNullBuild()
             throws Exception
@@ -443,6 +516,337 @@ public class TestHashJoinOperator
         assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testInnerJoinWithConcurrentBuild()
+            throws Exception
+    {
+        // build: each of the build drivers gets a quarter of the keys 0 to 3999
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, ImmutableList.of(SINGLE_LONG, SINGLE_LONG), 0, 100, Optional.<File>absent(), 4);
+        PipelineContext buildPipeline = taskContext.addPipelineContext(true, false);
+        List<Driver> buildDrivers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DriverContext driverContext = buildPipeline.addDriverContext();
+            OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+            Operator buildOperator = new StaticOperator(operatorContext, rowPagesBuilder(SINGLE_LONG, SINGLE_LONG)
+                    .addSequencePage(500, i * 1000, i * 1000 + 10_000)
+                    .addSequencePage(500, i * 1000 + 500, i * 1000 + 10_500)
+                    .build());
+            buildDrivers.add(new Driver(driverContext, buildOperator, hashBuilderOperatorFactory.createOperator(driverContext)));
+        }
+
+        // the build drivers wait for each other before building their partition of the hash
+        boolean finished = false;
+        while (!finished) {
+            finished = true;
+            for (Driver driver : buildDrivers) {
+                if (!driver.isFinished()) {
+                    driver.process();
+                    finished = false;
+                }
+            }
+        }
+
+        // probe: keys 3000 to 5999, with every key matching a single row
+        RowPagesBuilder probePages = rowPagesBuilder(SINGLE_LONG);
+        MaterializedResult.Builder expectedBuilder = resultBuilder(new TupleInfo(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64));
+        for (int page = 0; page < 3; page++) {
+            probePages.addSequencePage(1000, 3000 + page * 1000);
+        }
+        for (int key = 3000; key < 4000; key++) {
+            expectedBuilder.row(key, key, key + 10_000);
+        }
+
+        HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.innerJoin(
+                0,
+                hashBuilderOperatorFactory.getHashSupplier(),
+                ImmutableList.of(SINGLE_LONG),
+                0);
+        Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+        List<Page> pages = toPages(joinOperator, probePages.build());
+        MaterializedResult actual = toMaterializedResult(joinOperator.getTupleInfos(), pages);
+        assertEqualsIgnoreOrder(actual.getMaterializedTuples(), expectedBuilder.build().getMaterializedTuples());
+    }
+
+    @Test
+    public void testOuterJoinWithSpill()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        TaskContext taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(128, KILOBYTE));
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build: keys 0 to 9999
+        RowPagesBuilder buildPages = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG);
+        for (int page = 0; page < 10; page++) {
+            buildPages.addSequencePage(1000, page * 1000, page * 10_000);
+        }
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, buildPages.build());
+
+        File tempDirectory = Files.createTempDir();
+        File spillDirectory = new File(tempDirectory, "spill");
+        try {
+            HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 0, 100, Optional.of(spillDirectory));
+            Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+            Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+            while (!driver.isFinished()) {
+                driver.process();
+            }
+
+            // some build partitions did not fit in memory
+            assertTrue(spillDirectory.list().length > 0);
+
+            // probe: keys 5000 to 14999
+            RowPagesBuilder probePages = rowPagesBuilder(SINGLE_LONG);
+            MaterializedResult.Builder expectedBuilder = resultBuilder(new TupleInfo(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64));
+            for (int page = 0; page < 10; page++) {
+                probePages.addSequencePage(1000, 5000 + page * 1000);
+            }
+            for (int key = 5000; key < 15_000; key++) {
+                if (key < 10_000) {
+                    expectedBuilder.row(key, key, (key / 1000) * 9000 + key);
+                }
+                else {
+                    expectedBuilder.row(key, null, null);
+                }
+            }
+
+            HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.outerJoin(
+                    0,
+                    hashBuilderOperatorFactory.getHashSupplier(),
+                    ImmutableList.of(SINGLE_LONG),
+                    0);
+            Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+            List<Page> pages = toPages(joinOperator, probePages.build());
+            MaterializedResult actual = toMaterializedResult(joinOperator.getTupleInfos(), pages);
+            assertEqualsIgnoreOrder(actual.getMaterializedTuples(), expectedBuilder.build().getMaterializedTuples());
+
+            // spilled partitions are removed once the hash is no longer used
+            joinOperatorFactory.close();
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(tempDirectory);
+        }
+    }
+
+    @Test
+    public void testOuterJoinWithSpillAndDictionaryProbe()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        TaskContext taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(128, KILOBYTE));
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build: keys 0 to 9999
+        RowPagesBuilder buildPages = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG);
+        for (int page = 0; page < 10; page++) {
+            buildPages.addSequencePage(1000, page * 1000, page * 10_000);
+        }
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, buildPages.build());
+
+        File tempDirectory = Files.createTempDir();
+        File spillDirectory = new File(tempDirectory, "spill");
+        try {
+            HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 0, 100, Optional.of(spillDirectory));
+            Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+            Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+            while (!driver.isFinished()) {
+                driver.process();
+            }
+            assertTrue(spillDirectory.list().length > 0);
+
+            // probe: keys 5000 to 14999, each page encoded in a dictionary of its own
+            ImmutableList.Builder<Page> probePages = ImmutableList.builder();
+            MaterializedResult.Builder expectedBuilder = resultBuilder(new TupleInfo(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64));
+            for (int page = 0; page < 10; page++) {
+                ImmutableList.Builder<Slice> keys = ImmutableList.builder();
+                for (int i = 0; i < 1000; i++) {
+                    keys.add(createTuple(5000L + page * 1000 + i).getTupleSlice());
+                }
+                probePages.add(new Page(new DictionaryEncodedBlock(new Dictionary(SINGLE_LONG, keys.build()), createLongSequenceBlock(0, 1000))));
+            }
+            for (int key = 5000; key < 15_000; key++) {
+                if (key < 10_000) {
+                    expectedBuilder.row(key, key, (key / 1000) * 9000 + key);
+                }
+                else {
+                    expectedBuilder.row(key, null, null);
+                }
+            }
+
+            HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.outerJoin(
+                    0,
+                    hashBuilderOperatorFactory.getHashSupplier(),
+                    ImmutableList.of(SINGLE_LONG),
+                    0);
+            Operator joinOperator = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+
+            List<Page> pages = toPages(joinOperator, probePages.build());
+            MaterializedResult actual = toMaterializedResult(joinOperator.getTupleInfos(), pages);
+            assertEqualsIgnoreOrder(actual.getMaterializedTuples(), expectedBuilder.build().getMaterializedTuples());
+            joinOperatorFactory.close();
+        }
+        finally {
+            deleteRecursively(tempDirectory);
+        }
+    }
+
+    @Test
+    public void testOuterJoinWithSpillAndConcurrentProbes()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        TaskContext taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(128, KILOBYTE));
+
+        File tempDirectory = Files.createTempDir();
+        File spillDirectory = new File(tempDirectory, "spill");
+        try {
+            HashSupplier hashSupplier = buildSpilledHash(taskContext, spillDirectory);
+
+            // probe: keys 5000 to 14999, split between two probe operators
+            List<Page> probePages = new ArrayList<>();
+            MaterializedResult.Builder expectedBuilder = resultBuilder(new TupleInfo(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64));
+            for (int page = 0; page < 10; page++) {
+                probePages.addAll(rowPagesBuilder(SINGLE_LONG).addSequencePage(1000, 5000 + page * 1000).build());
+            }
+            for (int key = 5000; key < 15_000; key++) {
+                if (key < 10_000) {
+                    expectedBuilder.row(key, key, (key / 1000) * 9000 + key);
+                }
+                else {
+                    expectedBuilder.row(key, null, null);
+                }
+            }
+
+            HashJoinOperatorFactory joinOperatorFactory = HashJoinOperator.outerJoin(0, hashSupplier, ImmutableList.of(SINGLE_LONG), 0);
+            Operator firstJoin = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+            Operator secondJoin = joinOperatorFactory.createOperator(taskContext.addPipelineContext(true, true).addDriverContext());
+            joinOperatorFactory.close();
+
+            List<Page> pages = new ArrayList<>();
+            addInput(firstJoin, probePages.subList(0, 5), pages);
+            addInput(secondJoin, probePages.subList(5, 10), pages);
+
+            // both operators join the spilled partitions in turn
+            while (!firstJoin.isFinished() || !secondJoin.isFinished()) {
+                for (Operator joinOperator : ImmutableList.of(firstJoin, secondJoin)) {
+                    if (!joinOperator.isFinished() && joinOperator.isBlocked().isDone()) {
+                        Page page = joinOperator.getOutput();
+                        if (page != null) {
+                            pages.add(page);
+                        }
+                    }
+                }
+            }
+
+            MaterializedResult actual = toMaterializedResult(firstJoin.getTupleInfos(), pages);
+            assertEqualsIgnoreOrder(actual.getMaterializedTuples(), expectedBuilder.build().getMaterializedTuples());
+
+            // the spilled partitions of both sides are removed once both operators are finished
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(tempDirectory);
+        }
+    }
+
+    @Test
+    public void testSpilledPartitionIsSharedByProbes()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        TaskContext taskContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(128, KILOBYTE));
+
+        File tempDirectory = Files.createTempDir();
+        File spillDirectory = new File(tempDirectory, "spill");
+        try {
+            HashSupplier hashSupplier = buildSpilledHash(taskContext, spillDirectory);
+            hashSupplier.retain();
+            OperatorContext firstContext = taskContext.addPipelineContext(true, true).addDriverContext().addOperatorContext(0, HashJoinOperator.class.getSimpleName());
+            OperatorContext secondContext = taskContext.addPipelineContext(true, true).addDriverContext().addOperatorContext(0, HashJoinOperator.class.getSimpleName());
+
+            // the spilled partition does not fit in the memory left by the build, so it is split when it is first acquired
+            SpilledBuildPartition spilled = hashSupplier.getSourceHash().get().getSpilledPartitions().values().iterator().next();
+            assertTrue(hashSupplier.acquireSpilledPartition(spilled, firstContext).isDone());
+            assertTrue(spilled.isSplit());
+            SpilledBuildPartition first = spilled.getSubPartitions().get(0);
+            SpilledBuildPartition second = spilled.getSubPartitions().get(1);
+            assertFalse(first.isEmpty());
+            assertFalse(second.isEmpty());
+
+            // the partition is loaded by the first operator, and shared with the second operator
+            assertTrue(hashSupplier.acquireSpilledPartition(first, firstContext).isDone());
+            assertTrue(first.isLoaded());
+            assertTrue(hashSupplier.acquireSpilledPartition(first, secondContext).isDone());
+            assertTrue(firstContext.getOperatorStats().getMemoryReservation().toBytes() > 0);
+            assertEquals(secondContext.getOperatorStats().getMemoryReservation().toBytes(), 0L);
+
+            // the next partition is loaded once the loaded partition is released by both operators
+            ListenableFuture<?> secondLoaded = hashSupplier.acquireSpilledPartition(second, secondContext);
+            assertFalse(secondLoaded.isDone());
+            hashSupplier.releaseSpilledPartition(first);
+            assertFalse(secondLoaded.isDone());
+            hashSupplier.releaseSpilledPartition(first);
+            assertTrue(secondLoaded.isDone());
+
+            assertTrue(hashSupplier.acquireSpilledPartition(second, secondContext).isDone());
+            assertFalse(first.isLoaded());
+            assertTrue(second.isLoaded());
+            hashSupplier.releaseSpilledPartition(second);
+
+            hashSupplier.release();
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(tempDirectory);
+        }
+    }
+
+    private HashSupplier buildSpilledHash(TaskContext taskContext, File spillDirectory)
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build: keys 0 to 9999
+        RowPagesBuilder buildPages = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG);
+        for (int page = 0; page < 10; page++) {
+            buildPages.addSequencePage(1000, page * 1000, page * 10_000);
+        }
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, buildPages.build());
+
+        HashBuilderOperatorFactory hashBuilderOperatorFactory = new HashBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 0, 100, Optional.of(spillDirectory));
+        Operator sourceHashProvider = hashBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, sourceHashProvider);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        // some build partitions did not fit in memory
+        assertTrue(spillDirectory.list().length > 0);
+        return hashBuilderOperatorFactory.getHashSupplier();
+    }
+
+    private static void addInput(Operator operator, List<Page> input, List<Page> output)
+    {
+        for (Page page : input) {
+            while (!operator.needsInput()) {
+                Page outputPage = operator.getOutput();
+                if (outputPage != null) {
+                    output.add(outputPage);
+                }
+            }
+            operator.addInput(page);
+        }
+        operator.finish();
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size.*")
     public void testMemoryLimit()
             throws Exception
@@ -464,4 +868,26 @@ public class TestHashJoinOperator
             driver.process();
         }
     }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size.*")
+    public void testConcurrentBuildMemoryLimit()
+            throws Exception
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(100, BYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, HashBuilderOperator.class.getSimpleName());
+
+        // the segment is indexed in another task, so only merging the segments exceeds the limit
+        List<TupleInfo> tupleInfos = ImmutableList.of(SINGLE_LONG, SINGLE_LONG);
+        OperatorContext segmentContext = taskContext.addPipelineContext(true, true).addDriverContext().addOperatorContext(0, HashBuilderOperator.class.getSimpleName());
+        PagesIndex segment = new PagesIndex(tupleInfos, 0, segmentContext);
+        for (Page page : rowPagesBuilder(tupleInfos).addSequencePage(1000, 0, 1000).build()) {
+            segment.addPage(page);
+        }
+
+        HashSupplier hashSupplier = new HashSupplier(tupleInfos, 0, 1);
+        hashSupplier.addSegment(segment, new IntArrayList[] {new IntArrayList()}, operatorContext);
+    }
 }
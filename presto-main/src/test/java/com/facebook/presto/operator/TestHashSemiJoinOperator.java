@@ -13,6 +13,8 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.HashSemiJoinOperator.HashSemiJoinOperatorFactory;
 import com.facebook.presto.operator.SetBuilderOperator.SetBuilderOperatorFactory;
@@ -27,10 +29,12 @@ import org.testng.annotations.Test;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.Type.BOOLEAN;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static io.airlift.units.DataSize.Unit.BYTE;
@@ -108,6 +112,54 @@ public class TestHashSemiJoinOperator
         OperatorAssertion.assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testDictionaryBuild()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build with the keys 10, 30, 30, 35 and 50 encoded in a dictionary
+        Dictionary dictionary = new Dictionary(SINGLE_LONG,
+                createTuple(10).getTupleSlice(),
+                createTuple(30).getTupleSlice(),
+                createTuple(35).getTupleSlice(),
+                createTuple(50).getTupleSlice());
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, ImmutableList.of(new Page(new DictionaryEncodedBlock(dictionary, createLongsBlock(0, 1, 1, 2, 3)))));
+        SetBuilderOperatorFactory setBuilderOperatorFactory = new SetBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 0, 10);
+        Operator setBuilderOperator = setBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, setBuilderOperator);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        // probe
+        List<Page> probeInput = rowPagesBuilder(SINGLE_LONG, SINGLE_LONG)
+                .addSequencePage(8, 30, 0)
+                .build();
+        HashSemiJoinOperatorFactory joinOperatorFactory = new HashSemiJoinOperatorFactory(
+                2,
+                setBuilderOperatorFactory.getSetProvider(),
+                ImmutableList.of(SINGLE_LONG, SINGLE_LONG),
+                0);
+        Operator joinOperator = joinOperatorFactory.createOperator(driverContext);
+
+        // expected
+        MaterializedResult expected = resultBuilder(FIXED_INT_64, FIXED_INT_64, BOOLEAN)
+                .row(30, 0, true)
+                .row(31, 1, false)
+                .row(32, 2, false)
+                .row(33, 3, false)
+                .row(34, 4, false)
+                .row(35, 5, true)
+                .row(36, 6, false)
+                .row(37, 7, false)
+                .build();
+
+        OperatorAssertion.assertOperatorEquals(joinOperator, probeInput, expected);
+    }
+
     @Test
     public void testBuildSideNulls()
             throws Exception
@@ -247,6 +299,47 @@ public class TestHashSemiJoinOperator
         OperatorAssertion.assertOperatorEquals(joinOperator, probeInput, expected);
     }
 
+    @Test
+    public void testLargeSet()
+            throws Exception
+    {
+        DriverContext driverContext = taskContext.addPipelineContext(true, true).addDriverContext();
+
+        // build a set large enough to be probed through a bloom filter
+        RowPagesBuilder buildPages = rowPagesBuilder(SINGLE_LONG);
+        for (int value = 0; value < 100_000; value += 2) {
+            buildPages.row(value);
+        }
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, StaticOperator.class.getSimpleName());
+        Operator buildOperator = new StaticOperator(operatorContext, buildPages.build());
+        SetBuilderOperatorFactory setBuilderOperatorFactory = new SetBuilderOperatorFactory(1, buildOperator.getTupleInfos(), 0, 10);
+        Operator setBuilderOperator = setBuilderOperatorFactory.createOperator(driverContext);
+
+        Driver driver = new Driver(driverContext, buildOperator, setBuilderOperator);
+        while (!driver.isFinished()) {
+            driver.process();
+        }
+
+        // probe
+        List<Page> probeInput = rowPagesBuilder(SINGLE_LONG)
+                .addSequencePage(1000, 99_500)
+                .build();
+        HashSemiJoinOperatorFactory joinOperatorFactory = new HashSemiJoinOperatorFactory(
+                2,
+                setBuilderOperatorFactory.getSetProvider(),
+                ImmutableList.of(SINGLE_LONG),
+                0);
+        Operator joinOperator = joinOperatorFactory.createOperator(driverContext);
+
+        // expected
+        MaterializedResult.Builder expected = resultBuilder(FIXED_INT_64, BOOLEAN);
+        for (int value = 99_500; value < 100_500; value++) {
+            expected.row(value, value % 2 == 0 && value < 100_000);
+        }
+
+        OperatorAssertion.assertOperatorEquals(joinOperator, probeInput, expected.build());
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size.*")
     public void testMemoryLimit()
             throws Exception
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestInMemoryExchange
+{
+    private ExecutorService executor;
+    private DriverContext driverContext;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test"));
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBoundedBuffer()
+            throws Exception
+    {
+        Page page = rowPagesBuilder(SINGLE_LONG).addSequencePage(100, 0).build().get(0);
+
+        // the buffer is full once it holds more than one page
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG), new DataSize(page.getDataSize().toBytes() + 1, BYTE));
+        Operator sink = exchange.createSinkFactory(0).createOperator(driverContext);
+        exchange.noMoreSinkFactories();
+
+        assertTrue(sink.needsInput());
+        assertTrue(sink.isBlocked().isDone());
+        sink.addInput(page);
+        assertTrue(sink.needsInput());
+        sink.addInput(page);
+        assertFalse(sink.needsInput());
+        ListenableFuture<?> blocked = sink.isBlocked();
+        assertFalse(blocked.isDone());
+
+        // draining a page unblocks the sink
+        assertNotNull(exchange.removePage());
+        assertTrue(blocked.isDone());
+        assertTrue(sink.needsInput());
+        assertTrue(sink.isBlocked().isDone());
+
+        assertNotNull(exchange.removePage());
+        assertNull(exchange.removePage());
+    }
+
+    @Test
+    public void testFinishUnblocksSinks()
+            throws Exception
+    {
+        Page page = rowPagesBuilder(SINGLE_LONG).addSequencePage(100, 0).build().get(0);
+
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG), new DataSize(1, BYTE));
+        Operator sink = exchange.createSinkFactory(0).createOperator(driverContext);
+        exchange.noMoreSinkFactories();
+
+        sink.addInput(page);
+        ListenableFuture<?> blocked = sink.isBlocked();
+        assertFalse(blocked.isDone());
+
+        exchange.finish();
+        assertTrue(blocked.isDone());
+        assertTrue(sink.isBlocked().isDone());
+    }
+
+    @Test
+    public void testUnboundedBuffer()
+            throws Exception
+    {
+        Page page = rowPagesBuilder(SINGLE_LONG).addSequencePage(100, 0).build().get(0);
+
+        InMemoryExchange exchange = new InMemoryExchange(ImmutableList.of(SINGLE_LONG));
+        Operator sink = exchange.createSinkFactory(0).createOperator(driverContext);
+        exchange.noMoreSinkFactories();
+
+        for (int i = 0; i < 100; i++) {
+            sink.addInput(page);
+        }
+        assertTrue(sink.needsInput());
+        assertTrue(sink.isBlocked().isDone());
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.operator.MergeOperator.MergeOperatorFactory;
+import com.facebook.presto.serde.PagesSerde;
+import com.facebook.presto.split.RemoteSplit;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.planner.plan.PlanNodeId;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.util.MaterializedResult;
+import com.facebook.presto.util.MaterializedTuple;
+import com.google.common.base.Function;
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableListMultimap.Builder;
+import com.google.common.collect.Iterables;
+import io.airlift.http.client.AsyncHttpClient;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.PrestoMediaTypes.PRESTO_PAGES;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_NEXT_TOKEN;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_TOKEN;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static com.facebook.presto.operator.RowPagesBuilder.rowPagesBuilder;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.util.MaterializedResult.resultBuilder;
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestMergeOperator
+{
+    private static final List<TupleInfo> TUPLE_INFOS = ImmutableList.of(SINGLE_LONG, SINGLE_VARBINARY);
+
+    private static final String TASK_1_ID = "task1";
+    private static final String TASK_2_ID = "task2";
+    private static final String TASK_3_ID = "task3";
+
+    private LoadingCache<String, TaskBuffer> taskBuffers;
+    private ExecutorService executor;
+    private AsyncHttpClient httpClient;
+
+    private DriverContext driverContext;
+    private Supplier<ExchangeClient> exchangeClientSupplier;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        taskBuffers = CacheBuilder.newBuilder().build(new CacheLoader<String, TaskBuffer>()
+        {
+            @Override
+            public TaskBuffer load(String key)
+                    throws Exception
+            {
+                return new TaskBuffer();
+            }
+        });
+        executor = newCachedThreadPool(daemonThreadsNamed("test-%s"));
+
+        httpClient = new TestingHttpClient(new HttpClientHandler(), executor);
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session)
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        exchangeClientSupplier = new Supplier<ExchangeClient>()
+        {
+            @Override
+            public ExchangeClient get()
+            {
+                return new ExchangeClient(new DataSize(32, MEGABYTE), new DataSize(10, MEGABYTE), 3, httpClient, executor);
+            }
+        };
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        taskBuffers = null;
+
+        httpClient.close();
+        httpClient = null;
+
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    @Test
+    public void testMerge()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(new boolean[] {true}, TASK_1_ID, TASK_2_ID, TASK_3_ID);
+
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(1, "a")
+                .row(4, "d")
+                .pageBreak()
+                .row(7, "g")
+                .build(), true);
+        taskBuffers.getUnchecked(TASK_2_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(2, "b")
+                .row(5, "e")
+                .row(8, "h")
+                .build(), true);
+        taskBuffers.getUnchecked(TASK_3_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(3, "c")
+                .pageBreak()
+                .row(6, "f")
+                .pageBreak()
+                .row(9, "i")
+                .build(), true);
+
+        MaterializedResult expected = resultBuilder(TUPLE_INFOS)
+                .row(1, "a")
+                .row(2, "b")
+                .row(3, "c")
+                .row(4, "d")
+                .row(5, "e")
+                .row(6, "f")
+                .row(7, "g")
+                .row(8, "h")
+                .row(9, "i")
+                .build();
+
+        assertEquals(toMaterializedResult(TUPLE_INFOS, readUntilFinished(operator)), expected);
+    }
+
+    @Test
+    public void testMergeDescending()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(new boolean[] {false}, TASK_1_ID, TASK_2_ID);
+
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(9, "a")
+                .row(5, "b")
+                .row(5, "c")
+                .build(), true);
+        taskBuffers.getUnchecked(TASK_2_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(7, "d")
+                .pageBreak()
+                .row(1, "e")
+                .build(), true);
+
+        List<Page> pages = readUntilFinished(operator);
+
+        List<Long> keys = new ArrayList<>();
+        for (MaterializedTuple tuple : toMaterializedResult(TUPLE_INFOS, pages).getMaterializedTuples()) {
+            keys.add((Long) tuple.getField(0));
+        }
+        assertEquals(keys, ImmutableList.of(9L, 7L, 5L, 5L, 1L));
+    }
+
+    @Test
+    public void testWaitsForEveryTask()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(new boolean[] {true}, TASK_1_ID, TASK_2_ID);
+
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(1, "a")
+                .row(2, "b")
+                .build(), true);
+
+        // the second task has not produced a row, so nothing can be merged yet
+        Thread.sleep(100);
+        assertNull(operator.getOutput());
+        assertFalse(operator.isFinished());
+        assertFalse(operator.isBlocked().isDone());
+
+        taskBuffers.getUnchecked(TASK_2_ID).addPages(rowPagesBuilder(TUPLE_INFOS)
+                .row(0, "c")
+                .build(), true);
+
+        MaterializedResult expected = resultBuilder(TUPLE_INFOS)
+                .row(0, "c")
+                .row(1, "a")
+                .row(2, "b")
+                .build();
+
+        assertEquals(toMaterializedResult(TUPLE_INFOS, readUntilFinished(operator)), expected);
+    }
+
+    @Test
+    public void testFinish()
+            throws Exception
+    {
+        SourceOperator operator = createOperator(new boolean[] {true}, TASK_1_ID, TASK_2_ID);
+
+        // leave the buffers open
+        taskBuffers.getUnchecked(TASK_1_ID).addPages(rowPagesBuilder(TUPLE_INFOS).row(1, "a").build(), false);
+
+        assertFalse(operator.isFinished());
+
+        operator.finish();
+
+        assertTrue(operator.isFinished());
+        assertNull(operator.getOutput());
+    }
+
+    private SourceOperator createOperator(boolean[] sortOrder, String... taskIds)
+    {
+        MergeOperatorFactory operatorFactory = new MergeOperatorFactory(0, new PlanNodeId("test"), exchangeClientSupplier, TUPLE_INFOS, new int[] {0}, sortOrder);
+        SourceOperator operator = operatorFactory.createOperator(driverContext);
+
+        for (String taskId : taskIds) {
+            operator.addSplit(new RemoteSplit(URI.create("http://localhost/" + taskId), TUPLE_INFOS));
+        }
+        operator.noMoreSplits();
+        return operator;
+    }
+
+    private static List<Page> readUntilFinished(Operator operator)
+            throws InterruptedException
+    {
+        // read until finished or until 10 seconds has passed
+        long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<Page> outputPages = new ArrayList<>();
+        while (!operator.isFinished() && System.nanoTime() < endTime) {
+            assertEquals(operator.needsInput(), false);
+
+            Page outputPage = operator.getOutput();
+            if (outputPage != null) {
+                outputPages.add(outputPage);
+            }
+            else {
+                Thread.sleep(10);
+            }
+        }
+
+        // verify final state
+        assertEquals(operator.isFinished(), true);
+        assertNull(operator.getOutput());
+
+        return outputPages;
+    }
+
+    private class HttpClientHandler
+            implements Function<Request, Response>
+    {
+        @Override
+        public Response apply(Request request)
+        {
+            ImmutableList<String> parts = ImmutableList.copyOf(Splitter.on("/").omitEmptyStrings().split(request.getUri().getPath()));
+            assertEquals(parts.size(), 2);
+            String taskId = parts.get(0);
+            int pageToken = Integer.parseInt(parts.get(1));
+
+            Builder<String, String> headers = ImmutableListMultimap.builder();
+            headers.put(PRESTO_PAGE_TOKEN, String.valueOf(pageToken));
+
+            TaskBuffer taskBuffer = taskBuffers.getUnchecked(taskId);
+            Page page = taskBuffer.getPage(pageToken);
+            if (page != null) {
+                headers.put(CONTENT_TYPE, PRESTO_PAGES);
+                headers.put(PRESTO_PAGE_NEXT_TOKEN, String.valueOf(pageToken + 1));
+                DynamicSliceOutput output = new DynamicSliceOutput(256);
+                PagesSerde.writePages(output, page);
+                return new TestingResponse(HttpStatus.OK, headers.build(), output.slice().getInput());
+            }
+            else if (taskBuffer.isClosed()) {
+                headers.put(PRESTO_PAGE_NEXT_TOKEN, String.valueOf(pageToken));
+                return new TestingResponse(HttpStatus.GONE, headers.build(), new byte[0]);
+            }
+            else {
+                headers.put(PRESTO_PAGE_NEXT_TOKEN, String.valueOf(pageToken));
+                return new TestingResponse(HttpStatus.NO_CONTENT, headers.build(), new byte[0]);
+            }
+        }
+    }
+
+    private static class TaskBuffer
+    {
+        private final List<Page> buffer = new ArrayList<>();
+        private volatile boolean closed;
+
+        private synchronized void addPages(Iterable<Page> pages, boolean close)
+        {
+            Iterables.addAll(buffer, pages);
+            if (close) {
+                closed = true;
+            }
+        }
+
+        private synchronized Page getPage(int pageSequenceId)
+        {
+            if (pageSequenceId >= buffer.size()) {
+                return null;
+            }
+            return buffer.get(pageSequenceId);
+        }
+
+        private boolean isClosed()
+        {
+            return closed;
+        }
+    }
+}
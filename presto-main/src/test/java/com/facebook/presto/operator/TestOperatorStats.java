@@ -50,7 +50,8 @@ public class TestOperatorStats
             new Duration(17, NANOSECONDS),
 
             new DataSize(18, BYTE),
-            "19");
+            19,
+            "20");
 
     @Test
     public void testJson()
@@ -90,7 +91,8 @@ public class TestOperatorStats
         Assert.assertEquals(actual.getFinishUser(), new Duration(17, NANOSECONDS));
 
         Assert.assertEquals(actual.getMemoryReservation(), new DataSize(18, BYTE));
-        Assert.assertEquals(actual.getInfo(), "19");
+        Assert.assertEquals(actual.getHashTableRehashes(), 19);
+        Assert.assertEquals(actual.getInfo(), "20");
     }
 
     @Test
@@ -122,6 +124,7 @@ public class TestOperatorStats
         Assert.assertEquals(actual.getFinishCpu(), new Duration(3 * 16, NANOSECONDS));
         Assert.assertEquals(actual.getFinishUser(), new Duration(3 * 17, NANOSECONDS));
         Assert.assertEquals(actual.getMemoryReservation(), new DataSize(3 * 18, BYTE));
+        Assert.assertEquals(actual.getHashTableRehashes(), 3 * 19);
         Assert.assertEquals(actual.getInfo(), null);
     }
 }
@@ -18,13 +18,16 @@ import com.facebook.presto.operator.OrderByOperator.InMemoryOrderByOperatorFacto
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
@@ -38,7 +41,10 @@ import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestOrderByOperator
 {
@@ -157,6 +163,54 @@ public class TestOrderByOperator
         assertOperatorEquals(operator, input, expected);
     }
 
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        RowPagesBuilder pagesBuilder = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE);
+        MaterializedResult.Builder expectedBuilder = resultBuilder(FIXED_INT_64, DOUBLE);
+        for (int page = 0; page < 10; page++) {
+            for (int position = 0; position < 1000; position++) {
+                int value = position * 10 + page;
+                pagesBuilder.row(value, value / 10.0);
+            }
+            pagesBuilder.pageBreak();
+        }
+        for (int value = 0; value < 10_000; value++) {
+            expectedBuilder.row(value, value / 10.0);
+        }
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(64, Unit.KILOBYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File tempDirectory = Files.createTempDir();
+        File spillDirectory = new File(tempDirectory, "spill");
+        try {
+            InMemoryOrderByOperatorFactory operatorFactory = new InMemoryOrderByOperatorFactory(
+                    0,
+                    ImmutableList.of(SINGLE_LONG, SINGLE_DOUBLE),
+                    0,
+                    new int[] {0, 1},
+                    10,
+                    new int[] {0},
+                    new boolean[] {true},
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            assertOperatorEquals(operator, pagesBuilder.build(), expectedBuilder.build());
+
+            // runs were spilled and removed once merged
+            assertTrue(spillDirectory.isDirectory());
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(tempDirectory);
+        }
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size of 10B")
     public void testMemoryLimit()
             throws Exception
@@ -16,6 +16,8 @@ package com.facebook.presto.operator;
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.spi.InMemoryRecordSet;
 import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.util.ColumnarRecordSet;
 import com.facebook.presto.util.InfiniteRecordSet;
 import com.facebook.presto.util.MaterializedResult;
 import com.google.common.collect.ImmutableList;
@@ -23,9 +25,12 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.spi.ColumnType.BOOLEAN;
+import static com.facebook.presto.spi.ColumnType.DOUBLE;
 import static com.facebook.presto.spi.ColumnType.LONG;
 import static com.facebook.presto.spi.ColumnType.STRING;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
@@ -97,6 +102,27 @@ public class TestRecordProjectOperator
         OperatorAssertion.assertOperatorEquals(operator, expected);
     }
 
+    @Test
+    public void testColumnarCursor()
+            throws Exception
+    {
+        InMemoryRecordSet records = new InMemoryRecordSet(ImmutableList.of(STRING, LONG, DOUBLE, BOOLEAN), ImmutableList.copyOf(new List<?>[] {
+                ImmutableList.of("abc", 1L, 1.5, true),
+                Arrays.asList(null, 2L, null, false),
+                Arrays.asList("g", null, 0.0, null)}));
+
+        OperatorContext operatorContext = driverContext.addOperatorContext(0, RecordProjectOperator.class.getSimpleName());
+        Operator operator = new RecordProjectOperator(operatorContext, new ColumnarRecordSet(records));
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, TupleInfo.Type.DOUBLE, TupleInfo.Type.BOOLEAN)
+                .row("abc", 1, 1.5, true)
+                .row(null, 2, null, false)
+                .row("g", null, 0.0, null)
+                .build();
+
+        OperatorAssertion.assertOperatorEquals(operator, expected);
+    }
+
     @Test
     public void testFinish()
             throws Exception
@@ -14,19 +14,21 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.metadata.MetadataManager;
 import com.facebook.presto.operator.TopNOperator.TopNOperatorFactory;
 import com.facebook.presto.sql.analyzer.Session;
-import com.facebook.presto.sql.tree.SortItem;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
+import com.facebook.presto.sql.gen.ExpressionCompiler;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 
 import static com.facebook.presto.operator.OperatorAssertion.assertOperatorEquals;
@@ -43,6 +45,7 @@ import static java.util.concurrent.Executors.newCachedThreadPool;
 
 public class TestTopNOperator
 {
+    private final ExpressionCompiler compiler = new ExpressionCompiler(new MetadataManager());
     private ExecutorService executor;
     private DriverContext driverContext;
 
@@ -84,7 +87,7 @@ public class TestTopNOperator
                 2,
                 0,
                 ImmutableList.of(singleColumn(FIXED_INT_64, 0, 0), singleColumn(DOUBLE, 1, 0)),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0), ImmutableList.of(SortItem.Ordering.DESCENDING))),
+                compiler.compileTupleComparator(SINGLE_LONG, ImmutableList.of(0), ImmutableList.of(false)),
                 false);
 
         Operator operator = factory.createOperator(driverContext);
@@ -119,7 +122,7 @@ public class TestTopNOperator
                 3,
                 0,
                 ImmutableList.of(ProjectionFunctions.concat(singleColumn(VARIABLE_BINARY, 0, 0), singleColumn(FIXED_INT_64, 0, 1))),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0, 1), ImmutableList.of(SortItem.Ordering.DESCENDING, SortItem.Ordering.DESCENDING))),
+                compiler.compileTupleComparator(tupleInfo, ImmutableList.of(0, 1), ImmutableList.of(false, false)),
                 false);
 
         Operator operator = operatorFactory.createOperator(driverContext);
@@ -155,7 +158,7 @@ public class TestTopNOperator
                 2,
                 0,
                 ImmutableList.of(singleColumn(FIXED_INT_64, 0, 0), singleColumn(DOUBLE, 1, 0)),
-                Ordering.from(new FieldOrderedTupleComparator(ImmutableList.of(0), ImmutableList.of(SortItem.Ordering.ASCENDING))),
+                compiler.compileTupleComparator(SINGLE_LONG, ImmutableList.of(0), ImmutableList.of(true)),
                 false);
 
         Operator operator = operatorFactory.createOperator(driverContext);
@@ -167,4 +170,42 @@ public class TestTopNOperator
 
         assertOperatorEquals(operator, input, expected);
     }
+
+    @Test
+    public void testManyPages()
+            throws Exception
+    {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values, new Random(0));
+
+        // enough rows to skip most of them and to compact the retained pages several times
+        RowPagesBuilder rowPagesBuilder = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE);
+        for (int i = 0; i < values.size(); i++) {
+            if (i % 1000 == 0) {
+                rowPagesBuilder.pageBreak();
+            }
+            rowPagesBuilder.row(values.get(i), values.get(i) / 10.0);
+        }
+        List<Page> input = rowPagesBuilder.build();
+
+        TopNOperatorFactory operatorFactory = new TopNOperatorFactory(
+                0,
+                1000,
+                0,
+                ImmutableList.of(singleColumn(FIXED_INT_64, 0, 0), singleColumn(DOUBLE, 1, 0)),
+                compiler.compileTupleComparator(SINGLE_LONG, ImmutableList.of(0), ImmutableList.of(false)),
+                false);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult.Builder expected = resultBuilder(FIXED_INT_64, DOUBLE);
+        for (int value = 99_999; value >= 99_000; value--) {
+            expected.row(value, value / 10.0);
+        }
+
+        assertOperatorEquals(operator, input, expected.build());
+    }
 }
@@ -15,18 +15,22 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.execution.TaskId;
 import com.facebook.presto.operator.WindowOperator.InMemoryWindowOperatorFactory;
+import com.facebook.presto.operator.window.RankFunction;
 import com.facebook.presto.operator.window.RowNumberFunction;
 import com.facebook.presto.operator.window.WindowFunction;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.util.MaterializedResult;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
@@ -41,7 +45,13 @@ import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static com.facebook.presto.util.MaterializedResult.resultBuilder;
 import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static io.airlift.testing.FileUtils.deleteRecursively;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static com.facebook.presto.operator.OperatorAssertion.toMaterializedResult;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestWindowOperator
 {
@@ -184,6 +194,174 @@ public class TestWindowOperator
         assertOperatorEquals(operator, input, expected);
     }
 
+    @Test
+    public void testSpillToDisk()
+            throws Exception
+    {
+        TupleInfo sourceTupleInfo = new TupleInfo(FIXED_INT_64, FIXED_INT_64);
+
+        RowPagesBuilder pagesBuilder = rowPagesBuilder(sourceTupleInfo);
+        for (int page = 0; page < 10; page++) {
+            for (int position = 0; position < 1000; position++) {
+                int value = page * 1000 + position;
+                pagesBuilder.row(value % 10, value);
+            }
+            pagesBuilder.pageBreak();
+        }
+
+        MaterializedResult.Builder expectedBuilder = resultBuilder(FIXED_INT_64, FIXED_INT_64, FIXED_INT_64);
+        for (int partition = 0; partition < 10; partition++) {
+            for (int rowNumber = 1; rowNumber <= 1000; rowNumber++) {
+                expectedBuilder.row(partition, (rowNumber - 1) * 10 + partition, rowNumber);
+            }
+        }
+
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        DriverContext driverContext = new TaskContext(new TaskId("query", "stage", "task"), executor, session, new DataSize(64, Unit.KILOBYTE))
+                .addPipelineContext(true, true)
+                .addDriverContext();
+
+        File tempDirectory = Files.createTempDir();
+        File spillDirectory = new File(tempDirectory, "spill");
+        try {
+            InMemoryWindowOperatorFactory operatorFactory = new InMemoryWindowOperatorFactory(
+                    0,
+                    ImmutableList.of(sourceTupleInfo),
+                    0,
+                    ints(0),
+                    ROW_NUMBER,
+                    ints(0),
+                    ints(1),
+                    bools(true),
+                    10,
+                    Optional.of(spillDirectory));
+
+            Operator operator = operatorFactory.createOperator(driverContext);
+
+            assertOperatorEquals(operator, pagesBuilder.build(), expectedBuilder.build());
+
+            // runs were spilled and removed once merged
+            assertTrue(spillDirectory.isDirectory());
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            deleteRecursively(tempDirectory);
+        }
+    }
+
+    @Test
+    public void testPreSortedRankPartition()
+            throws Exception
+    {
+        TupleInfo sourceTupleInfo = new TupleInfo(VARIABLE_BINARY, FIXED_INT_64);
+
+        // partitions and peer groups span pages
+        List<Page> input = rowPagesBuilder(sourceTupleInfo)
+                .row("a", 1)
+                .row("a", 1)
+                .pageBreak()
+                .row("a", 2)
+                .row("b", 1)
+                .pageBreak()
+                .row("b", 1)
+                .pageBreak()
+                .row("b", 3)
+                .row("c", 2)
+                .row("d", 1)
+                .row("d", 1)
+                .build();
+
+        InMemoryWindowOperatorFactory operatorFactory = new InMemoryWindowOperatorFactory(
+                0,
+                ImmutableList.of(sourceTupleInfo),
+                0,
+                ints(0),
+                ImmutableList.<WindowFunction>of(new RankFunction()),
+                ints(0),
+                ints(1),
+                bools(true),
+                10,
+                Optional.<File>absent(),
+                true);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        MaterializedResult expected = resultBuilder(VARIABLE_BINARY, FIXED_INT_64, FIXED_INT_64)
+                .row("a", 1, 1)
+                .row("a", 1, 1)
+                .row("a", 2, 3)
+                .row("b", 1, 1)
+                .row("b", 1, 1)
+                .row("b", 3, 3)
+                .row("c", 2, 1)
+                .row("d", 1, 1)
+                .row("d", 1, 1)
+                .build();
+
+        assertOperatorEquals(operator, input, expected);
+    }
+
+    @Test
+    public void testPreSortedOutputsCompletePartitions()
+            throws Exception
+    {
+        List<Page> input = rowPagesBuilder(SINGLE_LONG, SINGLE_DOUBLE)
+                .row(1, 0.1)
+                .row(1, 0.2)
+                .pageBreak()
+                .row(1, 0.3)
+                .row(2, 0.4)
+                .pageBreak()
+                .row(2, 0.5)
+                .build();
+
+        InMemoryWindowOperatorFactory operatorFactory = new InMemoryWindowOperatorFactory(
+                0,
+                ImmutableList.of(SINGLE_LONG, SINGLE_DOUBLE),
+                0,
+                ints(0, 1),
+                ROW_NUMBER,
+                ints(0),
+                ints(),
+                bools(),
+                10,
+                Optional.<File>absent(),
+                true);
+
+        Operator operator = operatorFactory.createOperator(driverContext);
+
+        // the first partition is not known to be complete
+        operator.addInput(input.get(0));
+        assertTrue(operator.needsInput());
+        assertEquals(operator.getOutput(), null);
+
+        // the first row of the second partition completes the first partition
+        operator.addInput(input.get(1));
+        assertFalse(operator.needsInput());
+        Page page = operator.getOutput();
+        assertNotNull(page);
+        assertEquals(toMaterializedResult(operator.getTupleInfos(), ImmutableList.of(page)), resultBuilder(FIXED_INT_64, DOUBLE, FIXED_INT_64)
+                .row(1, 0.1, 1)
+                .row(1, 0.2, 2)
+                .row(1, 0.3, 3)
+                .build());
+        assertTrue(operator.needsInput());
+
+        operator.addInput(input.get(2));
+        assertTrue(operator.needsInput());
+        assertEquals(operator.getOutput(), null);
+
+        operator.finish();
+        page = operator.getOutput();
+        assertNotNull(page);
+        assertEquals(toMaterializedResult(operator.getTupleInfos(), ImmutableList.of(page)), resultBuilder(FIXED_INT_64, DOUBLE, FIXED_INT_64)
+                .row(2, 0.4, 1)
+                .row(2, 0.5, 2)
+                .build());
+        assertEquals(operator.getOutput(), null);
+        assertTrue(operator.isFinished());
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Task exceeded max memory size of 10B")
     public void testMemoryLimit()
             throws Exception
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.operator.aggregation;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.columnar.LongArrayBlock;
+
+public class TestColumnarLongSumAggregation
+        extends TestLongSumAggregation
+{
+    @Override
+    public Block getSequenceBlock(int start, int length)
+    {
+        long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = start + i;
+        }
+        return new LongArrayBlock(length, new boolean[length], values);
+    }
+}
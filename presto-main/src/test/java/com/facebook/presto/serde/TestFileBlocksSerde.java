@@ -15,19 +15,30 @@ package com.facebook.presto.serde;
 
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.spi.Domain;
+import com.facebook.presto.spi.Range;
+import com.facebook.presto.spi.SortedRangeSet;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.OutputSupplier;
 import io.airlift.slice.DynamicSliceOutput;
 import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.block.BlockAssertions.toValues;
 import static com.facebook.presto.serde.BlocksFileReader.readBlocks;
 import static com.facebook.presto.serde.BlocksFileWriter.writeBlocks;
+import static com.facebook.presto.serde.ZoneMap.ZONE_POSITIONS;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.google.common.base.Charsets.UTF_8;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestFileBlocksSerde
 {
@@ -76,6 +87,61 @@ public class TestFileBlocksSerde
         assertEquals(stats.getRowCount(), 12);
         assertEquals(stats.getRunsCount(), 12);
         assertEquals(stats.getUniqueCount(), 4);
+
+        ZoneMap zoneMap = actualBlocks.getZoneMap().get();
+        assertEquals(zoneMap.getZones().size(), 1);
+        ZoneMap.Zone zone = zoneMap.getZones().get(0);
+        assertEquals(zone.getPositionCount(), 12);
+        assertEquals(zone.getNullCount(), 0);
+        assertEquals(zone.getMin(), Slices.copiedBuffer("alice", UTF_8));
+        assertEquals(zone.getMax(), Slices.copiedBuffer("dave", UTF_8));
+        assertTrue(zoneMap.overlaps(Domain.singleValue("bob")));
+        assertFalse(zoneMap.overlaps(Domain.singleValue("eve")));
+    }
+
+    @Test
+    public void testZoneMap()
+    {
+        // a zone of nulls, a zone of values, and a partial zone with a null
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < ZONE_POSITIONS; i++) {
+            values.add(null);
+        }
+        for (int i = 0; i < ZONE_POSITIONS; i++) {
+            values.add((long) i);
+        }
+        values.add(null);
+        values.add(50_000L);
+
+        DynamicSliceOutputSupplier sliceOutput = new DynamicSliceOutputSupplier(1024);
+        writeBlocks(BlocksFileEncoding.RAW, sliceOutput, createLongsBlock(values));
+        List<ZoneMap.Zone> zones = readBlocks(sliceOutput.getLastSlice()).getZoneMap().get().getZones();
+
+        assertEquals(zones.size(), 3);
+        assertEquals(zones.get(0).getNullCount(), ZONE_POSITIONS);
+        assertNull(zones.get(0).getMin());
+        assertEquals(zones.get(1).getNullCount(), 0);
+        assertEquals(zones.get(1).getMin(), 0L);
+        assertEquals(zones.get(1).getMax(), ZONE_POSITIONS - 1L);
+        assertEquals(zones.get(2).getPositionCount(), 2);
+        assertEquals(zones.get(2).getNullCount(), 1);
+        assertEquals(zones.get(2).getMin(), 50_000L);
+        assertEquals(zones.get(2).getMax(), 50_000L);
+
+        Domain equal = Domain.singleValue(100L);
+        assertFalse(zones.get(0).overlaps(equal));
+        assertTrue(zones.get(1).overlaps(equal));
+        assertFalse(zones.get(2).overlaps(equal));
+
+        Domain onlyNull = Domain.onlyNull(Long.class);
+        assertTrue(zones.get(0).overlaps(onlyNull));
+        assertFalse(zones.get(1).overlaps(onlyNull));
+        assertTrue(zones.get(2).overlaps(onlyNull));
+
+        Domain greaterThan = Domain.create(SortedRangeSet.of(Range.greaterThan(ZONE_POSITIONS - 1L)), false);
+        assertFalse(zones.get(0).overlaps(greaterThan));
+        assertFalse(zones.get(1).overlaps(greaterThan));
+        assertTrue(zones.get(2).overlaps(greaterThan));
     }
 
     private static class DynamicSliceOutputSupplier
@@ -14,6 +14,9 @@
 package com.facebook.presto.serde;
 
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.Page;
 import io.airlift.slice.DynamicSliceOutput;
@@ -21,10 +24,13 @@ import org.testng.annotations.Test;
 
 import java.util.Iterator;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
 import static com.facebook.presto.serde.PagesSerde.readPages;
 import static com.facebook.presto.serde.PagesSerde.writePages;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static org.testng.Assert.assertFalse;
 
 public class TestPagesSerde
@@ -48,4 +54,24 @@ public class TestPagesSerde
         assertPageEquals(pageIterator.next(), expectedPage);
         assertFalse(pageIterator.hasNext());
     }
+
+    @Test
+    public void testRoundTripWithChangingEncodings()
+    {
+        Page uncompressedPage = new Page(createLongsBlock(0, 1, 2));
+        Page runLengthPage = new Page(new RunLengthEncodedBlock(createTuple(5), 3));
+        Page firstDictionaryPage = new Page(new DictionaryEncodedBlock(new Dictionary(SINGLE_LONG, createTuple(7).getTupleSlice()), createLongsBlock(0, 0, 0)));
+        Page secondDictionaryPage = new Page(new DictionaryEncodedBlock(new Dictionary(SINGLE_LONG, createTuple(8).getTupleSlice()), createLongsBlock(0, 0, 0)));
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writePages(sliceOutput, uncompressedPage, runLengthPage, runLengthPage, firstDictionaryPage, secondDictionaryPage, uncompressedPage);
+        Iterator<Page> pageIterator = readPages(sliceOutput.slice().getInput());
+        assertPageEquals(pageIterator.next(), uncompressedPage);
+        assertPageEquals(pageIterator.next(), runLengthPage);
+        assertPageEquals(pageIterator.next(), runLengthPage);
+        assertPageEquals(pageIterator.next(), firstDictionaryPage);
+        assertPageEquals(pageIterator.next(), secondDictionaryPage);
+        assertPageEquals(pageIterator.next(), uncompressedPage);
+        assertFalse(pageIterator.hasNext());
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner;
+
+import com.facebook.presto.metadata.FunctionHandle;
+import com.facebook.presto.metadata.InMemoryMetadata;
+import com.facebook.presto.metadata.InMemoryMetadata.InMemoryTableHandle;
+import com.facebook.presto.metadata.MetadataManager;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnStatistics;
+import com.facebook.presto.spi.SchemaTableName;
+import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.PlanFragment.OutputPartitioning;
+import com.facebook.presto.sql.planner.PlanFragment.PlanDistribution;
+import com.facebook.presto.sql.planner.plan.ExchangeNode;
+import com.facebook.presto.sql.planner.plan.JoinNode;
+import com.facebook.presto.sql.planner.plan.LimitNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.SinkNode;
+import com.facebook.presto.sql.planner.plan.SortNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode.GeneratedPartitions;
+import com.facebook.presto.sql.planner.plan.WindowNode;
+import com.facebook.presto.sql.tree.FunctionCall;
+import com.facebook.presto.sql.tree.SortItem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestDistributedLogicalPlanner
+{
+    private final Map<String, TableStatistics> statistics = new HashMap<>();
+    private PlanNodeIdAllocator idAllocator;
+    private SymbolAllocator symbolAllocator;
+    private MetadataManager metadata;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        idAllocator = new PlanNodeIdAllocator();
+        symbolAllocator = new SymbolAllocator();
+        statistics.clear();
+
+        metadata = new MetadataManager();
+        metadata.addConnectorMetadata("test", "test", new InMemoryMetadata()
+        {
+            @Override
+            public TableStatistics getTableStatistics(TableHandle tableHandle)
+            {
+                TableStatistics tableStatistics = statistics.get(((InMemoryTableHandle) tableHandle).getTableName().getTableName());
+                if (tableStatistics == null) {
+                    return TableStatistics.unknown();
+                }
+                return tableStatistics;
+            }
+        });
+    }
+
+    @Test
+    public void testBroadcastJoin()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.BIGINT);
+
+        SubPlan subPlan = createSubPlans(join(tableScan(left), tableScan(right), left, right), false);
+
+        // the build side is sent to every task of the probe side
+        PlanFragment fragment = subPlan.getFragment();
+        assertEquals(fragment.getDistribution(), PlanDistribution.SOURCE);
+        assertEquals(subPlan.getChildren().size(), 1);
+        assertEquals(subPlan.getChildren().get(0).getFragment().getOutputPartitioning(), OutputPartitioning.NONE);
+    }
+
+    @Test
+    public void testPartitionedJoin()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.BIGINT);
+
+        SubPlan subPlan = createSubPlans(join(tableScan(left), tableScan(right), left, right), true);
+
+        PlanFragment fragment = subPlan.getFragment();
+        assertEquals(fragment.getDistribution(), PlanDistribution.FIXED);
+        assertTrue(fragment.getRoot() instanceof JoinNode);
+        for (PlanNode source : fragment.getRoot().getSources()) {
+            assertTrue(source instanceof ExchangeNode);
+        }
+
+        assertEquals(subPlan.getChildren().size(), 2);
+        PlanFragment probe = subPlan.getChildren().get(0).getFragment();
+        assertEquals(probe.getOutputPartitioning(), OutputPartitioning.HASH);
+        assertEquals(probe.getPartitionBy(), ImmutableList.of(left));
+        PlanFragment build = subPlan.getChildren().get(1).getFragment();
+        assertEquals(build.getOutputPartitioning(), OutputPartitioning.HASH);
+        assertEquals(build.getPartitionBy(), ImmutableList.of(right));
+    }
+
+    @Test
+    public void testSmallBuildSideIsBroadcast()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.BIGINT);
+
+        PlanNode buildSide = new LimitNode(idAllocator.getNextId(), tableScan(right), 10);
+        SubPlan subPlan = createSubPlans(join(tableScan(left), buildSide, left, right), true);
+
+        assertEquals(subPlan.getFragment().getDistribution(), PlanDistribution.SOURCE);
+        assertEquals(subPlan.getChildren().size(), 1);
+    }
+
+    @Test
+    public void testBuildSideWithFewRowsIsBroadcast()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.BIGINT);
+
+        SubPlan subPlan = createSubPlans(join(tableScan(left), tableScan(right, 1_000), left, right), true);
+
+        assertEquals(subPlan.getFragment().getDistribution(), PlanDistribution.SOURCE);
+        assertEquals(subPlan.getChildren().size(), 1);
+    }
+
+    @Test
+    public void testBuildSideWithManyRowsIsPartitioned()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.BIGINT);
+
+        SubPlan subPlan = createSubPlans(join(tableScan(left), tableScan(right, 10_000_000), left, right), true);
+
+        assertEquals(subPlan.getFragment().getDistribution(), PlanDistribution.FIXED);
+        assertEquals(subPlan.getChildren().size(), 2);
+    }
+
+    @Test
+    public void testMismatchedKeyTypesAreBroadcast()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.DOUBLE);
+
+        SubPlan subPlan = createSubPlans(join(tableScan(left), tableScan(right), left, right), true);
+
+        assertEquals(subPlan.getFragment().getDistribution(), PlanDistribution.SOURCE);
+        assertEquals(subPlan.getChildren().size(), 1);
+    }
+
+    @Test
+    public void testDistributedSortIsMerged()
+    {
+        Symbol symbol = symbolAllocator.newSymbol("symbol", Type.BIGINT);
+
+        SortNode sort = new SortNode(
+                idAllocator.getNextId(),
+                tableScan(symbol),
+                ImmutableList.of(symbol),
+                ImmutableMap.of(symbol, SortItem.Ordering.DESCENDING));
+        SubPlan subPlan = createSubPlans(sort, false);
+
+        // the single node fragment merges the sorted outputs of the source tasks
+        PlanFragment fragment = subPlan.getFragment();
+        assertEquals(fragment.getDistribution(), PlanDistribution.NONE);
+        assertTrue(fragment.getRoot() instanceof ExchangeNode);
+        ExchangeNode exchange = (ExchangeNode) fragment.getRoot();
+        assertEquals(exchange.getOrderBy(), ImmutableList.of(symbol));
+        assertEquals(exchange.getOrderings(), ImmutableMap.of(symbol, SortItem.Ordering.DESCENDING));
+
+        assertEquals(subPlan.getChildren().size(), 1);
+        PlanFragment source = subPlan.getChildren().get(0).getFragment();
+        assertEquals(source.getDistribution(), PlanDistribution.SOURCE);
+        assertTrue(source.getRoot() instanceof SinkNode);
+        assertTrue(((SinkNode) source.getRoot()).getSource() instanceof SortNode);
+    }
+
+    @Test
+    public void testPartitionedWindow()
+    {
+        Symbol symbol = symbolAllocator.newSymbol("symbol", Type.BIGINT);
+
+        SubPlan subPlan = createSubPlans(window(tableScan(symbol), ImmutableList.of(symbol)), false);
+
+        PlanFragment fragment = subPlan.getFragment();
+        assertEquals(fragment.getDistribution(), PlanDistribution.FIXED);
+        assertTrue(fragment.getRoot() instanceof WindowNode);
+
+        assertEquals(subPlan.getChildren().size(), 1);
+        PlanFragment source = subPlan.getChildren().get(0).getFragment();
+        assertEquals(source.getOutputPartitioning(), OutputPartitioning.HASH);
+        assertEquals(source.getPartitionBy(), ImmutableList.of(symbol));
+    }
+
+    @Test
+    public void testStackedWindowsAreNotRepartitioned()
+    {
+        Symbol symbol = symbolAllocator.newSymbol("symbol", Type.BIGINT);
+
+        WindowNode lower = window(tableScan(symbol), ImmutableList.of(symbol));
+        SubPlan subPlan = createSubPlans(window(lower, ImmutableList.of(symbol)), false);
+
+        // both windows run in the same fragment, so the upper window can stream the sorted output of the lower window
+        PlanFragment fragment = subPlan.getFragment();
+        assertEquals(fragment.getDistribution(), PlanDistribution.FIXED);
+        assertTrue(fragment.getRoot() instanceof WindowNode);
+        assertTrue(((WindowNode) fragment.getRoot()).getSource() instanceof WindowNode);
+        assertEquals(subPlan.getChildren().size(), 1);
+    }
+
+    @Test
+    public void testUnpartitionedWindow()
+    {
+        Symbol symbol = symbolAllocator.newSymbol("symbol", Type.BIGINT);
+
+        SubPlan subPlan = createSubPlans(window(tableScan(symbol), ImmutableList.<Symbol>of()), false);
+
+        assertEquals(subPlan.getFragment().getDistribution(), PlanDistribution.NONE);
+        assertEquals(subPlan.getChildren().size(), 1);
+        assertEquals(subPlan.getChildren().get(0).getFragment().getOutputPartitioning(), OutputPartitioning.NONE);
+    }
+
+    private SubPlan createSubPlans(PlanNode root, boolean distributedJoinsEnabled)
+    {
+        return new DistributedLogicalPlanner(metadata, idAllocator, distributedJoinsEnabled)
+                .createSubPlans(new Plan(root, symbolAllocator), false);
+    }
+
+    private JoinNode join(PlanNode left, PlanNode right, Symbol leftSymbol, Symbol rightSymbol)
+    {
+        return new JoinNode(idAllocator.getNextId(), JoinNode.Type.INNER, left, right, ImmutableList.of(new JoinNode.EquiJoinClause(leftSymbol, rightSymbol)));
+    }
+
+    private WindowNode window(PlanNode source, List<Symbol> partitionBy)
+    {
+        return new WindowNode(
+                idAllocator.getNextId(),
+                source,
+                partitionBy,
+                ImmutableList.<Symbol>of(),
+                ImmutableMap.<Symbol, SortItem.Ordering>of(),
+                ImmutableMap.<Symbol, FunctionCall>of(),
+                ImmutableMap.<Symbol, FunctionHandle>of());
+    }
+
+    private TableScanNode tableScan(Symbol symbol)
+    {
+        return new TableScanNode(
+                idAllocator.getNextId(),
+                new InMemoryTableHandle(new SchemaTableName("default", symbol.getName())),
+                ImmutableList.of(symbol),
+                ImmutableMap.<Symbol, ColumnHandle>of(symbol, new TestingColumnHandle(symbol)),
+                null,
+                Optional.<GeneratedPartitions>absent());
+    }
+
+    private TableScanNode tableScan(Symbol symbol, long rowCount)
+    {
+        TableScanNode tableScan = tableScan(symbol);
+        statistics.put(symbol.getName(), new TableStatistics(rowCount, ImmutableMap.<ColumnHandle, ColumnStatistics>of()));
+        return tableScan;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.sql.planner.optimizations;
+
+import com.facebook.presto.metadata.InMemoryMetadata;
+import com.facebook.presto.metadata.InMemoryMetadata.InMemoryTableHandle;
+import com.facebook.presto.metadata.MetadataManager;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnStatistics;
+import com.facebook.presto.spi.SchemaTableName;
+import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.PlanNodeIdAllocator;
+import com.facebook.presto.sql.planner.Symbol;
+import com.facebook.presto.sql.planner.SymbolAllocator;
+import com.facebook.presto.sql.planner.TestingColumnHandle;
+import com.facebook.presto.sql.planner.plan.JoinNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode.GeneratedPartitions;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestReorderJoins
+{
+    private final Map<String, TableStatistics> statistics = new HashMap<>();
+    private PlanNodeIdAllocator idAllocator;
+    private SymbolAllocator symbolAllocator;
+    private MetadataManager metadata;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        idAllocator = new PlanNodeIdAllocator();
+        symbolAllocator = new SymbolAllocator();
+        statistics.clear();
+
+        metadata = new MetadataManager();
+        metadata.addConnectorMetadata("test", "test", new InMemoryMetadata()
+        {
+            @Override
+            public TableStatistics getTableStatistics(TableHandle tableHandle)
+            {
+                TableStatistics tableStatistics = statistics.get(((InMemoryTableHandle) tableHandle).getTableName().getTableName());
+                if (tableStatistics == null) {
+                    return TableStatistics.unknown();
+                }
+                return tableStatistics;
+            }
+        });
+    }
+
+    @Test
+    public void testSmallerSideIsBuildSide()
+    {
+        Symbol small = symbolAllocator.newSymbol("small", Type.BIGINT);
+        Symbol large = symbolAllocator.newSymbol("large", Type.BIGINT);
+        TableScanNode smallScan = tableScan("small", small, 10);
+        TableScanNode largeScan = tableScan("large", large, 1_000_000);
+
+        PlanNode plan = optimize(join(smallScan, largeScan, small, large));
+
+        assertTrue(plan instanceof JoinNode);
+        JoinNode join = (JoinNode) plan;
+        assertSame(join.getLeft(), largeScan);
+        assertSame(join.getRight(), smallScan);
+        assertCriteria(join, large, small);
+    }
+
+    @Test
+    public void testStarJoin()
+    {
+        Symbol fact1 = symbolAllocator.newSymbol("fact1", Type.BIGINT);
+        Symbol fact2 = symbolAllocator.newSymbol("fact2", Type.BIGINT);
+        Symbol dimension1 = symbolAllocator.newSymbol("dimension1", Type.BIGINT);
+        Symbol dimension2 = symbolAllocator.newSymbol("dimension2", Type.BIGINT);
+
+        TableScanNode factScan = new TableScanNode(
+                idAllocator.getNextId(),
+                new InMemoryTableHandle(new SchemaTableName("default", "fact")),
+                ImmutableList.of(fact1, fact2),
+                ImmutableMap.<Symbol, ColumnHandle>of(fact1, new TestingColumnHandle(fact1), fact2, new TestingColumnHandle(fact2)),
+                null,
+                Optional.<GeneratedPartitions>absent());
+        statistics.put("fact", new TableStatistics(1_000_000, ImmutableMap.<ColumnHandle, ColumnStatistics>of()));
+        TableScanNode dimension1Scan = tableScan("dimension1", dimension1, 1000);
+        TableScanNode dimension2Scan = tableScan("dimension2", dimension2, 10);
+
+        // (dimension1 JOIN fact) JOIN dimension2
+        PlanNode plan = optimize(join(join(dimension1Scan, factScan, dimension1, fact1), dimension2Scan, fact2, dimension2));
+
+        // the fact table is streamed through the hash tables of the dimensions, smallest dimension first
+        assertTrue(plan instanceof JoinNode);
+        JoinNode top = (JoinNode) plan;
+        assertSame(top.getRight(), dimension1Scan);
+        assertTrue(top.getLeft() instanceof JoinNode);
+        JoinNode bottom = (JoinNode) top.getLeft();
+        assertSame(bottom.getLeft(), factScan);
+        assertSame(bottom.getRight(), dimension2Scan);
+
+        assertCriteria(top, fact1, dimension1);
+        assertCriteria(bottom, fact2, dimension2);
+    }
+
+    @Test
+    public void testUnknownStatisticsKeepJoinOrder()
+    {
+        Symbol left = symbolAllocator.newSymbol("left", Type.BIGINT);
+        Symbol right = symbolAllocator.newSymbol("right", Type.BIGINT);
+        TableScanNode leftScan = tableScan("left", left, 10);
+        TableScanNode rightScan = new TableScanNode(
+                idAllocator.getNextId(),
+                new InMemoryTableHandle(new SchemaTableName("default", "unknown")),
+                ImmutableList.of(right),
+                ImmutableMap.<Symbol, ColumnHandle>of(right, new TestingColumnHandle(right)),
+                null,
+                Optional.<GeneratedPartitions>absent());
+
+        JoinNode join = join(leftScan, rightScan, left, right);
+        assertSame(optimize(join), join);
+    }
+
+    private static void assertCriteria(JoinNode join, Symbol left, Symbol right)
+    {
+        assertEquals(join.getCriteria().size(), 1);
+        assertEquals(join.getCriteria().get(0).getLeft(), left);
+        assertEquals(join.getCriteria().get(0).getRight(), right);
+    }
+
+    private PlanNode optimize(PlanNode plan)
+    {
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        return new ReorderJoins(metadata).optimize(plan, session, symbolAllocator.getTypes(), symbolAllocator, idAllocator);
+    }
+
+    private JoinNode join(PlanNode left, PlanNode right, Symbol leftSymbol, Symbol rightSymbol)
+    {
+        return new JoinNode(idAllocator.getNextId(), JoinNode.Type.INNER, left, right, ImmutableList.of(new JoinNode.EquiJoinClause(leftSymbol, rightSymbol)));
+    }
+
+    private TableScanNode tableScan(String tableName, Symbol symbol, long rowCount)
+    {
+        ColumnHandle columnHandle = new TestingColumnHandle(symbol);
+        statistics.put(tableName, new TableStatistics(rowCount, ImmutableMap.<ColumnHandle, ColumnStatistics>of(columnHandle, new ColumnStatistics(rowCount, 0))));
+        return new TableScanNode(
+                idAllocator.getNextId(),
+                new InMemoryTableHandle(new SchemaTableName("default", tableName)),
+                ImmutableList.of(symbol),
+                ImmutableMap.of(symbol, columnHandle),
+                null,
+                Optional.<GeneratedPartitions>absent());
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.util;
+
+import com.facebook.presto.spi.ColumnType;
+import com.facebook.presto.spi.ColumnarRecordCursor;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.RecordSet;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Exposes the records of another record set through a {@link ColumnarRecordCursor}.
+ */
+public class ColumnarRecordSet
+        implements RecordSet
+{
+    private final RecordSet recordSet;
+
+    public ColumnarRecordSet(RecordSet recordSet)
+    {
+        this.recordSet = checkNotNull(recordSet, "recordSet is null");
+    }
+
+    @Override
+    public List<ColumnType> getColumnTypes()
+    {
+        return recordSet.getColumnTypes();
+    }
+
+    @Override
+    public RecordCursor cursor()
+    {
+        return new BatchRecordCursor(recordSet.getColumnTypes(), recordSet.cursor());
+    }
+
+    private static class BatchRecordCursor
+            implements ColumnarRecordCursor
+    {
+        private final List<ColumnType> types;
+        private final RecordCursor cursor;
+
+        private boolean[][] nulls;
+        private boolean[][] booleans;
+        private long[][] longs;
+        private double[][] doubles;
+        private byte[][][] strings;
+
+        private BatchRecordCursor(List<ColumnType> types, RecordCursor cursor)
+        {
+            this.types = types;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public int advanceNextBatch(int maxPositions)
+        {
+            int columnCount = types.size();
+            nulls = new boolean[columnCount][maxPositions];
+            booleans = new boolean[columnCount][maxPositions];
+            longs = new long[columnCount][maxPositions];
+            doubles = new double[columnCount][maxPositions];
+            strings = new byte[columnCount][maxPositions][];
+
+            int position = 0;
+            while (position < maxPositions && cursor.advanceNextPosition()) {
+                for (int column = 0; column < columnCount; column++) {
+                    if (cursor.isNull(column)) {
+                        nulls[column][position] = true;
+                        continue;
+                    }
+                    switch (types.get(column)) {
+                        case BOOLEAN:
+                            booleans[column][position] = cursor.getBoolean(column);
+                            break;
+                        case LONG:
+                            longs[column][position] = cursor.getLong(column);
+                            break;
+                        case DOUBLE:
+                            doubles[column][position] = cursor.getDouble(column);
+                            break;
+                        case STRING:
+                            strings[column][position] = cursor.getString(column);
+                            break;
+                    }
+                }
+                position++;
+            }
+            return position;
+        }
+
+        @Override
+        public boolean[] getNulls(int field)
+        {
+            checkState(nulls != null, "No batch has been read");
+            return nulls[field];
+        }
+
+        @Override
+        public boolean[] getBooleans(int field)
+        {
+            checkState(nulls != null, "No batch has been read");
+            return booleans[field];
+        }
+
+        @Override
+        public long[] getLongs(int field)
+        {
+            checkState(nulls != null, "No batch has been read");
+            return longs[field];
+        }
+
+        @Override
+        public double[] getDoubles(int field)
+        {
+            checkState(nulls != null, "No batch has been read");
+            return doubles[field];
+        }
+
+        @Override
+        public byte[][] getStrings(int field)
+        {
+            checkState(nulls != null, "No batch has been read");
+            return strings[field];
+        }
+
+        @Override
+        public long getTotalBytes()
+        {
+            return cursor.getTotalBytes();
+        }
+
+        @Override
+        public long getCompletedBytes()
+        {
+            return cursor.getCompletedBytes();
+        }
+
+        @Override
+        public ColumnType getType(int field)
+        {
+            return types.get(field);
+        }
+
+        @Override
+        public boolean advanceNextPosition()
+        {
+            return cursor.advanceNextPosition();
+        }
+
+        @Override
+        public boolean getBoolean(int field)
+        {
+            return cursor.getBoolean(field);
+        }
+
+        @Override
+        public long getLong(int field)
+        {
+            return cursor.getLong(field);
+        }
+
+        @Override
+        public double getDouble(int field)
+        {
+            return cursor.getDouble(field);
+        }
+
+        @Override
+        public byte[] getString(int field)
+        {
+            return cursor.getString(field);
+        }
+
+        @Override
+        public boolean isNull(int field)
+        {
+            return cursor.isNull(field);
+        }
+
+        @Override
+        public void close()
+        {
+            cursor.close();
+        }
+    }
+}
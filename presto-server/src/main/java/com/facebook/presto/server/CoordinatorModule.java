@@ -37,10 +37,14 @@ import com.facebook.presto.metadata.DatabaseShardManager;
 import com.facebook.presto.metadata.DiscoveryNodeManager;
 import com.facebook.presto.metadata.ForMetadata;
 import com.facebook.presto.metadata.ForShardCleaner;
+import com.facebook.presto.metadata.ForShardCompactor;
 import com.facebook.presto.metadata.NativeRecordSinkProvider;
 import com.facebook.presto.metadata.NodeManager;
 import com.facebook.presto.metadata.ShardCleaner;
 import com.facebook.presto.metadata.ShardCleanerConfig;
+import com.facebook.presto.metadata.ShardCompactionRequest;
+import com.facebook.presto.metadata.ShardCompactor;
+import com.facebook.presto.metadata.ShardCompactorConfig;
 import com.facebook.presto.metadata.ShardManager;
 import com.facebook.presto.split.NativeDataStreamProvider;
 import com.facebook.presto.split.NativeSplitManager;
@@ -77,6 +81,7 @@ import static io.airlift.configuration.ConfigurationModule.bindConfig;
 import static io.airlift.discovery.client.DiscoveryBinder.discoveryBinder;
 import static io.airlift.http.client.HttpClientBinder.httpClientBinder;
 import static io.airlift.http.server.HttpServerBinder.httpServerBinder;
+import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
 import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class CoordinatorModule
@@ -119,6 +124,11 @@ public class CoordinatorModule
         binder.bind(ShardCleaner.class).in(Scopes.SINGLETON);
         httpClientBinder(binder).bindHttpClient("shard-cleaner", ForShardCleaner.class);
         binder.bind(ShardResource.class).in(Scopes.SINGLETON);
+        bindConfig(binder).to(ShardCompactorConfig.class);
+        binder.bind(ShardCompactor.class).in(Scopes.SINGLETON);
+        httpClientBinder(binder).bindHttpClient("shard-compactor", ForShardCompactor.class);
+        jsonCodecBinder(binder).bindJsonCodec(ShardCompactionRequest.class);
+        newExporter(binder).export(ShardCompactor.class).withGeneratedName();
 
         // storage manager
         binder.bind(StorageManager.class).to(DatabaseStorageManager.class).in(Scopes.SINGLETON);
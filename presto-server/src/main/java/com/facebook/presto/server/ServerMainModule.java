@@ -83,21 +83,27 @@ import io.airlift.dbpool.H2EmbeddedDataSourceModule;
 import io.airlift.dbpool.MySqlDataSourceModule;
 import io.airlift.discovery.client.ServiceAnnouncement.ServiceAnnouncementBuilder;
 import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.http.server.TheServlet;
 import io.airlift.units.Duration;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.IDBI;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.servlet.Filter;
 
 import java.io.File;
 import java.lang.annotation.Annotation;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static com.facebook.presto.guice.ConditionalModule.installIfPropertyEquals;
 import static com.facebook.presto.guice.DbiProvider.bindDbiToDataSource;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.inject.multibindings.MapBinder.newMapBinder;
 import static com.google.inject.multibindings.Multibinder.newSetBinder;
@@ -129,6 +135,8 @@ public class ServerMainModule
 
         // task execution
         binder.bind(TaskResource.class).in(Scopes.SINGLETON);
+        newSetBinder(binder, Filter.class, TheServlet.class).addBinding().to(TaskResultsFilter.class).in(Scopes.SINGLETON);
+        binder.bind(ExecutorCleanup.class).in(Scopes.SINGLETON);
         binder.bind(TaskManager.class).to(SqlTaskManager.class).in(Scopes.SINGLETON);
         newExporter(binder).export(TaskManager.class).withGeneratedName();
         binder.bind(TaskExecutor.class).in(Scopes.SINGLETON);
@@ -252,6 +260,14 @@ public class ServerMainModule
         return Executors.newCachedThreadPool(Threads.daemonThreadsNamed("exchange-callback-%s"));
     }
 
+    @Provides
+    @Singleton
+    @ForTaskResults
+    public ExecutorService createTaskResultsExecutor(TaskManagerConfig config)
+    {
+        return Executors.newFixedThreadPool(config.getHttpResponseThreads(), Threads.daemonThreadsNamed("task-results-%s"));
+    }
+
     @Provides
     @Singleton
     @ForLocalStorageManager
@@ -277,6 +293,27 @@ public class ServerMainModule
         }
     }
 
+    /**
+     * Shuts down the executors created by this module, which are not managed
+     * by the life cycle manager themselves.
+     */
+    public static class ExecutorCleanup
+    {
+        private final ExecutorService taskResultsExecutor;
+
+        @Inject
+        public ExecutorCleanup(@ForTaskResults ExecutorService taskResultsExecutor)
+        {
+            this.taskResultsExecutor = checkNotNull(taskResultsExecutor, "taskResultsExecutor is null");
+        }
+
+        @PreDestroy
+        public void shutdown()
+        {
+            taskResultsExecutor.shutdownNow();
+        }
+    }
+
     private static String detectPrestoVersion()
     {
         String title = PrestoServer.class.getPackage().getImplementationTitle();
@@ -14,12 +14,18 @@
 package com.facebook.presto.server;
 
 import com.facebook.presto.metadata.LocalStorageManager;
+import com.facebook.presto.metadata.ShardCompactionRequest;
+import com.facebook.presto.spi.ColumnHandle;
+import com.google.common.base.Optional;
 
 import javax.inject.Inject;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -46,6 +52,16 @@ public class ShardResource
         return Response.status(Status.ACCEPTED).build();
     }
 
+    @PUT
+    @Path("{shardUuid}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response compactShards(@PathParam("shardUuid") UUID shardUuid, ShardCompactionRequest request)
+    {
+        checkNotNull(request, "request is null");
+        storageManager.compactShards(shardUuid, request.getSourceShardUuids(), request.getColumnHandles(), Optional.<ColumnHandle>fromNullable(request.getSortColumn()));
+        return Response.status(Status.ACCEPTED).build();
+    }
+
     @GET
     @Path("{shardUuid}")
     public Response shardStatus(@PathParam("shardUuid") UUID shardUuid)
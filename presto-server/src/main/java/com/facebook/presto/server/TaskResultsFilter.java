@@ -0,0 +1,290 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.PrestoMediaTypes;
+import com.facebook.presto.execution.BufferResult;
+import com.facebook.presto.execution.NoSuchBufferException;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.execution.TaskManager;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.serde.PagesSerde;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.log.Logger;
+import io.airlift.slice.OutputStreamSliceOutput;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import io.airlift.units.Duration;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_NEXT_TOKEN;
+import static com.facebook.presto.client.PrestoHeaders.PRESTO_PAGE_TOKEN;
+import static com.facebook.presto.util.Threads.threadsNamed;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Serves the results of a task without holding a request thread while
+ * waiting for pages.  Jersey 1 can not suspend a request, so the results
+ * resource is implemented as a servlet 3.0 async filter in front of the
+ * Jersey servlet: the request is suspended until the task produces pages,
+ * finishes, or the wait time expires.
+ */
+public class TaskResultsFilter
+        implements Filter
+{
+    private static final Logger log = Logger.get(TaskResultsFilter.class);
+
+    private static final Pattern RESULTS_PATH = Pattern.compile("/v1/task/([^/]+)/results/([^/]+)/(\\d+)");
+
+    private static final DataSize DEFAULT_MAX_SIZE = new DataSize(10, Unit.MEGABYTE);
+    private static final Duration DEFAULT_MAX_WAIT_TIME = new Duration(1, SECONDS);
+
+    private final TaskManager taskManager;
+    private final ExecutorService responseExecutor;
+    private final ScheduledExecutorService timeoutExecutor = Executors.newSingleThreadScheduledExecutor(threadsNamed("task-results-timeout-%d"));
+
+    @Inject
+    public TaskResultsFilter(TaskManager taskManager, @ForTaskResults ExecutorService responseExecutor)
+    {
+        this.taskManager = checkNotNull(taskManager, "taskManager is null");
+        this.responseExecutor = checkNotNull(responseExecutor, "responseExecutor is null");
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        timeoutExecutor.shutdownNow();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig)
+    {
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+
+        Matcher matcher = RESULTS_PATH.matcher(request.getRequestURI().substring(request.getContextPath().length()));
+        if (!"GET".equals(request.getMethod()) || !matcher.matches()) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        TaskId taskId;
+        long token;
+        try {
+            taskId = TaskId.valueOf(matcher.group(1));
+            token = Long.parseLong(matcher.group(3));
+        }
+        catch (IllegalArgumentException e) {
+            ((HttpServletResponse) servletResponse).sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        // the timeout is managed by the results request
+        asyncContext.setTimeout(0);
+
+        new ResultsRequest(asyncContext, taskId, matcher.group(2), token).start();
+    }
+
+    private class ResultsRequest
+            implements FutureCallback<BufferResult>
+    {
+        private final AsyncContext asyncContext;
+        private final TaskId taskId;
+        private final String outputId;
+        private final long token;
+        private final long end = System.nanoTime() + DEFAULT_MAX_WAIT_TIME.roundTo(NANOSECONDS);
+
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile ListenableFuture<BufferResult> resultsFuture;
+        private volatile ScheduledFuture<?> timeoutFuture;
+        private int maxSleepMillis = 1;
+
+        private ResultsRequest(AsyncContext asyncContext, TaskId taskId, String outputId, long token)
+        {
+            this.asyncContext = asyncContext;
+            this.taskId = taskId;
+            this.outputId = outputId;
+            this.token = token;
+        }
+
+        public void start()
+        {
+            timeoutFuture = timeoutExecutor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    timeout();
+                }
+            }, DEFAULT_MAX_WAIT_TIME.toMillis(), MILLISECONDS);
+
+            fetchResults();
+        }
+
+        private void fetchResults()
+        {
+            if (done.get()) {
+                return;
+            }
+
+            // todo we need a much better way to determine if a task is unknown (e.g. not scheduled yet), done, or there is current no more data
+            try {
+                ListenableFuture<BufferResult> future = taskManager.getTaskResults(taskId, outputId, token, DEFAULT_MAX_SIZE);
+                resultsFuture = future;
+                Futures.addCallback(future, this, responseExecutor);
+
+                // the request may have timed out before the future was published
+                if (done.get()) {
+                    future.cancel(true);
+                }
+                return;
+            }
+            catch (NoSuchElementException | NoSuchBufferException ignored) {
+            }
+
+            // task hasn't been scheduled yet.
+            // retry after a short delay, without holding a thread
+            long remainingNanos = end - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return;
+            }
+            timeoutExecutor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    fetchResults();
+                }
+            }, Math.min(remainingNanos, MILLISECONDS.toNanos(maxSleepMillis)), NANOSECONDS);
+            maxSleepMillis *= 2;
+        }
+
+        private void timeout()
+        {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            ListenableFuture<BufferResult> future = resultsFuture;
+            if (future != null) {
+                future.cancel(true);
+            }
+
+            // no results within the wait time, so the reader should ask again for the same token
+            sendResponse(HttpServletResponse.SC_NO_CONTENT, token, token, null);
+        }
+
+        @Override
+        public void onSuccess(BufferResult result)
+        {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            timeoutFuture.cancel(false);
+
+            List<Page> pages = result.getPages();
+            if (!pages.isEmpty()) {
+                sendResponse(HttpServletResponse.SC_OK, result.getToken(), result.getNextToken(), pages);
+            }
+            else if (result.isBufferClosed()) {
+                sendResponse(HttpServletResponse.SC_GONE, result.getToken(), result.getNextToken(), null);
+            }
+            else {
+                sendResponse(HttpServletResponse.SC_NO_CONTENT, result.getToken(), result.getNextToken(), null);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t)
+        {
+            if (t instanceof CancellationException || !done.compareAndSet(false, true)) {
+                return;
+            }
+            timeoutFuture.cancel(false);
+
+            log.warn(t, "Error getting results for task %s", taskId);
+            try {
+                ((HttpServletResponse) asyncContext.getResponse()).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            catch (IOException | RuntimeException e) {
+                log.debug(e, "Error sending response for task %s", taskId);
+            }
+            finally {
+                asyncContext.complete();
+            }
+        }
+
+        private void sendResponse(int status, long token, long nextToken, List<Page> pages)
+        {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            try {
+                response.setStatus(status);
+                response.setHeader(PRESTO_PAGE_TOKEN, String.valueOf(token));
+                response.setHeader(PRESTO_PAGE_NEXT_TOKEN, String.valueOf(nextToken));
+                if (pages != null) {
+                    response.setContentType(PrestoMediaTypes.PRESTO_PAGES);
+                    OutputStreamSliceOutput output = new OutputStreamSliceOutput(response.getOutputStream());
+                    PagesSerde.writePages(output, pages);
+                    output.flush();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                // most likely the client went away
+                log.debug(e, "Error sending results for task %s", taskId);
+            }
+            finally {
+                asyncContext.complete();
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.http.server.HttpServerInfo;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
@@ -140,8 +141,7 @@ public class MockTaskManager
     }
 
     @Override
-    public BufferResult getTaskResults(TaskId taskId, String outputId, long startingSequenceId, DataSize maxSize, Duration maxWaitTime)
-            throws InterruptedException
+    public ListenableFuture<BufferResult> getTaskResults(TaskId taskId, String outputId, long startingSequenceId, DataSize maxSize)
     {
         checkNotNull(taskId, "taskId is null");
         checkNotNull(outputId, "outputId is null");
@@ -154,7 +154,7 @@ public class MockTaskManager
         if (task == null) {
             throw new NoSuchElementException();
         }
-        return task.getResults(outputId, startingSequenceId, maxSize, maxWaitTime);
+        return task.getResults(outputId, startingSequenceId, maxSize);
     }
 
     @Override
@@ -233,10 +233,9 @@ public class MockTaskManager
             taskStateMachine.cancel();
         }
 
-        public BufferResult getResults(String outputId, long startingSequenceId, DataSize maxSize, Duration maxWaitTime)
-                throws InterruptedException
+        public ListenableFuture<BufferResult> getResults(String outputId, long startingSequenceId, DataSize maxSize)
         {
-            return sharedBuffer.get(outputId, startingSequenceId, maxSize, maxWaitTime);
+            return sharedBuffer.get(outputId, startingSequenceId, maxSize);
         }
 
         public TaskInfo getTaskInfo()
@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+/**
+ * Runs the distributed queries with hash partitioned joins enabled.  The
+ * imported native tables have row counts, so their joins are still broadcast;
+ * the tables of the tpch catalog have no statistics, so joins between them
+ * are partitioned on the first join key.
+ */
+public class TestDistributedJoinQueries
+        extends TestDistributedQueries
+{
+    @Override
+    protected Map<String, String> getServerProperties()
+    {
+        return ImmutableMap.<String, String>builder()
+                .putAll(super.getServerProperties())
+                .put("query.distributed-joins-enabled", "true")
+                .build();
+    }
+
+    @Test
+    public void testPartitionedJoin()
+            throws Exception
+    {
+        assertQuery(
+                "SELECT COUNT(*) FROM tpch.default.lineitem l JOIN tpch.default.orders o ON l.orderkey = o.orderkey",
+                "SELECT COUNT(*) FROM lineitem JOIN orders ON lineitem.orderkey = orders.orderkey");
+    }
+
+    @Test
+    public void testPartitionedJoinOnMultipleFields()
+            throws Exception
+    {
+        assertQuery(
+                "SELECT COUNT(*) FROM tpch.default.lineitem l JOIN tpch.default.orders o ON l.orderkey = o.orderkey AND l.shipdate = o.orderdate",
+                "SELECT COUNT(*) FROM lineitem JOIN orders ON lineitem.orderkey = orders.orderkey AND lineitem.shipdate = orders.orderdate");
+    }
+
+    @Test
+    public void testPartitionedJoinRowsOnMultipleFields()
+            throws Exception
+    {
+        assertQuery(
+                "SELECT l.orderkey, l.linenumber, o.orderstatus FROM tpch.default.lineitem l JOIN tpch.default.orders o ON l.orderkey = o.orderkey AND l.linenumber = o.shippriority + 1",
+                "SELECT lineitem.orderkey, lineitem.linenumber, orders.orderstatus FROM lineitem JOIN orders ON lineitem.orderkey = orders.orderkey AND lineitem.linenumber = orders.shippriority + 1");
+    }
+
+    @Test
+    public void testPartitionedLeftJoinOnMultipleFields()
+            throws Exception
+    {
+        assertQuery(
+                "SELECT COUNT(*), COUNT(l.orderkey) FROM tpch.default.orders o LEFT JOIN tpch.default.lineitem l ON o.orderkey = l.orderkey AND o.orderdate = l.shipdate",
+                "SELECT COUNT(*), COUNT(lineitem.orderkey) FROM orders LEFT JOIN lineitem ON orders.orderkey = lineitem.orderkey AND orders.orderdate = lineitem.shipdate");
+    }
+
+    @Test
+    public void testPartitionedRightJoinOnMultipleFields()
+            throws Exception
+    {
+        assertQuery(
+                "SELECT COUNT(*), COUNT(l.orderkey) FROM tpch.default.lineitem l RIGHT JOIN tpch.default.orders o ON l.orderkey = o.orderkey AND l.shipdate = o.orderdate",
+                "SELECT COUNT(*), COUNT(lineitem.orderkey) FROM lineitem RIGHT JOIN orders ON lineitem.orderkey = orders.orderkey AND lineitem.shipdate = orders.orderdate");
+    }
+}
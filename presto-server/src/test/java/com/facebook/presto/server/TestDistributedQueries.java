@@ -348,15 +348,18 @@ public class TestDistributedQueries
         };
     }
 
-    private static TestingPrestoServer createTestingPrestoServer(URI discoveryUri, boolean coordinator)
-            throws Exception
+    protected Map<String, String> getServerProperties()
     {
-        Map<String, String> properties = ImmutableMap.<String, String>builder()
+        return ImmutableMap.<String, String>builder()
                 .put("query.client.timeout", "10m")
                 .put("exchange.http-client.read-timeout", "1h")
                 .put("datasources", "native,tpch")
                 .build();
+    }
 
-        return new TestingPrestoServer(coordinator, properties, ENVIRONMENT, discoveryUri);
+    private TestingPrestoServer createTestingPrestoServer(URI discoveryUri, boolean coordinator)
+            throws Exception
+    {
+        return new TestingPrestoServer(coordinator, getServerProperties(), ENVIRONMENT, discoveryUri);
     }
 }
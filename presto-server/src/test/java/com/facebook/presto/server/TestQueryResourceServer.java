@@ -42,6 +42,7 @@ import io.airlift.http.client.Response;
 import io.airlift.http.client.ResponseHandler;
 import io.airlift.http.client.StatusResponseHandler.StatusResponse;
 import io.airlift.http.client.UnexpectedResponseException;
+import io.airlift.http.server.TheServlet;
 import io.airlift.http.server.testing.TestingHttpServer;
 import io.airlift.http.server.testing.TestingHttpServerModule;
 import io.airlift.jaxrs.JaxrsModule;
@@ -51,10 +52,15 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.servlet.Filter;
+
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
 import static com.google.common.base.Charsets.UTF_8;
+import static com.google.inject.multibindings.Multibinder.newSetBinder;
 import static io.airlift.http.client.FullJsonResponseHandler.createFullJsonResponseHandler;
 import static io.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
 import static io.airlift.http.client.JsonResponseHandler.createJsonResponseHandler;
@@ -64,6 +70,7 @@ import static io.airlift.http.client.Request.Builder.preparePost;
 import static io.airlift.http.client.StaticBodyGenerator.createStaticBodyGenerator;
 import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
 import static io.airlift.json.JsonCodec.jsonCodec;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.testng.Assert.assertEquals;
 
 public class TestQueryResourceServer
@@ -71,11 +78,13 @@ public class TestQueryResourceServer
     private HttpClient client;
     private LifeCycleManager lifeCycleManager;
     private TestingHttpServer server;
+    private ExecutorService taskResultsExecutor;
 
     @BeforeMethod
     public void setup()
             throws Exception
     {
+        taskResultsExecutor = newCachedThreadPool(daemonThreadsNamed("test-task-results-%s"));
         Bootstrap app = new Bootstrap(
                 new TestingNodeModule(),
                 new InMemoryEventModule(),
@@ -90,6 +99,8 @@ public class TestQueryResourceServer
                         binder.bind(QueryResource.class).in(Scopes.SINGLETON);
                         binder.bind(StageResource.class).in(Scopes.SINGLETON);
                         binder.bind(TaskResource.class).in(Scopes.SINGLETON);
+                        newSetBinder(binder, Filter.class, TheServlet.class).addBinding().to(TaskResultsFilter.class).in(Scopes.SINGLETON);
+                        binder.bind(ExecutorService.class).annotatedWith(ForTaskResults.class).toInstance(taskResultsExecutor);
                         binder.bind(QueryManager.class).to(MockQueryManager.class).in(Scopes.SINGLETON);
                         binder.bind(MockTaskManager.class).in(Scopes.SINGLETON);
                         binder.bind(TaskManager.class).to(Key.get(MockTaskManager.class)).in(Scopes.SINGLETON);
@@ -121,6 +132,9 @@ public class TestQueryResourceServer
         if (client != null) {
             client.close();
         }
+        if (taskResultsExecutor != null) {
+            taskResultsExecutor.shutdownNow();
+        }
     }
 
     @Test(enabled = false)
@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.server;
+
+import com.facebook.presto.OutputBuffers;
+import com.facebook.presto.TaskSource;
+import com.facebook.presto.UnpartitionedPagePartitionFunction;
+import com.facebook.presto.execution.TaskId;
+import com.facebook.presto.execution.TaskManager;
+import com.facebook.presto.operator.HttpPageBufferClient.PageResponseHandler;
+import com.facebook.presto.operator.HttpPageBufferClient.PagesResponse;
+import com.facebook.presto.sql.analyzer.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Binder;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import io.airlift.bootstrap.Bootstrap;
+import io.airlift.bootstrap.LifeCycleManager;
+import io.airlift.http.client.ApacheHttpClient;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.server.TheServlet;
+import io.airlift.http.server.testing.TestingHttpServer;
+import io.airlift.http.server.testing.TestingHttpServerModule;
+import io.airlift.jaxrs.JaxrsModule;
+import io.airlift.json.JsonModule;
+import io.airlift.node.testing.TestingNodeModule;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.Filter;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.util.Threads.daemonThreadsNamed;
+import static com.google.inject.multibindings.Multibinder.newSetBinder;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTaskResultsFilter
+{
+    private ExecutorService taskResultsExecutor;
+    private ExecutorService executor;
+    private LifeCycleManager lifeCycleManager;
+    private TestingHttpServer server;
+    private MockTaskManager taskManager;
+    private HttpClient client;
+
+    @BeforeMethod
+    public void setup()
+            throws Exception
+    {
+        taskResultsExecutor = newCachedThreadPool(daemonThreadsNamed("test-task-results-%s"));
+        executor = newCachedThreadPool(daemonThreadsNamed("test-%s"));
+
+        Bootstrap app = new Bootstrap(
+                new TestingNodeModule(),
+                new TestingHttpServerModule(),
+                new JsonModule(),
+                new JaxrsModule(),
+                new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        newSetBinder(binder, Filter.class, TheServlet.class).addBinding().to(TaskResultsFilter.class).in(Scopes.SINGLETON);
+                        binder.bind(ExecutorService.class).annotatedWith(ForTaskResults.class).toInstance(taskResultsExecutor);
+                        binder.bind(MockTaskManager.class).in(Scopes.SINGLETON);
+                        binder.bind(TaskManager.class).to(Key.get(MockTaskManager.class)).in(Scopes.SINGLETON);
+                    }
+                });
+
+        Injector injector = app
+                .strictConfig()
+                .doNotInitializeLogging()
+                .initialize();
+
+        lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+        server = injector.getInstance(TestingHttpServer.class);
+        taskManager = injector.getInstance(MockTaskManager.class);
+        client = new ApacheHttpClient();
+    }
+
+    @AfterMethod
+    public void teardown()
+            throws Exception
+    {
+        if (lifeCycleManager != null) {
+            lifeCycleManager.stop();
+        }
+        if (client != null) {
+            client.close();
+        }
+        if (taskResultsExecutor != null) {
+            taskResultsExecutor.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResults()
+            throws Exception
+    {
+        TaskId taskId = createTask("query.0.0");
+
+        PagesResponse response = getResults(taskId, 0);
+        assertEquals(response.getToken(), 0L);
+        assertFalse(response.getPages().isEmpty());
+        assertFalse(response.isClientClosed());
+
+        // the buffer of the mock task is finished after the initial pages
+        long token = response.getNextToken();
+        while (!response.isClientClosed()) {
+            response = getResults(taskId, token);
+            token = response.getNextToken();
+        }
+        assertTrue(response.getPages().isEmpty());
+    }
+
+    @Test
+    public void testResultsOfUnknownTaskTimeOut()
+    {
+        long start = System.nanoTime();
+        PagesResponse response = getResults(TaskId.valueOf("query.0.0"), 7);
+        Duration elapsed = Duration.nanosSince(start);
+
+        // the reader is told to ask again for the same token once the wait time expires
+        assertEquals(response.getToken(), 7L);
+        assertEquals(response.getNextToken(), 7L);
+        assertTrue(response.getPages().isEmpty());
+        assertFalse(response.isClientClosed());
+        assertTrue(elapsed.compareTo(new Duration(500, TimeUnit.MILLISECONDS)) > 0, "request did not wait for the task: " + elapsed);
+    }
+
+    @Test
+    public void testResultsOfTaskCreatedWhileWaiting()
+            throws Exception
+    {
+        final TaskId taskId = TaskId.valueOf("query.0.0");
+        Future<PagesResponse> future = executor.submit(new Callable<PagesResponse>()
+        {
+            @Override
+            public PagesResponse call()
+            {
+                return getResults(taskId, 0);
+            }
+        });
+
+        // the request is suspended until the task is created
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(future.isDone());
+        createTask(taskId.toString());
+
+        PagesResponse response = future.get(10, TimeUnit.SECONDS);
+        assertEquals(response.getToken(), 0L);
+        assertFalse(response.getPages().isEmpty());
+    }
+
+    private TaskId createTask(String taskId)
+    {
+        OutputBuffers outputBuffers = OutputBuffers.INITIAL_EMPTY_OUTPUT_BUFFERS
+                .withBuffer("out", new UnpartitionedPagePartitionFunction())
+                .withNoMoreBufferIds();
+        Session session = new Session("user", "source", "catalog", "schema", "address", "agent");
+        taskManager.updateTask(session, TaskId.valueOf(taskId), null, ImmutableList.<TaskSource>of(), outputBuffers);
+        return TaskId.valueOf(taskId);
+    }
+
+    private PagesResponse getResults(TaskId taskId, long token)
+    {
+        return client.execute(prepareGet().setUri(uriFor("/v1/task/" + taskId + "/results/out/" + token)).build(), new PageResponseHandler());
+    }
+
+    private URI uriFor(String path)
+    {
+        return server.getBaseUrl().resolve(path);
+    }
+}
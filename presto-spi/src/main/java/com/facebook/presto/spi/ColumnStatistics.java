@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+import java.util.Objects;
+
+/**
+ * Statistics of a table column.  Any of the statistics may be unknown.
+ */
+public class ColumnStatistics
+{
+    public static final long UNKNOWN_DISTINCT_VALUES_COUNT = -1;
+
+    private static final ColumnStatistics UNKNOWN = new ColumnStatistics(UNKNOWN_DISTINCT_VALUES_COUNT, Double.NaN);
+
+    private final long distinctValuesCount;
+    private final double nullsFraction;
+
+    /**
+     * @param distinctValuesCount the number of distinct non-null values, or UNKNOWN_DISTINCT_VALUES_COUNT
+     * @param nullsFraction the fraction of the rows that are null, or NaN if unknown
+     */
+    public ColumnStatistics(long distinctValuesCount, double nullsFraction)
+    {
+        if (distinctValuesCount < 0 && distinctValuesCount != UNKNOWN_DISTINCT_VALUES_COUNT) {
+            throw new IllegalArgumentException("distinctValuesCount is negative");
+        }
+        if (nullsFraction < 0 || nullsFraction > 1) {
+            throw new IllegalArgumentException("nullsFraction must be between 0 and 1");
+        }
+
+        this.distinctValuesCount = distinctValuesCount;
+        this.nullsFraction = nullsFraction;
+    }
+
+    public static ColumnStatistics unknown()
+    {
+        return UNKNOWN;
+    }
+
+    public boolean isDistinctValuesCountKnown()
+    {
+        return distinctValuesCount != UNKNOWN_DISTINCT_VALUES_COUNT;
+    }
+
+    public long getDistinctValuesCount()
+    {
+        return distinctValuesCount;
+    }
+
+    public boolean isNullsFractionKnown()
+    {
+        return !Double.isNaN(nullsFraction);
+    }
+
+    public double getNullsFraction()
+    {
+        return nullsFraction;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder("ColumnStatistics{");
+        sb.append("distinctValuesCount=").append(distinctValuesCount);
+        sb.append(", nullsFraction=").append(nullsFraction);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(distinctValuesCount, nullsFraction);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final ColumnStatistics other = (ColumnStatistics) obj;
+        return Objects.equals(this.distinctValuesCount, other.distinctValuesCount) &&
+                Objects.equals(this.nullsFraction, other.nullsFraction);
+    }
+}
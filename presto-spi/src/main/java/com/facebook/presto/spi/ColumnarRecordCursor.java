@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+/**
+ * A record cursor that can also return a batch of rows one column at a
+ * time.  The engine reads a cursor either with {@link #advanceNextBatch}
+ * and the column accessors, or with the row accessors of {@link RecordCursor},
+ * but never mixes the two.
+ * <p/>
+ * The arrays returned by the column accessors contain the values of the
+ * current batch starting at index zero, and may be longer than the batch.
+ * The arrays are owned by the caller, so a cursor must return new arrays
+ * for every batch.  The value of a null position is undefined.
+ * <p/>
+ * The engine may call the column accessors at any time before the next
+ * batch, and only for the fields it actually reads, so a cursor can defer
+ * decoding a field until its accessor is first called.
+ */
+public interface ColumnarRecordCursor
+        extends RecordCursor
+{
+    /**
+     * Advances to the next batch of at most the specified number of rows.
+     *
+     * @return the number of rows in the batch; zero if the cursor is finished
+     */
+    int advanceNextBatch(int maxPositions);
+
+    boolean[] getNulls(int field);
+
+    boolean[] getBooleans(int field);
+
+    long[] getLongs(int field);
+
+    double[] getDoubles(int field);
+
+    byte[][] getStrings(int field);
+}
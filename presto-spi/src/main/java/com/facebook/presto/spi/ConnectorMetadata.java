@@ -72,6 +72,13 @@ public interface ConnectorMetadata
      */
     Map<SchemaTableName, List<ColumnMetadata>> listTableColumns(SchemaTablePrefix prefix);
 
+    /**
+     * Gets the statistics for the specified table, or TableStatistics.unknown() if the connector has none.
+     *
+     * @throws RuntimeException if table handle is no longer valid
+     */
+    TableStatistics getTableStatistics(TableHandle tableHandle);
+
     /**
      * Creates a table using the specified table metadata.
      */
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.spi;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Statistics of a table that a connector may provide to the planner.  Any of
+ * the statistics may be unknown.
+ */
+public class TableStatistics
+{
+    public static final long UNKNOWN_ROW_COUNT = -1;
+
+    private static final TableStatistics UNKNOWN = new TableStatistics(UNKNOWN_ROW_COUNT, Collections.<ColumnHandle, ColumnStatistics>emptyMap());
+
+    private final long rowCount;
+    private final Map<ColumnHandle, ColumnStatistics> columnStatistics;
+
+    public TableStatistics(long rowCount, Map<ColumnHandle, ColumnStatistics> columnStatistics)
+    {
+        if (rowCount < 0 && rowCount != UNKNOWN_ROW_COUNT) {
+            throw new IllegalArgumentException("rowCount is negative");
+        }
+        if (columnStatistics == null) {
+            throw new NullPointerException("columnStatistics is null");
+        }
+
+        this.rowCount = rowCount;
+        this.columnStatistics = Collections.unmodifiableMap(new HashMap<>(columnStatistics));
+    }
+
+    public static TableStatistics unknown()
+    {
+        return UNKNOWN;
+    }
+
+    public boolean isRowCountKnown()
+    {
+        return rowCount != UNKNOWN_ROW_COUNT;
+    }
+
+    /**
+     * Returns the number of rows in the table, or UNKNOWN_ROW_COUNT.
+     */
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Returns the statistics of the specified column, which are unknown if the
+     * connector has no statistics for the column.
+     */
+    public ColumnStatistics getColumnStatistics(ColumnHandle columnHandle)
+    {
+        ColumnStatistics statistics = columnStatistics.get(columnHandle);
+        if (statistics == null) {
+            return ColumnStatistics.unknown();
+        }
+        return statistics;
+    }
+
+    public Map<ColumnHandle, ColumnStatistics> getColumnStatistics()
+    {
+        return columnStatistics;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder("TableStatistics{");
+        sb.append("rowCount=").append(rowCount);
+        sb.append(", columnStatistics=").append(columnStatistics);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(rowCount, columnStatistics);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final TableStatistics other = (TableStatistics) obj;
+        return Objects.equals(this.rowCount, other.rowCount) &&
+                Objects.equals(this.columnStatistics, other.columnStatistics);
+    }
+}
@@ -21,6 +21,7 @@ import com.facebook.presto.spi.OutputTableHandle;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableHandle;
+import com.facebook.presto.spi.TableStatistics;
 
 import java.util.Collection;
 import java.util.List;
@@ -112,6 +113,14 @@ public class ClassLoaderSafeConnectorMetadata
         }
     }
 
+    @Override
+    public TableStatistics getTableStatistics(TableHandle tableHandle)
+    {
+        try (ThreadContextClassLoader ignored = new ThreadContextClassLoader(classLoader)) {
+            return delegate.getTableStatistics(tableHandle);
+        }
+    }
+
     @Override
     public TableHandle createTable(ConnectorTableMetadata tableMetadata)
     {